@@ -28,4 +28,23 @@ public interface Discoverer {
    * @throws IOException when an I/O problem occurred
    */
   void discover(URI root, Registry registry) throws IOException;
+
+  /**
+   * Scans a directory below (or equal to) a given root {@link URI} of which the direct
+   * contents are known to have changed, for example, because files were added or
+   * removed. Implementations should rescan as little as possible, but enough to
+   * register all changes that could have been caused by changes to the direct
+   * contents of the given location. The same ordering rules apply as for
+   * {@link #discover(URI, Registry)}.<p>
+   *
+   * The default implementation simply scans the entire root again.
+   *
+   * @param root a root, cannot be {@code null}
+   * @param location a location of a directory below or equal to the root, cannot be {@code null}
+   * @param registry a place to register discoveries, cannot be {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  default void rediscover(URI root, URI location, Registry registry) throws IOException {
+    discover(root, registry);
+  }
 }
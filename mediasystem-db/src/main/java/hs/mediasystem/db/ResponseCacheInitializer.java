@@ -1,6 +1,7 @@
 package hs.mediasystem.db;
 
 import hs.mediasystem.db.base.DatabaseResponseCache;
+import hs.mediasystem.db.core.ResponseCacheEvictor;
 
 import java.net.ResponseCache;
 
@@ -9,6 +10,7 @@ import javax.inject.Inject;
 
 public class ResponseCacheInitializer {
   @Inject private DatabaseResponseCache databaseResponseCache;
+  @Inject private ResponseCacheEvictor responseCacheEvictor;  // Starts evicting cached responses in the background
 
   @PostConstruct
   private void postConstruct() {
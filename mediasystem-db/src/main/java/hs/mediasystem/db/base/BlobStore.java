@@ -0,0 +1,306 @@
+package hs.mediasystem.db.base;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Stores blobs as files, addressed by the SHA-256 hash of their content.<p>
+ *
+ * As a blob's name is determined by its content, blobs are never modified, and
+ * storing the same content twice results in a single file.  Blobs are written to
+ * a temporary file first and then moved into place, so a blob is either complete
+ * or absent, even when the application is terminated while storing it.<p>
+ *
+ * Large blobs are memory mapped when read, so serving them does not copy them to
+ * the heap.
+ */
+@Singleton
+class BlobStore {
+  private static final HexFormat HEX_FORMAT = HexFormat.of();
+  private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+  private static final int MAP_THRESHOLD = 64 * 1024;  // smaller blobs are cheaper to read than to map
+
+  @Inject @Nullable @Named("general.basedir") private String baseDir = ".";
+
+  /**
+   * Stores the given data, unless a blob with the same content was stored before.
+   *
+   * @param data the data to store, cannot be {@code null}
+   * @return the SHA-256 hash of the data which addresses the blob, never {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  byte[] put(byte[] data) throws IOException {
+    byte[] hash = hash(data);
+    Path path = toPath(hash);
+
+    if(touch(path)) {
+      return hash;
+    }
+
+    Files.createDirectories(path.getParent());
+
+    Path tempPath = Files.createTempFile(path.getParent(), "blob", ".tmp");
+
+    try {
+      Files.write(tempPath, data);
+
+      try {
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch(FileAlreadyExistsException e) {
+        touch(path);  // stored concurrently with the same content
+      }
+    }
+    finally {
+      Files.deleteIfExists(tempPath);
+    }
+
+    return hash;
+  }
+
+  /**
+   * Creates a {@link BlobWriter} to store a blob of unknown size while it is being
+   * written, without holding its content in memory.
+   *
+   * @return a {@link BlobWriter}, never {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  BlobWriter createWriter() throws IOException {
+    Path root = root();
+
+    Files.createDirectories(root);
+
+    return new BlobWriter(Files.createTempFile(root, "blob", ".tmp"));  // same file system as the blobs, so it can be moved atomically
+  }
+
+  /**
+   * Returns the content of the blob with the given hash.  The returned buffer is
+   * read-only and may be memory mapped.
+   *
+   * @param hash a SHA-256 hash returned by {@link #put(byte[])}, cannot be {@code null}
+   * @return a read-only {@link ByteBuffer}, or {@code null} if there was no such blob
+   * @throws IOException when an I/O problem occurred
+   */
+  ByteBuffer get(byte[] hash) throws IOException {
+    try(FileChannel channel = FileChannel.open(toPath(hash), StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      if(size >= MAP_THRESHOLD) {
+        return channel.map(MapMode.READ_ONLY, 0, size);  // mapping remains valid after the channel is closed
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate((int)size);
+
+      while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // keep reading until buffer is full
+      }
+
+      return buffer.flip().asReadOnlyBuffer();
+    }
+    catch(NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Deletes the blob with the given hash, if it exists.
+   *
+   * @param hash a SHA-256 hash returned by {@link #put(byte[])}, cannot be {@code null}
+   * @return {@code true} if the blob was deleted, otherwise {@code false}
+   * @throws IOException when an I/O problem occurred, for example when the blob is still mapped on platforms which do not allow deleting mapped files
+   */
+  boolean delete(byte[] hash) throws IOException {
+    return Files.deleteIfExists(toPath(hash));
+  }
+
+  /**
+   * Deletes blobs which are no longer referenced and temporary files which were left
+   * behind, for example when the application was terminated while storing a blob.
+   * Blobs can end up unreferenced when storing their reference failed, or when they
+   * could not be deleted because they were still mapped.<p>
+   *
+   * Only files last modified before the given time are considered, so blobs which
+   * are being stored, and which are not referenced yet, are left alone.  Storing a
+   * blob which already exists updates its modification time.
+   *
+   * @param modifiedBefore an {@link Instant}, cannot be {@code null}
+   * @param isReferenced a {@link Predicate} which tests whether the blob with the given hash is still referenced, cannot be {@code null}
+   * @return the number of files which were deleted
+   * @throws IOException when an I/O problem occurred while listing the files
+   */
+  int sweep(Instant modifiedBefore, Predicate<byte[]> isReferenced) throws IOException {
+    Path root = root();
+
+    if(!Files.isDirectory(root)) {
+      return 0;
+    }
+
+    int count = 0;
+
+    try(Stream<Path> stream = Files.walk(root, 2)) {
+      for(Path path : (Iterable<Path>)stream.filter(Files::isRegularFile)::iterator) {
+        String name = path.getFileName().toString();
+        boolean temporary = name.endsWith(".tmp");
+
+        if(!temporary && !HASH_PATTERN.matcher(name).matches()) {
+          continue;  // not created by this store
+        }
+
+        try {
+          if(Files.getLastModifiedTime(path).toInstant().isBefore(modifiedBefore)
+              && (temporary || !isReferenced.test(HEX_FORMAT.parseHex(name)))
+              && Files.deleteIfExists(path)) {
+            count++;
+          }
+        }
+        catch(IOException e) {
+          // Still mapped or deleted concurrently, any remaining file is tried again on the next sweep
+        }
+      }
+    }
+    catch(UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    return count;
+  }
+
+  /**
+   * Writes a blob to a temporary file, while computing its hash.  The blob is only
+   * stored when {@link #commit()} is called; closing the writer without committing
+   * discards it.
+   */
+  class BlobWriter extends OutputStream {
+    private final Path tempPath;
+    private final OutputStream out;
+    private final MessageDigest digest = createDigest();
+
+    private boolean closed;
+
+    BlobWriter(Path tempPath) throws IOException {
+      this.tempPath = tempPath;
+      this.out = new BufferedOutputStream(Files.newOutputStream(tempPath), 64 * 1024);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if(closed) {
+        throw new IOException("Writer was closed");
+      }
+
+      digest.update(b, off, len);
+      out.write(b, off, len);
+    }
+
+    /**
+     * Stores the blob written so far, unless a blob with the same content was stored
+     * before, and closes this writer.
+     *
+     * @return the SHA-256 hash of the content which addresses the blob, never {@code null}
+     * @throws IOException when an I/O problem occurred
+     */
+    byte[] commit() throws IOException {
+      if(closed) {
+        throw new IOException("Writer was closed");
+      }
+
+      try {
+        out.close();
+
+        byte[] hash = digest.digest();
+        Path path = toPath(hash);
+
+        Files.createDirectories(path.getParent());
+
+        try {
+          Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(FileAlreadyExistsException e) {
+          touch(path);  // stored before with the same content
+        }
+
+        return hash;
+      }
+      finally {
+        close();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(!closed) {
+        closed = true;
+
+        try {
+          out.close();
+        }
+        finally {
+          Files.deleteIfExists(tempPath);
+        }
+      }
+    }
+  }
+
+  private Path toPath(byte[] hash) {
+    String name = HEX_FORMAT.formatHex(hash);
+
+    return root().resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  private static boolean touch(Path path) throws IOException {
+    try {
+      Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+
+      return true;
+    }
+    catch(NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private Path root() {
+    return Path.of(baseDir, "cache", "blobs");
+  }
+
+  private static byte[] hash(byte[] data) {
+    return createDigest().digest(data);
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
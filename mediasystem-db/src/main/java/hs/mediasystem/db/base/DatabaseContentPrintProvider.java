@@ -1,35 +1,54 @@
 package hs.mediasystem.db.base;
 
 import hs.mediasystem.db.contentprints.ContentPrintDatabase;
+import hs.mediasystem.db.contentprints.ContentPrintDatabase.Signature;
 import hs.mediasystem.db.contentprints.ContentPrintRecord;
 import hs.mediasystem.db.core.domain.ContentPrint;
 import hs.mediasystem.db.uris.UriDatabase;
-import hs.mediasystem.db.uris.UriRecord;
 import hs.mediasystem.domain.stream.ContentID;
 import hs.mediasystem.util.AutoReentrantLock;
 import hs.mediasystem.util.AutoReentrantLock.Key;
 import hs.mediasystem.util.MediaHash;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
+import hs.mediasystem.util.exception.Throwables;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.int4.db.core.api.Database;
+import org.int4.dirk.annotations.Opt;
+
 /**
  * Provides {@link ContentPrint}s.<p>
  *
@@ -45,25 +64,54 @@ import javax.inject.Singleton;
  * can be found, its {@link ContentID} remains unchanged.  Similarly, when a directory is
  * modified (with new files for example) but its name remains unchanged, its ContentPrint is
  * updated but the {@link ContentID} is kept the same.<p>
+ *
+ * When {@link ContentPrint}s are requested in bulk, hashes are computed concurrently
+ * on virtual threads.  The number of concurrent hash computations is limited in total
+ * and per device, as hashing a large file involves many seeks which would otherwise
+ * cause a single disk to thrash.<p>
+ *
+ * The in-memory indexes are concurrent maps, so resources which are already known
+ * and were not modified are resolved without taking any locks.  Only linking new
+ * or modified resources to a {@link ContentID} is serialized.<p>
+ *
+ * The links between locations and {@link ContentID}s are kept in a compact
+ * {@link UriIndex}.  The index is saved to a snapshot file in the base directory,
+ * which is used on start up instead of reading all links from the database, as
+ * long as the links in the database were not modified since.
  */
 @Singleton
 public class DatabaseContentPrintProvider {
   private static final Logger LOGGER = Logger.getLogger(DatabaseContentPrintProvider.class.getName());
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Hashing content");
+  private static final Workload PRUNE_WORKLOAD = BackgroundTaskRegistry.createWorkload("Pruning content");
+  private static final ThreadFactory THREAD_FACTORY = Thread.ofVirtual().name("DatabaseContentPrintProvider-hash-", 0).factory();
 
   @Inject private MediaHash mediaHash;
   @Inject private UriDatabase uriDatabase;
   @Inject private ContentPrintDatabase contentPrintDatabase;
-
-  private final AutoReentrantLock lock = new AutoReentrantLock();
+  @Inject private Database database;
+  @Inject @Opt @Named("server.hashing.concurrency") private Long concurrency = 8L;  // Maximum number of concurrent hash computations
+  @Inject @Opt @Named("server.hashing.device-concurrency") private Long deviceConcurrency = 2L;  // Maximum number of concurrent hash computations per device
+  @Inject @Nullable @Named("general.basedir") private String baseDir = ".";  // A snapshot of the uri index is stored under this directory
+  @Inject @Opt @Named("server.pruning.not-seen-days") private Long pruneNotSeenDays = 90L;  // Content not seen for this many days is deleted, including any associated data
+  @Inject @Opt @Named("server.pruning.batch-size") private Long pruneBatchSize = 100L;  // Maximum number of items to delete in a single transaction
+  @Inject @Opt @Named("server.pruning.batch-delay") private Long pruneBatchDelay = 1000L;  // Time in milliseconds in between batches, to give other database users a chance
+  @Inject @Opt @Named("server.pruning.max-items") private Long pruneMaxItems = 10000L;  // Maximum number of items to delete in each (hourly) run
+  @Inject @Opt @Named("server.pruning.dry-run") private Boolean pruneDryRun = false;  // When set, only reports what would be deleted
+
+  private final AutoReentrantLock lock = new AutoReentrantLock();  // guards inserting and linking of content prints
+  private final Map<String, Semaphore> deviceSemaphores = new ConcurrentHashMap<>();
   private final Set<ContentID> seenIds = ConcurrentHashMap.newKeySet();  // contains all id's that have are in database and have been seen recently
-  private final Set<ContentID> markedIds = new HashSet<>();  // contains all id's that have been marked for deletion
-  private final Map<ContentID, ContentPrint> contentPrints = new HashMap<>();
+  private final Set<ContentID> markedIds = new HashSet<>();  // contains all id's that have been marked for deletion, only accessed by the removal thread
+  private final Map<ContentID, ContentPrint> contentPrints = new ConcurrentHashMap<>();
 
-  private Map<String, ContentID> contentIds;
+  private UriIndex uriIndex;
+  private Semaphore concurrencySemaphore;
 
   @PostConstruct
   private void postConstruct() {
-    contentIds = uriDatabase.findAll(UriRecord::uri, r -> new ContentID(r.contentId()));
+    concurrencySemaphore = new Semaphore((int)Math.max(1, concurrency));
+    uriIndex = loadUriIndex();
 
     contentPrintDatabase.forEach(r -> {
       ContentPrint contentPrint = fromRecord(r);
@@ -99,58 +147,131 @@ public class DatabaseContentPrintProvider {
    * @throws IOException when an IO error occurs
    */
   public ContentPrint get(URI location, Long size, Instant lastModificationTime) throws IOException {
-    try(Key key = lock.lock()) {
-      ContentID existingContentId = contentIds.get(location.toString());
-      ContentPrint print = contentPrints.get(existingContentId);
-      Instant modTime = Instant.ofEpochMilli(lastModificationTime.toEpochMilli());  // reduce accuracy for comparison (stored as milliseconds in database)
+    Pending pending = resolve(new Source(location, size, lastModificationTime));
 
-      key.earlyUnlock();
+    if(pending.contentPrint != null) {
+      return pending.contentPrint;
+    }
 
-      if(existingContentId != null) {
-        if(Objects.equals(print.getSize(), size) && print.getLastModificationTime().equals(modTime)) {
-          markSeen(existingContentId);
+    pending.hash = createHash(pending.source.location);
 
-          return print;
-        }
+    store(List.of(pending));
 
-        if(size == null) {  // is it a directory?
+    return pending.contentPrint;
+  }
 
-          /*
-           * For directories, if the name matched, the ContentPrint is always
-           * simply updated, and the same ContentID is kept.  This is because
-           * adding or removing files from a directory will change its last
-           * modification time and hash, but does not affect how it would be
-           * matched.
-           *
-           * Unlike files, directories do not have a specific signature that
-           * needs to be tracked for, for example, watched state.
-           */
+  /**
+   * Gets or creates {@link ContentPrint}s for all the given sources.  This is
+   * equivalent to calling {@link #get(URI, Long, Instant)} for each source, except
+   * that hashes of new or modified resources are computed concurrently (limited
+   * per device), and all resulting changes are stored in a single transaction.<p>
+   *
+   * Sources for which no {@link ContentPrint} could be created, for example due
+   * to IO errors, are absent from the result, and are passed to the given failure
+   * consumer together with the cause.
+   *
+   * @param sources a collection of {@link Source}s, cannot be {@code null}
+   * @param failureConsumer a {@link BiConsumer} which is called for each source for which no {@link ContentPrint} could be created, cannot be {@code null}
+   * @return a map of location to {@link ContentPrint}, never {@code null}
+   */
+  public Map<URI, ContentPrint> getAll(Collection<Source> sources, BiConsumer<Source, Exception> failureConsumer) {
+    List<Pending> pendings = sources.stream().map(this::resolve).toList();
+    List<Pending> unresolved = pendings.stream().filter(p -> p.contentPrint == null).toList();
 
-          markSeen(existingContentId);
+    if(!unresolved.isEmpty()) {
+      hashAll(unresolved);
+      store(unresolved.stream().filter(p -> p.hash != null).toList());
+    }
 
-          return updateDirectory(location, existingContentId, modTime);
-        }
+    Map<URI, ContentPrint> results = new HashMap<>();
+
+    for(Pending pending : pendings) {
+      if(pending.contentPrint != null) {
+        results.put(pending.source.location, pending.contentPrint);
+      }
+      else {
+        failureConsumer.accept(pending.source, pending.failure);
       }
+    }
 
-      /*
-       * There was either no existing content id for the given location, or the size
-       * and/or last modification time did not match with an existing content id
-       * (and it was not a directory in the second case).
-       *
-       * In either case, a new or existing content id will be found, and linked
-       * to the location.
-       *
-       * No attempt will be made to find another location by doing a reverse look-up
-       * using the hash, the location is simply inserted and linked to a new (or
-       * existing) content id.
-       */
+    return results;
+  }
 
-      ContentPrint contentPrint = link(location, size, modTime);
+  /**
+   * Finds an existing {@link ContentPrint} for the given source if it matches
+   * the source exactly, otherwise returns a {@link Pending} which requires a hash
+   * to be computed before it can be stored.<p>
+   *
+   * This does not take any locks.  As a {@link ContentPrint} is always added
+   * before a location is linked to it, a linked location always has a print.<p>
+   *
+   * A concurrent {@link #delete(List, Instant)} may remove a print after it was read
+   * here, but before it was marked as seen.  This is detected by checking the print
+   * is still present after marking it, in which case the source is resolved again
+   * while holding the lock.
+   */
+  private Pending resolve(Source source) {
+    Pending pending = resolve(source, false);
 
-      markSeen(contentPrint.getId());
+    if(pending != null) {
+      return pending;
+    }
+
+    try(Key key = lock.lock()) {
+      return resolve(source, true);
+    }
+  }
+
+  private Pending resolve(Source source, boolean locked) {
+    int id = uriIndex.get(source.location.toString());
+    ContentID existingContentId = id == UriIndex.NONE ? null : new ContentID(id);
+    ContentPrint print = existingContentId == null ? null : contentPrints.get(existingContentId);
+    Instant modTime = Instant.ofEpochMilli(source.lastModificationTime.toEpochMilli());  // reduce accuracy for comparison (stored as milliseconds in database)
+
+    if(print != null) {
+      if(Objects.equals(print.getSize(), source.size) && print.getLastModificationTime().equals(modTime)) {
+        if(!markSeen(existingContentId, print, locked)) {
+          return null;
+        }
+
+        return new Pending(source, modTime, null, print);
+      }
+
+      if(source.size == null) {  // is it a directory?
+
+        /*
+         * For directories, if the name matched, the ContentPrint is always
+         * simply updated, and the same ContentID is kept.  This is because
+         * adding or removing files from a directory will change its last
+         * modification time and hash, but does not affect how it would be
+         * matched.
+         *
+         * Unlike files, directories do not have a specific signature that
+         * needs to be tracked for, for example, watched state.
+         */
+
+        if(!markSeen(existingContentId, print, locked)) {
+          return null;
+        }
 
-      return contentPrint;
+        return new Pending(source, modTime, existingContentId, null);
+      }
     }
+
+    /*
+     * There was either no existing content id for the given location, or the size
+     * and/or last modification time did not match with an existing content id
+     * (and it was not a directory in the second case).
+     *
+     * In either case, a new or existing content id will be found, and linked
+     * to the location.
+     *
+     * No attempt will be made to find another location by doing a reverse look-up
+     * using the hash, the location is simply inserted and linked to a new (or
+     * existing) content id.
+     */
+
+    return new Pending(source, modTime, null, null);
   }
 
   /**
@@ -160,9 +281,22 @@ public class DatabaseContentPrintProvider {
    * @param id an id to mark as seen
    */
   private void markSeen(ContentID id) {
-    try(Key key = lock.lock()) {
-      seenIds.add(id);
-    }
+    seenIds.add(id);
+  }
+
+  /**
+   * Marks the given id as seen, and checks whether its print was not removed concurrently.
+   * When the lock is held, no prints can be removed, and this always succeeds.
+   *
+   * @param id an id to mark as seen
+   * @param print the {@link ContentPrint} which was found for the id
+   * @param locked whether the lock is held
+   * @return {@code true} if the print is still present, otherwise {@code false}
+   */
+  private boolean markSeen(ContentID id, ContentPrint print, boolean locked) {
+    markSeen(id);
+
+    return locked || contentPrints.get(id) == print;
   }
 
   /**
@@ -172,48 +306,62 @@ public class DatabaseContentPrintProvider {
    * data, viewed status, etc. through cascaded deletes.  Removal therefore should be
    * done conservatively.<p>
    *
-   * Policy for now is to first mark items for removal, but only remove them a few
-   * months later.
+   * Policy is to first mark items for removal, but only remove them a few months
+   * later, see {@link #prune()}.
    */
   private void backgroundContentIdRemovalThread() {
     for(;;) {
       try {
         Thread.sleep(Duration.ofMinutes(60).toMillis());
 
-        try(Key key = lock.lock()) {
-          // Create set of ids to mark in database with current time, excluding those already marked or recently seen:
-          Set<ContentID> idsToMark = contentPrints.keySet().stream()
-            .filter(id -> !markedIds.contains(id))
-            .filter(id -> !seenIds.contains(id))
-            .collect(Collectors.toSet());
+        /*
+         * Take the known ids before the ids seen so far, without locking, so ids which
+         * are added in between are only considered in the next round.  Ids which are
+         * seen while doing so either end up in the snapshot, or remain for the next
+         * round:
+         */
 
-          // Create set of ids that are currently marked but were seen:
-          Set<ContentID> idsToUnmark = markedIds.stream()
-            .filter(seenIds::contains)
-            .collect(Collectors.toSet());
+        Set<ContentID> knownIds = new HashSet<>(contentPrints.keySet());
+        Set<ContentID> seen = new HashSet<>(seenIds);
 
-          seenIds.clear();
+        seenIds.removeAll(seen);
 
-          // Safe to unlock, code beyond this should only be accessing markedIds, which is not used anywhere else:
-          key.earlyUnlock();
+        // Create set of ids to mark in database with current time, excluding those already marked or recently seen:
+        Set<ContentID> idsToMark = knownIds.stream()
+          .filter(id -> !markedIds.contains(id))
+          .filter(id -> !seen.contains(id))
+          .collect(Collectors.toSet());
 
-          if(!idsToMark.isEmpty()) {
-            LOGGER.fine("Marking " + idsToMark.size() + " items as NOT seen recently: " + idsToMark);
+        // Create set of ids that are currently marked but were seen:
+        Set<ContentID> idsToUnmark = markedIds.stream()
+          .filter(seen::contains)
+          .collect(Collectors.toSet());
 
-            contentPrintDatabase.markSeen(idsToMark);
-            markedIds.addAll(idsToMark);
-          }
+        if(!idsToMark.isEmpty()) {
+          LOGGER.fine("Marking " + idsToMark.size() + " items as NOT seen recently: " + idsToMark);
+
+          contentPrintDatabase.markSeen(idsToMark);
+          markedIds.addAll(idsToMark);
+        }
 
-          if(!idsToUnmark.isEmpty()) {
-            LOGGER.fine("Unmarking " + idsToUnmark.size() + " items: " + idsToUnmark);
+        if(!idsToUnmark.isEmpty()) {
+          LOGGER.fine("Unmarking " + idsToUnmark.size() + " items: " + idsToUnmark);
 
-            contentPrintDatabase.unmarkSeen(idsToUnmark);
-            markedIds.removeAll(idsToUnmark);
-          }
+          contentPrintDatabase.unmarkSeen(idsToUnmark);
+          markedIds.removeAll(idsToUnmark);
+        }
 
-          // TODO contentPrintStore.pruneNotSeenSince("3 months");
-          // ...delete from ContentPrints etc.
-          // Might be better to only prune on startup
+        try {
+          prune();
+        }
+        catch(RuntimeException e) {
+          LOGGER.warning("Pruning content failed: " + Throwables.formatAsOneLine(e));
+        }
+
+        if(uriIndex.isModified()) {
+          try(Key key = lock.lock()) {
+            saveUriIndex(uriIndex);
+          }
         }
       }
       catch(InterruptedException e) {
@@ -222,36 +370,253 @@ public class DatabaseContentPrintProvider {
     }
   }
 
-  private ContentPrint updateDirectory(URI location, ContentID contentId, Instant lastModificationTime) throws IOException {
-    byte[] hash = createHash(location);
+  /**
+   * Deletes content which has not been seen for a configurable number of days,
+   * in small batches with a delay in between, so the cascaded deletes never hold
+   * locks on the database for long.  The number of items deleted in a single run
+   * is limited, any remaining items are deleted in later runs.<p>
+   *
+   * In dry-run mode, nothing is deleted, but the items which would have been deleted
+   * are logged.
+   *
+   * @return a {@link PruneResult}, never {@code null}
+   * @throws InterruptedException when interrupted
+   */
+  PruneResult prune() throws InterruptedException {
+    Instant cutOff = Instant.now().minus(Duration.ofDays(pruneNotSeenDays));
+    int batchSize = (int)Math.max(1, pruneBatchSize);
+    int afterId = 0;
+    int count = 0;
+    long reclaimedBytes = 0;
+
+    PRUNE_WORKLOAD.start();
+
+    try {
+      while(count < pruneMaxItems) {
+        int limit = (int)Math.min(batchSize, pruneMaxItems - count);
+        List<Integer> ids = contentPrintDatabase.findNotSeenSince(cutOff, afterId, limit);
+
+        if(ids.isEmpty()) {
+          break;
+        }
+
+        afterId = ids.getLast();
+
+        long bytes = contentPrintDatabase.estimateSize(ids);
+
+        if(pruneDryRun) {
+          LOGGER.info("Dry-run: would delete " + ids.size() + " items not seen since " + cutOff + " (" + bytes / 1024 + " kB): " + ids);
+
+          count += ids.size();
+          reclaimedBytes += bytes;
+
+          continue;
+        }
+
+        int deletedCount = delete(ids, cutOff);
 
+        count += deletedCount;
+        reclaimedBytes += deletedCount == ids.size() ? bytes : bytes * deletedCount / ids.size();  // estimate when some were seen in the mean time
+
+        if(ids.size() < limit) {
+          break;  // no more items
+        }
+
+        Thread.sleep(pruneBatchDelay);
+      }
+    }
+    finally {
+      PRUNE_WORKLOAD.complete();
+    }
+
+    if(count > 0) {
+      PRUNE_WORKLOAD.addStatistic(pruneDryRun ? "dryRunItems" : "items", count);
+      PRUNE_WORKLOAD.addStatistic(pruneDryRun ? "dryRunBytes" : "bytes", reclaimedBytes);
+
+      LOGGER.info((pruneDryRun ? "Dry-run: would have pruned " : "Pruned ") + count + " items not seen since " + cutOff + ", reclaiming about " + reclaimedBytes / 1024 / 1024 + " MB");
+    }
+
+    return new PruneResult(count, reclaimedBytes);
+  }
+
+  /**
+   * Deletes the given ids, unless they were seen in the mean time.  The ids are first
+   * removed from memory while holding the lock, so they can't be resolved anymore,
+   * and any new requests for the same content will have to wait for the lock and
+   * then create a new {@link ContentPrint}.
+   */
+  private int delete(List<Integer> ids, Instant cutOff) {
     try(Key key = lock.lock()) {
-      ContentPrintRecord record = contentPrintDatabase.update(contentId, null, lastModificationTime, hash);
+      Map<Integer, ContentPrint> removedPrints = new HashMap<>();
+
+      for(int id : ids) {
+        ContentPrint print = contentPrints.remove(new ContentID(id));
+
+        if(print != null) {
+          removedPrints.put(id, print);
+        }
+      }
+
+      List<Integer> idsToDelete = ids.stream().filter(id -> !seenIds.contains(new ContentID(id))).toList();  // excludes ids seen since they were last marked
+      Map<Integer, List<String>> urisById = new HashMap<>();
+
+      for(int id : idsToDelete) {
+        urisById.put(id, uriDatabase.findUris(id));
+      }
+
+      List<Integer> deletedIds = idsToDelete.isEmpty() ? List.of() : contentPrintDatabase.delete(idsToDelete, cutOff);
 
-      ContentPrint contentPrint = fromRecord(record);
+      for(int id : deletedIds) {
+        markedIds.remove(new ContentID(id));
+        removedPrints.remove(id);
+        urisById.get(id).forEach(uriIndex::remove);
+      }
+
+      removedPrints.forEach((id, print) -> contentPrints.put(print.getId(), print));  // restore prints which were not deleted
 
-      // No need to update contentIds or the uriStore as the name and id remains unchanged.
-      contentPrints.put(contentId, contentPrint);
+      LOGGER.fine("Deleted " + deletedIds.size() + " items not seen since " + cutOff + ": " + deletedIds);
 
-      return contentPrint;
+      return deletedIds.size();
     }
   }
 
-  private ContentPrint link(URI location, Long size, Instant lastModificationTime) throws IOException {
-    byte[] hash = createHash(location);
+  private void hashAll(List<Pending> pendings) {
+    Map<Path, Semaphore> semaphoresByParent = new HashMap<>();
+    long startNanos = System.nanoTime();
+    long startBytesRead = mediaHash.getBytesRead();
+
+    WORKLOAD.start(pendings.size());
+
+    try(ExecutorService executor = Executors.newThreadPerTaskExecutor(THREAD_FACTORY)) {
+      for(Pending pending : pendings) {
+        Path path = Paths.get(pending.source.location);
+        Semaphore deviceSemaphore = semaphoresByParent.computeIfAbsent(path.getParent(), this::getDeviceSemaphore);
+
+        executor.execute(() -> {
+          try {
+            pending.hash = createHash(path, deviceSemaphore);
+          }
+          catch(IOException | InterruptedException e) {
+            pending.failure = e;
+          }
+          finally {
+            WORKLOAD.complete();
+          }
+        });
+      }
+    }
+
+    long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    long bytesRead = mediaHash.getBytesRead() - startBytesRead;
+
+    WORKLOAD.addStatistic("files", pendings.size());
+    WORKLOAD.addStatistic("bytesRead", bytesRead);
+    WORKLOAD.setStatistic("filesPerSecond", pendings.size() * 1000L / millis);
+    WORKLOAD.setStatistic("bytesPerSecond", bytesRead * 1000L / millis);
+
+    LOGGER.fine("Hashed " + pendings.size() + " items (" + bytesRead / 1024 / 1024 + " MB) in " + millis + " ms");
+  }
+
+  /**
+   * Stores the given pendings, which must all have a hash, in a single transaction,
+   * and updates their {@link ContentPrint}s.
+   */
+  private void store(List<Pending> pendings) {
+    if(pendings.isEmpty()) {
+      return;
+    }
 
     try(Key key = lock.lock()) {
-      ContentPrintRecord contentPrintRecord = contentPrintDatabase.findOrAdd(size, lastModificationTime, hash);
+      database.accept(tx -> {
+        List<Pending> links = new ArrayList<>();
 
-      uriDatabase.store(location.toString(), contentPrintRecord.id());
+        for(Pending pending : pendings) {
+          if(pending.directoryId != null) {
+            pending.contentPrint = fromRecord(contentPrintDatabase.update(pending.directoryId, null, pending.modTime, pending.hash));
+          }
+          else {
+            links.add(pending);
+          }
+        }
 
-      ContentPrint contentPrint = fromRecord(contentPrintRecord);
+        List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(links.stream().map(p -> new Signature(p.source.size, p.modTime, p.hash)).toList());
+        Map<String, Integer> contentIds = new LinkedHashMap<>();
 
-      contentIds.put(location.toString(), contentPrint.getId());
-      contentPrints.put(contentPrint.getId(), contentPrint);
+        for(int i = 0; i < links.size(); i++) {
+          Pending pending = links.get(i);
+          ContentPrintRecord record = records.get(i);
 
-      return contentPrint;
+          contentIds.put(pending.source.location.toString(), record.id());
+          pending.contentPrint = fromRecord(record);
+        }
+
+        uriDatabase.store(contentIds);
+      });
+
+      for(Pending pending : pendings) {
+        ContentID id = pending.contentPrint.getId();
+
+        contentPrints.put(id, pending.contentPrint);  // Must be added before linking, as lock free readers expect linked ids to have a print
+
+        if(pending.directoryId == null) {  // No need to update the uri index for directories as the name and id remains unchanged.
+          uriIndex.put(pending.source.location.toString(), id.asInt());
+          markSeen(id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the uri index from its snapshot file if it is up to date, otherwise
+   * builds it from the database (and saves a new snapshot).
+   */
+  private UriIndex loadUriIndex() {
+    long startNanos = System.nanoTime();
+    Path file = getUriIndexFile();
+
+    try {
+      UriIndex index = UriIndex.load(file, uriDatabase.computeStamp());
+
+      if(index != null) {
+        LOGGER.fine("Loaded " + index.size() + " uri's from " + file + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+
+        return index;
+      }
+    }
+    catch(IOException e) {
+      LOGGER.warning("Ignoring unreadable uri index " + file + ": " + Throwables.formatAsOneLine(e));
     }
+
+    UriIndex.Builder builder = new UriIndex.Builder();
+
+    uriDatabase.forEach(r -> builder.add(r.uri(), r.contentId()));
+
+    UriIndex index = builder.build();
+
+    LOGGER.fine("Loaded " + index.size() + " uri's from database in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms");
+
+    saveUriIndex(index);
+
+    return index;
+  }
+
+  /**
+   * Saves the uri index to its snapshot file.  Must be called while holding the lock,
+   * or before any content prints are stored, so no links are modified while saving.
+   */
+  private void saveUriIndex(UriIndex index) {
+    Path file = getUriIndexFile();
+
+    try {
+      index.save(file, uriDatabase.computeStamp());
+    }
+    catch(IOException e) {
+      LOGGER.warning("Unable to save uri index " + file + ": " + Throwables.formatAsOneLine(e));
+    }
+  }
+
+  private Path getUriIndexFile() {
+    return Path.of(baseDir, "cache", "uri-index.dat");
   }
 
   private static ContentPrint fromRecord(ContentPrintRecord contentPrintRecord) {
@@ -267,10 +632,96 @@ public class DatabaseContentPrintProvider {
   private byte[] createHash(URI location) throws IOException {
     Path path = Paths.get(location);
 
-    if(Files.isRegularFile(path)) {
-      return mediaHash.computeFileHash(path);
+    try {
+      return createHash(path, getDeviceSemaphore(path.getParent()));
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException("Interrupted while creating content hash for: " + location);
+    }
+  }
+
+  private byte[] createHash(Path path, Semaphore deviceSemaphore) throws IOException, InterruptedException {
+    concurrencySemaphore.acquire();
+
+    try {
+      deviceSemaphore.acquire();
+
+      try {
+        if(Files.isRegularFile(path)) {
+          return mediaHash.computeFileHash(path);
+        }
+
+        return mediaHash.computeDirectoryHash(path);
+      }
+      finally {
+        deviceSemaphore.release();
+      }
+    }
+    finally {
+      concurrencySemaphore.release();
+    }
+  }
+
+  /**
+   * Returns the semaphore limiting concurrent hashing on the device (file store)
+   * on which the given directory resides.  If the device cannot be determined,
+   * the semaphore of an unknown device is returned.
+   */
+  private Semaphore getDeviceSemaphore(Path directory) {
+    String deviceKey;
+
+    try {
+      deviceKey = Files.getFileStore(directory).name();
+    }
+    catch(IOException | RuntimeException e) {
+      deviceKey = "";
+    }
+
+    return deviceSemaphores.computeIfAbsent(deviceKey, k -> new Semaphore((int)Math.max(1, deviceConcurrency)));
+  }
+
+  /**
+   * A resource for which a {@link ContentPrint} is requested.
+   *
+   * @param location a location, cannot be {@code null}
+   * @param size a size, can be {@code null} for directories but can't be negative
+   * @param lastModificationTime an {@link Instant}, cannot be {@code null}
+   */
+  public record Source(URI location, Long size, Instant lastModificationTime) {
+    public Source {
+      Objects.requireNonNull(location, "location");
+      Objects.requireNonNull(lastModificationTime, "lastModificationTime");
+
+      if(size != null && size < 0) {
+        throw new IllegalArgumentException("size cannot be negative: " + size);
+      }
     }
+  }
 
-    return mediaHash.computeDirectoryHash(path);
+  /**
+   * The result of pruning.
+   *
+   * @param count the number of items deleted, or which would have been deleted in dry-run mode
+   * @param reclaimedBytes the estimated number of bytes reclaimed
+   */
+  record PruneResult(int count, long reclaimedBytes) {}
+
+  private static class Pending {
+    final Source source;
+    final Instant modTime;
+    final ContentID directoryId;  // set when the signature of an existing directory should be updated
+
+    byte[] hash;
+    ContentPrint contentPrint;
+    Exception failure;  // set when the hash could not be created
+
+    Pending(Source source, Instant modTime, ContentID directoryId, ContentPrint contentPrint) {
+      this.source = source;
+      this.modTime = modTime;
+      this.directoryId = directoryId;
+      this.contentPrint = contentPrint;
+    }
   }
 }
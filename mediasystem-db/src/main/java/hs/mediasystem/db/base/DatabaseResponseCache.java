@@ -1,12 +1,16 @@
 package hs.mediasystem.db.base;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import hs.mediasystem.util.PriorityRateLimiter;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
 import hs.mediasystem.util.exception.Throwables;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.CacheRequest;
@@ -18,11 +22,17 @@ import java.net.URLConnection;
 import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,7 +52,19 @@ import javax.inject.Singleton;
  *
  * "!safe-url": A URL for identifying and logging requests stripped off sensitive data (passwords, API key's)<p>
  *
- * "!key": A logical key to store in the cache with the response.
+ * "!key": A logical key to store in the cache with the response.<p>
+ *
+ * Recently used responses are kept in memory, with their headers already decoded,
+ * in front of the database.  When multiple threads request the same resource while
+ * it is being fetched, only one of them fetches it, and the others wait for and
+ * share its result.<p>
+ *
+ * Fetched responses are streamed to the caller while they are written to the store,
+ * so a large response is never held in memory as a whole.  The response is stored
+ * once the caller has read its body, and waiting threads are served from the store.
+ * Callers must therefore always close the body of a response.  When the caller stops
+ * reading the body for a while, or the response could not be stored, waiting threads
+ * fetch the resource themselves instead.
  */
 @Singleton
 public class DatabaseResponseCache extends ResponseCache {
@@ -73,9 +95,20 @@ public class DatabaseResponseCache extends ResponseCache {
   private static final List<String> DEFAULT_NULL = Arrays.asList((String)null);
   private static final Map<String, PriorityRateLimiter> RATE_LIMITERS = new HashMap<>();
   private static final ThreadLocal<CacheMode> CACHE_MODE = ThreadLocal.withInitial(() -> CacheMode.DEFAULT);
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Caching responses");
+  private static final long MAX_MEMORY_BYTES = 32 * 1024 * 1024;
+  private static final long FETCH_WAIT_TIME_OUT = 60;  // seconds to wait for a fetch by another thread
+  private static final long STALL_TIME_OUT = 5;  // seconds a fetch by another thread can make no progress before fetching separately
 
   @Inject private ImageDatabase store;
 
+  private final Cache<URI, CachedResponse> memoryCache = Caffeine.newBuilder()
+    .maximumWeight(MAX_MEMORY_BYTES)
+    .weigher((URI uri, CachedResponse response) -> response.weight())
+    .build();
+
+  private final Map<URI, Fetch> fetches = new ConcurrentHashMap<>();  // fetches in progress
+
   /**
    * Allows per thread control to force the use of the cache, ignoring the <code>!time-out</code> set
    * on a request.
@@ -96,27 +129,103 @@ public class DatabaseResponseCache extends ResponseCache {
       return null;
     }
 
-    ImageRecord image = store.findImageByURI(uri).orElse(null);
     int timeOut = Integer.parseInt(requestHeaders.getOrDefault("!time-out", DEFAULT_TIME_OUT).get(0));
     String safeURL = Optional.ofNullable(requestHeaders.getOrDefault("!safe-url", DEFAULT_NULL).get(0)).orElse(uri.toString());
-    String key = requestHeaders.getOrDefault("!key", DEFAULT_NULL).get(0);
     CacheMode cacheMode = CACHE_MODE.get();
+    CachedResponse cachedResponse = find(uri, safeURL);
 
-    if(image != null && (cacheMode != CacheMode.DEFAULT || image.creationTime().plusSeconds(timeOut).isAfter(LocalDateTime.now()))) {
+    if(cachedResponse != null && isUsable(cachedResponse, cacheMode, timeOut)) {
       // fresh enough or cache use forced, return it
-      CacheResponse response = decodeCacheResponse(image.image(), safeURL);
+      LOGGER.fine("Retrieved from Cache: " + safeURL);
+
+      return cachedResponse.toCacheResponse();
+    }
+
+    // Either entry was missing, wasn't fresh enough, or it couldn't be decoded.
+    // Fetch from original source, unless another thread is fetching it already:
+    Fetch fetch = new Fetch();
+    Fetch ongoingFetch = fetches.putIfAbsent(uri, fetch);
+
+    if(ongoingFetch != null) {
+      CachedResponse response = ongoingFetch.owner == Thread.currentThread() ? null : await(uri, ongoingFetch, safeURL);  // never wait for a body this thread still has to read
 
       if(response != null) {
-        return response;
+        WORKLOAD.addStatistic("coalescedFetches", 1);
+
+        return response.toCacheResponse();
       }
 
-      image = null;  // Ensures that if decoding failed, it isn't tried again later.
+      LOGGER.fine("Fetching separately from ongoing fetch: " + safeURL);
+
+      fetch = new Fetch();  // not shared with other threads
     }
 
-    // Either entry was missing, wasn't fresh enough, or it couldn't be decoded.
-    // Fetch from original source:
+    // A fetch by another thread may have completed just before checking for ongoing fetches:
+    CachedResponse fetchedResponse = memoryCache.getIfPresent(uri);
+
+    if(fetchedResponse != null && isUsable(fetchedResponse, cacheMode, timeOut)) {
+      completeFetch(uri, fetch, fetchedResponse, null);
+
+      WORKLOAD.addStatistic("coalescedFetches", 1);
+
+      return fetchedResponse.toCacheResponse();
+    }
+
+    try {
+      return fetch(uri, requestHeaders, safeURL, cacheMode, cachedResponse, fetch);
+    }
+    catch(IOException | RuntimeException e) {
+      completeFetch(uri, fetch, null, e);
+
+      throw e;
+    }
+  }
+
+  private static boolean isUsable(CachedResponse cachedResponse, CacheMode cacheMode, int timeOut) {
+    return cacheMode != CacheMode.DEFAULT || cachedResponse.creationTime().plusSeconds(timeOut).isAfter(LocalDateTime.now());
+  }
+
+  /**
+   * Finds a cached response, first in memory, then in the database.
+   */
+  private CachedResponse find(URI uri, String safeURL) {
+    CachedResponse cachedResponse = memoryCache.getIfPresent(uri);
+
+    if(cachedResponse != null) {
+      store.markAccessed(uri);
+
+      WORKLOAD.addStatistic("memoryHits", 1);
+
+      return cachedResponse;
+    }
+
+    ImageRecord image = store.findImageByURI(uri).orElse(null);
+
+    if(image == null) {
+      return null;
+    }
+
+    cachedResponse = decodeCacheResponse(image.creationTime(), readData(image, safeURL), safeURL);
+
+    if(cachedResponse != null) {
+      cache(uri, cachedResponse);
+
+      WORKLOAD.addStatistic("databaseHits", 1);
+    }
+
+    return cachedResponse;
+  }
+
+  /**
+   * Fetches a response from its original source.  The given fetch is completed
+   * with the response once it is available to other threads, which for a successful
+   * response is only after its body has been read and stored.
+   */
+  private CacheResponse fetch(URI uri, Map<String, List<String>> requestHeaders, String safeURL, CacheMode cacheMode, CachedResponse cachedResponse, Fetch fetch) throws IOException {
     LOGGER.fine("Direct fetch (" + cacheMode + "): " + safeURL);
 
+    WORKLOAD.addStatistic("fetches", 1);
+
     PriorityRateLimiter rateLimiter = determineRateLimiter(requestHeaders.get("!rate-limit"));
 
     if(rateLimiter != null) {
@@ -131,59 +240,156 @@ public class DatabaseResponseCache extends ResponseCache {
     }
 
     URLConnection conn = uri.toURL().openConnection();
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ByteArrayOutputStream headerBuf = new ByteArrayOutputStream();
 
     // Prevent infinite loop:
     conn.setUseCaches(false);
 
-    Map<String, List<String>> modifiedHeaderFields = new HashMap<>(conn.getHeaderFields());
+    Map<String, List<String>> headers = conn.getHeaderFields();
+    byte[] prefix = encodePrefix(headers);
+    InputStream is = conn.getInputStream();
+
+    if(conn instanceof HttpURLConnection huc && huc.getResponseCode() != 200) {
+      try(is) {
+        if(cachedResponse != null) {
+          // If unsuccessful, for whatever reason, and there is an (expired) cached response, return that:
+          LOGGER.warning("Direct fetch failed, falling back to cache: " + safeURL);
+
+          completeFetch(uri, fetch, cachedResponse, null);
+
+          return cachedResponse.toCacheResponse();
+        }
+
+        CachedResponse response = new CachedResponse(LocalDateTime.now(), headers, ByteBuffer.wrap(is.readAllBytes()));
+
+        completeFetch(uri, fetch, response, null);
+
+        return response.toCacheResponse();
+      }
+    }
+
+    // Store the result while the caller reads it, if it was successful:
+    InputStream body = new TeeInputStream(is, createWriter(uri, requestHeaders.getOrDefault("!key", DEFAULT_NULL).get(0), prefix, safeURL), uri, safeURL, fetch);
+
+    fetch.progressed();  // waiting threads now depend on the caller reading the body
+
+    return new CacheResponse() {
+      @Override
+      public Map<String, List<String>> getHeaders() {
+        return headers;
+      }
+
+      @Override
+      public InputStream getBody() {
+        return body;
+      }
+    };
+  }
+
+  /**
+   * Creates a writer to store a response, with the ID and headers already written.
+   */
+  private ResponseWriter createWriter(URI uri, String key, byte[] prefix, String safeURL) {
+    ResponseWriter writer = store.createWriter(uri, key);
+
+    try {
+      writer.write(prefix);
+
+      return writer;
+    }
+    catch(IOException e) {
+      // Ignore, if it can't be stored, proceed still
+      LOGGER.warning("Storing response in cache failed for: " + safeURL + ": " + Throwables.formatAsOneLine(e));
+
+      closeQuietly(writer);
+
+      return null;
+    }
+  }
+
+  private static byte[] encodePrefix(Map<String, List<String>> headers) throws IOException {
+    ByteArrayOutputStream headerBuf = new ByteArrayOutputStream();
+    Map<String, List<String>> modifiedHeaderFields = new HashMap<>(headers);
 
     // Serializing null is not allowed (which contains the request type), replace with empty string:
     modifiedHeaderFields.put("", modifiedHeaderFields.remove(null));
 
     OBJECT_MAPPER.writeValue(headerBuf, modifiedHeaderFields);
 
-    baos.write(ByteBuffer.allocate(8).putInt(ID).putInt(headerBuf.size()).array());
-    headerBuf.writeTo(baos);
+    ByteArrayOutputStream prefix = new ByteArrayOutputStream(8 + headerBuf.size());
 
-    try(InputStream is = conn.getInputStream()) {
-      is.transferTo(baos);
+    prefix.write(ByteBuffer.allocate(8).putInt(ID).putInt(headerBuf.size()).array());
+    headerBuf.writeTo(prefix);
+
+    return prefix.toByteArray();
+  }
+
+  /**
+   * Completes the given fetch.  A {@code null} response without a cause indicates the
+   * response was fetched but could not be shared, in which case waiting threads fetch
+   * the resource themselves.
+   */
+  private void completeFetch(URI uri, Fetch fetch, CachedResponse response, Throwable cause) {
+    fetches.remove(uri, fetch);
+
+    if(cause == null) {
+      fetch.future.complete(response);
+    }
+    else {
+      fetch.future.completeExceptionally(cause);
+    }
+  }
+
+  /*
+   * Memory mapped responses are not kept in memory; they are served from the page
+   * cache already, and keeping them mapped prevents deleting their blobs on some
+   * platforms.
+   */
+  private void cache(URI uri, CachedResponse response) {
+    if(!response.body().isDirect()) {
+      memoryCache.put(uri, response);
+    }
+  }
+
+  /**
+   * Waits for a fetch by another thread.  Returns {@code null} when the response could
+   * not be shared, or when the fetch stalled or took too long, in which case the caller
+   * should fetch the resource itself.
+   */
+  private CachedResponse await(URI uri, Fetch fetch, String safeURL) throws IOException {
+    LOGGER.fine("Waiting for ongoing fetch: " + safeURL);
 
-      byte[] buf = baos.toByteArray();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(FETCH_WAIT_TIME_OUT);
 
-      if(!(conn instanceof HttpURLConnection huc) || huc.getResponseCode() == 200) {
+    try {
+      for(;;) {
         try {
-          // Store the result, if it was successful:
-          store.store(uri, key, buf);
-        }
-        catch(Exception e) {
-          // Ignore, if it can't be stored, proceed still
-          LOGGER.warning("Storing response in cache failed for: " + safeURL + ": " + Throwables.formatAsOneLine(e));
+          return fetch.future.get(STALL_TIME_OUT, TimeUnit.SECONDS);
         }
-      }
-      else if(image != null) {
-        // If unsuccessful, for whatever reason, and there is an (expired) cached response, return that:
-        LOGGER.warning("Direct fetch failed, falling back to cache: " + safeURL);
-
-        CacheResponse response = decodeCacheResponse(image.image(), safeURL);
+        catch(TimeoutException e) {
+          if(fetch.isStalled() || System.nanoTime() - deadline > 0) {
+            fetches.remove(uri, fetch);  // the body of the fetched response is not being read, allow fetching again
 
-        if(response != null) {
-          return response;
+            return null;
+          }
         }
       }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();  // Restore flag
 
-      return new CacheResponse() {
-        @Override
-        public Map<String, List<String>> getHeaders() {
-          return conn.getHeaderFields();
-        }
+      throw new IOException("IO was interrupted", e);  // Abort operation
+    }
+    catch(ExecutionException e) {
+      throw new IOException("Fetch by another thread failed for: " + safeURL, e.getCause());
+    }
+  }
 
-        @Override
-        public InputStream getBody() {
-          return new ByteArrayInputStream(buf, 8 + headerBuf.size(), buf.length - 8 - headerBuf.size());
-        }
-      };
+  private static void closeQuietly(ResponseWriter writer) {
+    try {
+      writer.close();
+    }
+    catch(IOException e) {
+      LOGGER.warning("Unable to discard partially stored response: " + Throwables.formatAsOneLine(e));
     }
   }
 
@@ -201,25 +407,60 @@ public class DatabaseResponseCache extends ResponseCache {
     });
   }
 
-  private static CacheResponse decodeCacheResponse(byte[] data, String safeURL) {
+  private ByteBuffer readData(ImageRecord image, String safeURL) {
     try {
-      ByteBuffer bb = ByteBuffer.wrap(data, 0, 8);
+      ByteBuffer data = store.readData(image);
+
+      if(data == null) {
+        LOGGER.warning("Cache entry data was missing for: " + safeURL);
+      }
+
+      return data;
+    }
+    catch(IOException e) {
+      LOGGER.warning("Unable to read cache entry data for: " + safeURL + ": " + Throwables.formatAsOneLine(e));
+
+      return null;
+    }
+  }
+
+  private static CachedResponse decodeCacheResponse(LocalDateTime creationTime, ByteBuffer data, String safeURL) {
+    if(data == null) {
+      return null;
+    }
 
-      if(bb.getInt() != ID) {
+    try {
+      if(data.getInt(0) != ID) {
         LOGGER.warning("Cache entry was invalid (old entry, should not occur anymore after a while?) for: " + safeURL);
 
         return null;
       }
 
-      int size = bb.getInt();
+      int size = data.getInt(4);
 
       @SuppressWarnings("unchecked")
-      Map<String, List<String>> headers = OBJECT_MAPPER.readValue(new ByteArrayInputStream(data, 8, size), Map.class);
-
-      LOGGER.fine("Retrieved from Cache: " + safeURL);
+      Map<String, List<String>> headers = OBJECT_MAPPER.readValue(new ByteBufferInputStream(data.slice(8, size)), Map.class);
 
       headers.put(null, headers.remove(""));
 
+      return new CachedResponse(creationTime, Collections.unmodifiableMap(headers), data.slice(8 + size, data.limit() - 8 - size));
+    }
+    catch(Exception e) {
+      LOGGER.log(Level.WARNING, "Exception while decoding cache entry for: " + safeURL, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * A decoded response, which can be shared by multiple callers.
+   *
+   * @param creationTime the time the response was fetched, cannot be {@code null}
+   * @param headers an unmodifiable map of headers, cannot be {@code null}
+   * @param body a {@link ByteBuffer} containing the body, cannot be {@code null}
+   */
+  private record CachedResponse(LocalDateTime creationTime, Map<String, List<String>> headers, ByteBuffer body) {
+    CacheResponse toCacheResponse() {
       return new CacheResponse() {
         @Override
         public Map<String, List<String>> getHeaders() {
@@ -228,14 +469,255 @@ public class DatabaseResponseCache extends ResponseCache {
 
         @Override
         public InputStream getBody() {
-          return new ByteArrayInputStream(data, 8 + size, data.length - 8 - size);
+          return new ByteBufferInputStream(body.duplicate());  // each caller gets its own position
         }
       };
     }
-    catch(Exception e) {
-      LOGGER.log(Level.WARNING, "Exception while decoding cache entry for: " + safeURL, e);
 
-      return null;
+    int weight() {
+      return body.remaining() + 1024;  // rough estimate for the headers
+    }
+  }
+
+  /**
+   * A fetch in progress, which other threads requesting the same resource can wait for.
+   */
+  private static class Fetch {
+    final CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+    final Thread owner = Thread.currentThread();
+
+    private volatile long lastProgressNanos;  // 0 until the body is passed to the caller
+
+    void progressed() {
+      lastProgressNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns whether the body of the response was not read for a while.  While the
+     * response is being requested, the fetch never stalls, as any delays are then not
+     * caused by the caller.
+     */
+    boolean isStalled() {
+      long nanos = lastProgressNanos;
+
+      return nanos != 0 && System.nanoTime() - nanos > TimeUnit.SECONDS.toNanos(STALL_TIME_OUT);
+    }
+  }
+
+  /**
+   * Reads from a {@link ByteBuffer} without copying it first, so memory mapped
+   * cache entries are streamed directly from the page cache.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      Objects.checkFromIndexSize(off, len, b.length);
+
+      if(len == 0) {
+        return 0;
+      }
+
+      if(!buffer.hasRemaining()) {
+        return -1;
+      }
+
+      int count = Math.min(len, buffer.remaining());
+
+      buffer.get(b, off, count);
+
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+
+      buffer.position(buffer.position() + count);
+
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /**
+   * Passes the body of a fetched response to the caller, while writing it to the
+   * store.  The response is stored once the body was read completely.  When the
+   * caller closes the stream early, the remainder is still read, so the response
+   * is stored and can be shared with any waiting threads.
+   */
+  private class TeeInputStream extends FilterInputStream {
+    private final URI uri;
+    private final String safeURL;
+    private final Fetch fetch;
+    private final byte[] single = new byte[1];
+
+    private ResponseWriter writer;  // null when storing failed
+    private boolean done;
+
+    TeeInputStream(InputStream in, ResponseWriter writer, URI uri, String safeURL, Fetch fetch) {
+      super(in);
+
+      this.writer = writer;
+      this.uri = uri;
+      this.safeURL = safeURL;
+      this.fetch = fetch;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int count;
+
+      while((count = read(single, 0, 1)) == 0) {
+        // keep reading until a byte is available or end of stream is reached
+      }
+
+      return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if(done) {
+        return -1;
+      }
+
+      int count;
+
+      try {
+        count = in.read(b, off, len);
+      }
+      catch(IOException | RuntimeException e) {
+        done = true;
+
+        discardWriter();
+        completeFetch(uri, fetch, null, e);
+
+        throw e;
+      }
+
+      fetch.progressed();
+
+      if(count == -1) {
+        finish();
+      }
+      else if(writer != null) {
+        try {
+          writer.write(b, off, count);
+        }
+        catch(IOException e) {
+          // Ignore, if it can't be stored, proceed still
+          LOGGER.warning("Storing response in cache failed for: " + safeURL + ": " + Throwables.formatAsOneLine(e));
+
+          discardWriter();
+        }
+      }
+
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      byte[] buffer = new byte[(int)Math.min(8192, Math.max(0, n))];  // skipped data must be stored as well
+      long remaining = n;
+
+      while(remaining > 0) {
+        int count = read(buffer, 0, (int)Math.min(buffer.length, remaining));
+
+        if(count < 0) {
+          break;
+        }
+
+        remaining -= count;
+      }
+
+      return n - Math.max(0, remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      // not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if(!done && writer == null) {
+          done = true;
+
+          completeFetch(uri, fetch, null, null);  // response was not stored, let waiting threads fetch it themselves
+        }
+
+        byte[] buffer = new byte[8192];
+
+        while(!done) {
+          read(buffer, 0, buffer.length);
+        }
+      }
+      finally {
+        super.close();
+      }
+    }
+
+    private void finish() {
+      done = true;
+
+      if(writer == null) {
+        completeFetch(uri, fetch, null, null);  // response was not stored, let waiting threads fetch it themselves
+
+        return;
+      }
+
+      try {
+        ImageRecord image = writer.commit();
+        CachedResponse response = decodeCacheResponse(image.creationTime(), store.readData(image), safeURL);
+
+        if(response == null) {
+          throw new IOException("Stored response could not be read");
+        }
+
+        cache(uri, response);
+        completeFetch(uri, fetch, response, null);
+      }
+      catch(Exception e) {
+        LOGGER.warning("Storing response in cache failed for: " + safeURL + ": " + Throwables.formatAsOneLine(e));
+
+        completeFetch(uri, fetch, null, null);  // the fetch itself succeeded, let waiting threads fetch it themselves
+      }
+      finally {
+        writer = null;
+      }
+    }
+
+    private void discardWriter() {
+      if(writer != null) {
+        closeQuietly(writer);
+
+        writer = null;
+      }
     }
   }
 
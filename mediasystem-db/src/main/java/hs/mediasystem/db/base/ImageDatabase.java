@@ -1,28 +1,85 @@
 package hs.mediasystem.db.base;
 
+import hs.mediasystem.util.concurrent.NamedThreadFactory;
+import hs.mediasystem.util.exception.Throwables;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import org.int4.db.core.api.Database;
+import org.int4.db.core.api.DatabaseException;
 import org.int4.db.core.api.Transaction;
 import org.int4.db.core.reflect.Reflector;
 
+/**
+ * Stores cached responses.  Responses of 8 kB or more are stored in a {@link BlobStore},
+ * and the database only keeps their metadata.<p>
+ *
+ * Finding a response does not write to the database.  Access times are collected
+ * instead, and periodically updated in a single transaction.<p>
+ *
+ * Blobs which are no longer referenced, because storing or deleting a response only
+ * partially succeeded, are swept from the {@link BlobStore} on start up and daily.
+ */
 @Singleton
 public class ImageDatabase {
-  private static final Reflector<ImageRecord> ALL = Reflector.of(ImageRecord.class).withNames("url", "logical_key", "creationtime", "accesstime", "image");
+  private static final Logger LOGGER = System.getLogger(ImageDatabase.class.getName());
+  private static final Reflector<ImageRecord> ALL = Reflector.of(ImageRecord.class).withNames("url", "logical_key", "creationtime", "accesstime", "image", "blob_hash", "size");
+  private static final Reflector<ImageMetadata> METADATA = Reflector.of(ImageMetadata.class).withNames("url", "size", "accesstime", "blob_hash");
+  private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ImageDatabase", true));
+  private static final int INLINE_LIMIT = 8 * 1024;
+  private static final Duration SWEEP_GRACE_PERIOD = Duration.ofHours(1);  // leaves blobs alone which are being stored, but not referenced yet
 
   @Inject private Database database;
+  @Inject private BlobStore blobStore;
+
+  private final Map<String, LocalDateTime> accessTimes = new ConcurrentHashMap<>();  // access times not yet stored, by url
+
+  @PostConstruct
+  private void postConstruct() {
+    EXECUTOR.scheduleWithFixedDelay(this::storeAccessTimes, 10, 10, TimeUnit.SECONDS);
+    EXECUTOR.scheduleWithFixedDelay(this::sweepBlobs, 1, 24 * 60, TimeUnit.MINUTES);
+  }
+
+  public byte[] findByURI(URI uri) throws IOException {
+    ImageRecord image = findImageByURI(uri).orElse(null);
+    ByteBuffer data = image == null ? null : readData(image);
 
-  public byte[] findByURI(URI uri) {
-    return findImageByURI(uri).map(ImageRecord::image).orElse(null);
+    if(data == null) {
+      return null;
+    }
+
+    byte[] bytes = new byte[data.remaining()];
+
+    data.get(bytes);
+
+    return bytes;
   }
 
   public Optional<ImageRecord> findImageByURI(URI uri) {
-    try(Transaction tx = database.beginTransaction()) {
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
       String uriString = uri.toString();
       ImageRecord image = tx."SELECT \{ALL} FROM images WHERE url = \{uriString}"
         .map(ALL)
@@ -32,27 +89,205 @@ public class ImageDatabase {
         return Optional.empty();
       }
 
-      image = image.withAccessTime(LocalDateTime.now());
-
-      tx."UPDATE images SET accesstime = \{image.accessTime()} WHERE url = \{uriString}".execute();
-      tx.commit();
+      accessTimes.put(uriString, LocalDateTime.now());
 
       return Optional.of(image);
     }
   }
 
-  public void store(URI uri, String key, byte[] data) {
+  /**
+   * Records an access of the given url, for responses which were found without
+   * calling {@link #findImageByURI(URI)}.
+   *
+   * @param uri a {@link URI}, cannot be {@code null}
+   */
+  public void markAccessed(URI uri) {
+    accessTimes.put(uri.toString(), LocalDateTime.now());
+  }
+
+  /**
+   * Reads the data of the given record, either from the record itself or from
+   * the {@link BlobStore}.  The returned buffer is read-only.
+   *
+   * @param image an {@link ImageRecord}, cannot be {@code null}
+   * @return a {@link ByteBuffer}, or {@code null} if the data is missing
+   * @throws IOException when an I/O problem occurred
+   */
+  public ByteBuffer readData(ImageRecord image) throws IOException {
+    if(image.image() != null) {
+      return ByteBuffer.wrap(image.image()).asReadOnlyBuffer();
+    }
+
+    return blobStore.get(image.blobHash());
+  }
+
+  /**
+   * Creates a {@link ResponseWriter} which stores a response while it is being
+   * written, without holding large responses in memory.
+   *
+   * @param uri a {@link URI}, cannot be {@code null}
+   * @param key a logical key, can be {@code null}
+   * @return a {@link ResponseWriter}, never {@code null}
+   */
+  public ResponseWriter createWriter(URI uri, String key) {
+    return new ResponseWriter(blobStore, INLINE_LIMIT, (image, blobHash, size) -> storeRecord(uri, key, image, blobHash, size));
+  }
+
+  private ImageRecord storeRecord(URI uri, String key, byte[] image, byte[] blobHash, long size) {
+    String uriString = uri.toString();
+    ImageRecord record = ImageRecord.of(uriString, key, image, blobHash, size);
+    byte[] oldBlobHash;
+
     try(Transaction tx = database.beginTransaction()) {
-      String uriString = uri.toString();
+      oldBlobHash = tx."SELECT blob_hash FROM images WHERE url = \{uriString}"
+        .asBytes()
+        .get();
 
       tx."""
         INSERT INTO images (\{ALL})
-          VALUES (\{ImageRecord.of(uriString, key, data)})
+          VALUES (\{record})
           ON CONFLICT (url)
-          DO UPDATE SET logical_key = EXCLUDED.logical_key, creationtime = EXCLUDED.creationtime, image = EXCLUDED.image
+          DO UPDATE SET logical_key = EXCLUDED.logical_key, creationtime = EXCLUDED.creationtime, image = EXCLUDED.image, blob_hash = EXCLUDED.blob_hash, size = EXCLUDED.size
       """.execute();
 
       tx.commit();
     }
+
+    if(oldBlobHash != null && !Arrays.equals(oldBlobHash, blobHash)) {
+      deleteUnreferencedBlobs(List.of(oldBlobHash));
+    }
+
+    return record;
+  }
+
+  /**
+   * Returns the total size of all cached responses.
+   *
+   * @return the total size in bytes
+   */
+  public long totalSize() {
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
+      return tx."SELECT COALESCE(SUM(size), 0) FROM images".asLong().get();
+    }
+  }
+
+  /**
+   * Finds cached responses in order of their access time, least recently accessed
+   * first.  Use the last result as starting point for the next call to page through
+   * all cached responses.
+   *
+   * @param after an {@link ImageMetadata} returned earlier to continue after, or {@code null} to start with the least recently accessed response
+   * @param limit the maximum number of responses to return
+   * @return a list of {@link ImageMetadata}, never {@code null}
+   */
+  public List<ImageMetadata> findLeastRecentlyAccessed(ImageMetadata after, int limit) {
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
+      if(after == null) {
+        return tx."SELECT \{METADATA} FROM images ORDER BY accesstime, url FETCH FIRST \{limit} ROWS ONLY"
+          .map(METADATA)
+          .toList();
+      }
+
+      return tx."""
+        SELECT \{METADATA} FROM images WHERE accesstime > \{after.accessTime()} OR (accesstime = \{after.accessTime()} AND url > \{after.url()})
+          ORDER BY accesstime, url FETCH FIRST \{limit} ROWS ONLY
+      """
+        .map(METADATA)
+        .toList();
+    }
+  }
+
+  /**
+   * Deletes the given cached responses, unless they were accessed or stored again
+   * since their metadata was read.  Blobs which are no longer referenced after the
+   * deletion are deleted as well.
+   *
+   * @param entries a list of {@link ImageMetadata}, cannot be {@code null}
+   * @return the entries which were deleted, never {@code null}
+   */
+  public List<ImageMetadata> delete(List<ImageMetadata> entries) {
+    List<ImageMetadata> deletedEntries = new ArrayList<>();
+
+    try(Transaction tx = database.beginTransaction()) {
+      for(ImageMetadata entry : entries) {
+        if(accessTimes.containsKey(entry.url())) {
+          continue;  // accessed recently, but not yet stored
+        }
+
+        if(tx."DELETE FROM images WHERE url = \{entry.url()} AND accesstime = \{entry.accessTime()} AND size = \{entry.size()}".executeUpdate() > 0) {
+          deletedEntries.add(entry);
+        }
+      }
+
+      tx.commit();
+    }
+
+    deleteUnreferencedBlobs(deletedEntries.stream().map(ImageMetadata::blobHash).filter(Objects::nonNull).toList());
+
+    return deletedEntries;
+  }
+
+  /*
+   * A blob which is stored again for a new record while it is being deleted here
+   * will be missing; the record is then treated as a cache miss and replaced.
+   */
+  private void deleteUnreferencedBlobs(List<byte[]> blobHashes) {
+    for(byte[] blobHash : blobHashes) {
+      if(isReferenced(blobHash)) {
+        continue;  // still referenced by another record with the same content
+      }
+
+      try {
+        blobStore.delete(blobHash);
+      }
+      catch(IOException e) {
+        LOGGER.log(Level.WARNING, "Unable to delete unreferenced blob " + HexFormat.of().formatHex(blobHash) + ": " + Throwables.formatAsOneLine(e));
+      }
+    }
+  }
+
+  private boolean isReferenced(byte[] blobHash) {
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
+      return tx."SELECT COUNT(*) FROM images WHERE blob_hash = \{blobHash}".asLong().get() > 0;
+    }
+  }
+
+  private void sweepBlobs() {
+    try {
+      int count = blobStore.sweep(Instant.now().minus(SWEEP_GRACE_PERIOD), this::isReferenced);
+
+      LOGGER.log(Level.DEBUG, "Swept " + count + " unreferenced blobs and temporary files");
+    }
+    catch(IOException | DatabaseException e) {
+      LOGGER.log(Level.WARNING, "Unable to sweep unreferenced blobs: " + Throwables.formatAsOneLine(e));
+    }
+  }
+
+  private void storeAccessTimes() {
+    if(accessTimes.isEmpty()) {
+      return;
+    }
+
+    Map<String, LocalDateTime> copiedAccessTimes = new HashMap<>(accessTimes);
+
+    try(Transaction tx = database.beginTransaction()) {
+      for(Map.Entry<String, LocalDateTime> entry : copiedAccessTimes.entrySet()) {
+        tx."UPDATE images SET accesstime = \{entry.getValue()} WHERE url = \{entry.getKey()}".execute();
+      }
+
+      tx.commit();
+
+      /*
+       * Entries are only removed after committing, as delete relies on them to skip
+       * responses of which the new access time is not yet visible in the database:
+       */
+
+      copiedAccessTimes.forEach(accessTimes::remove);  // only removes entries which were not accessed again since copying
+
+      LOGGER.log(Level.DEBUG, "Stored access times of " + copiedAccessTimes.size() + " images");
+    }
+    catch(DatabaseException e) {
+      LOGGER.log(Level.WARNING, "Unable to store access times of " + copiedAccessTimes.size() + " images: " + Throwables.formatAsOneLine(e));
+    }
   }
 }
@@ -0,0 +1,13 @@
+package hs.mediasystem.db.base;
+
+import java.time.LocalDateTime;
+
+/**
+ * The metadata of a cached response, without its data.
+ *
+ * @param url the url of the response, cannot be {@code null}
+ * @param size the size of the response in bytes
+ * @param accessTime the time the response was last accessed, cannot be {@code null}
+ * @param blobHash the hash of the blob containing the data of the response, or {@code null} if stored inline
+ */
+public record ImageMetadata(String url, long size, LocalDateTime accessTime, byte[] blobHash) {}
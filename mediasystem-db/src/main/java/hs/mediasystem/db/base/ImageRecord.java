@@ -2,19 +2,23 @@ package hs.mediasystem.db.base;
 
 import java.time.LocalDateTime;
 
-public record ImageRecord(String url, String key, LocalDateTime creationTime, LocalDateTime accessTime, byte[] image) {
+/**
+ * A cached response.  Small responses are stored in the record itself, while
+ * larger ones are stored in a {@link BlobStore} and only referred to by hash.
+ *
+ * @param url the url of the response, cannot be {@code null}
+ * @param key a logical key, can be {@code null}
+ * @param creationTime the time the response was stored, cannot be {@code null}
+ * @param accessTime the time the response was last accessed, cannot be {@code null}
+ * @param image the data of the response, or {@code null} if stored as a blob
+ * @param blobHash the hash of the blob containing the data of the response, or {@code null} if stored in the record
+ * @param size the size of the data of the response in bytes
+ */
+public record ImageRecord(String url, String key, LocalDateTime creationTime, LocalDateTime accessTime, byte[] image, byte[] blobHash, long size) {
 
-  public static ImageRecord of(String url, String key, byte[] data) {
+  public static ImageRecord of(String url, String key, byte[] image, byte[] blobHash, long size) {
     LocalDateTime now = LocalDateTime.now();
 
-    return new ImageRecord(url, key, now, now, data);
-  }
-
-  public ImageRecord with(String key, LocalDateTime creationTime, byte[] image) {
-    return new ImageRecord(url, key, creationTime, accessTime, image);
-  }
-
-  public ImageRecord withAccessTime(LocalDateTime accessTime) {
-    return new ImageRecord(url, key, creationTime, accessTime, image);
+    return new ImageRecord(url, key, now, now, image, blobHash, size);
   }
 }
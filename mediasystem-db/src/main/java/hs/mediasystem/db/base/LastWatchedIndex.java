@@ -0,0 +1,69 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Index of streams ordered by the time they were last watched, most recent first.
+ * Finding the most recently watched streams only costs time proportional to the
+ * number of streams returned (and the logarithm of the size of the index), so it
+ * can be paged through lazily.
+ */
+class LastWatchedIndex {
+  private static final Comparator<WatchedStream> ORDER = Comparator.comparing(WatchedStream::lastWatchedTime).reversed()
+    .thenComparing(ws -> ws.contentId().asInt());  // makes order total, as required by the index
+
+  private final NavigableSet<WatchedStream> watchedStreams = new TreeSet<>(ORDER);
+  private final Map<ContentID, WatchedStream> watchedStreamsByContentId = new HashMap<>();
+
+  /**
+   * Sets the last watched time of the given stream, replacing any time it had.
+   *
+   * @param contentId a {@link ContentID}, cannot be {@code null}
+   * @param lastWatchedTime the last time the stream was watched, cannot be {@code null}
+   */
+  synchronized void put(ContentID contentId, Instant lastWatchedTime) {
+    WatchedStream watchedStream = new WatchedStream(Objects.requireNonNull(contentId, "contentId"), Objects.requireNonNull(lastWatchedTime, "lastWatchedTime"));
+    WatchedStream oldWatchedStream = watchedStreamsByContentId.put(contentId, watchedStream);
+
+    if(oldWatchedStream != null) {
+      watchedStreams.remove(oldWatchedStream);
+    }
+
+    watchedStreams.add(watchedStream);
+  }
+
+  /**
+   * Finds streams in order of their last watched time, most recent first.
+   *
+   * @param after a {@link WatchedStream} returned earlier to continue after, or {@code null} to start with the most recently watched stream
+   * @param maximum the maximum number of streams to return, cannot be negative
+   * @return a list of {@link WatchedStream}s, never {@code null} or contains {@code null}s, but can be empty
+   */
+  synchronized List<WatchedStream> find(WatchedStream after, int maximum) {
+    List<WatchedStream> list = new ArrayList<>(Math.min(maximum, watchedStreams.size()));
+
+    for(WatchedStream watchedStream : after == null ? watchedStreams : watchedStreams.tailSet(after, false)) {
+      if(list.size() >= maximum) {
+        break;
+      }
+
+      list.add(watchedStream);
+    }
+
+    return list;
+  }
+
+  synchronized int size() {
+    return watchedStreams.size();
+  }
+}
@@ -0,0 +1,97 @@
+package hs.mediasystem.db.base;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stores a response of unknown size while it is being written.<p>
+ *
+ * Data is kept in memory until it reaches the inline limit, after which all data
+ * is written to a blob in the {@link BlobStore} instead, so large responses are
+ * never held in memory as a whole.  The response is only stored when {@link #commit()}
+ * is called; closing the writer without committing discards it.
+ */
+public class ResponseWriter extends OutputStream {
+  private final BlobStore blobStore;
+  private final int inlineLimit;
+  private final Committer committer;
+
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private BlobStore.BlobWriter blobWriter;
+  private long size;
+  private boolean closed;
+
+  ResponseWriter(BlobStore blobStore, int inlineLimit, Committer committer) {
+    this.blobStore = blobStore;
+    this.inlineLimit = inlineLimit;
+    this.committer = committer;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte)b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if(closed) {
+      throw new IOException("Writer was closed");
+    }
+
+    if(blobWriter == null && size + len >= inlineLimit) {
+      blobWriter = blobStore.createWriter();
+
+      buffer.writeTo(blobWriter);
+      buffer = null;
+    }
+
+    if(blobWriter == null) {
+      buffer.write(b, off, len);
+    }
+    else {
+      blobWriter.write(b, off, len);
+    }
+
+    size += len;
+  }
+
+  /**
+   * Stores the response written so far, and closes this writer.
+   *
+   * @return the stored {@link ImageRecord}, never {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  public ImageRecord commit() throws IOException {
+    if(closed) {
+      throw new IOException("Writer was closed");
+    }
+
+    try {
+      if(blobWriter == null) {
+        return committer.commit(buffer.toByteArray(), null, size);
+      }
+
+      return committer.commit(null, blobWriter.commit(), size);  // blob is stored before the record, so the record never refers to a missing blob
+    }
+    finally {
+      close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(!closed) {
+      closed = true;
+      buffer = null;
+
+      if(blobWriter != null) {
+        blobWriter.close();
+      }
+    }
+  }
+
+  interface Committer {
+    ImageRecord commit(byte[] image, byte[] blobHash, long size) throws IOException;
+  }
+}
@@ -2,22 +2,20 @@ package hs.mediasystem.db.base;
 
 import hs.mediasystem.domain.stream.ContentID;
 
-import java.util.Map;
+import java.time.Instant;
+import java.util.Objects;
 
-public class StreamState {
-  private final Map<String, Object> properties;
-  private final ContentID contentId;
-
-  public StreamState(ContentID contentId, Map<String, Object> properties) {
-    this.contentId = contentId;
-    this.properties = properties;
-  }
-
-  public ContentID getContentID() {
-    return contentId;
-  }
-
-  public Map<String, Object> getProperties() {
-    return properties;
+/**
+ * The state of a stream.
+ *
+ * @param contentId a {@link ContentID}, cannot be {@code null}
+ * @param watched whether the stream was watched
+ * @param lastWatchedTime the last time the stream was watched, can be {@code null}
+ * @param resumePosition the resume position (in seconds), or 0 if there is none
+ * @param totalDuration the total duration (in seconds), or -1 if unknown
+ */
+public record StreamState(ContentID contentId, boolean watched, Instant lastWatchedTime, int resumePosition, int totalDuration) {
+  public StreamState {
+    Objects.requireNonNull(contentId, "contentId");
   }
 }
@@ -2,58 +2,161 @@ package hs.mediasystem.db.base;
 
 import hs.mediasystem.domain.stream.ContentID;
 import hs.mediasystem.util.concurrent.NamedThreadFactory;
+import hs.mediasystem.util.exception.Throwables;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.Executor;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.int4.dirk.annotations.Opt;
+
+/**
+ * Provides the states of all streams from memory.<p>
+ *
+ * Changes are stored asynchronously.  Changes made shortly after each other, like
+ * the updates of the resume position during playback, are collected and stored
+ * together in a single transaction, with one row per stream.  Any changes which
+ * were not stored yet are stored when the application shuts down.
+ */
 @Singleton
 public class StreamStateProvider {
-  private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new NamedThreadFactory("StreamStateProvider", true));
+  private static final Logger LOGGER = System.getLogger(StreamStateProvider.class.getName());
+  private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("StreamStateProvider", true));
 
   @Inject private StreamStateStore store;
+  @Inject @Opt @Named("server.stream-state.store-delay") private Long storeDelay = 2000L;  // Time in milliseconds changes are collected before storing them together
+
+  private final StreamStateTable table = new StreamStateTable();
 
-  private final Map<ContentID, StreamState> streamStates = new HashMap<>();
+  private boolean storeScheduled;  // only access while holding the lock
 
   @PostConstruct
   private void postConstruct() {
-    store.forEach(ss -> streamStates.put(ss.getContentID(), ss));
+    store.forEach(table::load);
+
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flushOnShutdown, "StreamStateProvider-shutdown"));
   }
 
-  @SuppressWarnings("unchecked")
-  public synchronized <T> T getOrDefault(ContentID contentId, String key, T defaultValue) {
-    if(!streamStates.containsKey(contentId)) {  // Prevents modifying map if key didn't exist
-      return defaultValue;
-    }
+  public synchronized boolean isWatched(ContentID contentId) {
+    return table.isWatched(contentId.asInt());
+  }
 
-    StreamState streamState = getStreamState(contentId);  // Modifies map if key didn't exist
+  public synchronized void setWatched(ContentID contentId, boolean watched) {
+    table.setWatched(contentId.asInt(), watched);
 
-    return (T)streamState.getProperties().getOrDefault(key, defaultValue);
+    scheduleStore();
   }
 
-  public synchronized void put(ContentID contentId, String key, Object value) {
-    StreamState streamState = getStreamState(contentId);
+  /**
+   * Returns the last time a stream was watched.
+   *
+   * @param contentId a {@link ContentID}, cannot be {@code null}
+   * @return a time, or {@code null} if the stream was never watched
+   */
+  public synchronized Instant getLastWatchedTime(ContentID contentId) {
+    return table.getLastWatchedTime(contentId.asInt());
+  }
+
+  public synchronized void setLastWatchedTime(ContentID contentId, Instant lastWatchedTime) {
+    table.setLastWatchedTime(contentId.asInt(), lastWatchedTime);
 
-    streamState.getProperties().put(key, value);
+    scheduleStore();
+  }
 
-    // Make a copy to save, as the entry can be updated asynchronously while this one is being saved:
-    StreamState copy = new StreamState(streamState.getContentID(), new HashMap<>(streamState.getProperties()));
+  public synchronized int getResumePosition(ContentID contentId) {
+    return table.getResumePosition(contentId.asInt());
+  }
+
+  public synchronized void setResumePosition(ContentID contentId, int resumePosition) {
+    table.setResumePosition(contentId.asInt(), resumePosition);
+
+    scheduleStore();
+  }
+
+  public synchronized int getTotalDuration(ContentID contentId) {
+    return table.getTotalDuration(contentId.asInt());
+  }
+
+  public synchronized void setTotalDuration(ContentID contentId, int totalDuration) {
+    table.setTotalDuration(contentId.asInt(), totalDuration);
+
+    scheduleStore();
+  }
 
-    EXECUTOR.execute(() -> store.store(copy));
+  /**
+   * Calls the given consumer with the state of each stream which has one.
+   *
+   * @param consumer a {@link Consumer} of {@link StreamState}s, cannot be {@code null}
+   */
+  public synchronized void forEach(Consumer<StreamState> consumer) {
+    table.forEach(consumer);
   }
 
-  public synchronized <R> R map(Function<Stream<StreamState>, R> converter) {
-    return converter.apply(streamStates.values().stream());
+  /**
+   * Stores any changes immediately, and waits until this completes.  Stores
+   * are done on the executor, so they never overlap.
+   *
+   * @throws InterruptedException when interrupted
+   * @throws ExecutionException when storing the changes failed unexpectedly
+   * @throws TimeoutException when storing did not complete in time
+   */
+  void flush() throws InterruptedException, ExecutionException, TimeoutException {
+    EXECUTOR.submit(this::storeChanges).get(30, TimeUnit.SECONDS);
   }
 
-  private StreamState getStreamState(ContentID contentId) {
-    return streamStates.computeIfAbsent(contentId, k -> new StreamState(contentId, new HashMap<>()));
+  private void flushOnShutdown() {
+    try {
+      flush();
+    }
+    catch(InterruptedException | ExecutionException | TimeoutException e) {
+      LOGGER.log(Level.WARNING, "Unable to store changed stream states on shutdown: " + Throwables.formatAsOneLine(e));
+    }
+  }
+
+  // Only call while holding the lock:
+  private void scheduleStore() {
+    if(!storeScheduled) {
+      storeScheduled = true;
+
+      EXECUTOR.schedule(this::storeChanges, storeDelay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void storeChanges() {
+    List<StreamState> streamStates;
+
+    synchronized(this) {
+      storeScheduled = false;
+      streamStates = table.takeChanges();
+    }
+
+    try {
+      store.storeAll(streamStates);
+
+      LOGGER.log(Level.DEBUG, "Stored " + streamStates.size() + " changed stream states");
+    }
+    catch(RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Unable to store " + streamStates.size() + " changed stream states, will retry: " + Throwables.formatAsOneLine(e));
+
+      synchronized(this) {
+        for(StreamState streamState : streamStates) {
+          table.markChanged(streamState.contentId().asInt());  // stores the latest state, which may have changed again since
+        }
+
+        scheduleStore();
+      }
+    }
   }
 }
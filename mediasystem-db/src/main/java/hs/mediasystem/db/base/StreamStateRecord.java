@@ -1,3 +1,5 @@
 package hs.mediasystem.db.base;
 
-public record StreamStateRecord(int contentId, byte[] json) {}
+import java.time.Instant;
+
+public record StreamStateRecord(int contentId, boolean watched, Instant lastWatchedTime, int resumePosition, int totalDuration) {}
@@ -2,26 +2,83 @@ package hs.mediasystem.db.base;
 
 import hs.mediasystem.domain.stream.ContentID;
 
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
 import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
 public class StreamStateService {
-  private static final String WATCHED_KEY = "watched";
-  private static final String LAST_WATCHED_TIME_KEY = "last-watched-time";
-  private static final String RESUME_POSITION_KEY = "resume-position";
-  private static final String TOTAL_DURATION_KEY = "total-duration";
+  private static final Logger LOGGER = System.getLogger(StreamStateService.class.getName());
 
   @Inject private StreamStateProvider streamStateProvider;
 
+  private final List<Consumer<ContentID>> subscribers = new CopyOnWriteArrayList<>();
+  private final Map<ContentID, Long> versions = new ConcurrentHashMap<>();  // only contains streams whose state changed since startup
+  private final LastWatchedIndex lastWatchedIndex = new LastWatchedIndex();
+
+  @PostConstruct
+  private void postConstruct() {
+    streamStateProvider.forEach(ss -> {
+      if(ss.lastWatchedTime() != null) {
+        lastWatchedIndex.put(ss.contentId(), ss.lastWatchedTime());
+      }
+    });
+  }
+
+  /**
+   * Subscribes to changes of stream states.  The subscriber is called with the
+   * {@link ContentID} of the stream whose state changed, on the thread which
+   * changed it.
+   *
+   * @param subscriber a {@link Consumer} of {@link ContentID}s, cannot be {@code null}
+   */
+  public void subscribe(Consumer<ContentID> subscriber) {
+    subscribers.add(Objects.requireNonNull(subscriber, "subscriber"));
+  }
+
+  /**
+   * Returns a version of the state of the given stream, which changes whenever
+   * any part of its state changes.  This can be used to cheaply check whether
+   * information derived from the state is still current.
+   *
+   * @param contentId a {@link ContentID}, cannot be {@code null}
+   * @return a version
+   */
+  public long getVersion(ContentID contentId) {
+    return versions.getOrDefault(contentId, 0L);
+  }
+
+  /**
+   * Finds streams which were watched before in order of their last watched time,
+   * most recent first.  Use the last result as starting point for the next call to
+   * page through all watched streams.
+   *
+   * @param after a {@link WatchedStream} returned earlier to continue after, or {@code null} to start with the most recently watched stream
+   * @param maximum the maximum number of streams to return, cannot be negative
+   * @return a list of {@link WatchedStream}s, never {@code null} or contains {@code null}s, but can be empty
+   */
+  public List<WatchedStream> findWatchedStreams(WatchedStream after, int maximum) {
+    return lastWatchedIndex.find(after, maximum);
+  }
+
   public boolean isWatched(ContentID contentId) {
-    return streamStateProvider.getOrDefault(contentId, WATCHED_KEY, false);
+    return streamStateProvider.isWatched(contentId);
   }
 
   public void setWatched(ContentID contentId, boolean watched) {
-    streamStateProvider.put(contentId, WATCHED_KEY, watched);
+    streamStateProvider.setWatched(contentId, watched);
+
+    changed(contentId);
   }
 
   /**
@@ -31,13 +88,14 @@ public class StreamStateService {
    * @return a time, or null if not available
    */
   public Instant getLastWatchedTime(ContentID contentId) {
-    String text = streamStateProvider.getOrDefault(contentId, LAST_WATCHED_TIME_KEY, null);
-
-    return text == null ? null : Instant.parse(text.endsWith("Z") ? text : text + "Z");
+    return streamStateProvider.getLastWatchedTime(contentId);
   }
 
   public void setLastWatchedTime(ContentID contentId, Instant lastWatchedTime) {
-    streamStateProvider.put(contentId, LAST_WATCHED_TIME_KEY, lastWatchedTime.toString());
+    streamStateProvider.setLastWatchedTime(contentId, lastWatchedTime);
+    lastWatchedIndex.put(contentId, lastWatchedTime);
+
+    changed(contentId);
   }
 
   /**
@@ -47,11 +105,13 @@ public class StreamStateService {
    * @return the resume position (in seconds), or 0 if there was none
    */
   public int getResumePosition(ContentID contentId) {
-    return streamStateProvider.getOrDefault(contentId, RESUME_POSITION_KEY, 0);
+    return streamStateProvider.getResumePosition(contentId);
   }
 
   public void setResumePosition(ContentID contentId, int resumePosition) {
-    streamStateProvider.put(contentId, RESUME_POSITION_KEY, resumePosition);
+    streamStateProvider.setResumePosition(contentId, resumePosition);
+
+    changed(contentId);
   }
 
   /**
@@ -61,10 +121,25 @@ public class StreamStateService {
    * @return the total duration (in seconds), or -1 if unknown
    */
   public int getTotalDuration(ContentID contentId) {
-    return streamStateProvider.getOrDefault(contentId, TOTAL_DURATION_KEY, -1);
+    return streamStateProvider.getTotalDuration(contentId);
   }
 
   public void setTotalDuration(ContentID contentId, int totalDuration) {
-    streamStateProvider.put(contentId, TOTAL_DURATION_KEY, totalDuration);
+    streamStateProvider.setTotalDuration(contentId, totalDuration);
+
+    changed(contentId);
+  }
+
+  private void changed(ContentID contentId) {
+    versions.merge(contentId, 1L, Long::sum);
+
+    for(Consumer<ContentID> subscriber : subscribers) {
+      try {
+        subscriber.accept(contentId);
+      }
+      catch(Exception e) {
+        LOGGER.log(Level.WARNING, "Subscriber " + subscriber + " failed to process change of: " + contentId, e);
+      }
+    }
   }
 }
@@ -1,15 +1,11 @@
 package hs.mediasystem.db.base;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-
 import hs.mediasystem.domain.stream.ContentID;
 
-import java.io.IOException;
-import java.util.Map;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.inject.Inject;
@@ -19,64 +15,72 @@ import org.int4.db.core.api.Database;
 import org.int4.db.core.api.Transaction;
 import org.int4.db.core.reflect.Reflector;
 
+import static hs.mediasystem.db.sql.Templates.in;
+import static java.lang.StringTemplate.RAW;
+
 @Singleton
 public class StreamStateStore {
   private static final Reflector<StreamStateRecord> ALL = Reflector.of(StreamStateRecord.class);
 
   @Inject private Database database;
 
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
-    .registerModule(new JavaTimeModule())
-    .registerModule(new Jdk8Module())
-    .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-
   public void forEach(Consumer<StreamState> consumer) {
     try(Transaction tx = database.beginReadOnlyTransaction()) {
-      tx."SELECT \{ALL} FROM streamstate"
+      tx."SELECT \{ALL} FROM stream_states"
         .map(ALL)
         .map(StreamStateStore::toStreamState)
         .consume(consumer::accept);
     }
   }
 
-  public void store(StreamState streamState) {
-    StreamStateRecord r = toStreamStateRecord(streamState);
+  /**
+   * Stores the given stream states in a single transaction, replacing any states
+   * stored earlier for the same streams.<p>
+   *
+   * States of streams of which the content was deleted in the mean time are skipped,
+   * as they can't be stored anymore and would otherwise prevent storing all other
+   * states.
+   *
+   * @param streamStates a {@link Collection} of {@link StreamState}s, cannot be {@code null}
+   */
+  public void storeAll(Collection<StreamState> streamStates) {
+    if(streamStates.isEmpty()) {
+      return;
+    }
 
     try(Transaction tx = database.beginTransaction()) {
-      StreamStateRecord existingRecord = tx."SELECT \{ALL} FROM streamstate WHERE content_id = \{r.contentId()}"
-        .map(ALL)
-        .get();
+      List<Integer> contentIds = streamStates.stream().map(StreamState::contentId).map(ContentID::asInt).toList();
+      Set<Integer> existingContentIds = new HashSet<>(tx.process(StringTemplate.combine(RAW."SELECT id FROM content_prints WHERE id IN (", in(contentIds), RAW.")")).asInt().toList());
+      List<StreamStateRecord> records = streamStates.stream()
+        .filter(ss -> existingContentIds.contains(ss.contentId().asInt()))
+        .map(StreamStateStore::toStreamStateRecord)
+        .toList();
 
-      if(existingRecord == null) {
-        tx."INSERT INTO streamstate (\{ALL}) VALUES (\{r})".execute();
-      }
-      else {
-        tx."UPDATE streamstate SET \{ALL.entries(r)} WHERE content_id = \{r.contentId()}".execute();
+      if(records.isEmpty()) {
+        return;
       }
 
+      tx."""
+        INSERT INTO stream_states (\{ALL}) VALUES (\{ALL.batch(records)})
+          ON CONFLICT (content_id)
+          DO UPDATE SET watched = EXCLUDED.watched, last_watched_time = EXCLUDED.last_watched_time, resume_position = EXCLUDED.resume_position, total_duration = EXCLUDED.total_duration
+      """.execute();
+
       tx.commit();
     }
   }
 
   private static StreamStateRecord toStreamStateRecord(StreamState streamState) {
-    try {
-      return new StreamStateRecord(
-        streamState.getContentID().asInt(),
-        OBJECT_MAPPER.writeValueAsBytes(streamState.getProperties())
-      );
-    }
-    catch(JsonProcessingException e) {
-      throw new IllegalStateException(e);
-    }
+    return new StreamStateRecord(
+      streamState.contentId().asInt(),
+      streamState.watched(),
+      streamState.lastWatchedTime(),
+      streamState.resumePosition(),
+      streamState.totalDuration()
+    );
   }
 
-  @SuppressWarnings("unchecked")
   private static StreamState toStreamState(StreamStateRecord r) {
-    try {
-      return new StreamState(new ContentID(r.contentId()), OBJECT_MAPPER.readValue(r.json(), Map.class));
-    }
-    catch(IOException e) {
-      throw new IllegalStateException(e);
-    }
+    return new StreamState(new ContentID(r.contentId()), r.watched(), r.lastWatchedTime(), r.resumePosition(), r.totalDuration());
   }
 }
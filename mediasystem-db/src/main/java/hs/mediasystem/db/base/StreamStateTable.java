@@ -0,0 +1,250 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Columnar storage of stream states.<p>
+ *
+ * Each part of a stream state is stored in its own primitive array, and the row
+ * of a stream is found with a primitive open addressing hash table keyed by its
+ * content id.  Reading a state therefore neither allocates nor boxes, while a
+ * state takes only a few dozen bytes.<p>
+ *
+ * Rows which were modified are tracked, so they can be stored in batches with
+ * {@link #takeChanges()}.  Rows are never removed.  This class is not thread safe.
+ */
+class StreamStateTable {
+  private static final int EMPTY = -1;
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  private int[] slots = newSlots(64);  // row of each hash slot, or EMPTY
+  private int[] contentIds = new int[16];
+  private boolean[] watched = new boolean[16];
+  private long[] lastWatchedTimes = new long[16];  // epoch milliseconds, or NO_TIME
+  private int[] resumePositions = new int[16];
+  private int[] totalDurations = new int[16];
+  private boolean[] changed = new boolean[16];
+  private int[] changedRows = new int[16];
+  private int changedCount;
+  private int size;
+
+  /**
+   * Adds or replaces the given state without marking it as changed.
+   *
+   * @param streamState a {@link StreamState}, cannot be {@code null}
+   */
+  void load(StreamState streamState) {
+    int row = rowOf(streamState.contentId().asInt());
+
+    watched[row] = streamState.watched();
+    lastWatchedTimes[row] = streamState.lastWatchedTime() == null ? NO_TIME : streamState.lastWatchedTime().toEpochMilli();
+    resumePositions[row] = streamState.resumePosition();
+    totalDurations[row] = streamState.totalDuration();
+  }
+
+  boolean isWatched(int contentId) {
+    int row = find(contentId);
+
+    return row != EMPTY && watched[row];
+  }
+
+  void setWatched(int contentId, boolean watched) {
+    int row = rowOf(contentId);
+
+    this.watched[row] = watched;
+
+    markRowChanged(row);
+  }
+
+  Instant getLastWatchedTime(int contentId) {
+    int row = find(contentId);
+
+    return row == EMPTY || lastWatchedTimes[row] == NO_TIME ? null : Instant.ofEpochMilli(lastWatchedTimes[row]);
+  }
+
+  void setLastWatchedTime(int contentId, Instant lastWatchedTime) {
+    int row = rowOf(contentId);
+
+    lastWatchedTimes[row] = lastWatchedTime == null ? NO_TIME : lastWatchedTime.toEpochMilli();
+
+    markRowChanged(row);
+  }
+
+  int getResumePosition(int contentId) {
+    int row = find(contentId);
+
+    return row == EMPTY ? 0 : resumePositions[row];
+  }
+
+  void setResumePosition(int contentId, int resumePosition) {
+    int row = rowOf(contentId);
+
+    resumePositions[row] = resumePosition;
+
+    markRowChanged(row);
+  }
+
+  int getTotalDuration(int contentId) {
+    int row = find(contentId);
+
+    return row == EMPTY ? -1 : totalDurations[row];
+  }
+
+  void setTotalDuration(int contentId, int totalDuration) {
+    int row = rowOf(contentId);
+
+    totalDurations[row] = totalDuration;
+
+    markRowChanged(row);
+  }
+
+  /**
+   * Marks the state of the given stream as changed, for example to retry storing
+   * it after storing it failed.  Does nothing if the stream has no state.
+   *
+   * @param contentId a content id
+   */
+  void markChanged(int contentId) {
+    int row = find(contentId);
+
+    if(row != EMPTY) {
+      markRowChanged(row);
+    }
+  }
+
+  /**
+   * Returns the states which changed since the last call, and clears their changed
+   * status.
+   *
+   * @return a list of {@link StreamState}s, never {@code null} but can be empty
+   */
+  List<StreamState> takeChanges() {
+    List<StreamState> streamStates = new ArrayList<>(changedCount);
+
+    for(int i = 0; i < changedCount; i++) {
+      int row = changedRows[i];
+
+      changed[row] = false;
+      streamStates.add(toStreamState(row));
+    }
+
+    changedCount = 0;
+
+    return streamStates;
+  }
+
+  void forEach(Consumer<StreamState> consumer) {
+    for(int row = 0; row < size; row++) {
+      consumer.accept(toStreamState(row));
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  private StreamState toStreamState(int row) {
+    return new StreamState(
+      new ContentID(contentIds[row]),
+      watched[row],
+      lastWatchedTimes[row] == NO_TIME ? null : Instant.ofEpochMilli(lastWatchedTimes[row]),
+      resumePositions[row],
+      totalDurations[row]
+    );
+  }
+
+  private void markRowChanged(int row) {
+    if(!changed[row]) {
+      changed[row] = true;
+      changedRows[changedCount++] = row;
+    }
+  }
+
+  private int find(int contentId) {
+    int mask = slots.length - 1;
+
+    for(int slot = hash(contentId) & mask;; slot = (slot + 1) & mask) {
+      int row = slots[slot];
+
+      if(row == EMPTY || contentIds[row] == contentId) {
+        return row;
+      }
+    }
+  }
+
+  private int rowOf(int contentId) {
+    int row = find(contentId);
+
+    if(row != EMPTY) {
+      return row;
+    }
+
+    if(size == contentIds.length) {
+      grow();
+    }
+
+    row = size++;
+
+    contentIds[row] = contentId;
+    watched[row] = false;
+    lastWatchedTimes[row] = NO_TIME;
+    resumePositions[row] = 0;
+    totalDurations[row] = -1;
+
+    if(size * 2 > slots.length) {
+      slots = newSlots(slots.length * 2);
+
+      for(int r = 0; r < size; r++) {
+        insertSlot(r);
+      }
+    }
+    else {
+      insertSlot(row);
+    }
+
+    return row;
+  }
+
+  private void insertSlot(int row) {
+    int mask = slots.length - 1;
+    int slot = hash(contentIds[row]) & mask;
+
+    while(slots[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+
+    slots[slot] = row;
+  }
+
+  private void grow() {
+    int capacity = contentIds.length * 2;
+
+    contentIds = Arrays.copyOf(contentIds, capacity);
+    watched = Arrays.copyOf(watched, capacity);
+    lastWatchedTimes = Arrays.copyOf(lastWatchedTimes, capacity);
+    resumePositions = Arrays.copyOf(resumePositions, capacity);
+    totalDurations = Arrays.copyOf(totalDurations, capacity);
+    changed = Arrays.copyOf(changed, capacity);
+    changedRows = Arrays.copyOf(changedRows, capacity);
+  }
+
+  private static int[] newSlots(int capacity) {
+    int[] slots = new int[capacity];
+
+    Arrays.fill(slots, EMPTY);
+
+    return slots;
+  }
+
+  private static int hash(int contentId) {
+    int h = contentId * 0x9E3779B9;  // content ids are mostly sequential, spread them over the slots
+
+    return h ^ (h >>> 16);
+  }
+}
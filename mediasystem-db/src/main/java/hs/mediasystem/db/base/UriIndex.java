@@ -0,0 +1,445 @@
+package hs.mediasystem.db.base;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A compact index of uri's to content ids.<p>
+ *
+ * Most uri's share long prefixes (the directories they're located in), so each
+ * uri is split into a directory prefix, which is shared between all uri's with the
+ * same prefix, and a name, which is stored as UTF-8 in a single byte array.  The
+ * entries are indexed by a primitive open addressing hash table.  Together this
+ * takes a fraction of the memory of a map of strings to boxed ids, and it can be
+ * saved to and loaded from a snapshot file without creating an object per entry.<p>
+ *
+ * The compact table is immutable.  Changes are kept in a small concurrent map,
+ * which is merged into a new table once it grows too large.  Reads therefore never
+ * block, while writes must be serialized by the caller.
+ */
+class UriIndex {
+
+  /**
+   * Value returned by {@link #get(String)} when a uri is not in the index.
+   */
+  static final int NONE = -1;
+
+  private static final int VERSION = 1;
+  private static final int MIN_COMPACTION_THRESHOLD = 1024;
+
+  private final Map<String, Integer> changes = new ConcurrentHashMap<>();  // changes since table was built, NONE for removals
+
+  private volatile Table table;
+  private volatile boolean modified;
+
+  private UriIndex(Table table) {
+    this.table = table;
+  }
+
+  /**
+   * Constructs a new empty index.
+   */
+  UriIndex() {
+    this(new Builder().buildTable());
+  }
+
+  /**
+   * Returns the content id for the given uri.
+   *
+   * @param uri a uri, cannot be {@code null}
+   * @return a content id, or {@link #NONE} if the uri is not in the index
+   */
+  int get(String uri) {
+    Integer contentId = changes.get(uri);
+
+    if(contentId != null) {
+      return contentId;
+    }
+
+    return table.get(uri);  // read after changes, as changes are only removed after a new table was published
+  }
+
+  /**
+   * Links the given uri to the given content id, replacing any existing link.
+   * Calls to this method must be serialized.
+   *
+   * @param uri a uri, cannot be {@code null}
+   * @param contentId a content id, cannot be negative
+   */
+  void put(String uri, int contentId) {
+    if(contentId < 0) {
+      throw new IllegalArgumentException("contentId cannot be negative: " + contentId);
+    }
+
+    update(Objects.requireNonNull(uri, "uri"), contentId);
+  }
+
+  /**
+   * Removes the given uri from the index.  Calls to this method must be serialized.
+   *
+   * @param uri a uri, cannot be {@code null}
+   */
+  void remove(String uri) {
+    if(get(Objects.requireNonNull(uri, "uri")) != NONE) {
+      update(uri, NONE);
+    }
+  }
+
+  /**
+   * Returns whether this index was modified since it was created, loaded or last saved.
+   *
+   * @return {@code true} if the index was modified, otherwise {@code false}
+   */
+  boolean isModified() {
+    return modified;
+  }
+
+  /**
+   * Returns the number of uri's in this index.
+   *
+   * @return the number of uri's in this index
+   */
+  int size() {
+    Table table = this.table;
+    int size = table.size;
+
+    for(Map.Entry<String, Integer> entry : changes.entrySet()) {
+      boolean inTable = table.get(entry.getKey()) != NONE;
+      boolean inChanges = entry.getValue() != NONE;
+
+      size += inTable == inChanges ? 0 : inChanges ? 1 : -1;
+    }
+
+    return size;
+  }
+
+  /**
+   * Saves this index to the given file, together with a stamp which must match
+   * when the index is loaded again.  Calls to this method must be serialized with
+   * modifications.
+   *
+   * @param file a {@link Path}, cannot be {@code null}
+   * @param stamp a stamp identifying the state of the source of this index, cannot be {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  void save(Path file, long[] stamp) throws IOException {
+    compact();
+
+    Table table = this.table;
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+    Files.createDirectories(file.getParent());
+
+    try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 65536))) {
+      out.writeInt(VERSION);
+      out.writeInt(stamp.length);
+
+      for(long value : stamp) {
+        out.writeLong(value);
+      }
+
+      out.writeInt(table.prefixes.length);
+
+      for(String prefix : table.prefixes) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeInt(table.size);
+      out.writeInt(table.nameOffsets[table.size]);
+      out.write(table.names, 0, table.nameOffsets[table.size]);
+
+      writeInts(out, table.nameOffsets, table.size + 1);
+      writeInts(out, table.prefixIds, table.size);
+      writeInts(out, table.contentIds, table.size);
+      writeInts(out, table.hashes, table.size);
+    }
+
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    modified = false;
+  }
+
+  /**
+   * Loads an index from the given file, if it exists and was saved with the given
+   * stamp.
+   *
+   * @param file a {@link Path}, cannot be {@code null}
+   * @param stamp the expected stamp, cannot be {@code null}
+   * @return a {@link UriIndex}, or {@code null} if the file does not exist or has a different stamp
+   * @throws IOException when an I/O problem occurred, or the file is corrupt
+   */
+  static UriIndex load(Path file, long[] stamp) throws IOException {
+    if(!Files.exists(file)) {
+      return null;
+    }
+
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+      if(buffer.getInt() != VERSION) {
+        return null;
+      }
+
+      long[] savedStamp = new long[buffer.getInt()];
+
+      buffer.asLongBuffer().get(savedStamp);
+      buffer.position(buffer.position() + savedStamp.length * Long.BYTES);
+
+      if(!Arrays.equals(savedStamp, stamp)) {
+        return null;
+      }
+
+      String[] prefixes = new String[buffer.getInt()];
+
+      for(int i = 0; i < prefixes.length; i++) {
+        byte[] bytes = new byte[buffer.getInt()];
+
+        buffer.get(bytes);
+        prefixes[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+
+      int size = buffer.getInt();
+      byte[] names = new byte[buffer.getInt()];
+
+      buffer.get(names);
+
+      return new UriIndex(new Table(
+        prefixes,
+        names,
+        readInts(buffer, size + 1),
+        readInts(buffer, size),
+        readInts(buffer, size),
+        readInts(buffer, size),
+        size
+      ));
+    }
+    catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+      throw new IOException("Corrupt uri index: " + file, e);
+    }
+  }
+
+  private void update(String uri, int contentId) {
+    changes.put(uri, contentId);
+    modified = true;
+
+    if(changes.size() > Math.max(MIN_COMPACTION_THRESHOLD, table.size / 8)) {
+      compact();
+    }
+  }
+
+  /**
+   * Merges all changes into a new table.  The new table is published before the
+   * changes it contains are removed, so readers always find the latest value.
+   */
+  private void compact() {
+    if(changes.isEmpty()) {
+      return;
+    }
+
+    Map<String, Integer> merged = new HashMap<>(changes);
+    Builder builder = new Builder();
+
+    table.forEach((uri, contentId) -> {
+      if(!merged.containsKey(uri)) {
+        builder.add(uri, contentId);
+      }
+    });
+
+    merged.forEach((uri, contentId) -> {
+      if(contentId != NONE) {
+        builder.add(uri, contentId);
+      }
+    });
+
+    table = builder.buildTable();
+
+    merged.forEach(changes::remove);  // only removes changes which were merged
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+    for(int i = 0; i < count; i++) {
+      out.writeInt(values[i]);
+    }
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + count * Integer.BYTES);
+
+    return values;
+  }
+
+  /**
+   * Builds a {@link UriIndex}.  The uri's added must be unique.
+   */
+  static class Builder {
+    private final Map<String, Integer> prefixIdsByPrefix = new HashMap<>();
+    private final List<String> prefixes = new ArrayList<>();
+
+    private byte[] names = new byte[1024];
+    private int[] nameOffsets = new int[17];
+    private int[] prefixIds = new int[16];
+    private int[] contentIds = new int[16];
+    private int[] hashes = new int[16];
+    private int size;
+
+    /**
+     * Adds a uri with its content id.
+     *
+     * @param uri a uri, cannot be {@code null}
+     * @param contentId a content id, cannot be negative
+     * @return this builder
+     */
+    Builder add(String uri, int contentId) {
+      if(contentId < 0) {
+        throw new IllegalArgumentException("contentId cannot be negative: " + contentId);
+      }
+
+      int split = uri.lastIndexOf('/') + 1;
+      byte[] name = uri.substring(split).getBytes(StandardCharsets.UTF_8);
+      int nameOffset = nameOffsets[size];
+
+      if(size == prefixIds.length) {
+        nameOffsets = Arrays.copyOf(nameOffsets, size * 2 + 1);
+        prefixIds = Arrays.copyOf(prefixIds, size * 2);
+        contentIds = Arrays.copyOf(contentIds, size * 2);
+        hashes = Arrays.copyOf(hashes, size * 2);
+      }
+
+      if(nameOffset + name.length > names.length) {
+        names = Arrays.copyOf(names, Math.max(names.length * 2, nameOffset + name.length));
+      }
+
+      System.arraycopy(name, 0, names, nameOffset, name.length);
+
+      nameOffsets[size + 1] = nameOffset + name.length;
+      prefixIds[size] = prefixIdsByPrefix.computeIfAbsent(uri.substring(0, split), k -> {
+        prefixes.add(k);
+
+        return prefixes.size() - 1;
+      });
+      contentIds[size] = contentId;
+      hashes[size] = uri.hashCode();
+      size++;
+
+      return this;
+    }
+
+    /**
+     * Builds the index.
+     *
+     * @return a {@link UriIndex}, never {@code null}
+     */
+    UriIndex build() {
+      return new UriIndex(buildTable());
+    }
+
+    private Table buildTable() {
+      return new Table(
+        prefixes.toArray(String[]::new),
+        Arrays.copyOf(names, nameOffsets[size]),
+        Arrays.copyOf(nameOffsets, size + 1),
+        Arrays.copyOf(prefixIds, size),
+        Arrays.copyOf(contentIds, size),
+        Arrays.copyOf(hashes, size),
+        size
+      );
+    }
+  }
+
+  private static class Table {
+    final String[] prefixes;
+    final byte[] names;
+    final int[] nameOffsets;
+    final int[] prefixIds;
+    final int[] contentIds;
+    final int[] hashes;
+    final int[] slots;  // index of entry + 1, or 0 when empty
+    final int size;
+
+    Table(String[] prefixes, byte[] names, int[] nameOffsets, int[] prefixIds, int[] contentIds, int[] hashes, int size) {
+      this.prefixes = prefixes;
+      this.names = names;
+      this.nameOffsets = nameOffsets;
+      this.prefixIds = prefixIds;
+      this.contentIds = contentIds;
+      this.hashes = hashes;
+      this.size = size;
+      this.slots = new int[Integer.highestOneBit((size + size / 3 + 1) * 2 - 1)];  // load factor at most 0.75, and always an empty slot
+
+      int mask = slots.length - 1;
+
+      for(int i = 0; i < size; i++) {
+        int slot = spread(hashes[i]) & mask;
+
+        while(slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+
+        slots[slot] = i + 1;
+      }
+    }
+
+    int get(String uri) {
+      int hash = uri.hashCode();
+      int split = uri.lastIndexOf('/') + 1;
+      int mask = slots.length - 1;
+      byte[] name = null;
+
+      for(int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+        int entry = slots[slot] - 1;
+
+        if(entry < 0) {
+          return NONE;
+        }
+
+        if(hashes[entry] == hash) {
+          String prefix = prefixes[prefixIds[entry]];
+
+          if(prefix.length() == split && uri.startsWith(prefix)) {
+            if(name == null) {
+              name = uri.substring(split).getBytes(StandardCharsets.UTF_8);
+            }
+
+            if(Arrays.equals(names, nameOffsets[entry], nameOffsets[entry + 1], name, 0, name.length)) {
+              return contentIds[entry];
+            }
+          }
+        }
+      }
+    }
+
+    void forEach(ObjIntConsumer<String> consumer) {
+      for(int i = 0; i < size; i++) {
+        consumer.accept(prefixes[prefixIds[i]] + new String(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i], StandardCharsets.UTF_8), contentIds[i]);
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+}
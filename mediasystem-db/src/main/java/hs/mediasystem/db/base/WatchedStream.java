@@ -0,0 +1,14 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+
+/**
+ * A stream and the last time it was watched.
+ *
+ * @param contentId a {@link ContentID}, cannot be {@code null}
+ * @param lastWatchedTime the last time the stream was watched, cannot be {@code null}
+ */
+public record WatchedStream(ContentID contentId, Instant lastWatchedTime) {
+}
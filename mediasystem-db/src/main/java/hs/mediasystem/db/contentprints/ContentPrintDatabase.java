@@ -3,6 +3,13 @@ package hs.mediasystem.db.contentprints;
 import hs.mediasystem.domain.stream.ContentID;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
 
@@ -14,10 +21,14 @@ import org.int4.db.core.api.Transaction;
 import org.int4.db.core.reflect.Extractor;
 import org.int4.db.core.reflect.Reflector;
 
+import static hs.mediasystem.db.sql.Templates.in;
+import static java.lang.StringTemplate.RAW;
+
 @Singleton
 public class ContentPrintDatabase {
   private static final Reflector<ContentPrintRecord> ALL = Reflector.of(ContentPrintRecord.class).withNames("id", "hash", "size", "modtime", "lastseentime", "creation_ms");
   private static final Extractor<ContentPrintRecord> EXCEPT_ID = ALL.excluding("id");
+  private static final int MAX_CHUNK_SIZE = 1000;  // limits the number of parameters in a single statement
 
   @Inject private Database database;
 
@@ -29,23 +40,63 @@ public class ContentPrintDatabase {
     }
   }
 
-  public ContentPrintRecord findOrAdd(Long size, Instant lastModificationTime, byte[] hash) {
+  /**
+   * Finds or adds a {@link ContentPrintRecord} for each of the given {@link Signature}s.
+   * Existing records are looked up and missing records are inserted in batches,
+   * so the number of round trips to the database does not depend on the number
+   * of signatures (apart from very large inputs which are split into chunks).
+   *
+   * @param signatures a list of {@link Signature}s, cannot be {@code null}
+   * @return a list of {@link ContentPrintRecord}s in the same order as the given signatures, never {@code null}
+   */
+  public List<ContentPrintRecord> findOrAdd(List<Signature> signatures) {
+    if(signatures.isEmpty()) {
+      return List.of();
+    }
+
     try(Transaction tx = database.beginTransaction()) {
-      ContentPrintRecord r = findStreamDataByHash(hash, size, lastModificationTime);
+      Map<String, ContentPrintRecord> records = new HashMap<>();
+
+      for(List<Signature> chunk : chunked(signatures)) {
+        List<byte[]> hashes = chunk.stream().map(Signature::hash).toList();
 
-      if(r != null) {
-        return r;
+        tx.process(StringTemplate.combine(RAW."SELECT \{ALL} FROM content_prints WHERE hash IN (", in(hashes), RAW.")"))
+          .map(ALL)
+          .consume(r -> records.put(toKey(r.hash(), r.size(), r.lastModificationTime()), r));
+      }
+
+      long now = Instant.now().toEpochMilli();
+      Map<String, ContentPrintRecord> missingRecords = new LinkedHashMap<>();
+
+      for(Signature signature : signatures) {
+        String key = signature.toKey();
+
+        if(!records.containsKey(key)) {
+          missingRecords.putIfAbsent(key, new ContentPrintRecord(null, signature.hash, signature.size, signature.lastModificationTime.toEpochMilli(), null, now));
+        }
+      }
+
+      if(!missingRecords.isEmpty()) {
+        List<ContentPrintRecord> list = List.copyOf(missingRecords.values());
+        List<Integer> ids = tx."INSERT INTO content_prints (\{EXCEPT_ID}) VALUES (\{EXCEPT_ID.batch(list)})"
+          .mapGeneratedKeys()
+          .asInt()
+          .toList();
+
+        if(ids.size() != list.size()) {
+          throw new IllegalStateException("Expected " + list.size() + " generated keys, but got: " + ids.size());
+        }
+
+        for(int i = 0; i < list.size(); i++) {
+          ContentPrintRecord r = list.get(i).withId(ids.get(i));
+
+          records.put(toKey(r.hash(), r.size(), r.lastModificationTime()), r);
+        }
       }
 
-      r = new ContentPrintRecord(null, hash, size, lastModificationTime.toEpochMilli(), null, Instant.now().toEpochMilli());
-      r = tx."INSERT INTO content_prints (\{EXCEPT_ID}) VALUES (\{EXCEPT_ID.values(r)})"
-        .mapGeneratedKeys()
-        .asInt()
-        .map(r::withId)
-        .get();
       tx.commit();
 
-      return r;
+      return signatures.stream().map(Signature::toKey).map(records::get).toList();
     }
   }
 
@@ -63,39 +114,127 @@ public class ContentPrintDatabase {
     }
   }
 
-  private ContentPrintRecord findStreamDataByHash(byte[] hash, Long size, Instant lastModificationTime) {
-    try(Transaction tx = database.beginReadOnlyTransaction()) {
-      if(size == null) {
-        return tx."SELECT \{ALL} FROM content_prints WHERE hash = \{hash} AND size IS NULL AND modtime = \{lastModificationTime.toEpochMilli()}"
-          .map(ALL)
-          .get();
+  public void markSeen(Set<ContentID> idsToMark) {
+    try(Transaction tx = database.beginTransaction()) {
+      long now = Instant.now().toEpochMilli();
+
+      for(List<Integer> chunk : chunked(idsToMark.stream().map(ContentID::asInt).toList())) {
+        tx.process(StringTemplate.combine(RAW."UPDATE content_prints SET lastseentime = \{now} WHERE id IN (", in(chunk), RAW.")")).execute();
       }
 
-      return tx."SELECT \{ALL} FROM content_prints WHERE hash = \{hash} AND size = \{size} AND modtime = \{lastModificationTime.toEpochMilli()}"
-        .map(ALL)
-        .get();
+      tx.commit();
     }
   }
 
-  public void markSeen(Set<ContentID> idsToMark) {
+  public void unmarkSeen(Set<ContentID> idsToUnmark) {
     try(Transaction tx = database.beginTransaction()) {
-      long now = Instant.now().toEpochMilli();
-
-      for(ContentID contentID : idsToMark) {
-        tx."UPDATE content_prints SET lastseentime = \{now} WHERE id = \{contentID.asInt()}".execute();
+      for(List<Integer> chunk : chunked(idsToUnmark.stream().map(ContentID::asInt).toList())) {
+        tx.process(StringTemplate.combine(RAW."UPDATE content_prints SET lastseentime = NULL WHERE id IN (", in(chunk), RAW.")")).execute();
       }
 
       tx.commit();
     }
   }
 
-  public void unmarkSeen(Set<ContentID> idsToUnmark) {
+  /**
+   * Finds the ids of content prints which have been marked as not seen before the
+   * given time, in ascending order, starting after the given id.
+   *
+   * @param cutOff an {@link Instant}, cannot be {@code null}
+   * @param afterId an id after which to start, use 0 to start at the beginning
+   * @param limit the maximum number of ids to return
+   * @return a list of ids, never {@code null}
+   */
+  public List<Integer> findNotSeenSince(Instant cutOff, int afterId, int limit) {
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
+      return tx."""
+        SELECT id FROM content_prints WHERE lastseentime < \{cutOff.toEpochMilli()} AND id > \{afterId}
+          ORDER BY id FETCH FIRST \{limit} ROWS ONLY
+      """
+        .asInt()
+        .toList();
+    }
+  }
+
+  /**
+   * Estimates the number of bytes that would be reclaimed by deleting the given
+   * content prints.  Only the sizes of the binary data associated with them is
+   * counted, which is where almost all of the space goes.
+   *
+   * @param ids a list of ids, cannot be {@code null}
+   * @return the estimated number of bytes
+   */
+  public long estimateSize(List<Integer> ids) {
+    long size = 0;
+
+    try(Transaction tx = database.beginReadOnlyTransaction()) {
+      for(List<Integer> chunk : chunked(ids)) {
+        size += tx.process(StringTemplate.combine(RAW."SELECT COALESCE(SUM(LENGTH(hash)), 0) FROM content_prints WHERE id IN (", in(chunk), RAW.")")).asLong().get();
+        size += tx.process(StringTemplate.combine(RAW."SELECT COALESCE(SUM(LENGTH(descriptor)), 0) FROM stream_descriptors WHERE content_id IN (", in(chunk), RAW.")")).asLong().get();
+        size += tx.process(StringTemplate.combine(RAW."SELECT COALESCE(SUM(LENGTH(image)), 0) FROM stream_descriptor_snapshots WHERE content_id IN (", in(chunk), RAW.")")).asLong().get();
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Deletes the given content prints, as long as they're still marked as not seen
+   * before the given time.  All associated data is deleted as well through cascaded
+   * deletes.
+   *
+   * @param ids a list of ids, cannot be {@code null}
+   * @param cutOff an {@link Instant}, cannot be {@code null}
+   * @return the ids that were deleted, never {@code null}
+   */
+  public List<Integer> delete(List<Integer> ids, Instant cutOff) {
+    List<Integer> deletedIds = new ArrayList<>();
+
     try(Transaction tx = database.beginTransaction()) {
-      for(ContentID contentID : idsToUnmark) {
-        tx."UPDATE content_prints SET lastseentime = NULL WHERE id = \{contentID.asInt()}".execute();
+      for(List<Integer> chunk : chunked(ids)) {
+        List<Integer> idsToDelete = tx.process(StringTemplate.combine(RAW."SELECT id FROM content_prints WHERE lastseentime < \{cutOff.toEpochMilli()} AND id IN (", in(chunk), RAW.")")).asInt().toList();
+
+        if(!idsToDelete.isEmpty()) {
+          tx.process(StringTemplate.combine(RAW."DELETE FROM content_prints WHERE id IN (", in(idsToDelete), RAW.")")).execute();
+          deletedIds.addAll(idsToDelete);
+        }
       }
 
       tx.commit();
     }
+
+    return deletedIds;
+  }
+
+  private static <T> List<List<T>> chunked(List<T> list) {
+    List<List<T>> chunks = new ArrayList<>();
+
+    for(int i = 0; i < list.size(); i += MAX_CHUNK_SIZE) {
+      chunks.add(list.subList(i, Math.min(list.size(), i + MAX_CHUNK_SIZE)));
+    }
+
+    return chunks;
+  }
+
+  private static String toKey(byte[] hash, Long size, long lastModificationTime) {
+    return HexFormat.of().formatHex(hash) + ":" + size + ":" + lastModificationTime;
+  }
+
+  /**
+   * The signature of a file or directory.
+   *
+   * @param size a size, can be {@code null} for directories
+   * @param lastModificationTime an {@link Instant}, cannot be {@code null}
+   * @param hash a hash, cannot be {@code null}
+   */
+  public record Signature(Long size, Instant lastModificationTime, byte[] hash) {
+    public Signature {
+      Objects.requireNonNull(lastModificationTime, "lastModificationTime");
+      Objects.requireNonNull(hash, "hash");
+    }
+
+    String toKey() {
+      return ContentPrintDatabase.toKey(hash, size, lastModificationTime.toEpochMilli());
+    }
   }
 }
@@ -0,0 +1,236 @@
+package hs.mediasystem.db.core;
+
+import hs.mediasystem.util.exception.Throwables;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches directory trees for changes using a {@link WatchService}, and reports
+ * which directories had their direct contents changed once a burst of changes
+ * has settled.<p>
+ *
+ * When a new directory appears in a watched tree, it is watched as well, and
+ * it (and any directories below it) are reported as changed, as their contents
+ * were never seen before.<p>
+ *
+ * Note that not all file systems support change notifications; network shares
+ * for example often only report changes made locally. Watching therefore should
+ * not be relied upon to detect all changes.
+ */
+class DirectoryWatcher {
+  private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class.getName());
+  private static final Set<FileVisitOption> FOLLOW_LINKS = Set.of(FileVisitOption.FOLLOW_LINKS);
+
+  interface Listener {
+
+    /**
+     * Called when the direct contents of one or more directories changed. This
+     * is called on the thread which handles the change events, and so should not
+     * block.
+     *
+     * @param directories a set of directories, in path order, never {@code null} or empty
+     */
+    void changed(Set<Path> directories);
+
+    /**
+     * Called when changes may have been missed, in which case the entire tree
+     * should be rescanned.
+     */
+    void overflowed();
+  }
+
+  private record Tree(Path root, int maxDepth, Listener listener) {}
+  private record Registration(Tree tree, Path directory) {}
+
+  private final WatchService watchService;
+  private final Duration settleTime;
+  private final Duration maxDelay;
+  private final Map<WatchKey, Registration> registrations = new HashMap<>();
+  private final Map<Tree, Set<Path>> pendingChanges = new LinkedHashMap<>();
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param name a name for the thread handling the events, cannot be {@code null}
+   * @param settleTime the time without any new changes after which changes are reported, cannot be {@code null}
+   * @param maxDelay the maximum time changes are held back when changes keep occurring, cannot be {@code null}
+   * @throws IOException when a {@link WatchService} could not be created
+   */
+  DirectoryWatcher(String name, Duration settleTime, Duration maxDelay) throws IOException {
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.settleTime = settleTime;
+    this.maxDelay = maxDelay;
+
+    Thread.ofPlatform()
+      .daemon()
+      .name(name)
+      .start(this::processEvents);
+  }
+
+  /**
+   * Starts watching the given root directory and all directories below it up to
+   * the given depth.
+   *
+   * @param root a root directory, cannot be {@code null}
+   * @param maxDepth the maximum depth of directories to watch, where 0 only watches the root itself
+   * @param listener a {@link Listener} to call when changes occur, cannot be {@code null}
+   * @throws IOException when the root or one of its directories could not be watched
+   */
+  void watch(Path root, int maxDepth, Listener listener) throws IOException {
+    Tree tree = new Tree(root, maxDepth, listener);
+
+    synchronized(registrations) {
+      register(tree, root, null);
+    }
+  }
+
+  private void register(Tree tree, Path start, Set<Path> newDirectories) throws IOException {
+    Path relative = tree.root.relativize(start);
+    int depth = relative.toString().isEmpty() ? 0 : relative.getNameCount();
+
+    if(depth > tree.maxDepth) {
+      return;
+    }
+
+    Files.walkFileTree(start, FOLLOW_LINKS, tree.maxDepth - depth, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if(dir.getFileName() != null && dir.getFileName().toString().startsWith(".") && !dir.equals(tree.root)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        WatchKey key = dir.register(
+          watchService,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE,
+          StandardWatchEventKinds.ENTRY_MODIFY
+        );
+
+        registrations.put(key, new Registration(tree, dir));
+
+        if(newDirectories != null) {
+          newDirectories.add(dir);
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        LOGGER.warning("Unable to watch: " + file + ": " + Throwables.formatAsOneLine(e));
+
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void processEvents() {
+    long firstChangeNanos = 0;
+
+    try {
+      for(;;) {
+        WatchKey key = pendingChanges.isEmpty() ? watchService.take() : watchService.poll(settleTime.toMillis(), TimeUnit.MILLISECONDS);
+
+        if(key != null) {
+          if(pendingChanges.isEmpty()) {
+            firstChangeNanos = System.nanoTime();
+          }
+
+          handleKey(key);
+
+          if(System.nanoTime() - firstChangeNanos < maxDelay.toNanos()) {
+            continue;
+          }
+        }
+
+        reportChanges();
+      }
+    }
+    catch(InterruptedException e) {
+      LOGGER.info("Stopping " + Thread.currentThread());
+    }
+  }
+
+  private void handleKey(WatchKey key) {
+    synchronized(registrations) {
+      Registration registration = registrations.get(key);
+
+      if(registration == null) {
+        key.cancel();
+
+        return;
+      }
+
+      Tree tree = registration.tree;
+      Set<Path> changes = pendingChanges.computeIfAbsent(tree, k -> new TreeSet<>());
+
+      for(WatchEvent<?> event : key.pollEvents()) {
+        if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          tree.listener.overflowed();
+
+          continue;
+        }
+
+        Path child = registration.directory.resolve((Path)event.context());
+
+        changes.add(registration.directory);
+
+        if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+          try {
+            register(tree, child, changes);
+          }
+          catch(IOException e) {
+            LOGGER.warning("Unable to watch new directory: " + child + ": " + Throwables.formatAsOneLine(e));
+          }
+        }
+      }
+
+      if(!key.reset()) {
+        registrations.remove(key);  // directory no longer accessible, probably deleted
+      }
+
+      if(changes.isEmpty()) {
+        pendingChanges.remove(tree);
+      }
+    }
+  }
+
+  private void reportChanges() {
+    Map<Tree, Set<Path>> changes;
+
+    synchronized(registrations) {
+      changes = new LinkedHashMap<>(pendingChanges);
+
+      pendingChanges.clear();
+    }
+
+    changes.forEach((tree, directories) -> {
+      try {
+        tree.listener.changed(directories);
+      }
+      catch(Exception e) {
+        LOGGER.warning("Exception while reporting changes in " + tree.root + ": " + Throwables.formatAsOneLine(e));
+      }
+    });
+  }
+}
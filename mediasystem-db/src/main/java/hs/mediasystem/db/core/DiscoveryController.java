@@ -3,15 +3,31 @@ package hs.mediasystem.db.core;
 import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Discoverer;
 import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
 import hs.mediasystem.util.concurrent.NamedThreadFactory;
 import hs.mediasystem.util.exception.Throwables;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
@@ -21,32 +37,87 @@ import javax.inject.Singleton;
 
 import org.int4.dirk.annotations.Opt;
 
+/**
+ * Periodically scans all {@link ImportSource}s.<p>
+ *
+ * Each source is scanned independently with its own schedule, so a slow or
+ * unavailable source does not delay scans of other sources. Sources which are
+ * located on the same device (or mount point) share a limited number of scan
+ * slots to avoid thrashing a single disk or share with concurrent scans.<p>
+ *
+ * The next scan of a source is only scheduled after the previous scan completed,
+ * which means scans of a single source never overlap. When a scan fails, the
+ * delay until the next attempt is doubled for each consecutive failure, up to a
+ * maximum.<p>
+ *
+ * Local sources are also watched for changes. Only the directories in which
+ * changes occurred are rescanned, shortly after the changes settle. For watched
+ * sources the periodic full scan only acts as a safety net, and so runs much
+ * less frequently.
+ */
 @Singleton
 public class DiscoveryController {
-  private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("DiscoveryController"));
+  private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("DiscoveryController", true));
+  private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("DiscoveryController-scan-", 0).factory());
   private static final Logger LOGGER = Logger.getLogger(DiscoveryController.class.getName());
+  private static final Duration WATCH_SETTLE_TIME = Duration.ofSeconds(2);
+  private static final Duration WATCH_MAX_DELAY = Duration.ofSeconds(30);
+  private static final int WATCH_MAX_DEPTH = 8;
 
   @Inject private Collection<ImportSource> importSources;
   @Inject private List<IdentificationProvider> identificationProviders;
   @Inject private StreamableService streamableService;
+  @Inject private ResourceService resourceService;
   @Inject @Opt @Named("server.discovery.initial-delay") private Long initialDelay = 5L;  // After 5 seconds start scans
-  @Inject @Opt @Named("server.discovery.delay") private Long delay = 5 * 60L;  // Time in between scans: 5 minutes
+  @Inject @Opt @Named("server.discovery.delay") private Long delay = 5 * 60L;  // Default time in between scans: 5 minutes
+  @Inject @Opt @Named("server.discovery.max-delay") private Long maxDelay = 60 * 60L;  // Maximum time in between scans when backing off after failures: 1 hour
+  @Inject @Opt @Named("server.discovery.device-concurrency") private Long deviceConcurrency = 1L;  // Maximum number of concurrent scans per device
+  @Inject @Opt @Named("server.discovery.watch") private Boolean watch = true;  // Whether to watch local sources for changes
+  @Inject @Opt @Named("server.discovery.watch-delay") private Long watchDelay = 6 * 60 * 60L;  // Time in between full scans of watched sources: 6 hours
+
+  private final Map<String, Semaphore> deviceSemaphores = new HashMap<>();
+  private final AtomicInteger pendingInitialScans = new AtomicInteger();  // sources which were not scanned yet since starting
+
+  private DirectoryWatcher directoryWatcher;
 
   @Inject
   DiscoveryController() {}
 
   @PostConstruct
   private void postConstruct() {
-    EXECUTOR.scheduleWithFixedDelay(this::discoverAll, initialDelay, delay, TimeUnit.SECONDS);
+    LOGGER.info("Initiating discovery with " + importSources.size() + " sources...");
+
+    if(watch) {
+      try {
+        directoryWatcher = new DirectoryWatcher("DiscoveryController-watcher", WATCH_SETTLE_TIME, WATCH_MAX_DELAY);
+      }
+      catch(IOException e) {
+        LOGGER.warning("Unable to watch sources for changes, falling back to periodic scans only: " + Throwables.formatAsOneLine(e));
+      }
+    }
+
+    pendingInitialScans.set(importSources.size());
+
+    if(importSources.isEmpty()) {
+      resourceService.initialDiscoveryCompleted();
+    }
+
+    for(ImportSource source : importSources) {
+      new SourceScanner(source, deviceSemaphores.computeIfAbsent(toDeviceKey(source.root()), k -> new Semaphore((int)Math.max(1, deviceConcurrency), true))).schedule(Duration.ofSeconds(initialDelay));
+    }
   }
 
   public void registerDiscovery(ImportSource source, URI parentLocation, List<Discovery> discoveries) {
+    createRegistry(source).register(parentLocation, discoveries);
+  }
+
+  private Discoverer.Registry createRegistry(ImportSource source) {
     IdentificationProvider provider = identificationProviders.stream()
       .filter(ip -> ip.getName().equals(source.identificationService().orElse(null)))
       .findFirst()
       .orElse(null);
 
-    streamableService.push(new DiscoverEvent(
+    return (parentLocation, discoveries) -> streamableService.push(new DiscoverEvent(
       parentLocation == null ? source.root() : parentLocation,
       Optional.ofNullable(provider),
       source.tags(),
@@ -56,32 +127,213 @@ public class DiscoveryController {
   }
 
   /**
-   * Executes scans for all current import sources.
+   * Determines a key which identifies the device on which the given root is located.
+   * For local paths this is the file store (mount point) the path resides on. For
+   * other locations, or when the file store cannot be determined, the authority
+   * part of the root is used instead.
+   *
+   * @param root a root {@link URI}, cannot be {@code null}
+   * @return a device key, never {@code null}
    */
-  private synchronized void discoverAll() {
-    LOGGER.info("Initiating discovery with " + importSources.size() + " sources...");
+  private static String toDeviceKey(URI root) {
+    if("file".equals(root.getScheme())) {
+      try {
+        FileStore store = Files.getFileStore(Path.of(root));
 
-    for(ImportSource source : importSources) {
-      LOGGER.info("Discovering " + source + "...");
+        return "file:" + store.name();
+      }
+      catch(IOException | RuntimeException e) {
+        LOGGER.warning("Unable to determine device of " + root + ", scans will not be limited by device: " + Throwables.formatAsOneLine(e));
+
+        return root.toString();
+      }
+    }
+
+    return root.getScheme() + ":" + root.getAuthority();
+  }
+
+  private class SourceScanner implements DirectoryWatcher.Listener {
+    private final ImportSource source;
+    private final Semaphore deviceSemaphore;
+    private final Workload workload;
+    private final ReentrantLock lock = new ReentrantLock();  // prevents overlapping scans of this source
+
+    private Duration interval;
+    private boolean watching;
+    private boolean scanned;
+    private int consecutiveFailures;
+
+    SourceScanner(ImportSource source, Semaphore deviceSemaphore) {
+      this.source = source;
+      this.deviceSemaphore = deviceSemaphore;
+      this.workload = BackgroundTaskRegistry.createWorkload("Scanning " + source.root());
+      this.interval = source.scanInterval().orElse(Duration.ofSeconds(delay));
+    }
+
+    void schedule(Duration delay) {
+      SCHEDULER.schedule(() -> EXECUTOR.execute(() -> {
+        if(scan()) {
+          schedule(nextDelay());
+        }
+      }), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void changed(Set<Path> directories) {
+      EXECUTOR.execute(() -> rescan(directories));
+    }
+
+    @Override
+    public void overflowed() {
+      LOGGER.warning("Missed changes while watching " + source + ", scheduling a full scan");
+
+      EXECUTOR.execute(this::scan);
+    }
+
+    private boolean scan() {
+      return execute(() -> {
+        if(!watching && directoryWatcher != null && "file".equals(source.root().getScheme())) {
+          startWatching();  // Done before scanning so no changes are missed
+        }
+
+        AtomicLong itemCount = new AtomicLong();
+        long startNanos = System.nanoTime();
 
-      IdentificationProvider provider = identificationProviders.stream()
-        .filter(ip -> ip.getName().equals(source.identificationService().orElse(null)))
-        .findFirst()
-        .orElse(null);
+        LOGGER.info("Discovering " + source + "...");
 
+        try {
+          source.discoverer().discover(source.root(), createCountingRegistry(itemCount));
+
+          consecutiveFailures = 0;
+        }
+        catch(Exception e) {
+          consecutiveFailures++;
+
+          LOGGER.warning("Failed scanning: " + source + " (attempt " + consecutiveFailures + "); exception: " + Throwables.formatAsOneLine(e));
+        }
+        finally {
+          long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+          workload.addStatistic("scans", 1);
+          workload.setStatistic("lastScanMillis", millis);
+          workload.setStatistic("lastItemCount", itemCount.get());
+          workload.setStatistic("consecutiveFailures", consecutiveFailures);
+
+          LOGGER.fine("Discovered " + itemCount.get() + " items in " + millis + " ms for " + source);
+
+          if(!scanned) {
+            scanned = true;
+
+            if(pendingInitialScans.decrementAndGet() == 0) {
+              resourceService.initialDiscoveryCompleted();
+            }
+          }
+        }
+      });
+    }
+
+    private void rescan(Set<Path> directories) {
+      execute(() -> {
+        AtomicLong itemCount = new AtomicLong();
+        Discoverer.Registry registry = createCountingRegistry(itemCount);
+        long startNanos = System.nanoTime();
+
+        LOGGER.fine("Rediscovering " + directories.size() + " changed directories in " + source + ": " + directories);
+
+        for(Path directory : directories) {  // in path order, so parents are registered before their children
+          try {
+            source.discoverer().rediscover(source.root(), directory.toUri(), registry);
+          }
+          catch(Exception e) {
+            LOGGER.warning("Failed rescanning: " + directory + " of " + source + "; exception: " + Throwables.formatAsOneLine(e));
+          }
+        }
+
+        workload.addStatistic("rescans", 1);
+        workload.setStatistic("lastRescanMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        workload.setStatistic("lastRescanItemCount", itemCount.get());
+      });
+    }
+
+    /**
+     * Runs the given runnable while holding the lock of this scanner and a permit
+     * of its device.  When interrupted while waiting for a permit, the interrupt
+     * flag is restored and {@code false} is returned, so the caller can stop.
+     *
+     * @param runnable a {@link Runnable} to run, cannot be {@code null}
+     * @return {@code true} if the runnable was run, otherwise {@code false}
+     */
+    private boolean execute(Runnable runnable) {
+      lock.lock();
+
+      try {
+        deviceSemaphore.acquire();
+
+        try {
+          workload.start();
+          runnable.run();
+
+          return true;
+        }
+        finally {
+          workload.complete();
+          deviceSemaphore.release();
+        }
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+
+        LOGGER.info("Stopped scanning: " + source);
+
+        return false;
+      }
+      finally {
+        lock.unlock();
+      }
+    }
+
+    private void startWatching() {
       try {
-        Discoverer.Registry registry = (parentLocation, discoveries) -> streamableService.push(new DiscoverEvent(
-          parentLocation == null ? source.root() : parentLocation,
-          Optional.ofNullable(provider),
-          source.tags(),
-          parentLocation == null || parentLocation.equals(source.root()) ? Optional.empty() : Optional.of(parentLocation),
-          discoveries
-        ));
-
-        source.discoverer().discover(source.root(), registry);
+        directoryWatcher.watch(Path.of(source.root()), WATCH_MAX_DEPTH, this);
+
+        watching = true;
+        interval = Duration.ofSeconds(watchDelay).compareTo(interval) > 0 ? Duration.ofSeconds(watchDelay) : interval;
+
+        LOGGER.info("Watching " + source + " for changes, full scans will be done every " + interval);
+      }
+      catch(IOException e) {
+        LOGGER.warning("Unable to watch " + source + " for changes, falling back to periodic scans only: " + Throwables.formatAsOneLine(e));
+      }
+    }
+
+    private Discoverer.Registry createCountingRegistry(AtomicLong itemCount) {
+      Discoverer.Registry registry = createRegistry(source);
+
+      return (parentLocation, discoveries) -> {
+        itemCount.addAndGet(discoveries.size());
+        registry.register(parentLocation, discoveries);
+      };
+    }
+
+    private Duration nextDelay() {
+      lock.lock();
+
+      try {
+        if(consecutiveFailures == 0) {
+          return interval;
+        }
+
+        Duration max = Duration.ofSeconds(maxDelay);
+        Duration backoff = interval.multipliedBy(1L << Math.min(consecutiveFailures, 16));
+
+        if(interval.compareTo(max) >= 0) {
+          return interval;  // Backing off never results in a shorter delay than the regular interval
+        }
+
+        return backoff.compareTo(max) > 0 ? max : backoff;
       }
-      catch(Exception e) {
-        LOGGER.warning("Failed scanning: " + source + "; exception: " + Throwables.formatAsOneLine(e));
+      finally {
+        lock.unlock();
       }
     }
   }
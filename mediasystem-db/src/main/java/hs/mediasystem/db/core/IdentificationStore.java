@@ -1,7 +1,7 @@
 package hs.mediasystem.db.core;
 
 import hs.mediasystem.api.datasource.domain.Identification;
-import hs.mediasystem.db.jackson.RecordSerializer;
+import hs.mediasystem.db.jackson.CompactRecordSerializer;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
@@ -9,6 +9,7 @@ import java.net.URI;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -28,7 +29,7 @@ public class IdentificationStore {
   private record IdentificationRecord(URI location, Identification identification, Instant createTime, Instant updateTime) {}
 
   private static final Lookup LOOKUP = MethodHandles.lookup();
-  private static final RecordSerializer<Identification> RECORD_SERIALIZER = new RecordSerializer<>(Identification.class);
+  private static final CompactRecordSerializer<Identification> RECORD_SERIALIZER = new CompactRecordSerializer<>(Identification.class);
   private static final TypeConverter<Identification, byte[]> IDENTIFICATION_CONVERTER = TypeConverter.of(byte[].class, RECORD_SERIALIZER::serialize, RECORD_SERIALIZER::unserialize);
   private static final TypeConverter<URI, String> URI_CONVERTER = TypeConverter.of(String.class, URI::toString, URI::create);
   private static final Reflector<IdentificationRecord> ALL = Reflector.of(LOOKUP, IdentificationRecord.class)
@@ -46,6 +47,22 @@ public class IdentificationStore {
     );
   }
 
+  /**
+   * Streams all stored identifications to the given consumer in a single query.
+   * This is much faster than finding the identifications one by one when most
+   * of them are needed, for example at startup.
+   *
+   * @param consumer a {@link BiConsumer} which is called with the location and identification of each stored identification, cannot be {@code null}
+   * @throws SQLException when a database problem occurred
+   */
+  void forEach(BiConsumer<URI, Identification> consumer) throws SQLException {
+    database.accept(tx ->
+      tx."SELECT \{ALL} FROM identifications"
+        .map(ALL)
+        .consume(r -> consumer.accept(r.location(), r.identification()))
+    );
+  }
+
   void store(URI location, Identification identification) throws SQLException {
     Instant time = Instant.now();
 
@@ -3,6 +3,9 @@ package hs.mediasystem.db.core;
 import hs.mediasystem.api.datasource.domain.Identification;
 import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.util.PriorityRateLimiter;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
 import hs.mediasystem.util.exception.Throwables;
 import hs.mediasystem.util.time.TimeSource;
 
@@ -13,14 +16,21 @@ import java.net.URI;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 import org.int4.db.core.util.ThrowingRunnable;
 import org.int4.db.core.util.ThrowingSupplier;
@@ -35,9 +45,65 @@ import org.int4.db.core.util.ThrowingSupplier;
  *
  * If at any time a previously identified item becomes unidentifiable (not due
  * to an error, but because the service can no longer match the item) then
- * the callback with be called with {@code null} as the identification result.
+ * the callback with be called with {@code null} as the identification result.<p>
+ *
+ * Identifications are done in one of several {@link Lane}s.  Requests in a lane
+ * with a higher priority are served first, both when waiting to do an identification
+ * and when waiting for the rate limits of the {@link IdentificationProvider}.  Some
+ * capacity is reserved for interactive requests, so these do not have to wait for
+ * identifications which are already in progress.<p>
+ *
+ * Tasks do not occupy a thread while waiting for their next identification.
+ * Instead, the time each task is due is kept in a schedule, and a single scheduler
+ * thread starts due tasks on virtual threads.  Refreshes are spread out by adding
+ * a random delay (up to a configurable window) to their due time, and the number
+ * of refreshes started per hour can be limited.  This prevents a large number of
+ * refreshes from becoming due at the same moment, for example after a restore of
+ * a database in which many identifications were created at the same time.<p>
+ *
+ * The scheduler thread runs until the manager is closed.
  */
-class IdentificationTaskManager {
+class IdentificationTaskManager implements AutoCloseable {
+
+  /**
+   * The lanes in which identifications are done, in order of priority.
+   */
+  enum Lane {
+
+    /**
+     * Identifications explicitly requested by a user.
+     */
+    INTERACTIVE(Thread.MAX_PRIORITY),
+
+    /**
+     * Identifications of items without an identification, which includes new items.
+     */
+    NEW(Thread.MIN_PRIORITY),
+
+    /**
+     * Periodic refreshes of existing identifications.
+     */
+    REFRESH(Thread.MIN_PRIORITY - 10);
+
+    final int rateLimiterPriority;  // priority when waiting on a PriorityRateLimiter, where virtual threads have priority 5 - 10 by default
+
+    Lane(int rateLimiterPriority) {
+      this.rateLimiterPriority = rateLimiterPriority;
+    }
+  }
+
+  /**
+   * Creates the semaphore which limits the number of concurrent identifications.
+   * New identifications can use all permits except one, which is reserved for
+   * interactive identifications.  Refreshes share the permits of new identifications,
+   * and use at most two of them, so an interactive identification can always start
+   * immediately.
+   *
+   * @return a {@link LaneSemaphore}, never {@code null}
+   */
+  static LaneSemaphore<Lane> createIdentificationSemaphore() {
+    return new LaneSemaphore<>(Lane.class, 6, Map.of(Lane.NEW, 5, Lane.REFRESH, 2));
+  }
 
   /**
    * The identification status of a location.
@@ -48,24 +114,129 @@ class IdentificationTaskManager {
    */
   record IdentifiedLocation(URI location, Identification identification, IdentificationProvider provider) {}
 
+  /**
+   * An upcoming identification.
+   *
+   * @param location the location to identify, cannot be {@code null}
+   * @param time the time the identification is due, cannot be {@code null}
+   * @param lane the {@link Lane} in which the identification will be done, cannot be {@code null}
+   */
+  record ScheduledIdentification(URI location, Instant time, Lane lane) {}
+
   private static final Logger LOGGER = System.getLogger(IdentificationTaskManager.class.getName());
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Identifying");
+  private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+  private static final Duration HOUR = Duration.ofHours(1);
+  private static final Duration MAX_SLEEP = Duration.ofDays(1);
+  private static final Comparator<Entry> ENTRY_ORDER = Comparator.comparing(Entry::time).thenComparingLong(Entry::sequence);
 
   private final Map<URI, Task> tasks = new HashMap<>();
+  private final Map<URI, Identification> preloadedIdentifications = new HashMap<>();  // stored identifications for which no task was created yet
+  private final PriorityQueue<Entry> urgentEntries = new PriorityQueue<>(ENTRY_ORDER);  // not limited per hour
+  private final PriorityQueue<Entry> refreshEntries = new PriorityQueue<>(ENTRY_ORDER);  // limited per hour
+  private final Deque<Instant> recentRefreshes = new ArrayDeque<>();  // start times of refreshes in the last hour
   private final IdentificationStore identificationStore;
   private final TimeSource timeSource;
   private final Duration standardRefreshTime;
   private final Duration errorRefreshTime;
+  private final Duration refreshJitter;
+  private final int maxRefreshesPerHour;
   private final BlockingQueue<IdentifiedLocation> queue;
+  private final Thread scheduler;
 
+  private long sequence;
+  private volatile boolean closed;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param identificationStore an {@link IdentificationStore}, cannot be {@code null}
+   * @param timeSource a {@link TimeSource}, cannot be {@code null}
+   * @param standardRefreshTime the time after which a successful identification is refreshed, cannot be {@code null}
+   * @param errorRefreshTime the time after which a failed identification is retried, cannot be {@code null}
+   * @param refreshJitter the maximum random delay added to refreshes, cannot be {@code null}
+   * @param maxRefreshesPerHour the maximum number of refreshes started per hour, must be positive
+   * @param queue a {@link BlockingQueue} which receives the results, cannot be {@code null}
+   */
+  public IdentificationTaskManager(IdentificationStore identificationStore, TimeSource timeSource, Duration standardRefreshTime, Duration errorRefreshTime, Duration refreshJitter, int maxRefreshesPerHour, BlockingQueue<IdentifiedLocation> queue) {
+    if(maxRefreshesPerHour <= 0) {
+      throw new IllegalArgumentException("maxRefreshesPerHour must be positive: " + maxRefreshesPerHour);
+    }
+
+    this.identificationStore = Objects.requireNonNull(identificationStore, "identificationStore");
+    this.timeSource = Objects.requireNonNull(timeSource, "timeSource");
+    this.standardRefreshTime = Objects.requireNonNull(standardRefreshTime, "standardRefreshTime");
+    this.errorRefreshTime = Objects.requireNonNull(errorRefreshTime, "errorRefreshTime");
+    this.refreshJitter = Objects.requireNonNull(refreshJitter, "refreshJitter");
+    this.maxRefreshesPerHour = maxRefreshesPerHour;
+    this.queue = Objects.requireNonNull(queue, "queue");
+    this.scheduler = Thread.ofPlatform()
+      .daemon()
+      .name(getClass().getSimpleName() + ":scheduler")
+      .start(this::runScheduler);
+  }
+
+  /**
+   * Constructs a new instance which does not delay or limit refreshes.
+   *
+   * @param identificationStore an {@link IdentificationStore}, cannot be {@code null}
+   * @param timeSource a {@link TimeSource}, cannot be {@code null}
+   * @param standardRefreshTime the time after which a successful identification is refreshed, cannot be {@code null}
+   * @param errorRefreshTime the time after which a failed identification is retried, cannot be {@code null}
+   * @param queue a {@link BlockingQueue} which receives the results, cannot be {@code null}
+   */
   public IdentificationTaskManager(IdentificationStore identificationStore, TimeSource timeSource, Duration standardRefreshTime, Duration errorRefreshTime, BlockingQueue<IdentifiedLocation> queue) {
-    this.identificationStore = identificationStore;
-    this.timeSource = timeSource;
-    this.standardRefreshTime = standardRefreshTime;
-    this.errorRefreshTime = errorRefreshTime;
-    this.queue = queue;
+    this(identificationStore, timeSource, standardRefreshTime, errorRefreshTime, Duration.ZERO, Integer.MAX_VALUE, queue);
+  }
+
+  /**
+   * Loads all stored identifications in a single pass.  Tasks created afterwards
+   * for locations with a stored identification start with that identification,
+   * instead of each querying the store individually.
+   *
+   * @throws SQLException when a database problem occurred
+   */
+  void preload() throws SQLException {
+    Map<URI, Identification> identifications = new HashMap<>();
+
+    identificationStore.forEach(identifications::put);
+
+    synchronized(this) {
+      identifications.keySet().removeAll(tasks.keySet());  // tasks created in the mean time have queried the store already
+      preloadedIdentifications.putAll(identifications);
+    }
+
+    LOGGER.log(Level.INFO, "Preloaded " + identifications.size() + " identifications");
+  }
+
+  /**
+   * Discards the preloaded identifications which were not used to create a task.
+   * Call once all locations were discovered for the first time, as the remaining
+   * identifications then belong to locations which no longer exist, or which can
+   * query the store themselves should they appear later.
+   */
+  void discardPreloaded() {
+    int count;
+
+    synchronized(this) {
+      count = preloadedIdentifications.size();
+      preloadedIdentifications.clear();
+    }
+
+    LOGGER.log(Level.INFO, "Discarded " + count + " unused preloaded identifications");
   }
 
-  synchronized void create(IdentificationProvider provider, Discovery discovery) {
+  /**
+   * Creates a task which identifies the given discovery, unless a task for the
+   * same discovery and provider already exists.  If the identification for the
+   * discovery was preloaded, it is returned, and no result is sent out for it
+   * until the identification changes.
+   *
+   * @param provider an {@link IdentificationProvider}, cannot be {@code null}
+   * @param discovery a {@link Discovery}, cannot be {@code null}
+   * @return the preloaded {@link Identification}, or {@code null} if there was none
+   */
+  synchronized Identification create(IdentificationProvider provider, Discovery discovery) {
     Objects.requireNonNull(provider, "provider");
     Objects.requireNonNull(discovery, "discovery");
 
@@ -76,14 +247,30 @@ class IdentificationTaskManager {
     Task oldTask = tasks.get(discovery.location());
 
     if(oldTask != null && oldTask.rootDiscovery.equals(discovery) && oldTask.externalIdentificationProvider.equals(provider)) {
-      return;
+      return null;
     }
 
-    tasks.put(discovery.location(), new Task(provider, discovery, false));
-
     if(oldTask != null) {
-      oldTask.stop();
+      stopInternal(discovery.location());
+    }
+
+    Task task = new Task(provider, discovery, false);
+    Identification identification = preloadedIdentifications.remove(discovery.location());
+
+    if(identification == null) {
+      start(task);
+
+      return null;
     }
+
+    task.identification = identification;
+    task.activeProvider = provider;
+    task.loaded = true;
+
+    tasks.put(task.rootLocation, task);
+    schedule(task, jitter(identification.match().creationTime().plus(standardRefreshTime)));
+
+    return identification;
   }
 
   /**
@@ -99,17 +286,53 @@ class IdentificationTaskManager {
     Task oldTask = stopInternal(location);
 
     if(oldTask != null) {
-      IdentificationProvider provider = oldTask.externalIdentificationProvider;
-      Discovery discovery = oldTask.rootDiscovery;
+      start(new Task(oldTask.externalIdentificationProvider, oldTask.rootDiscovery, true));
+    }
+  }
+
+  /**
+   * Returns the upcoming identifications, in the order in which they are due.
+   * Refreshes which are due, but are delayed because the maximum number of
+   * refreshes per hour was reached, are returned with their original due time.
+   *
+   * @param max the maximum number of identifications to return
+   * @return a list of {@link ScheduledIdentification}s, never {@code null} but can be empty
+   */
+  synchronized List<ScheduledIdentification> getSchedule(int max) {
+    return Stream.concat(urgentEntries.stream(), refreshEntries.stream())
+      .sorted(ENTRY_ORDER)
+      .limit(max)
+      .map(e -> new ScheduledIdentification(e.task.rootLocation, e.time, e.task.getLane()))
+      .toList();
+  }
+
+  /**
+   * Stops all tasks and the scheduler thread.  Identifications which are in progress
+   * are interrupted, and no new identifications are started.
+   */
+  @Override
+  public void close() {
+    synchronized(this) {
+      closed = true;
 
-      tasks.put(discovery.location(), new Task(provider, discovery, true));
+      for(URI location : List.copyOf(tasks.keySet())) {
+        stopInternal(location);
+      }
     }
+
+    scheduler.interrupt();
+  }
+
+  private void start(Task task) {
+    tasks.put(task.rootLocation, task);
+    schedule(task, timeSource.instant());
   }
 
   private Task stopInternal(URI location) {
     Task task = tasks.remove(location);
 
     if(task != null) {
+      unschedule(task);
       task.stop();
 
       return task;
@@ -118,16 +341,127 @@ class IdentificationTaskManager {
     return null;
   }
 
+  // Only call while holding the lock:
+  private void schedule(Task task, Instant time) {
+    Entry entry = new Entry(time, sequence++, task);
+
+    task.entry = entry;
+
+    (task.getLane() == Lane.REFRESH ? refreshEntries : urgentEntries).add(entry);
+
+    scheduler.interrupt();  // wakes up the scheduler so it can take the new entry into account
+  }
+
+  // Only call while holding the lock:
+  private void unschedule(Task task) {
+    if(task.entry != null) {
+      urgentEntries.remove(task.entry);
+      refreshEntries.remove(task.entry);
+      task.entry = null;
+    }
+  }
+
+  private synchronized void completed(Task task, Instant nextTime) {
+    task.future = null;
+
+    if(tasks.get(task.rootLocation) == task) {
+      schedule(task, nextTime);
+    }
+  }
+
+  private Instant jitter(Instant time) {
+    Instant now = timeSource.instant();
+    Instant base = time.isBefore(now) ? now : time;
+
+    if(refreshJitter.isZero() || refreshJitter.isNegative()) {
+      return base;
+    }
+
+    return base.plusMillis(ThreadLocalRandom.current().nextLong(refreshJitter.toMillis() + 1));
+  }
+
+  private void runScheduler() {
+    while(!closed) {
+      Duration sleepTime;
+
+      synchronized(this) {
+        if(closed) {
+          break;
+        }
+
+        sleepTime = startDueTasks(timeSource.instant());
+      }
+
+      try {
+        timeSource.sleep(sleepTime);
+      }
+      catch(InterruptedException e) {
+        // Schedule was modified or manager was closed, check again
+      }
+    }
+
+    LOGGER.log(Level.DEBUG, "Stopped " + Thread.currentThread());
+  }
+
+  /**
+   * Starts all tasks which are due at the given time, and returns how long to
+   * wait until the next task will be due.  Only call while holding the lock.
+   */
+  private Duration startDueTasks(Instant now) {
+    while(!urgentEntries.isEmpty() && !urgentEntries.peek().time.isAfter(now)) {
+      startTask(urgentEntries.poll().task);
+    }
+
+    while(!recentRefreshes.isEmpty() && !recentRefreshes.peekFirst().plus(HOUR).isAfter(now)) {
+      recentRefreshes.pollFirst();
+    }
+
+    while(!refreshEntries.isEmpty() && !refreshEntries.peek().time.isAfter(now) && recentRefreshes.size() < maxRefreshesPerHour) {
+      startTask(refreshEntries.poll().task);
+      recentRefreshes.addLast(now);
+    }
+
+    Instant next = now.plus(MAX_SLEEP);
+
+    if(!urgentEntries.isEmpty()) {
+      next = min(next, urgentEntries.peek().time);
+    }
+
+    if(!refreshEntries.isEmpty()) {
+      Instant time = refreshEntries.peek().time;
+
+      next = min(next, recentRefreshes.size() < maxRefreshesPerHour ? time : max(time, recentRefreshes.peekFirst().plus(HOUR)));
+    }
+
+    WORKLOAD.setStatistic("scheduled", urgentEntries.size() + refreshEntries.size());
+    WORKLOAD.setStatistic("refreshesLastHour", recentRefreshes.size());
+
+    return Duration.between(now, next);
+  }
+
+  // Only call while holding the lock:
+  private static void startTask(Task task) {
+    task.entry = null;
+    task.future = EXECUTOR.submit(task);
+  }
+
+  private static Instant min(Instant a, Instant b) {
+    return a.isBefore(b) ? a : b;
+  }
+
+  private static Instant max(Instant a, Instant b) {
+    return a.isAfter(b) ? a : b;
+  }
+
+  private record Entry(Instant time, long sequence, Task task) {}
+
   private class Task implements Runnable {
-    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
     private static final Semaphore DATABASE_SEMAPHORE = new Semaphore(2, true);
-    private static final Semaphore IDENTIFICATION_SEMAPHORE = new Semaphore(6, true);
-    private static final Semaphore LOW_PRIORITY_IDENTIFICATION_SEMAPHORE = new Semaphore(3, true);
+    private static final LaneSemaphore<Lane> IDENTIFICATION_SEMAPHORE = createIdentificationSemaphore();
 
     private final IdentificationProvider externalIdentificationProvider;  // can be null
     private final URI rootLocation;
     private final Discovery rootDiscovery;
-    private final Future<?> future;
 
     private Identification identification;  // null indicates there is no identification
     private IdentificationProvider activeProvider;  // indicates where last identification came from (null = there was none)
@@ -135,19 +469,28 @@ class IdentificationTaskManager {
     private volatile boolean stopRequested;  // safety flag to see if thread interrupted flag is not subverted somewhere (like catching an InterruptedException but completely ignoring it)
 
     private boolean immediate;
+    private boolean loaded;  // whether the store was queried for an existing identification
+
+    private Entry entry;  // guarded by manager, set when scheduled
+    private Future<?> future;  // guarded by manager, set when running
 
     Task(IdentificationProvider identificationProvider, Discovery discovery, boolean immediate) {
       this.externalIdentificationProvider = identificationProvider;
       this.immediate = immediate;
       this.rootDiscovery = Objects.requireNonNull(discovery, "discovery");
       this.rootLocation = discovery.location();
-
-      this.future = EXECUTOR.submit(this);
     }
 
-    void stop() {  // Don't make this synchronized, as this task could be in the middle of a callback
+    void stop() {  // Only call while holding the manager lock, but don't synchronize on the task, as this task could be in the middle of a callback
       stopRequested = true;
-      future.cancel(true);
+
+      if(future != null) {
+        future.cancel(true);
+      }
+    }
+
+    Lane getLane() {
+      return immediate ? Lane.INTERACTIVE : hasIdentification() ? Lane.REFRESH : Lane.NEW;
     }
 
     private boolean hasIdentification() {
@@ -174,10 +517,27 @@ class IdentificationTaskManager {
       assert externalIdentificationProvider != null;
 
       /*
-       * Infinite update task, continuously runs to update identification information periodically.
+       * Runs a single step of the task, and then schedules the next step.
        */
 
       try {
+        completed(this, step());
+      }
+      catch(SQLException e) {
+        LOGGER.log(Level.ERROR, "Database is required for background identification tasks to function: " + this, e);
+      }
+      catch(InterruptedException e) {
+        LOGGER.log(Level.INFO, "Stopped successfully: " + this);
+      }
+      catch(Exception e) {
+        LOGGER.log(Level.ERROR, "Exception running identification task: " + this, e);
+      }
+    }
+
+    private Instant step() throws SQLException, InterruptedException {
+      if(!loaded) {
+        loaded = true;
+
         if(!immediate) {
           updateStatus("querying store");
 
@@ -187,28 +547,15 @@ class IdentificationTaskManager {
             // TODO database may be storing data provided by a DIFFERENT provider (if configuration was changed)
             update(identification, externalIdentificationProvider);
 
-            sleepUntil(identification.match().creationTime().plus(standardRefreshTime));
+            return jitter(identification.match().creationTime().plus(standardRefreshTime));
           }
         }
-
-        for(;;) {
-          identify();
-        }
-      }
-      catch(SQLException e) {
-        LOGGER.log(Level.ERROR, "Database is required for background identification tasks to function: " + this, e);
-      }
-      catch(InterruptedException e) {
-        LOGGER.log(Level.INFO, "Stopped successfully: " + this);
-      }
-      catch(Exception e) {
-        LOGGER.log(Level.ERROR, "Exception running identification task: " + this, e);
       }
-    }
 
-    // TODO how to give immediate task temporarily a higher priority (so it won't get bogged down in dozens of queries to TMDB)
+      return identify();
+    }
 
-    private void identify() throws InterruptedException {
+    private Instant identify() throws InterruptedException {
       URI location = rootDiscovery.location();
 
       try {
@@ -229,26 +576,19 @@ class IdentificationTaskManager {
 
         LOGGER.log(newIdentification == null ? Level.WARNING : Level.INFO, "Identification using " + externalIdentificationProvider.getName() + " for " + toLocationString() + (newIdentification == null ? " did not result in a match" : " was: " + newIdentification));
 
-        sleepUntil(timeSource.instant().plus(standardRefreshTime));
+        return jitter(timeSource.instant().plus(standardRefreshTime));
       }
       catch(InterruptedException e) {
         throw e;
       }
       catch(IOException e) {
         LOGGER.log(Level.WARNING, "Identification with " + externalIdentificationProvider + " for " + toLocationString() + " was unsuccessful because: " + Throwables.formatAsOneLine(e));
-
-        sleepUntil(timeSource.instant().plus(errorRefreshTime));
       }
       catch(Exception e) {
         LOGGER.log(Level.ERROR, "Identification with " + externalIdentificationProvider + " for " + toLocationString() + " failed with an exception", e);
-
-        sleepUntil(timeSource.instant().plus(errorRefreshTime));
       }
-    }
 
-    private void sleepUntil(Instant instant) throws InterruptedException {
-      updateStatus("sleeping until " + instant);
-      timeSource.sleep(Duration.between(timeSource.instant(), instant));
+      return timeSource.instant().plus(errorRefreshTime);
     }
 
     private void updateStatus(String status) throws InterruptedException {
@@ -258,27 +598,33 @@ class IdentificationTaskManager {
     }
 
     private Identification doIdentification() throws InterruptedException, IOException {
-      boolean lowPriority = hasIdentification();
+      Lane lane = getLane();
+
+      acquire(lane);
 
-      if(lowPriority) {
-        LOW_PRIORITY_IDENTIFICATION_SEMAPHORE.acquire();
+      try(PriorityRateLimiter.Priority priority = PriorityRateLimiter.prioritize(lane.rateLimiterPriority)) {
+        return externalIdentificationProvider.identify(rootDiscovery).orElse(null);
       }
+      finally {
+        IDENTIFICATION_SEMAPHORE.release(lane);
+      }
+    }
 
-      try {
-        IDENTIFICATION_SEMAPHORE.acquire();
+    private static void acquire(Lane lane) throws InterruptedException {
+      String name = lane.name().toLowerCase();
 
-        try {
-          return externalIdentificationProvider.identify(rootDiscovery).orElse(null);
-        }
-        finally {
-          IDENTIFICATION_SEMAPHORE.release();
-        }
+      WORKLOAD.setStatistic(name + "QueueDepth", IDENTIFICATION_SEMAPHORE.getQueueDepth(lane) + 1);
+
+      try {
+        IDENTIFICATION_SEMAPHORE.acquire(lane);
       }
       finally {
-        if(lowPriority) {
-          LOW_PRIORITY_IDENTIFICATION_SEMAPHORE.release();
-        }
+        WORKLOAD.setStatistic(name + "QueueDepth", IDENTIFICATION_SEMAPHORE.getQueueDepth(lane));
       }
+
+      WORKLOAD.addStatistic(name + "Identifications", 1);
+      WORKLOAD.setStatistic(name + "LastWaitMillis", IDENTIFICATION_SEMAPHORE.getLastWaitMillis(lane));
+      WORKLOAD.setStatistic(name + "AverageWaitMillis", IDENTIFICATION_SEMAPHORE.getAverageWaitMillis(lane));
     }
 
     private void checkInterrupt() throws InterruptedException {
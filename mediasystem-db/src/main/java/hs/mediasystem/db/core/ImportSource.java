@@ -4,6 +4,7 @@ import hs.mediasystem.api.discovery.Discoverer;
 import hs.mediasystem.db.core.domain.StreamTags;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -16,13 +17,23 @@ import java.util.Optional;
  * @param root a {@link URI}, cannot be {@code null}
  * @param identificationService an optional name of an identification service to use, cannot be {@code null}
  * @param tags a {@link StreamTags}, cannot be {@code null}
+ * @param scanInterval an optional time in between scans of this source, cannot be {@code null} but can be empty to use the default interval
  */
-public record ImportSource(Discoverer discoverer, URI root, Optional<String> identificationService, StreamTags tags) {
+public record ImportSource(Discoverer discoverer, URI root, Optional<String> identificationService, StreamTags tags, Optional<Duration> scanInterval) {
 
   public ImportSource {
     Objects.requireNonNull(discoverer, "discoverer");
     Objects.requireNonNull(root, "root").resolve("");
     Objects.requireNonNull(tags, "tags");
+    Objects.requireNonNull(scanInterval, "scanInterval");
+
+    if(scanInterval.filter(d -> d.isNegative() || d.isZero()).isPresent()) {
+      throw new IllegalArgumentException("scanInterval must be positive: " + scanInterval.get());
+    }
+  }
+
+  public ImportSource(Discoverer discoverer, URI root, Optional<String> identificationService, StreamTags tags) {
+    this(discoverer, root, identificationService, tags, Optional.empty());
   }
 
   @Override
@@ -0,0 +1,230 @@
+package hs.mediasystem.db.core;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A semaphore which hands out permits to waiting threads by lane.  Threads waiting
+ * in a lane with a lower ordinal are always given permits first, regardless of how
+ * long threads in other lanes have been waiting.  Within a lane, permits are given
+ * in arrival order.<p>
+ *
+ * Each lane can be limited to fewer permits than the total number of permits.  A
+ * lane's limit applies to that lane and all lanes with a lower priority together.
+ * This keeps permits in reserve for the higher priority lanes, so a thread arriving
+ * in a high priority lane does not have to wait for a slow operation in a low
+ * priority lane to complete.
+ *
+ * @param <L> the type of the lanes
+ */
+class LaneSemaphore<L extends Enum<L>> {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Lane[] lanes;
+
+  private int availablePermits;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param type the type of the lanes, cannot be {@code null}
+   * @param permits the total number of permits, must be positive
+   * @param laneLimits the maximum number of permits per lane, including the permits of lower priority lanes, lanes not present are only limited by the total, cannot be {@code null}
+   */
+  LaneSemaphore(Class<L> type, int permits, Map<L, Integer> laneLimits) {
+    if(permits <= 0) {
+      throw new IllegalArgumentException("permits must be positive: " + permits);
+    }
+
+    L[] constants = type.getEnumConstants();
+
+    this.lanes = new Lane[constants.length];
+    this.availablePermits = permits;
+
+    for(L constant : constants) {
+      lanes[constant.ordinal()] = new Lane(laneLimits.getOrDefault(constant, permits));
+    }
+  }
+
+  /**
+   * Acquires a permit in the given lane, blocking until one is available.
+   *
+   * @param lane a lane, cannot be {@code null}
+   * @throws InterruptedException when interrupted while waiting
+   */
+  void acquire(L lane) throws InterruptedException {
+    Lane l = lanes[Objects.requireNonNull(lane, "lane").ordinal()];
+    Waiter waiter = new Waiter(lock.newCondition());
+
+    lock.lock();
+
+    try {
+      l.waiters.add(waiter);
+
+      dispatch();
+
+      try {
+        while(!waiter.granted) {
+          waiter.condition.await();
+        }
+      }
+      catch(InterruptedException e) {
+        if(waiter.granted) {
+          releaseInternal(l);
+        }
+        else {
+          l.waiters.remove(waiter);
+        }
+
+        throw e;
+      }
+
+      long waitNanos = System.nanoTime() - waiter.startNanos;
+
+      l.acquired++;
+      l.totalWaitNanos += waitNanos;
+      l.lastWaitNanos = waitNanos;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases a permit acquired in the given lane.
+   *
+   * @param lane a lane, cannot be {@code null}
+   */
+  void release(L lane) {
+    lock.lock();
+
+    try {
+      releaseInternal(lanes[Objects.requireNonNull(lane, "lane").ordinal()]);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of threads waiting for a permit in the given lane.
+   *
+   * @param lane a lane, cannot be {@code null}
+   * @return the number of waiting threads
+   */
+  int getQueueDepth(L lane) {
+    lock.lock();
+
+    try {
+      return lanes[lane.ordinal()].waiters.size();
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns how long the last thread that acquired a permit in the given lane
+   * had to wait, in milliseconds.
+   *
+   * @param lane a lane, cannot be {@code null}
+   * @return the last wait time in milliseconds
+   */
+  long getLastWaitMillis(L lane) {
+    lock.lock();
+
+    try {
+      return lanes[lane.ordinal()].lastWaitNanos / 1_000_000;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the average time threads had to wait for a permit in the given lane,
+   * in milliseconds.
+   *
+   * @param lane a lane, cannot be {@code null}
+   * @return the average wait time in milliseconds
+   */
+  long getAverageWaitMillis(L lane) {
+    lock.lock();
+
+    try {
+      Lane l = lanes[lane.ordinal()];
+
+      return l.acquired == 0 ? 0 : l.totalWaitNanos / l.acquired / 1_000_000;
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
+  // Only call while holding the lock:
+  private void releaseInternal(Lane lane) {
+    lane.permitsInUse--;
+    availablePermits++;
+
+    dispatch();
+  }
+
+  // Only call while holding the lock:
+  private void dispatch() {
+    for(int i = 0; i < lanes.length; i++) {
+      Lane lane = lanes[i];
+
+      while(availablePermits > 0 && !lane.waiters.isEmpty() && isWithinLimits(i)) {
+        Waiter waiter = lane.waiters.poll();
+
+        availablePermits--;
+        lane.permitsInUse++;
+        waiter.granted = true;
+        waiter.condition.signal();
+      }
+    }
+  }
+
+  // Only call while holding the lock:
+  private boolean isWithinLimits(int index) {
+    int permitsInUse = 0;
+
+    for(int i = lanes.length - 1; i >= 0; i--) {
+      permitsInUse += lanes[i].permitsInUse;  // permits in use by this lane and all lower priority lanes
+
+      if(i <= index && permitsInUse >= lanes[i].limit) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static class Lane {
+    final int limit;
+    final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    int permitsInUse;
+    long acquired;
+    long totalWaitNanos;
+    long lastWaitNanos;
+
+    Lane(int limit) {
+      this.limit = limit;
+    }
+  }
+
+  private static class Waiter {
+    final Condition condition;
+    final long startNanos = System.nanoTime();
+
+    boolean granted;
+
+    Waiter(Condition condition) {
+      this.condition = condition;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package hs.mediasystem.db.core;
 
+import hs.mediasystem.api.datasource.WorkDescriptor;
 import hs.mediasystem.api.datasource.domain.Release;
 import hs.mediasystem.db.core.domain.LinkedWork;
 import hs.mediasystem.db.core.domain.Resource;
@@ -8,111 +9,378 @@ import hs.mediasystem.domain.stream.MediaType;
 import hs.mediasystem.domain.work.DataSource;
 import hs.mediasystem.domain.work.WorkId;
 
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
- * Service providing {@link LinkedWork}s.
+ * Service providing {@link LinkedWork}s.<p>
+ *
+ * All queries are answered from an immutable {@link Snapshot} which is replaced
+ * after each batch of changes, so readers never lock and never wait for writers.
  */
 @Singleton
 public class LinkedWorksService {
+
+  /**
+   * The changes made to the linked works by a batch of events.
+   *
+   * @param snapshot the {@link Snapshot} which was published with the changes applied, cannot be {@code null}
+   * @param updated the ids of works which were added or updated, cannot be {@code null}
+   * @param removed the ids of works which were removed, cannot be {@code null}
+   */
+  public record Change(Snapshot snapshot, Set<WorkId> updated, Set<WorkId> removed) {
+
+    /**
+     * Returns the version of the linked works after the changes were applied.
+     *
+     * @return the version of the linked works after the changes were applied
+     */
+    public long version() {
+      return snapshot.getVersion();
+    }
+
+    /**
+     * Returns whether this change is empty.
+     *
+     * @return {@code true} if no works were added, updated or removed, otherwise {@code false}
+     */
+    public boolean isEmpty() {
+      return updated.isEmpty() && removed.isEmpty();
+    }
+  }
+
+  private static final Logger LOGGER = System.getLogger(LinkedWorksService.class.getName());
   private static final DataSource RESOURCE_DATA_SOURCE = DataSource.instance("@INTERNAL");
   private static final Comparator<LinkedWork> REVERSED_CREATION_ORDER = Comparator
     .comparing((LinkedWork lw) -> lw.resources().getFirst().streamable().contentPrint().getSignatureCreationTime())
     .thenComparing(lw -> lw.resources().getFirst().streamable().contentPrint().getLastModificationTime())
-    .reversed();
+    .reversed()
+    .thenComparing(lw -> lw.id().toString());  // makes order total, so the creation order index is stable
 
-  private final Map<WorkId, LinkedWork> linkedWorks = new HashMap<>();
-  private final Map<URI, Set<URI>> children = new HashMap<>();
-  private final Map<URI, Set<WorkId>> workIdsByLocation = new HashMap<>();
-  private final Map<URI, URI> parentLocations = new HashMap<>();  // TODO unused, remove
+  private final Object writeLock = new Object();  // only serializes writers, readers use the published snapshot
+  private final List<Consumer<Change>> subscribers = new CopyOnWriteArrayList<>();
+
+  private volatile Snapshot snapshot = new Snapshot();
 
   @Inject
   private LinkedWorksService() {}
 
-  void processEvent(ResourceEvent event) {
-    synchronized(linkedWorks) {
-      if(event instanceof ResourceEvent.Updated u) {
-        Resource resource = u.resource();
+  /**
+   * Subscribes to changes of the linked works.  The subscriber is called once for
+   * each batch of processed events which changed any works, in the order in which
+   * the batches were processed.  Subscribers should return quickly, as they are
+   * called on the thread which processed the events.
+   *
+   * @param subscriber a {@link Consumer} of {@link Change}s, cannot be {@code null}
+   */
+  public void subscribe(Consumer<Change> subscriber) {
+    subscribers.add(Objects.requireNonNull(subscriber, "subscriber"));
+  }
+
+  /**
+   * Returns the current {@link Snapshot} of the linked works.  A snapshot never
+   * changes, so several queries on the same snapshot give consistent results.
+   *
+   * @return a {@link Snapshot}, never {@code null}
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Returns the version of the current {@link Snapshot}.  The version only increases
+   * when works were added, updated or removed, so a client which has seen a version
+   * can cheaply check whether anything changed since.
+   *
+   * @return the current version
+   */
+  public long getVersion() {
+    return snapshot.getVersion();
+  }
 
-        remove(resource.location());
-        add(resource);
+  /**
+   * Applies a batch of events in a single pass.  Events for the same location
+   * are coalesced, so only the last event for each location is applied, and each
+   * affected {@link LinkedWork} is only rebuilt once.  A new {@link Snapshot} is
+   * published and a single {@link Change} is sent for the whole batch.
+   *
+   * @param events a list of {@link ResourceEvent}s, cannot be {@code null}
+   */
+  void processEvents(List<ResourceEvent> events) {
+    Map<URI, ResourceEvent> coalescedEvents = new LinkedHashMap<>();
+
+    for(ResourceEvent event : events) {
+      coalescedEvents.remove(event.location());  // ensures order of the last event is used
+      coalescedEvents.put(event.location(), event);
+    }
+
+    Change change;
+
+    synchronized(writeLock) {
+      Batch batch = new Batch(snapshot);
+
+      for(ResourceEvent event : coalescedEvents.values()) {
+        batch.remove(event.location());
+
+        if(event instanceof ResourceEvent.Updated u) {
+          batch.add(u.resource());
+        }
       }
-      else if(event instanceof ResourceEvent.Removed r) {
-        remove(r.location());
+
+      change = batch.apply();
+    }
+
+    if(!change.isEmpty()) {
+      for(Consumer<Change> subscriber : subscribers) {
+        try {
+          subscriber.accept(change);
+        }
+        catch(Exception e) {
+          LOGGER.log(Level.WARNING, "Subscriber " + subscriber + " failed to process change: " + change, e);
+        }
       }
     }
   }
 
-  private void add(Resource resource) {
-    addStream(resource);
-    addResourceToChildren(resource);
+  /**
+   * Collects the changes to the resources of linked works, so each affected work
+   * can be rebuilt once, and then publishes a new {@link Snapshot} based on the
+   * given snapshot.  Only the parts of the snapshot which were modified are copied.
+   * Only use while holding the write lock.
+   */
+  private class Batch {
+    private final Snapshot base;
+    private final Map<WorkId, List<Resource>> affectedResources = new HashMap<>();
+    private final Map<WorkId, WorkDescriptor> descriptors = new HashMap<>();
+    private final ShardedMap.Editor<URI, Set<WorkId>> workIdsByLocation;
+    private final ShardedMap.Editor<URI, URI> parentLocations;
+    private final Map<URI, Set<URI>> modifiedChildren = new HashMap<>();
+
+    Batch(Snapshot base) {
+      this.base = base;
+      this.workIdsByLocation = base.workIdsByLocation.edit();
+      this.parentLocations = base.parentLocations.edit();
+    }
+
+    void add(Resource resource) {
+      for(Release release : resource.releases()) {
+        resourcesOf(release.getId()).add(resource);
+        descriptors.put(release.getId(), release);
+      }
+
+      workIdsByLocation.put(resource.location(), resource.releases().stream().map(Release::getId).collect(Collectors.toUnmodifiableSet()));
+
+      resource.streamable().parentLocation().ifPresent(parentLocation -> {
+        parentLocations.put(resource.location(), parentLocation);
+        modifiableSet(modifiedChildren, base.children, parentLocation).add(resource.location());
+      });
+    }
+
+    void remove(URI location) {
+      URI parentLocation = parentLocations.get(location);
+
+      if(parentLocation != null) {
+        parentLocations.remove(location);
+        modifiableSet(modifiedChildren, base.children, parentLocation).remove(location);
+      }
+
+      Set<WorkId> workIds = workIdsByLocation.get(location);
+
+      if(workIds != null) {
+        workIdsByLocation.remove(location);
+
+        for(WorkId workId : workIds) {
+          resourcesOf(workId).removeIf(r -> r.location().equals(location));
+        }
+      }
+    }
+
+    Change apply() {
+      ShardedMap.Editor<WorkId, LinkedWork> linkedWorks = base.linkedWorks.edit();
+      ShardedMap.Editor<WorkId, LinkedWork> rootWorks = base.rootWorks.edit();
+      Map<MediaType, ShardedMap.Editor<WorkId, LinkedWork>> worksByType = new EnumMap<>(MediaType.class);
+      Map<String, ShardedMap.Editor<WorkId, LinkedWork>> worksByTag = new HashMap<>();
+      Map<ContentID, Set<WorkId>> modifiedWorkIdsByContentId = new HashMap<>();
+      Set<LinkedWork> obsoleteWorks = Collections.newSetFromMap(new IdentityHashMap<>());
+      List<LinkedWork> newWorks = new ArrayList<>();
+      Set<WorkId> updated = new HashSet<>();
+      Set<WorkId> removed = new HashSet<>();
+
+      for(Map.Entry<WorkId, List<Resource>> entry : affectedResources.entrySet()) {
+        WorkId id = entry.getKey();
+        List<Resource> resources = entry.getValue();
+        LinkedWork oldWork = base.linkedWorks.get(id);
+
+        if(oldWork != null) {
+          obsoleteWorks.add(oldWork);
+          rootWorks.remove(id);
+          editor(worksByType, base.worksByType, id.getType()).remove(id);
+
+          for(String tag : tagsOf(oldWork)) {
+            editor(worksByTag, base.worksByTag, tag).remove(id);
+          }
+
+          for(Resource resource : oldWork.resources()) {
+            modifiableSet(modifiedWorkIdsByContentId, base.workIdsByContentId, resource.contentId()).remove(id);
+          }
+        }
+
+        if(resources.isEmpty()) {
+          if(oldWork != null) {
+            linkedWorks.remove(id);
+            removed.add(id);
+          }
+        }
+        else {
+          WorkDescriptor descriptor = descriptors.getOrDefault(id, oldWork == null ? null : oldWork.workDescriptor());
+          LinkedWork linkedWork = new LinkedWork(descriptor, List.copyOf(resources));
+
+          linkedWorks.put(id, linkedWork);
+          editor(worksByType, base.worksByType, id.getType()).put(id, linkedWork);
+
+          for(String tag : tagsOf(linkedWork)) {
+            editor(worksByTag, base.worksByTag, tag).put(id, linkedWork);
+          }
+
+          for(Resource resource : linkedWork.resources()) {
+            modifiableSet(modifiedWorkIdsByContentId, base.workIdsByContentId, resource.contentId()).add(id);
+          }
+
+          if(isRoot(linkedWork)) {
+            rootWorks.put(id, linkedWork);
+          }
+
+          newWorks.add(linkedWork);
+          updated.add(id);
+        }
+      }
+
+      boolean changed = !updated.isEmpty() || !removed.isEmpty();
+
+      snapshot = new Snapshot(
+        changed ? base.version + 1 : base.version,
+        linkedWorks.build(),
+        withModifiedSets(base.children, modifiedChildren),
+        workIdsByLocation.build(),
+        parentLocations.build(),
+        withModifiedIndexes(base.worksByType, worksByType),
+        withModifiedIndexes(base.worksByTag, worksByTag),
+        withModifiedSets(base.workIdsByContentId, modifiedWorkIdsByContentId),
+        rootWorks.build(),
+        changed ? merge(base.worksByCreationTime, obsoleteWorks, newWorks) : base.worksByCreationTime
+      );
+
+      return new Change(snapshot, Set.copyOf(updated), Set.copyOf(removed));
+    }
+
+    private List<Resource> resourcesOf(WorkId id) {
+      return affectedResources.computeIfAbsent(id, k -> {
+        LinkedWork linkedWork = base.linkedWorks.get(k);
+
+        return linkedWork == null ? new ArrayList<>() : new ArrayList<>(linkedWork.resources());
+      });
+    }
   }
 
-  private void remove(URI location) {
-    removeResourceFromChildren(location);
-    removeStream(location);
+  /**
+   * Returns a modifiable copy of the set associated with the given key, which
+   * is created on first use.  The copies are written back with {@link #withModifiedSets(ShardedMap, Map)}.
+   */
+  private static <K, E> Set<E> modifiableSet(Map<K, Set<E>> modifiedSets, ShardedMap<K, Set<E>> map, K key) {
+    return modifiedSets.computeIfAbsent(key, k -> new HashSet<>(map.getOrDefault(k, Set.of())));
   }
 
-  private void addResourceToChildren(Resource resource) {
-    resource.streamable().parentLocation().ifPresent(parentLocation -> {
-      parentLocations.put(resource.location(), parentLocation);
-      children.computeIfAbsent(parentLocation, k -> new HashSet<>()).add(resource.location());
+  private static <K, E> ShardedMap<K, Set<E>> withModifiedSets(ShardedMap<K, Set<E>> map, Map<K, Set<E>> modifiedSets) {
+    if(modifiedSets.isEmpty()) {
+      return map;
+    }
+
+    ShardedMap.Editor<K, Set<E>> editor = map.edit();
+
+    modifiedSets.forEach((k, v) -> {
+      if(v.isEmpty()) {
+        editor.remove(k);
+      }
+      else {
+        editor.put(k, Set.copyOf(v));
+      }
     });
+
+    return editor.build();
   }
 
-  private void removeResourceFromChildren(URI location) {
-    URI parentLocation = parentLocations.remove(location);
+  private static <K> ShardedMap.Editor<WorkId, LinkedWork> editor(Map<K, ShardedMap.Editor<WorkId, LinkedWork>> editors, Map<K, ShardedMap<WorkId, LinkedWork>> indexes, K key) {
+    return editors.computeIfAbsent(key, k -> indexes.getOrDefault(k, ShardedMap.of()).edit());
+  }
 
-    if(parentLocation != null) {
-      children.computeIfPresent(parentLocation, (k, v) -> v.remove(location) && v.isEmpty() ? null : v);
+  private static <K> Map<K, ShardedMap<WorkId, LinkedWork>> withModifiedIndexes(Map<K, ShardedMap<WorkId, LinkedWork>> indexes, Map<K, ShardedMap.Editor<WorkId, LinkedWork>> editors) {
+    if(editors.isEmpty()) {
+      return indexes;
     }
-  }
 
-  private void addStream(Resource resource) {
-    for(Release release : resource.releases()) {
-      LinkedWork linkedWork = new LinkedWork(release, List.of(resource));
+    Map<K, ShardedMap<WorkId, LinkedWork>> copy = new HashMap<>(indexes);
 
-      linkedWorks.merge(linkedWork.id(), linkedWork, (w1, w2) -> new LinkedWork(
-        w2.workDescriptor(),
-        Stream.concat(w1.resources().stream(), w2.resources().stream()).toList()
-      ));
-    }
+    editors.forEach((k, v) -> {
+      ShardedMap<WorkId, LinkedWork> index = v.build();
+
+      if(index.isEmpty()) {
+        copy.remove(k);
+      }
+      else {
+        copy.put(k, index);
+      }
+    });
 
-    workIdsByLocation.put(resource.location(), resource.releases().stream().map(Release::getId).collect(Collectors.toSet()));
+    return Map.copyOf(copy);
   }
 
-  private void removeStream(URI location) {
-    Set<WorkId> affectedWorkIds = workIdsByLocation.remove(location);
+  /**
+   * Merges new works into a list of works in creation order, while leaving out
+   * obsolete works.  This is linear in the size of the list, as only the new works
+   * need sorting.
+   */
+  private static List<LinkedWork> merge(List<LinkedWork> works, Set<LinkedWork> obsoleteWorks, List<LinkedWork> newWorks) {
+    List<LinkedWork> merged = new ArrayList<>(works.size() + newWorks.size());
+    int i = 0;
+
+    newWorks.sort(REVERSED_CREATION_ORDER);
 
-    if(affectedWorkIds != null) {
-      for(WorkId workId : affectedWorkIds) {
-        LinkedWork linkedWork = linkedWorks.get(workId);  // should never return null as index is always maintained
+    for(LinkedWork work : works) {
+      if(obsoleteWorks.contains(work)) {
+        continue;
+      }
 
-        if(linkedWork.resources().size() == 1) {
-          linkedWorks.remove(linkedWork.id());
-        }
-        else {
-          linkedWorks.put(linkedWork.id(), new LinkedWork(
-            linkedWork.workDescriptor(),
-            linkedWork.resources().stream().filter(mr -> !mr.location().equals(location)).toList()
-          ));
-        }
+      while(i < newWorks.size() && REVERSED_CREATION_ORDER.compare(newWorks.get(i), work) < 0) {
+        merged.add(newWorks.get(i++));
       }
+
+      merged.add(work);
     }
+
+    merged.addAll(newWorks.subList(i, newWorks.size()));
+
+    return Collections.unmodifiableList(merged);
   }
 
   /**
@@ -122,10 +390,7 @@ public class LinkedWorksService {
    * @return an optional {@link LinkedWork}, never {@code null}
    */
   public Optional<LinkedWork> find(WorkId id) {
-    synchronized(linkedWorks) {
-      return Optional.ofNullable(linkedWorks.get(id))
-        .or(() -> id.getDataSource().equals(RESOURCE_DATA_SOURCE) ? find(URI.create(id.getKey())).stream().findFirst() : Optional.empty());
-    }
+    return snapshot.find(id);
   }
 
   /**
@@ -135,20 +400,7 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> findChildren(WorkId id) {
-    synchronized(linkedWorks) {
-      return find(id).stream()
-        .map(LinkedWork::resources)
-        .flatMap(List::stream)
-        .map(Resource::location)
-        .map(children::get)
-        .filter(Objects::nonNull)  // children are not added immediately, and can be unavailable momentarily
-        .flatMap(Set::stream)
-        .map(workIdsByLocation::get)
-        .flatMap(Set::stream)
-        .distinct()
-        .map(linkedWorks::get)
-        .toList();
-    }
+    return snapshot.findChildren(id);
   }
 
   /**
@@ -159,13 +411,7 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> findNewest(int maximum, Predicate<MediaType> filter) {
-    synchronized(linkedWorks) {
-      return linkedWorks.values().stream()
-        .filter(lw -> filter.test(lw.id().getType()))
-        .sorted(REVERSED_CREATION_ORDER)
-        .limit(maximum)
-        .collect(Collectors.toList());
-    }
+    return snapshot.findNewest(maximum, filter);
   }
 
   /**
@@ -175,16 +421,7 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> findRootsByTag(String tag) {
-    // This currently allows a work to have two resources with a different parent; no idea how that could be achieved though
-    // Perhaps if there are two serie folders, that both identify to the same serie, and there is an episode in each of these folders that is the same work
-    // Can't think of a situation where one of the resources would have a parent, but the other doesn't (probably impossible, but would like to enforce this then)
-    // TODO this is a bit clumsy, and mainly used for Folder/File. If top level folders had a special tag or MediaType, this would be much easier.
-    synchronized(linkedWorks) {
-      return linkedWorks.values().stream()
-        .filter(lw -> tag == null || hasTag(lw, tag))
-        .filter(lw -> !lw.resources().stream().flatMap(r -> r.streamable().parentLocation().stream()).anyMatch(Objects::nonNull))
-        .collect(Collectors.toList());
-    }
+    return snapshot.findRootsByTag(tag);
   }
 
   /**
@@ -195,12 +432,19 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> findAllByType(MediaType type, String tag) {
-    synchronized(linkedWorks) {
-      return linkedWorks.values().stream()
-        .filter(lw -> type == null || lw.id().getType() == type)
-        .filter(lw -> tag == null || hasTag(lw, tag))
-        .collect(Collectors.toList());
-    }
+    return snapshot.findAllByType(type, tag);
+  }
+
+  /**
+   * Returns a {@link Predicate} which matches the works {@link #findAllByType(MediaType, String)}
+   * returns for the same arguments.
+   *
+   * @param type a required {@link MediaType}, or {@code null} for all types
+   * @param tag a required tag, or {@code null} for all tags
+   * @return a {@link Predicate}, never {@code null}
+   */
+  public static Predicate<LinkedWork> allByTypeFilter(MediaType type, String tag) {
+    return lw -> (type == null || lw.id().getType() == type) && (tag == null || tagsOf(lw).contains(tag));
   }
 
   /**
@@ -212,12 +456,7 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> find(URI location) {
-    synchronized(linkedWorks) {
-      return workIdsByLocation.getOrDefault(location, Set.of()).stream()
-        .map(linkedWorks::get)
-        .sorted(Comparator.comparing(lw -> lw.id().toString()))
-        .collect(Collectors.toList());
-    }
+    return snapshot.find(location);
   }
 
   /**
@@ -229,15 +468,194 @@ public class LinkedWorksService {
    * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
    */
   public List<LinkedWork> find(ContentID cid) {
-    synchronized(linkedWorks) {
-      return linkedWorks.values().stream()
-        .filter(lw -> lw.resources().stream().anyMatch(mr -> mr.contentId().equals(cid)))
+    return snapshot.find(cid);
+  }
+
+  /**
+   * An immutable view of all linked works and their indexes at a specific version.
+   * Queries on a snapshot never lock and are never affected by changes made after
+   * the snapshot was published.
+   */
+  public static final class Snapshot {
+    private final long version;
+    private final ShardedMap<WorkId, LinkedWork> linkedWorks;
+    private final ShardedMap<URI, Set<URI>> children;
+    private final ShardedMap<URI, Set<WorkId>> workIdsByLocation;
+    private final ShardedMap<URI, URI> parentLocations;
+
+    /*
+     * Secondary indexes:
+     */
+
+    private final Map<MediaType, ShardedMap<WorkId, LinkedWork>> worksByType;
+    private final Map<String, ShardedMap<WorkId, LinkedWork>> worksByTag;
+    private final ShardedMap<ContentID, Set<WorkId>> workIdsByContentId;
+    private final ShardedMap<WorkId, LinkedWork> rootWorks;  // root works, which are works without a parent
+    private final List<LinkedWork> worksByCreationTime;
+
+    Snapshot(
+      long version,
+      ShardedMap<WorkId, LinkedWork> linkedWorks,
+      ShardedMap<URI, Set<URI>> children,
+      ShardedMap<URI, Set<WorkId>> workIdsByLocation,
+      ShardedMap<URI, URI> parentLocations,
+      Map<MediaType, ShardedMap<WorkId, LinkedWork>> worksByType,
+      Map<String, ShardedMap<WorkId, LinkedWork>> worksByTag,
+      ShardedMap<ContentID, Set<WorkId>> workIdsByContentId,
+      ShardedMap<WorkId, LinkedWork> rootWorks,
+      List<LinkedWork> worksByCreationTime
+    ) {
+      this.version = version;
+      this.linkedWorks = linkedWorks;
+      this.children = children;
+      this.workIdsByLocation = workIdsByLocation;
+      this.parentLocations = parentLocations;
+      this.worksByType = worksByType;
+      this.worksByTag = worksByTag;
+      this.workIdsByContentId = workIdsByContentId;
+      this.rootWorks = rootWorks;
+      this.worksByCreationTime = worksByCreationTime;
+    }
+
+    Snapshot() {
+      this(0, ShardedMap.of(), ShardedMap.of(), ShardedMap.of(), ShardedMap.of(), Map.of(), Map.of(), ShardedMap.of(), ShardedMap.of(), List.of());
+    }
+
+    /**
+     * Returns the version of this snapshot.  Snapshots with the same version
+     * contain the same works.
+     *
+     * @return the version of this snapshot
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * Finds a {@link LinkedWork} by id.
+     *
+     * @param id a {@link WorkId}, cannot be {@code null}
+     * @return an optional {@link LinkedWork}, never {@code null}
+     */
+    public Optional<LinkedWork> find(WorkId id) {
+      return Optional.ofNullable(linkedWorks.get(id))
+        .or(() -> id.getDataSource().equals(RESOURCE_DATA_SOURCE) ? find(URI.create(id.getKey())).stream().findFirst() : Optional.empty());
+    }
+
+    /**
+     * Finds the children of the work given by the id.
+     *
+     * @param id a {@link WorkId}, cannot be {@code null}
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> findChildren(WorkId id) {
+      return find(id).stream()
+        .map(LinkedWork::resources)
+        .flatMap(List::stream)
+        .map(Resource::location)
+        .map(children::get)
+        .filter(Objects::nonNull)  // children are not added immediately, and can be unavailable momentarily
+        .flatMap(Set::stream)
+        .map(workIdsByLocation::get)
+        .flatMap(Set::stream)
+        .distinct()
+        .map(linkedWorks::get)
+        .toList();
+    }
+
+    /**
+     * Finds the newest works matching the given {@link MediaType} filter up to the given maximum.
+     *
+     * @param maximum the maximum number of works to find, cannot be negative
+     * @param filter a {@link MediaType} filter, cannot be {@code null}
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> findNewest(int maximum, Predicate<MediaType> filter) {
+      return worksByCreationTime.stream()
+        .filter(lw -> filter.test(lw.id().getType()))
+        .limit(maximum)
+        .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns linked works with the given tag that have no parent (roots).
+     *
+     * @param tag a required tag, or {@code null} for all tags
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> findRootsByTag(String tag) {
+      // This currently allows a work to have two resources with a different parent; no idea how that could be achieved though
+      // Perhaps if there are two serie folders, that both identify to the same serie, and there is an episode in each of these folders that is the same work
+      // Can't think of a situation where one of the resources would have a parent, but the other doesn't (probably impossible, but would like to enforce this then)
+      // TODO this is a bit clumsy, and mainly used for Folder/File. If top level folders had a special tag or MediaType, this would be much easier.
+      return intersect(rootWorks, tag == null ? null : worksByTag.getOrDefault(tag, ShardedMap.of()));
+    }
+
+    /**
+     * Returns linked works of the given type with the given.
+     *
+     * @param type a required {@link MediaType}, or {@code null} for all types
+     * @param tag a required tag, or {@code null} for all tags
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> findAllByType(MediaType type, String tag) {
+      return intersect(
+        type == null ? linkedWorks : worksByType.getOrDefault(type, ShardedMap.of()),
+        tag == null ? null : worksByTag.getOrDefault(tag, ShardedMap.of())
+      );
+    }
+
+    /**
+     * Returns linked works associated with the given stream in their logical order. More
+     * than one work can be returned in cases where a stream contains multiple logical
+     * works, like a two part episode contained in one stream.
+     *
+     * @param location a {@link URI}, cannot be {@code null}
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> find(URI location) {
+      return workIdsByLocation.getOrDefault(location, Set.of()).stream()
+        .map(linkedWorks::get)
+        .sorted(Comparator.comparing(lw -> lw.id().toString()))
+        .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns linked works associated with the given content in their logical order. More
+     * than one work can be returned in cases where multiple streams with the same content
+     * identify as different works.
+     *
+     * @param cid a {@link ContentID}, cannot be {@code null}
+     * @return a list of {@link LinkedWork}s, never {@code null} or contains {@code null}s, but can be empty
+     */
+    public List<LinkedWork> find(ContentID cid) {
+      return workIdsByContentId.getOrDefault(cid, Set.of()).stream()
+        .map(linkedWorks::get)
         .sorted(Comparator.comparing(lw -> lw.id().toString()))
         .collect(Collectors.toList());
     }
+
+    /**
+     * Returns the works present in both indexes, where a {@code null} index matches
+     * all works.  The first index cannot be {@code null}.  Only the smaller index
+     * is iterated, so the cost is proportional to the size of the result when
+     * either index is small.
+     */
+    private static List<LinkedWork> intersect(ShardedMap<WorkId, LinkedWork> index1, ShardedMap<WorkId, LinkedWork> index2) {
+      ShardedMap<WorkId, LinkedWork> smallest = index2 == null || index1.size() <= index2.size() ? index1 : index2;
+      ShardedMap<WorkId, LinkedWork> other = smallest == index1 ? index2 : index1;
+
+      return smallest.values()
+        .filter(lw -> other == null || other.containsKey(lw.id()))
+        .collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+
+  private static Set<String> tagsOf(LinkedWork linkedWork) {
+    return linkedWork.resources().getFirst().streamable().tags().tags();
   }
 
-  private static boolean hasTag(LinkedWork linkedWork, String tag) {
-    return linkedWork.resources().getFirst().streamable().tags().contains(tag);
+  private static boolean isRoot(LinkedWork linkedWork) {
+    return linkedWork.resources().stream().allMatch(r -> r.streamable().parentLocation().isEmpty());
   }
 }
@@ -5,6 +5,14 @@ import hs.mediasystem.db.core.domain.Resource;
 import java.net.URI;
 
 interface ResourceEvent {
-  record Updated(Resource resource) implements ResourceEvent {}
+  URI location();
+
+  record Updated(Resource resource) implements ResourceEvent {
+    @Override
+    public URI location() {
+      return resource.location();
+    }
+  }
+
   record Removed(URI location) implements ResourceEvent {}
 }
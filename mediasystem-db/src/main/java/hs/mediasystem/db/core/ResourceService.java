@@ -12,21 +12,27 @@ import hs.mediasystem.util.time.TimeSource;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URI;
+import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.int4.db.core.util.ThrowingSupplier;
+import org.int4.dirk.annotations.Opt;
 
 @Singleton
 public class ResourceService {
@@ -54,22 +60,42 @@ public class ResourceService {
   private final Map<URI, URI> roots = new HashMap<>();  // Dependent to Root (not a parent child mapping, does not contain an entry for every resource!)
   private final Map<ContentID, Set<URI>> contentIds = new HashMap<>();
 
-  private final IdentificationTaskManager identificationTaskManager;
+  private final IdentificationStore identificationStore;
   private final LinkedWorksService worksService;
-  private final BlockingQueue<IdentifiedLocation> queue = new SynchronousQueue<>();
+  private final BlockingQueue<IdentifiedLocation> queue = new LinkedBlockingQueue<>();
   private final ReentrantLock lock = new ReentrantLock();
+  private final List<ResourceEvent> pendingEvents = new ArrayList<>();  // events not yet sent to the works service, guarded by lock
+
+  @Inject @Opt @Named("server.identification.refresh-jitter") private Long refreshJitter = 2 * 24 * 60 * 60L;  // Refreshes are spread out over this many seconds: 2 days
+  @Inject @Opt @Named("server.identification.max-refreshes-per-hour") private Long maxRefreshesPerHour = 250L;  // Maximum number of refreshes started per hour
+
+  private IdentificationTaskManager identificationTaskManager;
 
   @Inject
   public ResourceService(IdentificationStore identificationStore, LinkedWorksService worksService) {
+    this.identificationStore = identificationStore;
     this.worksService = worksService;
+  }
+
+  @PostConstruct
+  private void postConstruct() {
     this.identificationTaskManager = new IdentificationTaskManager(
       identificationStore,
       TimeSource.system(),
       Duration.ofDays(14),
       Duration.ofHours(2),
+      Duration.ofSeconds(refreshJitter),
+      maxRefreshesPerHour.intValue(),
       queue
     );
 
+    try {
+      identificationTaskManager.preload();
+    }
+    catch(SQLException e) {
+      LOGGER.log(Level.WARNING, "Unable to preload identifications, identifications will be loaded individually", e);
+    }
+
     Thread.ofPlatform()
       .daemon()
       .name(this.getClass().getSimpleName() + ":queueReader")
@@ -108,11 +134,29 @@ public class ResourceService {
     }
   }
 
-  void handleEvent(StreamableEvent event) {
+  /**
+   * Discards the stored identifications which were preloaded but not used.  Call
+   * once all sources were discovered for the first time.
+   */
+  void initialDiscoveryCompleted() {
+    identificationTaskManager.discardPreloaded();
+  }
+
+  /**
+   * Handles a batch of events.  The resulting resource events are sent to the
+   * {@link LinkedWorksService} as a single batch.
+   *
+   * @param events a list of {@link StreamableEvent}s, cannot be {@code null}
+   */
+  void handleEvents(List<StreamableEvent> events) {
     lock.lock();
 
     try {
-      whileLockedHandleEvent(event);
+      for(StreamableEvent event : events) {
+        whileLockedHandleEvent(event);
+      }
+
+      whileLockedFlushEvents();
     }
     finally {
       lock.unlock();
@@ -172,7 +216,11 @@ public class ResourceService {
 
         if(provider != null) {
           if(rootLocation == null) {
-            identificationTaskManager.create(provider, u.discovery());
+            Identification identification = identificationTaskManager.create(provider, u.discovery());
+
+            if(identification != null) {
+              identifications.put(location, identification);  // preloaded, so resource can be created fully identified
+            }
           }
           else {
             Identification identification = identifications.get(rootLocation);
@@ -211,9 +259,15 @@ public class ResourceService {
   }
 
   private void processQueue() {
+    List<IdentifiedLocation> results = new ArrayList<>();
+
     try {
       for(;;) {
-        identified(queue.take());
+        results.add(queue.take());
+        queue.drainTo(results);  // handle all results which are available as one batch
+
+        identified(results);
+        results.clear();
       }
     }
     catch(InterruptedException e) {
@@ -221,57 +275,74 @@ public class ResourceService {
     }
   }
 
-  private void identified(IdentifiedLocation result) {
+  private void identified(List<IdentifiedLocation> results) {
     lock.lock();
 
     try {
-      URI rootLocation = result.location();
-      Identification identification = result.identification();
-
-      /*
-       * As identifications are asynchronous, they could no longer be relevant.
-       * In that case they should be ignored.
-       */
-
-      if(resources.containsKey(rootLocation)) {
-        if(identification == null) {
-          identifications.remove(rootLocation);
-          updateResource(rootLocation);
-
-          // Also remove all dependent identifications:
-          for(URI dependent : dependents.getOrDefault(rootLocation, Set.of())) {
-            identifications.remove(dependent);
-            updateResource(dependent);
-          }
-        }
-        else {
-          identifications.put(rootLocation, identification);
-          updateResource(rootLocation);
-
-          // Also identify all dependents:
-          for(URI dependent : dependents.getOrDefault(rootLocation, Set.of())) {
-            identifications.put(dependent, result.provider().identifyChild(discoveries.get(dependent), identification));
-            updateResource(dependent);
-          }
-        }
+      for(IdentifiedLocation result : results) {
+        whileLockedIdentified(result);
       }
+
+      whileLockedFlushEvents();
     }
     finally {
       lock.unlock();
     }
   }
 
+  private void whileLockedIdentified(IdentifiedLocation result) {
+    URI rootLocation = result.location();
+    Identification identification = result.identification();
+
+    /*
+     * As identifications are asynchronous, they could no longer be relevant.
+     * In that case they should be ignored.
+     */
+
+    if(resources.containsKey(rootLocation)) {
+      if(identification == null) {
+        identifications.remove(rootLocation);
+        updateResource(rootLocation);
+
+        // Also remove all dependent identifications:
+        for(URI dependent : dependents.getOrDefault(rootLocation, Set.of())) {
+          identifications.remove(dependent);
+          updateResource(dependent);
+        }
+      }
+      else {
+        identifications.put(rootLocation, identification);
+        updateResource(rootLocation);
+
+        // Also identify all dependents:
+        for(URI dependent : dependents.getOrDefault(rootLocation, Set.of())) {
+          identifications.put(dependent, result.provider().identifyChild(discoveries.get(dependent), identification));
+          updateResource(dependent);
+        }
+      }
+    }
+  }
+
   private void updateResource(URI location) {
     Identification identification = getIdentification(location);
     Resource resource = new Resource(streamables.get(location), identification.match(), identification.releases());
 
     resources.put(location, resource);
-    worksService.processEvent(new ResourceEvent.Updated(resource));
+    pendingEvents.add(new ResourceEvent.Updated(resource));
   }
 
   private void removeResource(URI location) {
     if(resources.remove(location) != null) {
-      worksService.processEvent(new ResourceEvent.Removed(location));
+      pendingEvents.add(new ResourceEvent.Removed(location));
+    }
+  }
+
+  private void whileLockedFlushEvents() {
+    if(!pendingEvents.isEmpty()) {
+      List<ResourceEvent> events = List.copyOf(pendingEvents);
+
+      pendingEvents.clear();
+      worksService.processEvents(events);
     }
   }
 
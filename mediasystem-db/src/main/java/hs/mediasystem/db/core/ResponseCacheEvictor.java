@@ -0,0 +1,170 @@
+package hs.mediasystem.db.core;
+
+import hs.mediasystem.api.datasource.domain.Details;
+import hs.mediasystem.db.base.ImageDatabase;
+import hs.mediasystem.db.base.ImageMetadata;
+import hs.mediasystem.db.core.domain.LinkedWork;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
+import hs.mediasystem.util.concurrent.NamedThreadFactory;
+import hs.mediasystem.util.exception.Throwables;
+import hs.mediasystem.util.image.ImageURI;
+
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.int4.dirk.annotations.Opt;
+
+/**
+ * Keeps the response cache bounded by evicting the least recently accessed
+ * responses once the cache exceeds a configurable size, and any responses which
+ * were not accessed for a configurable number of days.<p>
+ *
+ * The images of works which are currently linked to resources are never evicted,
+ * as these are displayed when browsing the collection.<p>
+ *
+ * Responses are evicted in small batches with a delay in between, so eviction never
+ * holds locks on the database for long.
+ */
+@Singleton
+public class ResponseCacheEvictor {
+  private static final Logger LOGGER = System.getLogger(ResponseCacheEvictor.class.getName());
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Evicting cached responses");
+  private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ResponseCacheEvictor", true));
+
+  @Inject private ImageDatabase imageDatabase;
+  @Inject private LinkedWorksService linkedWorksService;
+  @Inject @Opt @Named("server.response-cache.max-bytes") private Long maxBytes = 2L * 1024 * 1024 * 1024;  // Maximum total size in bytes of all cached responses
+  @Inject @Opt @Named("server.response-cache.max-age-days") private Long maxAgeDays = 365L;  // Cached responses not accessed for this many days are evicted
+  @Inject @Opt @Named("server.response-cache.batch-size") private Long batchSize = 100L;  // Maximum number of responses to evict in a single transaction
+  @Inject @Opt @Named("server.response-cache.batch-delay") private Long batchDelay = 1000L;  // Time in milliseconds in between batches, to give other database users a chance
+
+  @PostConstruct
+  private void postConstruct() {
+    EXECUTOR.scheduleWithFixedDelay(this::evictSafely, 10, 60, TimeUnit.MINUTES);
+  }
+
+  private void evictSafely() {
+    try {
+      evict();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch(RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Evicting cached responses failed: " + Throwables.formatAsOneLine(e));
+    }
+  }
+
+  /**
+   * Evicts cached responses, least recently accessed first, until the cache is
+   * no larger than the maximum size and no response is older than the maximum age.
+   *
+   * @return an {@link EvictionResult}, never {@code null}
+   * @throws InterruptedException when interrupted
+   */
+  EvictionResult evict() throws InterruptedException {
+    Set<String> protectedUrls = findProtectedUrls();
+    LocalDateTime cutOff = LocalDateTime.now().minusDays(maxAgeDays);
+    int limit = (int)Math.max(1, batchSize);
+    long size = imageDatabase.totalSize();
+    ImageMetadata after = null;
+    int count = 0;
+    int protectedCount = 0;
+    long evictedBytes = 0;
+
+    WORKLOAD.start();
+
+    try {
+      for(boolean done = false; !done;) {
+        List<ImageMetadata> entries = imageDatabase.findLeastRecentlyAccessed(after, limit);
+        List<ImageMetadata> entriesToEvict = new ArrayList<>();
+
+        done = entries.size() < limit;
+
+        for(ImageMetadata entry : entries) {
+          if(size <= maxBytes && !entry.accessTime().isBefore(cutOff)) {
+            done = true;  // all remaining entries were accessed more recently
+            break;
+          }
+
+          after = entry;
+
+          if(protectedUrls.contains(entry.url())) {
+            protectedCount++;
+          }
+          else {
+            entriesToEvict.add(entry);
+            size -= entry.size();
+          }
+        }
+
+        if(!entriesToEvict.isEmpty()) {
+          List<ImageMetadata> deletedEntries = imageDatabase.delete(entriesToEvict);
+          long deletedBytes = deletedEntries.stream().mapToLong(ImageMetadata::size).sum();
+
+          size += entriesToEvict.stream().mapToLong(ImageMetadata::size).sum() - deletedBytes;  // entries accessed in the mean time were not deleted
+          count += deletedEntries.size();
+          evictedBytes += deletedBytes;
+
+          if(!done) {
+            Thread.sleep(batchDelay);
+          }
+        }
+      }
+    }
+    finally {
+      WORKLOAD.complete();
+    }
+
+    WORKLOAD.addStatistic("items", count);
+    WORKLOAD.addStatistic("bytes", evictedBytes);
+    WORKLOAD.setStatistic("protectedItems", protectedCount);
+    WORKLOAD.setStatistic("cacheBytes", size);
+
+    if(count > 0) {
+      LOGGER.log(Level.INFO, "Evicted " + count + " cached responses, reclaiming about " + evictedBytes / 1024 / 1024 + " MB; cache is now about " + size / 1024 / 1024 + " MB");
+    }
+
+    return new EvictionResult(count, evictedBytes, protectedCount);
+  }
+
+  private Set<String> findProtectedUrls() {
+    Set<String> urls = new HashSet<>();
+
+    for(LinkedWork linkedWork : linkedWorksService.findAllByType(null, null)) {
+      Details details = linkedWork.workDescriptor().getDetails();
+
+      Stream.of(details.getCover(), details.getSampleImage(), details.getBackdrop())
+        .flatMap(Optional::stream)
+        .map(ImageURI::getUri)
+        .forEach(urls::add);
+    }
+
+    return urls;
+  }
+
+  /**
+   * The result of a single eviction run.
+   *
+   * @param count the number of responses evicted
+   * @param evictedBytes the number of bytes evicted
+   * @param protectedCount the number of responses which would have been evicted if they were not in use
+   */
+  record EvictionResult(int count, long evictedBytes, int protectedCount) {}
+}
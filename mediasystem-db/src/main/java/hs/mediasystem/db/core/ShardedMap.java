@@ -0,0 +1,184 @@
+package hs.mediasystem.db.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * An immutable hash map which is split into a fixed number of shards.  A modified
+ * copy only needs to copy the shards containing modified keys, and shares all
+ * other shards with the original.  This makes it suitable for publishing snapshots
+ * of large, frequently changing maps to readers which should not need to lock.<p>
+ *
+ * Modified copies are created with an {@link Editor}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+final class ShardedMap<K, V> {
+  private static final int SHARD_BITS = 8;
+  private static final int SHARD_COUNT = 1 << SHARD_BITS;
+  private static final ShardedMap<?, ?> EMPTY = new ShardedMap<>(newShards(), 0);
+
+  private final Map<K, V>[] shards;  // a shard is null when empty, and is never modified once part of a map
+  private final int size;
+
+  private ShardedMap(Map<K, V>[] shards, int size) {
+    this.shards = shards;
+    this.size = size;
+  }
+
+  /**
+   * Returns an empty map.
+   *
+   * @param <K> the type of the keys
+   * @param <V> the type of the values
+   * @return an empty map, never {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> ShardedMap<K, V> of() {
+    return (ShardedMap<K, V>)EMPTY;
+  }
+
+  V get(Object key) {
+    Map<K, V> shard = shards[shardOf(key)];
+
+    return shard == null ? null : shard.get(key);
+  }
+
+  V getOrDefault(Object key, V defaultValue) {
+    V value = get(key);
+
+    return value == null ? defaultValue : value;
+  }
+
+  boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  Stream<K> keys() {
+    return Arrays.stream(shards).filter(Objects::nonNull).flatMap(shard -> shard.keySet().stream());
+  }
+
+  Stream<V> values() {
+    return Arrays.stream(shards).filter(Objects::nonNull).flatMap(shard -> shard.values().stream());
+  }
+
+  /**
+   * Creates an {@link Editor} which creates a modified copy of this map.
+   *
+   * @return an {@link Editor}, never {@code null}
+   */
+  Editor<K, V> edit() {
+    return new Editor<>(this);
+  }
+
+  /**
+   * Records modifications to a {@link ShardedMap}, and creates a new map with
+   * these modifications applied.  The original map is not affected.  An editor
+   * cannot be used anymore once the new map was built.
+   *
+   * @param <K> the type of the keys
+   * @param <V> the type of the values
+   */
+  static final class Editor<K, V> {
+    private final Map<K, V>[] shards;
+    private final boolean[] copied = new boolean[SHARD_COUNT];
+
+    private int size;
+    private boolean built;
+
+    private Editor(ShardedMap<K, V> map) {
+      this.shards = map.shards.clone();
+      this.size = map.size;
+    }
+
+    V get(Object key) {
+      Map<K, V> shard = shards[shardOf(key)];
+
+      return shard == null ? null : shard.get(key);
+    }
+
+    /**
+     * Associates the given value with the given key.
+     *
+     * @param key a key, cannot be {@code null}
+     * @param value a value, cannot be {@code null}
+     */
+    void put(K key, V value) {
+      Objects.requireNonNull(value, "value");
+
+      if(writableShard(key).put(key, value) == null) {
+        size++;
+      }
+    }
+
+    /**
+     * Removes the given key.
+     *
+     * @param key a key, cannot be {@code null}
+     */
+    void remove(K key) {
+      if(get(key) != null && writableShard(key).remove(key) != null) {
+        size--;
+      }
+    }
+
+    /**
+     * Creates a new map with all modifications applied.
+     *
+     * @return a {@link ShardedMap}, never {@code null}
+     */
+    ShardedMap<K, V> build() {
+      checkNotBuilt();
+
+      built = true;
+
+      for(int i = 0; i < SHARD_COUNT; i++) {
+        if(copied[i] && shards[i].isEmpty()) {
+          shards[i] = null;
+        }
+      }
+
+      return new ShardedMap<>(shards, size);
+    }
+
+    private Map<K, V> writableShard(K key) {
+      checkNotBuilt();
+
+      int index = shardOf(Objects.requireNonNull(key, "key"));
+
+      if(!copied[index]) {
+        shards[index] = shards[index] == null ? new HashMap<>() : new HashMap<>(shards[index]);
+        copied[index] = true;
+      }
+
+      return shards[index];
+    }
+
+    private void checkNotBuilt() {
+      if(built) {
+        throw new IllegalStateException("Editor cannot be used after map was built");
+      }
+    }
+  }
+
+  private static int shardOf(Object key) {
+    return (key.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - SHARD_BITS);  // uses high bits, as the shards use the low bits for their buckets
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Map<K, V>[] newShards() {
+    return new Map[SHARD_COUNT];
+  }
+}
@@ -3,13 +3,13 @@ package hs.mediasystem.db.core;
 import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Discovery;
 import hs.mediasystem.db.base.DatabaseContentPrintProvider;
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.Source;
 import hs.mediasystem.db.core.StreamDescriptorFetchTaskManager.DescribedLocation;
 import hs.mediasystem.db.core.domain.ContentPrint;
 import hs.mediasystem.db.core.domain.Streamable;
 import hs.mediasystem.db.extract.StreamDescriptorService;
 import hs.mediasystem.util.exception.Throwables;
 
-import java.io.IOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URI;
@@ -23,7 +23,7 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -31,6 +31,7 @@ import javax.inject.Singleton;
 @Singleton
 class StreamableService {
   record Item(Streamable streamable, Discovery discovery, Optional<IdentificationProvider> identificationProvider) {}
+  private record Candidate(Discovery discovery, Streamable cached) {}
 
   private static final Logger LOGGER = System.getLogger(StreamableService.class.getName());
 
@@ -43,7 +44,7 @@ class StreamableService {
    */
 
   private final NavigableMap<String, Streamable> cache = new TreeMap<>(PATH_COMPARATOR);
-  private final BlockingQueue<DescribedLocation> queue = new SynchronousQueue<>();
+  private final BlockingQueue<DescribedLocation> queue = new LinkedBlockingQueue<>();
   private final Map<URI, Item> items = new HashMap<>();
   private final DatabaseContentPrintProvider contentPrintProvider;
   private final ResourceService resourceService;
@@ -68,6 +69,8 @@ class StreamableService {
   private synchronized void process(DiscoverEvent event) {
     String basePath = event.base().toString();
     List<Discovery> discoveries = event.discoveries().stream().sorted(Comparator.comparing(d -> d.location().toString(), PATH_COMPARATOR)).toList();
+    boolean parentExists = event.parentLocation().map(Object::toString).map(cache::containsKey).orElse(true);
+    List<Candidate> candidates = new ArrayList<>();
     List<StreamableEvent.Updated> updatedStreamables = new ArrayList<>();
     List<Streamable> removedItems = new ArrayList<>();
     Discovery currentDiscovery = null;
@@ -95,12 +98,8 @@ class StreamableService {
         i++;
 
         // Only add item if its parent exists in cache:
-        if(event.parentLocation().map(Object::toString).map(cache::containsKey).orElse(true)) {
-          Streamable streamable = create(d, event);
-
-          if(streamable != null && (c < 0 || !streamable.equals(cached))) {
-            updatedStreamables.add(new StreamableEvent.Updated(streamable, event.identificationProvider(), d));
-          }
+        if(parentExists) {
+          candidates.add(new Candidate(d, c == 0 ? cached : null));
         }
 
         if(c == 0) {
@@ -122,37 +121,62 @@ class StreamableService {
       Discovery d = discoveries.get(i++);
 
       // Only add item if its parent exists in cache:
-      if(event.parentLocation().map(Object::toString).map(cache::containsKey).orElse(true)) {
-        Streamable streamable = create(d, event);
+      if(parentExists) {
+        candidates.add(new Candidate(d, null));
+      }
+    }
 
-        if(streamable != null) {
-          updatedStreamables.add(new StreamableEvent.Updated(streamable, event.identificationProvider(), d));
-        }
+    Map<URI, Exception> failures = new HashMap<>();
+    Map<URI, ContentPrint> contentPrints = contentPrintProvider.getAll(
+      candidates.stream().map(Candidate::discovery).map(d -> new Source(d.location(), d.size(), d.lastModificationTime())).toList(),
+      (source, e) -> failures.put(source.location(), e)
+    );
+
+    for(Candidate candidate : candidates) {
+      URI location = candidate.discovery.location();
+      Streamable streamable = create(candidate.discovery, contentPrints.get(location), failures.get(location), event);
+
+      if(streamable != null && !streamable.equals(candidate.cached)) {
+        updatedStreamables.add(new StreamableEvent.Updated(streamable, event.identificationProvider(), candidate.discovery));
       }
     }
 
-    removedItems.stream().map(Streamable::location).forEach(this::streamableRemoved);
-    updatedStreamables.stream().forEach(this::streamableUpdated);
+    List<StreamableEvent> events = new ArrayList<>();
+
+    removedItems.stream().map(Streamable::location).map(this::streamableRemoved).forEach(events::add);
+    updatedStreamables.stream().map(this::streamableUpdated).forEach(events::add);
+
+    if(!events.isEmpty()) {
+      resourceService.handleEvents(events);
+    }
   }
 
-  private synchronized void streamableUpdated(StreamableEvent.Updated updated) {
+  private StreamableEvent streamableUpdated(StreamableEvent.Updated updated) {
     items.put(updated.location(), new Item(updated.streamable(), updated.discovery(), updated.identificationProvider()));
     taskManager.create(updated.location());
     cache.put(updated.location().toString(), updated.streamable());
-    resourceService.handleEvent(updated);
+
+    return updated;
   }
 
-  private synchronized void streamableRemoved(URI location) {
+  private StreamableEvent streamableRemoved(URI location) {
     items.remove(location);
     taskManager.stop(location);
     cache.remove(location.toString());
-    resourceService.handleEvent(new StreamableEvent.Removed(location));
+
+    return new StreamableEvent.Removed(location);
   }
 
   private void processQueue() {
+    List<DescribedLocation> results = new ArrayList<>();
+
     try {
       for(;;) {
-        streamDescriptorUpdated(queue.take());
+        results.add(queue.take());
+        queue.drainTo(results);  // handle all results which are available as one batch
+
+        streamDescriptorsUpdated(results);
+        results.clear();
       }
     }
     catch(InterruptedException e) {
@@ -160,29 +184,34 @@ class StreamableService {
     }
   }
 
-  private synchronized void streamDescriptorUpdated(DescribedLocation result) {
-    Item item = items.get(result.location());
+  private synchronized void streamDescriptorsUpdated(List<DescribedLocation> results) {
+    List<StreamableEvent> events = new ArrayList<>();
 
-    if(item != null) {
-      resourceService.handleEvent(new StreamableEvent.Updated(
-        item.streamable.with(result.descriptor()),
-        item.identificationProvider,
-        item.discovery
-      ));
-    }
-  }
+    for(DescribedLocation result : results) {
+      Item item = items.get(result.location());
 
-  private Streamable create(Discovery discovery, DiscoverEvent event) {
-    try {
-      ContentPrint contentPrint = contentPrintProvider.get(discovery.location(), discovery.size(), discovery.lastModificationTime());
+      if(item != null) {
+        events.add(new StreamableEvent.Updated(
+          item.streamable.with(result.descriptor()),
+          item.identificationProvider,
+          item.discovery
+        ));
+      }
+    }
 
-      return new Streamable(discovery.mediaType(), discovery.location(), contentPrint, event.parentLocation(), event.tags(), Optional.empty());
+    if(!events.isEmpty()) {
+      resourceService.handleEvents(events);
     }
-    catch(IOException e) {
-      LOGGER.log(Level.WARNING, "Unable to create content hash for discovery, skipping: " + discovery + ", because: " + Throwables.formatAsOneLine(e));
+  }
+
+  private static Streamable create(Discovery discovery, ContentPrint contentPrint, Exception failure, DiscoverEvent event) {
+    if(contentPrint == null) {
+      LOGGER.log(Level.WARNING, "Unable to create content hash for discovery, skipping: " + discovery + ", because: " + Throwables.formatAsOneLine(failure));
 
       return null;
     }
+
+    return new Streamable(discovery.mediaType(), discovery.location(), contentPrint, event.parentLocation(), event.tags(), Optional.empty());
   }
 
   /**
@@ -1,6 +1,6 @@
 package hs.mediasystem.db.extract;
 
-import hs.mediasystem.db.jackson.RecordSerializer;
+import hs.mediasystem.db.jackson.CompactRecordSerializer;
 import hs.mediasystem.domain.media.StreamDescriptor;
 import hs.mediasystem.domain.stream.ContentID;
 
@@ -22,7 +22,7 @@ public class StreamDescriptorStore {
   private record StreamDescriptorRecord(ContentID contentId, StreamDescriptor descriptor, Instant createTime, Instant updateTime) {}
 
   private static final Lookup LOOKUP = MethodHandles.lookup();
-  private static final RecordSerializer<StreamDescriptor> RECORD_SERIALIZER = new RecordSerializer<>(StreamDescriptor.class);
+  private static final CompactRecordSerializer<StreamDescriptor> RECORD_SERIALIZER = new CompactRecordSerializer<>(StreamDescriptor.class);
   private static final TypeConverter<StreamDescriptor, byte[]> DESCRIPTOR_CONVERTER = TypeConverter.of(byte[].class, RECORD_SERIALIZER::serialize, RECORD_SERIALIZER::unserialize);
   private static final TypeConverter<ContentID, Integer> CONTENT_ID_CONVERTER = TypeConverter.of(Integer.class, ContentID::asInt, ContentID::new);
   private static final Reflector<StreamDescriptorRecord> ALL = Reflector.of(LOOKUP, StreamDescriptorRecord.class)
@@ -0,0 +1,395 @@
+package hs.mediasystem.db.jackson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import hs.mediasystem.db.events.Serializer;
+import hs.mediasystem.db.events.SerializerException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serializer for record based MediaSystem types, which stores records in a compact
+ * binary format.<p>
+ *
+ * The format is a binary encoding of the tokens Jackson produces when writing
+ * JSON, and so supports the same types as {@link RecordSerializer}.  Field names
+ * and short strings are stored only once, and are referred to by index when
+ * repeated.  Integers are stored as variable length integers, and floating point
+ * numbers in their binary form.<p>
+ *
+ * Serialized data starts with a marker byte, which can never be the first byte
+ * of JSON text, followed by a format version.  Data without this marker is read
+ * as JSON produced by {@link RecordSerializer}, so data stored in the old format
+ * can still be read.
+ *
+ * @param <T> the record type
+ */
+public class CompactRecordSerializer<T> implements Serializer<T> {
+  private static final ObjectMapper OBJECT_MAPPER = RecordSerializer.OBJECT_MAPPER;
+  private static final byte MARKER = (byte)0xB1;  // a UTF-8 continuation byte, which is never the first byte of text
+  private static final int VERSION = 1;
+  private static final int MAX_SHARED_STRING_LENGTH = 64;  // in bytes, longer strings are unlikely to repeat
+
+  /*
+   * Tags, each token is encoded as a tag byte, optionally followed by data:
+   */
+
+  private static final int START_OBJECT = 0x01;
+  private static final int END_OBJECT = 0x02;
+  private static final int START_ARRAY = 0x03;
+  private static final int END_ARRAY = 0x04;
+  private static final int NULL = 0x05;
+  private static final int TRUE = 0x06;
+  private static final int FALSE = 0x07;
+  private static final int FIELD_NAME = 0x08;  // followed by length and UTF-8 bytes, adds name to the name table
+  private static final int FIELD_NAME_REF = 0x09;  // followed by an index in the name table
+  private static final int STRING = 0x0A;  // followed by length and UTF-8 bytes, adds string to the string table when short
+  private static final int STRING_REF = 0x0B;  // followed by an index in the string table
+  private static final int INTEGER = 0x0C;  // followed by a zig-zag encoded variable length integer
+  private static final int FLOAT = 0x0D;  // followed by 4 bytes
+  private static final int DOUBLE = 0x0E;  // followed by 8 bytes
+  private static final int BIG_INTEGER = 0x0F;  // followed by length and UTF-8 bytes of its string form
+  private static final int BIG_DECIMAL = 0x10;  // followed by length and UTF-8 bytes of its string form
+  private static final int BINARY = 0x11;  // followed by length and bytes
+  private static final int SHORT_FIELD_NAME_REF = 0x40;  // 0x40 - 0x7F: index 0 - 63 in the name table
+  private static final int SHORT_STRING_REF = 0x80;  // 0x80 - 0xBF: index 0 - 63 in the string table
+  private static final int SHORT_INTEGER = 0xC0;  // 0xC0 - 0xFF: integers 0 - 63
+
+  private final Class<T> cls;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param cls a class, cannot be {@code null}
+   * @throws NullPointerException when {@code cls} is {@code null}
+   */
+  public CompactRecordSerializer(Class<T> cls) {
+    this.cls = Objects.requireNonNull(cls, "cls");
+  }
+
+  @Override
+  public byte[] serialize(T value) throws SerializerException {
+    Objects.requireNonNull(value, "value");
+
+    try {
+      TokenBuffer buffer = new TokenBuffer(OBJECT_MAPPER, false);
+
+      OBJECT_MAPPER.writeValue(buffer, value);
+
+      try(JsonParser parser = buffer.asParser()) {
+        return new Encoder().encode(parser);
+      }
+    }
+    catch(IOException e) {
+      throw new SerializerException("Value of type " + cls + " is not serializable: " + value, e);
+    }
+  }
+
+  @Override
+  public T unserialize(byte[] serialized) throws SerializerException {
+    Objects.requireNonNull(serialized, "serialized");
+
+    try {
+      if(serialized.length == 0 || serialized[0] != MARKER) {
+        return OBJECT_MAPPER.readValue(serialized, cls);
+      }
+
+      try(JsonParser parser = new Decoder(serialized).decode().asParser()) {
+        return OBJECT_MAPPER.readValue(parser, cls);
+      }
+    }
+    catch(IOException e) {
+      throw new SerializerException("Serialized data cannot be unserialized for type " + cls, e);
+    }
+  }
+
+  private static class Encoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    private final Map<String, Integer> names = new HashMap<>();
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    byte[] encode(JsonParser parser) throws IOException {
+      out.write(MARKER);
+      out.write(VERSION);
+
+      for(JsonToken token; (token = parser.nextToken()) != null;) {
+        switch(token) {
+          case START_OBJECT -> out.write(START_OBJECT);
+          case END_OBJECT -> out.write(END_OBJECT);
+          case START_ARRAY -> out.write(START_ARRAY);
+          case END_ARRAY -> out.write(END_ARRAY);
+          case VALUE_NULL -> out.write(NULL);
+          case VALUE_TRUE -> out.write(TRUE);
+          case VALUE_FALSE -> out.write(FALSE);
+          case FIELD_NAME -> writeShared(names, parser.currentName(), FIELD_NAME, FIELD_NAME_REF, SHORT_FIELD_NAME_REF, Integer.MAX_VALUE);
+          case VALUE_STRING -> writeShared(strings, parser.getText(), STRING, STRING_REF, SHORT_STRING_REF, MAX_SHARED_STRING_LENGTH);
+          case VALUE_NUMBER_INT -> {
+            if(parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+              writeBytes(BIG_INTEGER, parser.getBigIntegerValue().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            else {
+              writeInteger(parser.getLongValue());
+            }
+          }
+          case VALUE_NUMBER_FLOAT -> {
+            switch(parser.getNumberType()) {
+              case FLOAT -> {
+                out.write(FLOAT);
+                writeFixed(Float.floatToIntBits(parser.getFloatValue()), 4);
+              }
+              case BIG_DECIMAL -> writeBytes(BIG_DECIMAL, parser.getDecimalValue().toString().getBytes(StandardCharsets.UTF_8));
+              default -> {
+                out.write(DOUBLE);
+                writeFixed(Double.doubleToLongBits(parser.getDoubleValue()), 8);
+              }
+            }
+          }
+          case VALUE_EMBEDDED_OBJECT -> {
+            if(!(parser.getEmbeddedObject() instanceof byte[] bytes)) {
+              throw new IOException("Unsupported embedded object: " + parser.getEmbeddedObject());
+            }
+
+            writeBytes(BINARY, bytes);
+          }
+          default -> throw new IOException("Unsupported token: " + token);
+        }
+      }
+
+      return out.toByteArray();
+    }
+
+    private void writeShared(Map<String, Integer> table, String text, int tag, int refTag, int shortRefTag, int maxLength) {
+      Integer index = table.get(text);
+
+      if(index != null) {
+        if(index < 64) {
+          out.write(shortRefTag + index);
+        }
+        else {
+          out.write(refTag);
+          writeVarInt(index);
+        }
+
+        return;
+      }
+
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+      if(bytes.length <= maxLength) {
+        table.put(text, table.size());
+      }
+
+      writeBytes(tag, bytes);
+    }
+
+    private void writeInteger(long value) {
+      if(value >= 0 && value < 64) {
+        out.write(SHORT_INTEGER + (int)value);
+      }
+      else {
+        out.write(INTEGER);
+        writeVarInt((value << 1) ^ (value >> 63));  // zig-zag encoding, so small negative numbers are short as well
+      }
+    }
+
+    private void writeBytes(int tag, byte[] bytes) {
+      out.write(tag);
+      writeVarInt(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+
+    private void writeVarInt(long value) {
+      while((value & ~0x7FL) != 0) {
+        out.write((int)(value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+
+      out.write((int)value);
+    }
+
+    private void writeFixed(long value, int length) {
+      for(int i = length - 1; i >= 0; i--) {
+        out.write((int)(value >>> (i * 8)));
+      }
+    }
+  }
+
+  private static class Decoder {
+    private final byte[] data;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+
+    private int position;
+
+    Decoder(byte[] data) {
+      this.data = data;
+    }
+
+    TokenBuffer decode() throws IOException {
+      TokenBuffer buffer = new TokenBuffer(OBJECT_MAPPER, false);
+
+      if(data.length < 2) {
+        throw new EOFException("Missing version");
+      }
+
+      if(data[1] != VERSION) {
+        throw new IOException("Unsupported version: " + data[1]);
+      }
+
+      position = 2;
+
+      while(position < data.length) {
+        int tag = data[position++] & 0xFF;
+
+        if(tag >= SHORT_INTEGER) {
+          buffer.writeNumber(tag - SHORT_INTEGER);
+        }
+        else if(tag >= SHORT_STRING_REF) {
+          buffer.writeString(lookup(strings, tag - SHORT_STRING_REF));
+        }
+        else if(tag >= SHORT_FIELD_NAME_REF) {
+          buffer.writeFieldName(lookup(names, tag - SHORT_FIELD_NAME_REF));
+        }
+        else {
+          switch(tag) {
+            case START_OBJECT -> buffer.writeStartObject();
+            case END_OBJECT -> buffer.writeEndObject();
+            case START_ARRAY -> buffer.writeStartArray();
+            case END_ARRAY -> buffer.writeEndArray();
+            case NULL -> buffer.writeNull();
+            case TRUE -> buffer.writeBoolean(true);
+            case FALSE -> buffer.writeBoolean(false);
+            case FIELD_NAME -> buffer.writeFieldName(readShared(names, Integer.MAX_VALUE));
+            case FIELD_NAME_REF -> buffer.writeFieldName(lookup(names, readVarInt()));
+            case STRING -> buffer.writeString(readShared(strings, MAX_SHARED_STRING_LENGTH));
+            case STRING_REF -> buffer.writeString(lookup(strings, readVarInt()));
+            case INTEGER -> {
+              long encoded = readVarInt();
+              long value = (encoded >>> 1) ^ -(encoded & 1);
+
+              if(value == (int)value) {
+                buffer.writeNumber((int)value);
+              }
+              else {
+                buffer.writeNumber(value);
+              }
+            }
+            case FLOAT -> buffer.writeNumber(Float.intBitsToFloat((int)readFixed(4)));
+            case DOUBLE -> buffer.writeNumber(Double.longBitsToDouble(readFixed(8)));
+            case BIG_INTEGER -> buffer.writeNumber(new BigInteger(readString()));
+            case BIG_DECIMAL -> buffer.writeNumber(new BigDecimal(readString()));
+            case BINARY -> buffer.writeBinary(readBytes());
+            default -> throw new IOException("Unknown tag " + tag + " at position " + (position - 1));
+          }
+        }
+      }
+
+      if(!buffer.getOutputContext().inRoot()) {
+        throw new EOFException("Unexpected end of data, not all objects and arrays were closed");
+      }
+
+      return buffer;
+    }
+
+    private String readShared(List<String> table, int maxLength) throws IOException {
+      int length = readLength();
+      String text = new String(data, position, length, StandardCharsets.UTF_8);
+
+      position += length;
+
+      if(length <= maxLength) {
+        table.add(text);
+      }
+
+      return text;
+    }
+
+    private String readString() throws IOException {
+      int length = readLength();
+      String text = new String(data, position, length, StandardCharsets.UTF_8);
+
+      position += length;
+
+      return text;
+    }
+
+    private static String lookup(List<String> table, long index) throws IOException {
+      if(index < 0 || index >= table.size()) {
+        throw new IOException("Reference to unknown entry: " + index);
+      }
+
+      return table.get((int)index);
+    }
+
+    private byte[] readBytes() throws IOException {
+      int length = readLength();
+
+      position += length;
+
+      return Arrays.copyOfRange(data, position - length, position);
+    }
+
+    private int readLength() throws IOException {
+      int start = position;
+      long length = readVarInt();
+
+      if(length < 0) {
+        throw new IOException("Invalid length " + length + " at position " + start);
+      }
+
+      if(length > data.length - position) {
+        throw new EOFException("Length " + length + " at position " + start + " exceeds the " + (data.length - position) + " remaining bytes");
+      }
+
+      return (int)length;
+    }
+
+    private long readVarInt() throws IOException {
+      long value = 0;
+
+      for(int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+
+        value |= (long)(b & 0x7F) << shift;
+
+        if((b & 0x80) == 0) {
+          return value;
+        }
+      }
+
+      throw new IOException("Malformed variable length integer at position " + position);
+    }
+
+    private long readFixed(int length) throws IOException {
+      long value = 0;
+
+      for(int i = 0; i < length; i++) {
+        value = (value << 8) | readByte();
+      }
+
+      return value;
+    }
+
+    private int readByte() throws IOException {
+      if(position >= data.length) {
+        throw new EOFException("Unexpected end of data at position " + position);
+      }
+
+      return data[position++] & 0xFF;
+    }
+  }
+}
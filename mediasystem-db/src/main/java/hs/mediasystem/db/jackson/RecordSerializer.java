@@ -24,7 +24,7 @@ import java.util.Objects;
  * @param <T> the event type
  */
 public class RecordSerializer<T> implements Serializer<T> {
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+  static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
     .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
     .setVisibility(PropertyAccessor.GETTER, Visibility.NONE)
     .setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
@@ -4,6 +4,7 @@ import hs.mediasystem.api.datasource.WorkDescriptor;
 import hs.mediasystem.api.datasource.domain.Details;
 import hs.mediasystem.api.datasource.domain.Release;
 import hs.mediasystem.api.datasource.domain.stream.Work;
+import hs.mediasystem.db.base.StreamStateService;
 import hs.mediasystem.db.core.LinkedWorksService;
 import hs.mediasystem.db.core.MediaStreamService;
 import hs.mediasystem.db.core.domain.LinkedWork;
@@ -13,6 +14,7 @@ import hs.mediasystem.domain.work.Context;
 import java.net.URI;
 import java.util.Optional;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -25,15 +27,27 @@ import javax.inject.Singleton;
 class LocalWorkService {
   @Inject private LinkedWorksService linkedWorksService;
   @Inject private MediaStreamService mediaStreamService;
+  @Inject private StreamStateService streamStateService;
+
+  private WorkCache workCache;
 
   @Inject
   LocalWorkService() {}
 
+  @PostConstruct
+  private void postConstruct() {
+    workCache = new WorkCache(linkedWorksService, streamStateService, "local");
+  }
+
   Optional<Work> findFirst(URI location) {
     return linkedWorksService.find(location).stream().map(this::toWork).findFirst();
   }
 
   Work toWork(LinkedWork linkedWork) {
+    return workCache.get(linkedWork, this::convert);
+  }
+
+  private Work convert(LinkedWork linkedWork) {
     return new Work(
       linkedWork.workDescriptor(),
       findParent(linkedWork).orElse(null),
@@ -4,8 +4,8 @@ import hs.mediasystem.api.datasource.WorkDescriptor;
 import hs.mediasystem.api.datasource.domain.Episode;
 import hs.mediasystem.api.datasource.domain.Serie;
 import hs.mediasystem.api.datasource.domain.stream.Recommendation;
-import hs.mediasystem.db.base.StreamState;
-import hs.mediasystem.db.base.StreamStateProvider;
+import hs.mediasystem.db.base.StreamStateService;
+import hs.mediasystem.db.base.WatchedStream;
 import hs.mediasystem.db.core.LinkedWorksService;
 import hs.mediasystem.db.core.MediaStreamService;
 import hs.mediasystem.db.core.ResourceService;
@@ -17,7 +17,7 @@ import hs.mediasystem.domain.work.State;
 import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -31,7 +31,7 @@ public class RecommendationService {
   @Inject private LocalWorkService localWorkService;
   @Inject private ResourceService resourceService;
   @Inject private LinkedWorksService linkedWorksService;
-  @Inject private StreamStateProvider streamStateProvider;
+  @Inject private StreamStateService streamStateService;
   @Inject private MediaStreamService mediaStreamService;
 
   /**
@@ -41,18 +41,34 @@ public class RecommendationService {
    * @return a {@link List} of {@link Recommendation}s, never null but can be empty
    */
   public List<Recommendation> findRecommendations(int maximum) {
-    // TODO this should really be backed by a db query; as it is, it will walk through all stream states
-    return streamStateProvider.map(stream -> stream
-      .map(StreamState::getContentID)
-      .flatMap(cid -> resourceService.findFirst(cid).map(mediaStreamService::toMediaStream).stream())
-      .filter(ms -> ms.state().lastConsumptionTime().isPresent())  // this check could be done earlier as stream state should have this information already
-      .sorted(Comparator.comparing((MediaStream ms) -> ms.state().lastConsumptionTime().orElseThrow()).reversed())
-      .map(this::toPartiallyWatchedOrNextUnwatchedRecommendation)
-      .flatMap(Optional::stream)
-      .filter(r -> r.work().getType().isPlayable())  // doubtful this check does anything at this point
-      .limit(maximum)
-      .collect(Collectors.toList())
-    );
+    List<Recommendation> recommendations = new ArrayList<>();
+    int pageSize = Math.max(maximum * 2, 10);  // not all watched streams result in a recommendation
+    WatchedStream last = null;
+
+    while(recommendations.size() < maximum) {
+      List<WatchedStream> watchedStreams = streamStateService.findWatchedStreams(last, pageSize);
+
+      for(WatchedStream watchedStream : watchedStreams) {
+        resourceService.findFirst(watchedStream.contentId())
+          .map(mediaStreamService::toMediaStream)
+          .filter(ms -> ms.state().lastConsumptionTime().isPresent())
+          .flatMap(this::toPartiallyWatchedOrNextUnwatchedRecommendation)
+          .filter(r -> r.work().getType().isPlayable())  // doubtful this check does anything at this point
+          .ifPresent(recommendations::add);
+
+        if(recommendations.size() >= maximum) {
+          break;
+        }
+      }
+
+      if(watchedStreams.size() < pageSize) {
+        break;
+      }
+
+      last = watchedStreams.getLast();
+    }
+
+    return recommendations;
   }
 
   /**
@@ -0,0 +1,121 @@
+package hs.mediasystem.db.services;
+
+import hs.mediasystem.api.datasource.domain.stream.Work;
+import hs.mediasystem.db.base.StreamStateService;
+import hs.mediasystem.db.core.LinkedWorksService;
+import hs.mediasystem.db.core.domain.LinkedWork;
+import hs.mediasystem.db.core.domain.Resource;
+import hs.mediasystem.domain.work.WorkId;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches {@link Work}s converted from {@link LinkedWork}s, so converting works
+ * which did not change since the last conversion allocates almost nothing.<p>
+ *
+ * A cached work is only used when it was converted from the same {@link LinkedWork}
+ * instance, which is replaced whenever its descriptor or resources change, and when
+ * the versions of the states of its streams did not change since.  Works which were
+ * changed or removed, and their children (which refer to their parent's details),
+ * are removed from the cache when {@link LinkedWorksService} reports a change.
+ */
+class WorkCache {
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Converting works");
+
+  private final Map<WorkId, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();  // incremented before each invalidation
+  private final StreamStateService streamStateService;
+  private final String name;
+
+  private record Entry(LinkedWork linkedWork, long stateVersion, Work work) {}
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param linkedWorksService a {@link LinkedWorksService}, cannot be {@code null}
+   * @param streamStateService a {@link StreamStateService}, cannot be {@code null}
+   * @param name a name to distinguish the statistics of this cache, cannot be {@code null}
+   */
+  WorkCache(LinkedWorksService linkedWorksService, StreamStateService streamStateService, String name) {
+    this.streamStateService = streamStateService;
+    this.name = name;
+
+    linkedWorksService.subscribe(this::invalidate);
+  }
+
+  /**
+   * Returns the cached {@link Work} for the given {@link LinkedWork} if it is still
+   * current, otherwise converts it with the given converter and caches the result.
+   *
+   * @param linkedWork a {@link LinkedWork}, cannot be {@code null}
+   * @param converter a {@link Function} converting a {@link LinkedWork} to a {@link Work}, cannot be {@code null}
+   * @return a {@link Work}, never {@code null}
+   */
+  Work get(LinkedWork linkedWork, Function<LinkedWork, Work> converter) {
+    long stateVersion = stateVersionOf(linkedWork);  // determined before converting, so a concurrent state change is never hidden
+    long expectedGeneration = generation.get();
+    Entry entry = entries.get(linkedWork.id());
+
+    if(entry != null && entry.linkedWork == linkedWork && entry.stateVersion == stateVersion) {
+      WORKLOAD.addStatistic(name + "Hits", 1);
+
+      return entry.work;
+    }
+
+    Work work = converter.apply(linkedWork);
+    Entry newEntry = new Entry(linkedWork, stateVersion, work);
+
+    entries.put(linkedWork.id(), newEntry);
+
+    /*
+     * The work may have been converted using information which was invalidated
+     * in the mean time, like the details of its parent.  If an invalidation started
+     * after converting began, the entry is removed again, as the invalidation may
+     * have finished before it was added:
+     */
+
+    if(generation.get() != expectedGeneration) {
+      entries.remove(linkedWork.id(), newEntry);
+    }
+
+    WORKLOAD.addStatistic(name + "Misses", 1);
+    WORKLOAD.setStatistic(name + "Size", entries.size());
+
+    return work;
+  }
+
+  private long stateVersionOf(LinkedWork linkedWork) {
+    long version = 0;
+
+    for(Resource resource : linkedWork.resources()) {
+      version += streamStateService.getVersion(resource.contentId());  // versions only increase, so the sum changes when any of them changes
+    }
+
+    return version;
+  }
+
+  private void invalidate(LinkedWorksService.Change change) {
+    LinkedWorksService.Snapshot snapshot = change.snapshot();
+
+    generation.incrementAndGet();
+
+    for(WorkId id : change.updated()) {
+      entries.remove(id);
+
+      for(LinkedWork child : snapshot.findChildren(id)) {
+        entries.remove(child.id());
+      }
+    }
+
+    for(WorkId id : change.removed()) {
+      entries.remove(id);
+    }
+
+    WORKLOAD.setStatistic(name + "Size", entries.size());
+  }
+}
@@ -11,6 +11,7 @@ import hs.mediasystem.api.datasource.domain.stream.Work;
 import hs.mediasystem.api.datasource.services.RecommendationQueryService;
 import hs.mediasystem.api.datasource.services.RolesQueryService;
 import hs.mediasystem.api.datasource.services.VideoLinksQueryService;
+import hs.mediasystem.db.base.StreamStateService;
 import hs.mediasystem.db.core.DescriptorService;
 import hs.mediasystem.db.core.LinkedWorksService;
 import hs.mediasystem.db.core.MediaStreamService;
@@ -36,6 +37,7 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -48,6 +50,14 @@ public class WorkService {
   @Inject private List<RecommendationQueryService> recommendationQueryServices;
   @Inject private List<VideoLinksQueryService> videoLinksQueryServices;
   @Inject private MediaStreamService mediaStreamService;
+  @Inject private StreamStateService streamStateService;
+
+  private WorkCache workCache;
+
+  @PostConstruct
+  private void postConstruct() {
+    workCache = new WorkCache(linkedWorksService, streamStateService, "full");
+  }
 
   public Optional<Work> query(WorkId workId) throws IOException {
     return CheckedOptional.from(linkedWorksService.find(workId))
@@ -150,6 +160,10 @@ public class WorkService {
   }
 
   private Work toWork(LinkedWork linkedWork) {
+    return workCache.get(linkedWork, this::convert);
+  }
+
+  private Work convert(LinkedWork linkedWork) {
     return new Work(
       linkedWork.workDescriptor(),
       findOrCreateContext(linkedWork).orElse(null),
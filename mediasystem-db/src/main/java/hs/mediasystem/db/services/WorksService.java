@@ -2,26 +2,68 @@ package hs.mediasystem.db.services;
 
 import hs.mediasystem.api.datasource.domain.stream.Work;
 import hs.mediasystem.api.datasource.services.Top100QueryService;
+import hs.mediasystem.db.base.StreamStateService;
 import hs.mediasystem.db.core.LinkedWorksService;
+import hs.mediasystem.db.core.domain.LinkedWork;
+import hs.mediasystem.domain.stream.ContentID;
 import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.domain.work.WorkId;
 import hs.mediasystem.util.checked.CheckedStreams;
+import hs.mediasystem.util.concurrent.NamedThreadFactory;
 
 import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
 public class WorksService {
+  private static final Logger LOGGER = System.getLogger(WorksService.class.getName());
+  private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new NamedThreadFactory("WorksService", true));
+
+  /**
+   * Incremental changes to the works matching a subscription.  Changes are sent
+   * in order, and their versions never decrease.
+   *
+   * @param version the version of the linked works the changes were based on
+   * @param updated the works which were added or updated, cannot be {@code null}
+   * @param removed the ids of works which were removed or no longer match, cannot be {@code null}
+   */
+  public record Change(long version, List<Work> updated, Set<WorkId> removed) {}
+
   @Inject private LinkedWorksService linkedWorksService;
+  @Inject private StreamStateService streamStateService;
   @Inject private WorkService workService;
   @Inject private LocalWorkService localWorkService;
   @Inject private List<Top100QueryService> top100QueryServices;
 
+  private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+  private record Subscriber(Predicate<LinkedWork> filter, Consumer<Change> consumer) {}
+
+  @PostConstruct
+  private void postConstruct() {
+    linkedWorksService.subscribe(this::linkedWorksChanged);
+    streamStateService.subscribe(this::streamStateChanged);
+  }
+
   public List<Work> findNewest(int maximum, Predicate<MediaType> filter) {
     return linkedWorksService.findNewest(maximum, filter).stream()
       .map(localWorkService::toWork)
@@ -45,4 +87,88 @@ public class WorksService {
       .map(workService::toWork)
       .collect(Collectors.toCollection(ArrayList::new));
   }
+
+  /**
+   * Subscribes to changes of the works {@link #findAllByType(MediaType, String)}
+   * returns for the same arguments.  Works which were changed in a way that they
+   * no longer match are reported as removed.  The consumer is called on a single
+   * publishing thread, so it is never called concurrently.
+   *
+   * @param type a required {@link MediaType}, or {@code null} for all types
+   * @param tag a required tag, or {@code null} for all tags
+   * @param consumer a {@link Consumer} of {@link Change}s, cannot be {@code null}
+   * @return a {@link Runnable} which cancels the subscription when run, never {@code null}
+   */
+  public Runnable subscribeAllByType(MediaType type, String tag, Consumer<Change> consumer) {
+    return subscribe(LinkedWorksService.allByTypeFilter(type, tag), consumer);
+  }
+
+  private Runnable subscribe(Predicate<LinkedWork> filter, Consumer<Change> consumer) {
+    Subscriber subscriber = new Subscriber(filter, Objects.requireNonNull(consumer, "consumer"));
+
+    subscribers.add(subscriber);
+
+    return () -> subscribers.remove(subscriber);
+  }
+
+  /*
+   * Changes are published on a single thread in the order they were received, so
+   * subscribers see them in order.  Linked works are changed one batch at a time,
+   * so the versions of the published changes never decrease.
+   */
+
+  private void linkedWorksChanged(LinkedWorksService.Change change) {
+    if(!subscribers.isEmpty()) {
+      EXECUTOR.execute(() -> {
+        LinkedWorksService.Snapshot snapshot = change.snapshot();
+
+        publish(snapshot.getVersion(), change.updated().stream().map(snapshot::find).flatMap(Optional::stream).toList(), change.removed(), true);
+      });
+    }
+  }
+
+  private void streamStateChanged(ContentID contentId) {
+    if(!subscribers.isEmpty()) {
+      EXECUTOR.execute(() -> {
+        LinkedWorksService.Snapshot snapshot = linkedWorksService.getSnapshot();  // taken when publishing, so its version is never older than the changes published before it
+
+        publish(snapshot.getVersion(), snapshot.find(contentId), Set.of(), false);  // stream state does not affect which works match
+      });
+    }
+  }
+
+  /**
+   * Sends the changes matching each subscriber's filter.  Each updated work is
+   * converted at most once, regardless of the number of subscribers.  When
+   * matching may have changed, updated works which do not match are sent as
+   * removed, as they may have matched before.
+   */
+  private void publish(long version, List<LinkedWork> updatedWorks, Set<WorkId> removedIds, boolean matchingMayHaveChanged) {
+    Map<WorkId, Work> convertedWorks = new HashMap<>();
+
+    for(Subscriber subscriber : subscribers) {
+      List<Work> updated = new ArrayList<>();
+      Set<WorkId> removed = new HashSet<>(removedIds);
+
+      for(LinkedWork linkedWork : updatedWorks) {
+        if(subscriber.filter.test(linkedWork)) {
+          updated.add(convertedWorks.computeIfAbsent(linkedWork.id(), k -> localWorkService.toWork(linkedWork)));
+        }
+        else if(matchingMayHaveChanged) {
+          removed.add(linkedWork.id());
+        }
+      }
+
+      if(updated.isEmpty() && removed.isEmpty()) {
+        continue;
+      }
+
+      try {
+        subscriber.consumer.accept(new Change(version, updated, removed));
+      }
+      catch(Exception e) {
+        LOGGER.log(Level.WARNING, "Subscriber " + subscriber.consumer + " failed to process changes", e);
+      }
+    }
+  }
 }
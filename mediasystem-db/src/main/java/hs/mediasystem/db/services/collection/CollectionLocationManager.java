@@ -18,6 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -77,7 +78,8 @@ public class CollectionLocationManager {
               discoverer,
               root.toUri(),
               Optional.ofNullable(definition.identification),
-              new StreamTags(definition.tags())
+              new StreamTags(definition.tags()),
+              Optional.ofNullable(definition.scanInterval()).map(Duration::ofSeconds)
             ));
           }
         }
@@ -103,5 +105,5 @@ public class CollectionLocationManager {
     LOGGER.info("Loaded " + file);
   }
 
-  private static record ImportDefinition(String root, String type, Set<String> tags, String identification) {}
+  private static record ImportDefinition(String root, String type, Set<String> tags, String identification, Long scanInterval) {}
 }
\ No newline at end of file
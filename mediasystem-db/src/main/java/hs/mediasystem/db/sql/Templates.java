@@ -0,0 +1,27 @@
+package hs.mediasystem.db.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helpers for building SQL statements from string templates.
+ */
+public class Templates {
+
+  /**
+   * Creates a template with a parameter for each of the given values, separated by
+   * commas, for use in an {@code IN} clause.
+   *
+   * @param values a list of values, cannot be {@code null} or empty
+   * @return a {@link StringTemplate}, never {@code null}
+   */
+  public static StringTemplate in(List<?> values) {
+    List<String> fragments = new ArrayList<>(Collections.nCopies(values.size() + 1, ", "));
+
+    fragments.set(0, "");
+    fragments.set(values.size(), "");
+
+    return StringTemplate.of(fragments, values);
+  }
+}
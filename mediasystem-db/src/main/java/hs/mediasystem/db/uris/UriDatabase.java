@@ -3,11 +3,10 @@ package hs.mediasystem.db.uris;
 import hs.mediasystem.domain.stream.ContentID;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.function.Consumer;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -24,23 +23,59 @@ public class UriDatabase {
 
   @Inject private Database database;
 
-  public <T, U> Map<T, U> findAll(Function<UriRecord, T> keyMapper, Function<UriRecord, U> valueMapper) {
+  public void forEach(Consumer<UriRecord> consumer) {
     try(Transaction tx = database.beginReadOnlyTransaction()) {
-      Map<T, U> map = new HashMap<>();
-
       tx."SELECT \{ALL} FROM uris"
         .map(ALL)
-        .consume(r -> map.put(keyMapper.apply(r), valueMapper.apply(r)));
-
-      return map;
+        .consume(consumer);
     }
   }
 
-  public void store(String uri, int contentId) {
+  /**
+   * Computes a stamp which changes whenever uri's are added, removed or linked
+   * to a different content id.  This can be used to check whether a copy of the
+   * uri's is still up to date without reading all of them.<p>
+   *
+   * Ids are never reused, so adding a uri always changes the maximum id, and
+   * removing one changes the count.  Links are covered by summing a hash of each
+   * id and content id pair.  The hash is not linear, so changes to several links
+   * are very unlikely to cancel each other out.  Each hash is kept below 2^31 so
+   * the sum cannot overflow.
+   *
+   * @return a stamp, never {@code null}
+   */
+  public long[] computeStamp() {
+    return database.query(tx ->
+      tx."""
+        SELECT COUNT(*), COALESCE(MAX(id), 0), COALESCE(SUM(MOD(
+            MOD(CAST(id AS BIGINT) * 40503 + content_id, 2147483647) * MOD(CAST(content_id AS BIGINT) * 65599 + id, 2147483647),
+            2147483647
+          )), 0)
+          FROM uris
+      """
+        .map(r -> new long[] {r.getLong(0), r.getLong(1), r.getLong(2)})
+        .get()
+    );
+  }
+
+  /**
+   * Links each of the given uri's to a content id, replacing any existing links.
+   * All links are stored with a single batched statement.
+   *
+   * @param contentIds a map of uri to content id, cannot be {@code null}
+   */
+  public void store(Map<String, Integer> contentIds) {
+    if(contentIds.isEmpty()) {
+      return;
+    }
+
+    List<String> uris = List.copyOf(contentIds.keySet());
+    List<Integer> ids = uris.stream().map(contentIds::get).toList();
+
     try(Transaction tx = database.beginTransaction()) {
       tx."""
-        INSERT INTO uris (\{EXCEPT_ID}) VALUES (\{contentId}, \{uri})
-          ON CONFLICT (uri) DO UPDATE SET content_id = \{contentId}
+        INSERT INTO uris (\{EXCEPT_ID}) VALUES (\{ids}, \{uris})
+          ON CONFLICT (uri) DO UPDATE SET content_id = EXCLUDED.content_id
       """.execute();
       tx.commit();
     }
@@ -0,0 +1,23 @@
+CREATE TABLE stream_states (
+  content_id integer NOT NULL,
+  watched boolean NOT NULL,
+  last_watched_time timestamp with time zone,
+  resume_position integer NOT NULL,
+  total_duration integer NOT NULL,
+
+  CONSTRAINT stream_states_pk PRIMARY KEY (content_id),
+  CONSTRAINT stream_states_content_id_fkey FOREIGN KEY (content_id)
+    REFERENCES content_prints (id) ON DELETE CASCADE
+);
+
+# Convert json properties to columns; times without a zone were stored in UTC:
+INSERT INTO stream_states (content_id, watched, last_watched_time, resume_position, total_duration)
+  SELECT
+    content_id,
+    COALESCE((convert_from(json, 'UTF8')::jsonb ->> 'watched')::boolean, false),
+    rtrim(convert_from(json, 'UTF8')::jsonb ->> 'last-watched-time', 'Z')::timestamp AT TIME ZONE 'UTC',
+    COALESCE((convert_from(json, 'UTF8')::jsonb ->> 'resume-position')::integer, 0),
+    COALESCE((convert_from(json, 'UTF8')::jsonb ->> 'total-duration')::integer, -1)
+  FROM streamstate;
+
+DROP TABLE streamstate;
@@ -0,0 +1,7 @@
+# Large images are stored as files addressed by the hash of their content:
+ALTER TABLE images ADD COLUMN blob_hash ${Sha256Type};
+ALTER TABLE images ALTER COLUMN image ${DropNotNull};
+# Track sizes of cached responses, all rows are still stored inline at this point:
+ALTER TABLE images ADD COLUMN size bigint;
+UPDATE images SET size = LENGTH(image);
+ALTER TABLE images ALTER COLUMN size SET NOT NULL;
@@ -0,0 +1,2 @@
+CREATE INDEX images_accesstime ON images (accesstime, url);
+CREATE INDEX images_blob_hash ON images (blob_hash);
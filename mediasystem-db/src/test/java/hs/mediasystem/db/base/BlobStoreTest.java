@@ -0,0 +1,116 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.util.FieldSetter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobStoreTest {
+  @TempDir Path tempDir;
+
+  private final BlobStore store = new BlobStore();
+
+  @BeforeEach
+  void beforeEach() {
+    FieldSetter.set(store, "baseDir", tempDir.toString());
+  }
+
+  @Test
+  void shouldStoreBlobsOnceByContent() throws IOException {
+    byte[] small = "small blob".getBytes();
+    byte[] large = new byte[200 * 1024];
+
+    Arrays.fill(large, (byte)42);
+
+    byte[] smallHash = store.put(small);
+    byte[] largeHash = store.put(large);
+
+    assertThat(store.put(small.clone())).isEqualTo(smallHash);
+    assertThat(toBytes(store.get(smallHash))).isEqualTo(small);
+    assertThat(toBytes(store.get(largeHash))).isEqualTo(large);
+
+    try(Stream<Path> stream = Files.walk(tempDir)) {
+      assertThat(stream.filter(Files::isRegularFile)).hasSize(2);
+    }
+  }
+
+  @Test
+  void shouldReturnNullForMissingBlobs() throws IOException {
+
+    assertThat(store.get(new byte[32])).isNull();
+  }
+
+  @Test
+  void shouldStoreWrittenBlobsOnlyWhenCommitted() throws IOException {
+    byte[] data = new byte[200 * 1024];
+
+    Arrays.fill(data, (byte)7);
+
+    try(BlobStore.BlobWriter writer = store.createWriter()) {
+      writer.write(data, 0, 1000);  // discarded, as it is never committed
+    }
+
+    byte[] hash;
+
+    try(BlobStore.BlobWriter writer = store.createWriter()) {
+      writer.write(data, 0, 1000);
+      writer.write(data, 1000, data.length - 1000);
+
+      hash = writer.commit();
+    }
+
+    assertThat(hash).isEqualTo(store.put(data));
+    assertThat(toBytes(store.get(hash))).isEqualTo(data);
+
+    try(Stream<Path> stream = Files.walk(tempDir)) {
+      assertThat(stream.filter(Files::isRegularFile)).hasSize(1);
+    }
+  }
+
+  @Test
+  void shouldSweepUnreferencedBlobsAndTemporaryFiles() throws IOException {
+    byte[] referencedHash = store.put("referenced".getBytes());
+    byte[] unreferencedHash = store.put("unreferenced".getBytes());
+    byte[] recentHash = store.put("recent".getBytes());
+    Path root = tempDir.resolve("cache/blobs");
+    Path staleTempFile = Files.createTempFile(root, "blob", ".tmp");
+    Path otherFile = Files.writeString(root.resolve("notes.txt"), "not a blob");
+    Instant now = Instant.now();
+
+    try(Stream<Path> stream = Files.walk(tempDir)) {
+      for(Path path : stream.filter(Files::isRegularFile).toList()) {
+        Files.setLastModifiedTime(path, FileTime.from(now.minus(2, ChronoUnit.HOURS)));
+      }
+    }
+
+    store.put("recent".getBytes());  // storing it again marks it as recent
+
+    assertThat(store.sweep(now.minus(1, ChronoUnit.HOURS), hash -> Arrays.equals(hash, referencedHash))).isEqualTo(2);
+    assertThat(store.get(referencedHash)).isNotNull();
+    assertThat(store.get(unreferencedHash)).isNull();
+    assertThat(store.get(recentHash)).isNotNull();
+    assertThat(staleTempFile).doesNotExist();
+    assertThat(otherFile).exists();
+  }
+
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+
+    buffer.get(bytes);
+
+    return bytes;
+  }
+}
@@ -0,0 +1,46 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.Source;
+import hs.mediasystem.db.core.domain.ContentPrint;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+public class ContentPrintProviders {
+
+  /**
+   * Stubs {@link DatabaseContentPrintProvider#getAll(Collection, BiConsumer)} of the
+   * given mock to delegate to its stubbed single item variant.
+   *
+   * @param provider a mocked {@link DatabaseContentPrintProvider}, cannot be {@code null}
+   */
+  public static void delegateGetAll(DatabaseContentPrintProvider provider) {
+    doAnswer(invocation -> {
+      Map<URI, ContentPrint> contentPrints = new HashMap<>();
+
+      BiConsumer<Source, Exception> failureConsumer = invocation.getArgument(1);
+
+      for(Source source : invocation.<Collection<Source>>getArgument(0)) {
+        try {
+          ContentPrint contentPrint = provider.get(source.location(), source.size(), source.lastModificationTime());
+
+          if(contentPrint != null) {
+            contentPrints.put(source.location(), contentPrint);
+          }
+        }
+        catch(IOException e) {
+          failureConsumer.accept(source, e);
+        }
+      }
+
+      return contentPrints;
+    }).when(provider).getAll(any(), any());
+  }
+}
@@ -1,16 +1,23 @@
 package hs.mediasystem.db.base;
 
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.PruneResult;
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.Source;
 import hs.mediasystem.db.contentprints.ContentPrintDatabase;
+import hs.mediasystem.db.contentprints.ContentPrintDatabase.Signature;
 import hs.mediasystem.db.contentprints.ContentPrintRecord;
 import hs.mediasystem.db.core.domain.ContentPrint;
 import hs.mediasystem.db.uris.UriDatabase;
+import hs.mediasystem.db.uris.UriRecord;
 import hs.mediasystem.domain.stream.ContentID;
+import hs.mediasystem.util.FieldSetter;
 import hs.mediasystem.util.MediaHash;
 import hs.mediasystem.util.PostConstructCaller;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
@@ -19,9 +26,21 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+import org.int4.db.core.api.Database;
+import org.int4.db.core.api.DatabaseException;
+import org.int4.db.core.api.Transaction;
+import org.int4.db.core.util.ThrowingConsumer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -36,7 +55,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -46,6 +69,7 @@ class DatabaseContentPrintProviderTest {
   @Mock ContentPrintDatabase idStore;
   @Mock UriDatabase uriStore;
   @Mock MediaHash mediaHash;
+  @Mock Database database;
 
   @InjectMocks DatabaseContentPrintProvider provider;
 
@@ -58,7 +82,16 @@ class DatabaseContentPrintProviderTest {
 
   @BeforeEach
   void beforeEach() throws IOException {
-    when(uriStore.findAll(any(), any())).thenReturn(new HashMap<>(Map.of(existingFile.toUri().toString(), existingFileContentPrint.getId())));
+    lenient().doAnswer(invocation -> {
+      ThrowingConsumer<Transaction, DatabaseException> consumer = invocation.getArgument(0);
+      consumer.accept(null);
+      return null;
+    }).when(database).accept(any());
+    doAnswer(invocation -> {
+      Consumer<UriRecord> consumer = invocation.getArgument(0);
+      consumer.accept(new UriRecord(1, existingFileContentPrint.getId().asInt(), existingFile.toUri().toString()));
+      return null;
+    }).when(uriStore).forEach(any());
     doAnswer(invocation -> {
       Consumer<ContentPrintRecord> consumer = invocation.getArgument(0);
       consumer.accept(new ContentPrintRecord(
@@ -71,7 +104,9 @@ class DatabaseContentPrintProviderTest {
       ));
       return null;
     }).when(idStore).forEach(any());
+    when(uriStore.computeStamp()).thenReturn(new long[] {1, 2});
 
+    FieldSetter.set(provider, "baseDir", tempDir.toString());
     PostConstructCaller.call(provider);
 
     Files.createDirectory(tempDir.resolve("dir"));
@@ -96,7 +131,7 @@ class DatabaseContentPrintProviderTest {
     long size = Files.size(newFile);
 
     when(mediaHash.computeFileHash(newFile)).thenReturn(hash1);
-    when(idStore.findOrAdd(size, lastModificationTime, hash1)).thenReturn(createRecord(101, size, lastModificationTime, hash1));
+    when(idStore.findOrAdd(List.of(new Signature(size, lastModificationTime, hash1)))).thenReturn(List.of(createRecord(101, size, lastModificationTime, hash1)));
 
     ContentPrint contentPrint = provider.get(newFile.toUri(), size, lastModificationTime);
 
@@ -115,7 +150,7 @@ class DatabaseContentPrintProviderTest {
   @Test
   void shouldNotFindExistingPrint() throws IOException {
     when(mediaHash.computeFileHash(newFile)).thenReturn(existingFileHash);
-    when(idStore.findOrAdd(Long.valueOf(15), Instant.ofEpochMilli(1201), existingFileHash)).thenReturn(createRecord(102, 15L, Instant.ofEpochMilli(1201), existingFileHash));
+    when(idStore.findOrAdd(List.of(new Signature(Long.valueOf(15), Instant.ofEpochMilli(1201), existingFileHash)))).thenReturn(List.of(createRecord(102, 15L, Instant.ofEpochMilli(1201), existingFileHash)));
 
     ContentPrint contentPrint = provider.get(newFile.toUri(), 15L, Instant.ofEpochMilli(1201));
 
@@ -131,7 +166,7 @@ class DatabaseContentPrintProviderTest {
     long size = Files.size(newFile);
 
     when(mediaHash.computeFileHash(newFile)).thenReturn(hash1);
-    when(idStore.findOrAdd(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)).thenReturn(createRecord(102, size, lastModificationTime, hash1));
+    when(idStore.findOrAdd(List.of(new Signature(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)))).thenReturn(List.of(createRecord(102, size, lastModificationTime, hash1)));
 
     ContentPrint contentPrint = provider.get(newFile.toUri(), size, lastModificationTime);
 
@@ -144,7 +179,7 @@ class DatabaseContentPrintProviderTest {
     size = Files.size(newFile);
 
     when(mediaHash.computeFileHash(newFile)).thenReturn(hash2);
-    when(idStore.findOrAdd(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash2)).thenReturn(createRecord(103, size, lastModificationTime, hash2));
+    when(idStore.findOrAdd(List.of(new Signature(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash2)))).thenReturn(List.of(createRecord(103, size, lastModificationTime, hash2)));
 
     ContentPrint contentPrintModified = provider.get(newFile.toUri(), size, lastModificationTime);
 
@@ -162,7 +197,7 @@ class DatabaseContentPrintProviderTest {
     long size = Files.size(newFile);
 
     when(mediaHash.computeFileHash(newFile)).thenReturn(hash1);
-    when(idStore.findOrAdd(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)).thenReturn(createRecord(102, size, lastModificationTime, hash1));
+    when(idStore.findOrAdd(List.of(new Signature(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)))).thenReturn(List.of(createRecord(102, size, lastModificationTime, hash1)));
 
     ContentPrint contentPrint = provider.get(newFile.toUri(), size, lastModificationTime);
 
@@ -175,7 +210,7 @@ class DatabaseContentPrintProviderTest {
     size = Files.size(newFile);
 
     when(mediaHash.computeFileHash(newFile)).thenReturn(hash1);
-    when(idStore.findOrAdd(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)).thenReturn(createRecord(103, size, lastModificationTime, hash1));
+    when(idStore.findOrAdd(List.of(new Signature(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)))).thenReturn(List.of(createRecord(103, size, lastModificationTime, hash1)));
 
     ContentPrint contentPrintModified = provider.get(newFile.toUri(), size, lastModificationTime);
 
@@ -187,6 +222,130 @@ class DatabaseContentPrintProviderTest {
     assertNotEquals(contentPrintModified.getId(), contentPrint.getId());
   }
 
+  @Test
+  void shouldGetAllInSingleTransaction() throws IOException {
+    Instant lastModificationTime = Files.getLastModifiedTime(newFile).toInstant();
+    long size = Files.size(newFile);
+
+    Path missingFile = tempDir.resolve("dir/missing");
+
+    when(mediaHash.computeFileHash(newFile)).thenReturn(hash1);
+    when(mediaHash.computeDirectoryHash(missingFile)).thenThrow(new NoSuchFileException(missingFile.toString()));
+    when(idStore.findOrAdd(List.of(new Signature(size, Instant.ofEpochMilli(lastModificationTime.toEpochMilli()), hash1)))).thenReturn(List.of(createRecord(102, size, lastModificationTime, hash1)));
+
+    Map<URI, Exception> failures = new HashMap<>();
+    Map<URI, ContentPrint> contentPrints = provider.getAll(
+      List.of(
+        new Source(existingFile.toUri(), 15L, Instant.ofEpochMilli(1201)),
+        new Source(newFile.toUri(), size, lastModificationTime),
+        new Source(missingFile.toUri(), 10L, lastModificationTime)
+      ),
+      (source, e) -> failures.put(source.location(), e)
+    );
+
+    assertEquals(Map.of(existingFile.toUri(), existingFileContentPrint, newFile.toUri(), contentPrints.get(newFile.toUri())), contentPrints);
+    assertEquals(new ContentID(102), contentPrints.get(newFile.toUri()).getId());
+    assertEquals(Set.of(missingFile.toUri()), failures.keySet());
+    assertEquals(NoSuchFileException.class, failures.get(missingFile.toUri()).getClass());
+    verify(database).accept(any());
+    verify(uriStore).store(Map.of(newFile.toUri().toString(), 102));
+  }
+
+  @Test
+  void shouldPruneContentNotSeenForALongTime() throws IOException, InterruptedException {
+    when(idStore.findNotSeenSince(any(), eq(0), eq(100))).thenReturn(List.of(101));
+    when(idStore.estimateSize(List.of(101))).thenReturn(5000L);
+    when(idStore.delete(eq(List.of(101)), any())).thenReturn(List.of(101));
+    when(uriStore.findUris(101)).thenReturn(List.of(existingFile.toUri().toString()));
+
+    assertEquals(new PruneResult(1, 5000L), provider.prune());
+
+    // Existing file is now unknown, and so gets a new content print:
+    when(mediaHash.computeFileHash(existingFile)).thenReturn(existingFileHash);
+    when(idStore.findOrAdd(List.of(new Signature(15L, Instant.ofEpochMilli(1201), existingFileHash)))).thenReturn(List.of(createRecord(105, 15L, Instant.ofEpochMilli(1201), existingFileHash)));
+
+    assertEquals(new ContentID(105), provider.get(existingFile.toUri(), 15L, Instant.ofEpochMilli(1201)).getId());
+  }
+
+  @Test
+  void shouldNeverResolveContentWhichIsDeletedConcurrently() throws IOException, InterruptedException, ExecutionException {
+    int count = 200;
+    Set<Integer> deletedIds = ConcurrentHashMap.newKeySet();
+    AtomicInteger currentId = new AtomicInteger();
+
+    Files.createDirectory(tempDir.resolve("race"));
+
+    for(int i = 0; i < count; i++) {
+      Files.write(tempDir.resolve("race/" + i), List.of("Race " + i));
+    }
+
+    doAnswer(invocation -> {
+      Consumer<UriRecord> consumer = invocation.getArgument(0);
+
+      for(int i = 0; i < count; i++) {
+        consumer.accept(new UriRecord(i + 1, 1000 + i, tempDir.resolve("race/" + i).toUri().toString()));
+      }
+
+      return null;
+    }).when(uriStore).forEach(any());
+    doAnswer(invocation -> {
+      Consumer<ContentPrintRecord> consumer = invocation.getArgument(0);
+
+      for(int i = 0; i < count; i++) {
+        consumer.accept(new ContentPrintRecord(1000 + i, existingFileHash, 15L, 1201, 1L, 15001));
+      }
+
+      return null;
+    }).when(idStore).forEach(any());
+
+    when(uriStore.computeStamp()).thenReturn(new long[] {3});  // links were modified, so the snapshot is outdated
+    PostConstructCaller.call(provider);
+
+    when(idStore.findNotSeenSince(any(), eq(0), eq(100))).thenAnswer(invocation -> List.of(currentId.get()));
+    when(idStore.estimateSize(any())).thenReturn(15L);
+    when(uriStore.findUris(anyInt())).thenAnswer(invocation -> List.of(tempDir.resolve("race/" + ((int)invocation.getArgument(0) - 1000)).toUri().toString()));
+    lenient().when(idStore.delete(any(), any())).thenAnswer(invocation -> {
+      List<Integer> ids = invocation.getArgument(0);
+
+      deletedIds.addAll(ids);
+
+      return ids;
+    });
+    lenient().when(mediaHash.computeFileHash(any())).thenReturn(existingFileHash);
+    lenient().when(idStore.findOrAdd(any())).thenAnswer(invocation -> {
+      int id = currentId.get();  // the signature matches the existing content, unless it was deleted
+
+      return List.of(createRecord(deletedIds.contains(id) ? id + 1000 : id, 15L, Instant.ofEpochMilli(1201), existingFileHash));
+    });
+
+    try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for(int i = 0; i < count; i++) {
+        URI uri = tempDir.resolve("race/" + i).toUri();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        currentId.set(1000 + i);
+
+        Future<PruneResult> pruneResult = executor.submit(() -> {
+          latch.await();
+
+          return provider.prune();
+        });
+        Future<ContentPrint> contentPrint = executor.submit(() -> {
+          latch.await();
+
+          return provider.get(uri, 15L, Instant.ofEpochMilli(1201));
+        });
+
+        latch.countDown();
+
+        boolean deleted = pruneResult.get().count() == 1;
+
+        assertEquals(deleted, deletedIds.contains(1000 + i));
+        assertEquals(deleted ? 2000 + i : 1000 + i, contentPrint.get().getId().asInt());
+      }
+    }
+  }
+
   private static ContentPrintRecord createRecord(int id, Long size, Instant lastModificationTime, byte[] hash) {
     return new ContentPrintRecord(
       id,
@@ -0,0 +1,279 @@
+package hs.mediasystem.db.base;
+
+import com.sun.management.ThreadMXBean;
+import com.sun.net.httpserver.HttpServer;
+
+import hs.mediasystem.util.FieldSetter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.CacheResponse;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DatabaseResponseCacheTest {
+  private static final int LARGE_SIZE = 20 * 1024 * 1024;
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private final CountDownLatch requestsStarted = new CountDownLatch(5);
+
+  @Mock private ImageDatabase store;
+  @InjectMocks private DatabaseResponseCache responseCache;
+
+  @TempDir Path tempDir;
+
+  private HttpServer server;
+  private URI uri;
+  private URI sharedUri;
+  private URI largeUri;
+
+  private final BlobStore blobStore = new BlobStore();
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/image", exchange -> {
+      requestCount.incrementAndGet();
+
+      try {
+        Thread.sleep(500);  // slow response, so concurrent requests overlap
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      byte[] body = "image-data".getBytes(StandardCharsets.UTF_8);
+
+      exchange.sendResponseHeaders(200, body.length);
+
+      try(OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+    server.createContext("/shared", exchange -> {
+      requestCount.incrementAndGet();
+
+      try {
+        requestsStarted.await(10, TimeUnit.SECONDS);  // respond only once all concurrent requests were started
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      byte[] body = "image-data".getBytes(StandardCharsets.UTF_8);
+
+      exchange.sendResponseHeaders(200, body.length);
+
+      try(OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+    server.createContext("/large", exchange -> {
+      requestCount.incrementAndGet();
+
+      byte[] chunk = new byte[64 * 1024];
+
+      exchange.sendResponseHeaders(200, LARGE_SIZE);
+
+      try(OutputStream os = exchange.getResponseBody()) {
+        for(int i = 0; i < LARGE_SIZE / chunk.length; i++) {
+          Arrays.fill(chunk, (byte)i);
+          os.write(chunk);
+        }
+      }
+    });
+    server.start();
+
+    uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/image");
+    sharedUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/shared");
+    largeUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/large");
+
+    FieldSetter.set(blobStore, "baseDir", tempDir.toString());
+
+    lenient().when(store.findImageByURI(any())).thenReturn(Optional.empty());
+    lenient().when(store.createWriter(any(), any())).thenAnswer(invocation -> new ResponseWriter(
+      blobStore,
+      8 * 1024,
+      (image, blobHash, size) -> ImageRecord.of(invocation.getArgument(0).toString(), invocation.getArgument(1), image, blobHash, size)
+    ));
+    lenient().when(store.readData(any())).thenAnswer(invocation -> {
+      ImageRecord image = invocation.getArgument(0);
+
+      return image.image() == null ? blobStore.get(image.blobHash()) : ByteBuffer.wrap(image.image()).asReadOnlyBuffer();
+    });
+  }
+
+  @AfterEach
+  void afterEach() {
+    server.stop(0);
+  }
+
+  @Test
+  void shouldCoalesceConcurrentFetchesAndServeRepeatedRequestsFromMemory() throws Exception {
+    when(store.findImageByURI(sharedUri)).thenAnswer(invocation -> {
+      requestsStarted.countDown();
+
+      return Optional.empty();
+    });
+
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+    List<Future<String>> futures = new ArrayList<>();
+
+    try {
+      for(int i = 0; i < 5; i++) {
+        futures.add(executor.submit(() -> readBody(responseCache.get(sharedUri, "GET", Map.of()))));
+      }
+
+      for(Future<String> future : futures) {
+        assertThat(future.get()).isEqualTo("image-data");
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    assertThat(requestCount.get()).isEqualTo(1);
+
+    verify(store).createWriter(eq(sharedUri), any());
+    clearInvocations(store);
+
+    // Served from memory, without querying the database or fetching again:
+    assertThat(readBody(responseCache.get(sharedUri, "GET", Map.of()))).isEqualTo("image-data");
+    assertThat(readBody(responseCache.get(sharedUri, "GET", Map.of()))).isEqualTo("image-data");
+    assertThat(requestCount.get()).isEqualTo(1);
+
+    verify(store, never()).findImageByURI(any());
+    verify(store, times(2)).markAccessed(sharedUri);
+  }
+
+  @Test
+  void shouldStreamLargeResponsesToStoreWithoutBufferingThemOnHeap() throws Exception {
+    ThreadMXBean threadMXBean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+    ArgumentCaptor<ImageRecord> captor = ArgumentCaptor.forClass(ImageRecord.class);
+    long total = 0;
+    long allocatedBefore = threadMXBean.getCurrentThreadAllocatedBytes();
+
+    try(InputStream is = responseCache.get(largeUri, "GET", Map.of()).getBody()) {
+      byte[] buffer = new byte[64 * 1024];
+
+      for(int count; (count = is.read(buffer)) != -1;) {
+        total += count;
+      }
+    }
+
+    long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+    assertThat(total).isEqualTo(LARGE_SIZE);
+    assertThat(allocated).isLessThan(LARGE_SIZE / 5);  // a buffered copy of the body alone would exceed this
+
+    // Stored as a blob, which is served from the store instead of fetched again:
+    verify(store).readData(captor.capture());
+
+    assertThat(captor.getValue().image()).isNull();
+    assertThat(captor.getValue().size()).isGreaterThan(LARGE_SIZE);
+
+    ByteBuffer stored = store.readData(captor.getValue());
+
+    assertThat(stored.isDirect()).isTrue();
+    assertThat(stored.get(stored.limit() - 1)).isEqualTo((byte)(LARGE_SIZE / (64 * 1024) - 1));
+    assertThat(requestCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldNotWaitForOwnFetchWhenRequestingAgainBeforeReadingBody() throws Exception {
+    CacheResponse first = responseCache.get(uri, "GET", Map.of());
+    CacheResponse second = responseCache.get(uri, "GET", Map.of());  // would wait for the first body to be read if it was shared
+
+    assertThat(readBody(second)).isEqualTo("image-data");
+    assertThat(readBody(first)).isEqualTo("image-data");
+    assertThat(requestCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldLetWaitingThreadsFetchThemselvesWhenStoringFailed() throws Exception {
+    when(store.createWriter(any(), any())).thenAnswer(invocation -> new ResponseWriter(
+      blobStore,
+      8 * 1024,
+      (image, blobHash, size) -> {
+        throw new IOException("Disk full");
+      }
+    ));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      Future<String> first = executor.submit(() -> readBody(responseCache.get(uri, "GET", Map.of())));
+
+      Thread.sleep(100);  // second request starts while the first is being fetched
+
+      Future<String> second = executor.submit(() -> readBody(responseCache.get(uri, "GET", Map.of())));
+
+      assertThat(first.get()).isEqualTo("image-data");
+      assertThat(second.get()).isEqualTo("image-data");
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    assertThat(requestCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldLetWaitingThreadsFetchThemselvesWhenBodyIsNotRead() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try(InputStream unread = responseCache.get(uri, "GET", Map.of()).getBody()) {
+      Future<String> second = executor.submit(() -> readBody(responseCache.get(uri, "GET", Map.of())));
+
+      assertThat(second.get(30, TimeUnit.SECONDS)).isEqualTo("image-data");
+      assertThat(requestCount.get()).isEqualTo(2);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private static String readBody(CacheResponse response) throws IOException {
+    try(InputStream is = response.getBody()) {
+      return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
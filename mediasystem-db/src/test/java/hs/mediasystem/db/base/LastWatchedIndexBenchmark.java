@@ -0,0 +1,66 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares finding the most recently watched streams with a {@link LastWatchedIndex}
+ * with the full scan and sort of all stream states it replaced.
+ */
+public class LastWatchedIndexBenchmark {
+  private static final int SIZE = 50_000;
+  private static final int MAXIMUM = 20;
+  private static final int ROUNDS = 10;
+  private static final int QUERIES = 1000;
+
+  public static void main(String[] args) {
+    List<Map<String, Object>> streamStates = new ArrayList<>();  // stream states as they were stored before the index existed
+    LastWatchedIndex index = new LastWatchedIndex();
+    Instant start = Instant.parse("2015-01-01T00:00:00Z");
+
+    for(int i = 0; i < SIZE; i++) {
+      Map<String, Object> properties = new HashMap<>();
+      Instant lastWatchedTime = start.plusSeconds(i * 7919L % SIZE * 3600);
+
+      properties.put("content-id", i);
+      properties.put("last-watched-time", lastWatchedTime.toString());
+      properties.put("resume-position", 60);
+
+      streamStates.add(properties);
+      index.put(new ContentID(i), lastWatchedTime);
+    }
+
+    for(int round = 0; round < ROUNDS; round++) {
+      long startNanos = System.nanoTime();
+      long sum = 0;
+
+      for(int i = 0; i < QUERIES / 100; i++) {
+        sum += streamStates.stream()
+          .filter(ss -> ss.containsKey("last-watched-time"))
+          .map(ss -> new WatchedStream(new ContentID((int)ss.get("content-id")), Instant.parse((String)ss.get("last-watched-time"))))
+          .sorted(Comparator.comparing(WatchedStream::lastWatchedTime).reversed())
+          .limit(MAXIMUM)
+          .mapToInt(ws -> ws.contentId().asInt())
+          .sum();
+      }
+
+      long scanNanos = (System.nanoTime() - startNanos) / (QUERIES / 100);
+
+      startNanos = System.nanoTime();
+
+      for(int i = 0; i < QUERIES; i++) {
+        sum += index.find(null, MAXIMUM).stream().mapToInt(ws -> ws.contentId().asInt()).sum();
+      }
+
+      long indexNanos = (System.nanoTime() - startNanos) / QUERIES;
+
+      System.out.printf("Round %2d, top %d of %d stream states - scan and sort: %8d us, index: %6d us (%d)%n", round + 1, MAXIMUM, SIZE, scanNanos / 1000, indexNanos / 1000, sum);
+    }
+  }
+}
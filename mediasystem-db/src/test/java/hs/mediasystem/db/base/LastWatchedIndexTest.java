@@ -0,0 +1,62 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LastWatchedIndexTest {
+  private final LastWatchedIndex index = new LastWatchedIndex();
+
+  @Test
+  void shouldFindMostRecentlyWatchedStreamsFirst() {
+    index.put(new ContentID(1), Instant.ofEpochSecond(100));
+    index.put(new ContentID(2), Instant.ofEpochSecond(300));
+    index.put(new ContentID(3), Instant.ofEpochSecond(200));
+    index.put(new ContentID(4), Instant.ofEpochSecond(200));
+
+    assertThat(index.find(null, 10))
+      .extracting(WatchedStream::contentId)
+      .containsExactly(new ContentID(2), new ContentID(3), new ContentID(4), new ContentID(1));
+  }
+
+  @Test
+  void shouldReplaceEarlierTimes() {
+    index.put(new ContentID(1), Instant.ofEpochSecond(100));
+    index.put(new ContentID(2), Instant.ofEpochSecond(200));
+    index.put(new ContentID(1), Instant.ofEpochSecond(300));
+
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.find(null, 10)).containsExactly(
+      new WatchedStream(new ContentID(1), Instant.ofEpochSecond(300)),
+      new WatchedStream(new ContentID(2), Instant.ofEpochSecond(200))
+    );
+  }
+
+  @Test
+  void shouldPageThroughStreams() {
+    for(int i = 0; i < 25; i++) {
+      index.put(new ContentID(i), Instant.ofEpochSecond(i % 5));  // many equal times
+    }
+
+    WatchedStream last = null;
+    int count = 0;
+
+    while(true) {
+      var page = index.find(last, 10);
+
+      count += page.size();
+
+      if(page.size() < 10) {
+        break;
+      }
+
+      last = page.getLast();
+    }
+
+    assertThat(count).isEqualTo(25);
+  }
+}
@@ -0,0 +1,42 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class StreamStateProviderTest {
+  @Mock private StreamStateStore store;
+  @InjectMocks private StreamStateProvider provider;
+
+  @Test
+  void shouldStoreChangesWhenFlushed() throws Exception {
+    provider.setResumePosition(new ContentID(1), 152);
+    provider.flush();
+
+    verify(store).storeAll(List.of(new StreamState(new ContentID(1), false, null, 152, -1)));
+  }
+
+  @Test
+  void shouldRetryChangesWhenStoringFailed() throws Exception {
+    List<StreamState> expectedStates = List.of(new StreamState(new ContentID(1), true, null, 0, -1));
+
+    doThrow(new IllegalStateException("Connection lost")).doNothing().when(store).storeAll(expectedStates);
+
+    provider.setWatched(new ContentID(1), true);
+    provider.flush();
+    provider.flush();
+
+    verify(store, times(2)).storeAll(expectedStates);
+  }
+}
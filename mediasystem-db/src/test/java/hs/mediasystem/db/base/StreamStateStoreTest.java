@@ -2,7 +2,7 @@ package hs.mediasystem.db.base;
 
 import hs.mediasystem.domain.stream.ContentID;
 
-import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
 
 import org.int4.db.core.reflect.Row;
@@ -23,16 +23,15 @@ public class StreamStateStoreTest {
 
   @BeforeEach
   public void beforeEach() {
-    database.mockQuery("SELECT content_id, json FROM streamstate", List.of(
-      Row.of(1, "{\"total-duration\":9469,\"watched\":true,\"last-watched-time\":\"2019-06-19T14:47:02.925460100\",\"resume-position\":152}".getBytes(StandardCharsets.UTF_8))
+    database.mockQuery("SELECT content_id, watched, last_watched_time, resume_position, total_duration FROM stream_states", List.of(
+      Row.of(1, true, Instant.parse("2019-06-19T14:47:02.925Z"), 152, 9469)
     ));
   }
 
   @Test
   void shouldStoreAndRetrieve() {
     store.forEach(ss -> {
-      assertEquals(new ContentID(1), ss.getContentID());
-      assertEquals(9469, ss.getProperties().get("total-duration"));
+      assertEquals(new StreamState(new ContentID(1), true, Instant.parse("2019-06-19T14:47:02.925Z"), 152, 9469), ss);
     });
   }
 }
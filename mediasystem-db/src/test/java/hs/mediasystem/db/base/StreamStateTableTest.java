@@ -0,0 +1,79 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamStateTableTest {
+  private static final Instant TIME = Instant.parse("2019-06-19T14:47:02.925Z");
+
+  private final StreamStateTable table = new StreamStateTable();
+
+  @Test
+  void shouldReturnDefaultsForUnknownStreams() {
+    assertThat(table.isWatched(1)).isFalse();
+    assertThat(table.getLastWatchedTime(1)).isNull();
+    assertThat(table.getResumePosition(1)).isEqualTo(0);
+    assertThat(table.getTotalDuration(1)).isEqualTo(-1);
+    assertThat(table.size()).isEqualTo(0);
+  }
+
+  @Test
+  void shouldStoreStatesOfManyStreams() {
+    for(int i = 0; i < 10000; i++) {
+      table.setResumePosition(i * 7, i);
+    }
+
+    table.setWatched(14, true);
+    table.setLastWatchedTime(14, TIME);
+    table.setTotalDuration(14, 9469);
+
+    assertThat(table.size()).isEqualTo(10000);
+
+    for(int i = 0; i < 10000; i++) {
+      assertThat(table.getResumePosition(i * 7)).isEqualTo(i);
+    }
+
+    assertThat(table.getResumePosition(15)).isEqualTo(0);
+    assertThat(table.isWatched(14)).isTrue();
+    assertThat(table.isWatched(7)).isFalse();
+    assertThat(table.getLastWatchedTime(14)).isEqualTo(TIME);
+    assertThat(table.getTotalDuration(14)).isEqualTo(9469);
+  }
+
+  @Test
+  void shouldTrackChangesOncePerStream() {
+    table.load(new StreamState(new ContentID(1), true, TIME, 152, 9469));
+    table.load(new StreamState(new ContentID(2), false, null, 0, -1));
+
+    assertThat(table.takeChanges()).isEmpty();
+
+    table.setResumePosition(1, 160);
+    table.setResumePosition(1, 170);
+    table.setWatched(3, true);
+    table.setResumePosition(1, 180);
+
+    assertThat(table.takeChanges()).containsExactly(
+      new StreamState(new ContentID(1), true, TIME, 180, 9469),
+      new StreamState(new ContentID(3), true, null, 0, -1)
+    );
+    assertThat(table.takeChanges()).isEmpty();
+
+    table.markChanged(2);
+    table.markChanged(4);  // unknown, ignored
+
+    assertThat(table.takeChanges()).containsExactly(new StreamState(new ContentID(2), false, null, 0, -1));
+
+    List<StreamState> streamStates = new ArrayList<>();
+
+    table.forEach(streamStates::add);
+
+    assertThat(streamStates).extracting(StreamState::contentId).containsExactly(new ContentID(1), new ContentID(2), new ContentID(3));
+  }
+}
@@ -0,0 +1,107 @@
+package hs.mediasystem.db.base;
+
+import hs.mediasystem.domain.stream.ContentID;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Compares heap use and build time of a {@link UriIndex} with the map of strings
+ * to {@link ContentID}s it replaced, and measures the time needed to save and load
+ * snapshots of the index.<p>
+ *
+ * Run with a large enough heap (-Xmx4g) for the 1M case.  Heap use is measured
+ * after forcing garbage collection, which is only an approximation.
+ */
+public class UriIndexBenchmark {
+  private static final int[] SIZES = {100_000, 1_000_000};
+  private static final int LOOKUPS = 1_000_000;
+
+  public static void main(String[] args) throws Exception {
+    Path file = Files.createTempFile("uri-index", ".dat");
+
+    try {
+      for(int round = 0; round < 3; round++) {
+        for(int size : SIZES) {
+          IntFunction<String> uris = i -> "file:///mnt/media/Series/Some Series Name " + i / 200 + "/Season " + i / 20 % 10 + "/Some Series Name - " + i / 20 % 10 + "x" + i % 20 + " - Episode Title " + i + ".mkv";
+
+          Map<String, ContentID> map = measure("HashMap " + size, () -> {
+            Map<String, ContentID> contentIds = new HashMap<>();
+
+            for(int i = 0; i < size; i++) {
+              contentIds.put(uris.apply(i), new ContentID(i));
+            }
+
+            return contentIds;
+          });
+
+          UriIndex index = measure("UriIndex " + size, () -> {
+            UriIndex.Builder builder = new UriIndex.Builder();
+
+            for(int i = 0; i < size; i++) {
+              builder.add(uris.apply(i), i);
+            }
+
+            return builder.build();
+          });
+
+          long startNanos = System.nanoTime();
+
+          index.save(file, new long[] {size});
+
+          System.out.printf("  save: %5d ms, %6d kB%n", (System.nanoTime() - startNanos) / 1_000_000, Files.size(file) / 1024);
+
+          UriIndex loadedIndex = measure("UriIndex snapshot " + size, () -> {
+            try {
+              return UriIndex.load(file, new long[] {size});
+            }
+            catch(Exception e) {
+              throw new IllegalStateException(e);
+            }
+          });
+
+          startNanos = System.nanoTime();
+          long sum = 0;
+
+          for(int i = 0; i < LOOKUPS; i++) {
+            sum += loadedIndex.get(uris.apply((int)(i * 7919L % size)));
+          }
+
+          System.out.printf("  %d lookups: %5d ms (%d)%n", LOOKUPS, (System.nanoTime() - startNanos) / 1_000_000, sum);
+
+          if(map.size() != size || index.size() != size) {  // keeps structures reachable until measured
+            throw new IllegalStateException();
+          }
+        }
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
+  private static <T> T measure(String name, Supplier<T> supplier) {
+    long heapBefore = usedHeap();
+    long startNanos = System.nanoTime();
+    T result = supplier.get();
+    long millis = (System.nanoTime() - startNanos) / 1_000_000;
+
+    System.out.printf("%-28s: %5d ms, %7d kB heap%n", name, millis, (usedHeap() - heapBefore) / 1024);
+
+    return result;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+
+    for(int i = 0; i < 3; i++) {
+      System.gc();
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,93 @@
+package hs.mediasystem.db.base;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UriIndexTest {
+  @TempDir Path tempDir;
+
+  private final UriIndex index = new UriIndex.Builder()
+    .add("file:///media/Movies/Alien.mkv", 1)
+    .add("file:///media/Movies/Aliens.mkv", 2)
+    .add("file:///media/Series/Fran%C3%A7ais/1x01.avi", 3)
+    .add("file:///media/Séries/Ærø/1x01.avi", 4)
+    .add("file:///media/Movies/", 5)
+    .build();
+
+  @Test
+  void shouldFindUris() {
+    assertThat(index.size()).isEqualTo(5);
+    assertThat(index.get("file:///media/Movies/Alien.mkv")).isEqualTo(1);
+    assertThat(index.get("file:///media/Movies/Aliens.mkv")).isEqualTo(2);
+    assertThat(index.get("file:///media/Series/Fran%C3%A7ais/1x01.avi")).isEqualTo(3);
+    assertThat(index.get("file:///media/Séries/Ærø/1x01.avi")).isEqualTo(4);
+    assertThat(index.get("file:///media/Movies/")).isEqualTo(5);
+    assertThat(index.get("file:///media/Movies/Alien")).isEqualTo(UriIndex.NONE);
+    assertThat(index.get("file:///media/Alien.mkv")).isEqualTo(UriIndex.NONE);
+    assertThat(index.get("file:///media/Movies")).isEqualTo(UriIndex.NONE);
+    assertThat(index.get("")).isEqualTo(UriIndex.NONE);
+    assertThat(new UriIndex().get("file:///media/Movies/Alien.mkv")).isEqualTo(UriIndex.NONE);
+  }
+
+  @Test
+  void shouldPutAndRemoveUris() {
+    index.put("file:///media/Movies/Alien.mkv", 10);
+    index.put("file:///media/Movies/Alien 3.mkv", 11);
+    index.remove("file:///media/Movies/Aliens.mkv");
+    index.remove("file:///media/Movies/Unknown.mkv");
+
+    assertThat(index.isModified()).isTrue();
+    assertThat(index.size()).isEqualTo(5);
+    assertThat(index.get("file:///media/Movies/Alien.mkv")).isEqualTo(10);
+    assertThat(index.get("file:///media/Movies/Alien 3.mkv")).isEqualTo(11);
+    assertThat(index.get("file:///media/Movies/Aliens.mkv")).isEqualTo(UriIndex.NONE);
+    assertThatThrownBy(() -> index.put("file:///x", -1)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void shouldKeepAllUrisWhenCompacting() {
+    for(int i = 0; i < 5000; i++) {
+      index.put("file:///media/Dir" + i % 7 + "/" + i + ".avi", i);
+    }
+
+    for(int i = 0; i < 5000; i += 2) {
+      index.remove("file:///media/Dir" + i % 7 + "/" + i + ".avi");
+    }
+
+    assertThat(index.size()).isEqualTo(2505);
+
+    for(int i = 0; i < 5000; i++) {
+      assertThat(index.get("file:///media/Dir" + i % 7 + "/" + i + ".avi")).isEqualTo(i % 2 == 0 ? UriIndex.NONE : i);
+    }
+  }
+
+  @Test
+  void shouldSaveAndLoadSnapshots() throws IOException {
+    Path file = tempDir.resolve("cache/uri-index.dat");
+
+    index.put("file:///media/Movies/Alien 3.mkv", 11);
+    index.save(file, new long[] {1, 2, 3});
+
+    assertThat(index.isModified()).isFalse();
+    assertThat(UriIndex.load(file, new long[] {1, 2, 4})).isNull();
+    assertThat(UriIndex.load(tempDir.resolve("missing.dat"), new long[] {1, 2, 3})).isNull();
+
+    UriIndex loadedIndex = UriIndex.load(file, new long[] {1, 2, 3});
+
+    assertThat(loadedIndex.size()).isEqualTo(6);
+    assertThat(loadedIndex.isModified()).isFalse();
+    assertThat(loadedIndex.get("file:///media/Movies/Alien 3.mkv")).isEqualTo(11);
+    assertThat(loadedIndex.get("file:///media/Séries/Ærø/1x01.avi")).isEqualTo(4);
+
+    Files.write(file, new byte[] {0, 0, 0, 1, 0, 0, 0, 3, 1});
+
+    assertThatThrownBy(() -> UriIndex.load(file, new long[] {1, 2, 3})).isInstanceOf(IOException.class);
+  }
+}
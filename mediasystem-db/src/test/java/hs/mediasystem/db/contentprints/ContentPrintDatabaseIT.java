@@ -0,0 +1,148 @@
+package hs.mediasystem.db.contentprints;
+
+import hs.mediasystem.db.contentprints.ContentPrintDatabase.Signature;
+import hs.mediasystem.db.uris.UriDatabase;
+import hs.mediasystem.db.util.InjectorExtension;
+import hs.mediasystem.domain.stream.ContentID;
+import hs.mediasystem.skipscan.db.DatabaseConfig;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(InjectorExtension.class)
+public class ContentPrintDatabaseIT {
+  @Inject private DatabaseConfig databaseConfig;  // provides the database
+  @Inject private ContentPrintDatabase contentPrintDatabase;
+  @Inject private UriDatabase uriDatabase;
+
+  @Test
+  void findOrAddShouldAddMissingAndFindExistingPrints() {
+    Instant time = Instant.ofEpochMilli(1000);
+    Signature a = new Signature(100L, time, new byte[] {1, 1, 1});
+    Signature b = new Signature(null, time, new byte[] {2, 2, 2});
+    Signature aCopy = new Signature(100L, time, new byte[] {1, 1, 1});
+
+    List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(List.of(a, b, aCopy));
+
+    assertThat(records).hasSize(3);
+    assertThat(records.get(0).id()).isNotNull();
+    assertThat(records.get(1).id()).isNotNull().isNotEqualTo(records.get(0).id());
+    assertThat(records.get(2)).isSameAs(records.get(0));
+    assertThat(records.get(1).size()).isNull();
+
+    Signature c = new Signature(200L, time, new byte[] {3, 3, 3});
+
+    List<ContentPrintRecord> records2 = contentPrintDatabase.findOrAdd(List.of(c, new Signature(null, time, new byte[] {2, 2, 2})));
+
+    assertThat(records2.get(1).id()).isEqualTo(records.get(1).id());
+    assertThat(records2.get(0).id()).isNotIn(records.get(0).id(), records.get(1).id());
+  }
+
+  @Test
+  void findOrAddShouldHandleLargeBatches() {
+    List<Signature> signatures = IntStream.range(0, 2500)
+      .mapToObj(i -> new Signature((long)i, Instant.ofEpochMilli(5000), new byte[] {5, (byte)(i >> 8), (byte)i}))
+      .toList();
+
+    List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(signatures);
+
+    assertThat(records).doesNotContainNull();
+    assertThat(records.stream().map(ContentPrintRecord::id).distinct()).hasSize(2500);
+    assertThat(contentPrintDatabase.findOrAdd(signatures)).extracting(ContentPrintRecord::id).isEqualTo(records.stream().map(ContentPrintRecord::id).toList());
+  }
+
+  @Test
+  void markSeenAndUnmarkSeenShouldUpdateAllGivenIds() {
+    List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(List.of(
+      new Signature(1L, Instant.ofEpochMilli(7000), new byte[] {7, 1}),
+      new Signature(2L, Instant.ofEpochMilli(7000), new byte[] {7, 2}),
+      new Signature(3L, Instant.ofEpochMilli(7000), new byte[] {7, 3})
+    ));
+
+    contentPrintDatabase.markSeen(Set.of(new ContentID(records.get(0).id()), new ContentID(records.get(1).id())));
+
+    assertThat(lastSeenTimes(records)).satisfies(m -> {
+      assertThat(m.get(records.get(0).id())).isNotNull();
+      assertThat(m.get(records.get(1).id())).isNotNull();
+      assertThat(m.get(records.get(2).id())).isNull();
+    });
+
+    contentPrintDatabase.unmarkSeen(Set.of(new ContentID(records.get(0).id()), new ContentID(records.get(1).id())));
+
+    assertThat(lastSeenTimes(records).values()).containsOnlyNulls();
+  }
+
+  @Test
+  void deleteShouldOnlyDeleteContentNotSeenSinceCutOff() {
+    List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(List.of(
+      new Signature(1L, Instant.ofEpochMilli(8000), new byte[] {8, 1, 1, 1}),
+      new Signature(2L, Instant.ofEpochMilli(8000), new byte[] {8, 2}),
+      new Signature(3L, Instant.ofEpochMilli(8000), new byte[] {8, 3})
+    ));
+    List<Integer> ids = records.stream().map(ContentPrintRecord::id).toList();
+    Instant cutOff = Instant.now().plusSeconds(60);
+
+    contentPrintDatabase.markSeen(Set.of(new ContentID(ids.get(0)), new ContentID(ids.get(1))));
+
+    assertThat(contentPrintDatabase.findNotSeenSince(cutOff, 0, 100000)).contains(ids.get(0), ids.get(1)).doesNotContain(ids.get(2));
+    assertThat(contentPrintDatabase.findNotSeenSince(cutOff, ids.get(0), 100000)).contains(ids.get(1)).doesNotContain(ids.get(0));
+    assertThat(contentPrintDatabase.findNotSeenSince(Instant.now().minusSeconds(60), 0, 100000)).doesNotContain(ids.get(0), ids.get(1));
+    assertThat(contentPrintDatabase.estimateSize(ids.subList(0, 2))).isEqualTo(6);
+
+    assertThat(contentPrintDatabase.delete(ids, cutOff)).containsExactly(ids.get(0), ids.get(1));
+    assertThat(lastSeenTimes(records)).containsOnlyKeys(ids.get(2));
+  }
+
+  @Test
+  void storeShouldLinkAndRelinkUris() {
+    List<ContentPrintRecord> records = contentPrintDatabase.findOrAdd(List.of(
+      new Signature(1L, Instant.ofEpochMilli(9000), new byte[] {9, 1}),
+      new Signature(2L, Instant.ofEpochMilli(9000), new byte[] {9, 2})
+    ));
+
+    Map<String, Integer> links = new LinkedHashMap<>();
+
+    links.put("file:///a", records.get(0).id());
+    links.put("file:///b", records.get(0).id());
+
+    long[] stamp = uriDatabase.computeStamp();
+
+    uriDatabase.store(links);
+
+    assertThat(uriDatabase.findUris(records.get(0).id())).containsExactlyInAnyOrder("file:///a", "file:///b");
+
+    long[] linkedStamp = uriDatabase.computeStamp();
+
+    assertThat(linkedStamp).isNotEqualTo(stamp);
+
+    uriDatabase.store(Map.of("file:///b", records.get(1).id()));
+
+    assertThat(uriDatabase.findUris(records.get(0).id())).containsExactly("file:///a");
+    assertThat(uriDatabase.findUris(records.get(1).id())).containsExactly("file:///b");
+    assertThat(uriDatabase.computeStamp()).isNotEqualTo(linkedStamp);
+  }
+
+  private Map<Integer, Long> lastSeenTimes(List<ContentPrintRecord> records) {
+    Map<Integer, Long> map = new HashMap<>();
+
+    contentPrintDatabase.forEach(r -> {
+      if(records.stream().anyMatch(x -> x.id().equals(r.id()))) {
+        map.put(r.id(), r.lastSeenTime());
+      }
+    });
+
+    return map;
+  }
+}
@@ -0,0 +1,103 @@
+package hs.mediasystem.db.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class DirectoryWatcherTest {
+  @TempDir Path tempDir;
+
+  private final List<Set<Path>> reportedChanges = new CopyOnWriteArrayList<>();
+  private final DirectoryWatcher.Listener listener = new DirectoryWatcher.Listener() {
+    @Override
+    public void changed(Set<Path> directories) {
+      reportedChanges.add(directories);
+    }
+
+    @Override
+    public void overflowed() {
+    }
+  };
+
+  private DirectoryWatcher watcher;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    watcher = new DirectoryWatcher("DirectoryWatcherTest", Duration.ofMillis(200), Duration.ofSeconds(5));
+  }
+
+  @Test
+  void shouldCoalesceChangesInWatchedDirectory() throws IOException {
+    Files.createDirectory(tempDir.resolve("Serie"));
+
+    watcher.watch(tempDir, 2, listener);
+
+    Files.writeString(tempDir.resolve("Serie/1x01.avi"), "a");
+    Files.writeString(tempDir.resolve("Serie/1x02.avi"), "b");
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> !reportedChanges.isEmpty());
+
+    assertThat(reportedChanges).containsExactly(Set.of(tempDir.resolve("Serie")));
+  }
+
+  @Test
+  void shouldHoldBackChangesUntilTheySettle() throws IOException, InterruptedException {
+    DirectoryWatcher watcher = new DirectoryWatcher("DirectoryWatcherTest", Duration.ofMillis(1000), Duration.ofSeconds(30));
+
+    watcher.watch(tempDir, 2, listener);
+
+    for(int i = 0; i < 5; i++) {
+      Files.writeString(tempDir.resolve(i + ".avi"), "a");
+      Thread.sleep(100);  // well within settle time
+    }
+
+    assertThat(reportedChanges).isEmpty();
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> !reportedChanges.isEmpty());
+    await().during(Duration.ofMillis(1500)).untilAsserted(() -> assertThat(reportedChanges).containsExactly(Set.of(tempDir)));
+  }
+
+  @Test
+  void shouldReportChangesAfterMaximumDelayWhenChangesKeepOccurring() throws IOException, InterruptedException {
+    DirectoryWatcher watcher = new DirectoryWatcher("DirectoryWatcherTest", Duration.ofMillis(1000), Duration.ofMillis(300));
+
+    watcher.watch(tempDir, 2, listener);
+
+    for(int i = 0; i < 20 && reportedChanges.isEmpty(); i++) {
+      Files.writeString(tempDir.resolve(i + ".avi"), "a");
+      Thread.sleep(100);  // changes never settle
+    }
+
+    assertThat(reportedChanges).isNotEmpty();
+  }
+
+  @Test
+  void shouldReportNewDirectoriesAndTheirParent() throws IOException {
+    watcher.watch(tempDir, 2, listener);
+
+    Files.createDirectory(tempDir.resolve("Serie"));
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> !reportedChanges.isEmpty());
+
+    assertThat(reportedChanges).containsExactly(Set.of(tempDir, tempDir.resolve("Serie")));
+
+    reportedChanges.clear();
+
+    Files.writeString(tempDir.resolve("Serie/1x01.avi"), "a");  // new directory should be watched as well
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> !reportedChanges.isEmpty());
+
+    assertThat(reportedChanges).containsExactly(Set.of(tempDir.resolve("Serie")));
+  }
+}
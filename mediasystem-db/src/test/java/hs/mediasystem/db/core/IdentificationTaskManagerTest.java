@@ -6,6 +6,8 @@ import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Attribute;
 import hs.mediasystem.api.discovery.Discovery;
 import hs.mediasystem.db.core.IdentificationTaskManager.IdentifiedLocation;
+import hs.mediasystem.db.core.IdentificationTaskManager.Lane;
+import hs.mediasystem.db.core.IdentificationTaskManager.ScheduledIdentification;
 import hs.mediasystem.domain.stream.MediaType;
 import hs.mediasystem.domain.work.Match;
 import hs.mediasystem.util.Attributes;
@@ -21,7 +23,9 @@ import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,6 +35,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -48,6 +53,8 @@ public class IdentificationTaskManagerTest {
   private static final Release RELEASE2 = mock(Release.class);
   private static final Attributes ATTRIBUTES = Attributes.of(Attribute.TITLE, "title");
   private static final Discovery D1 = new Discovery(MediaType.SERIE, URI.create("charmed"), ATTRIBUTES, Instant.now(), 20000L);
+  private static final Discovery D2 = new Discovery(MediaType.SERIE, URI.create("friends"), ATTRIBUTES, Instant.now(), 20000L);
+  private static final Discovery D3 = new Discovery(MediaType.SERIE, URI.create("lost"), ATTRIBUTES, Instant.now(), 20000L);
   private static final Instant BASE = Instant.ofEpochSecond(0);
 
   private final BlockingQueue<IdentifiedLocation> identifications = new ArrayBlockingQueue<>(50);
@@ -69,6 +76,32 @@ public class IdentificationTaskManagerTest {
     );
   }
 
+  @AfterEach
+  void afterEach() {
+    manager.close();
+  }
+
+  @Test
+  void shouldNotStartIdentificationsAfterClosing() throws IOException, SQLException {
+    when(identificationStore.find(D1.location())).thenReturn(Optional.of(identification));
+    when(match.creationTime()).thenReturn(BASE.minus(Duration.ofHours(5)));  // no need to reidentify for another 24 - 5 hours
+
+    manager.create(identificationProvider, D1);
+
+    await().untilAsserted(() -> assertThat(identifications).hasSize(1));
+
+    manager.close();
+    identifications.clear();
+    source.advanceTime(Duration.ofHours(25));
+
+    await().during(1, TimeUnit.SECONDS).untilAsserted(() ->
+      assertThat(identifications).isEmpty()
+    );
+
+    assertThat(manager.getSchedule(10)).isEmpty();
+    verify(identificationProvider, never()).identify(any());
+  }
+
   @Test
   void shouldImmediatelyIdentifyNewItem() throws IOException, SQLException {
     when(identificationProvider.identify(D1)).thenReturn(Optional.of(identification));
@@ -135,6 +168,62 @@ public class IdentificationTaskManagerTest {
     );
   }
 
+  @Test
+  void shouldUsePreloadedIdentificationWithoutQueryingStore() throws IOException, SQLException {
+    doAnswer(invocation -> {
+      invocation.<BiConsumer<URI, Identification>>getArgument(0).accept(D1.location(), identification);
+
+      return null;
+    }).when(identificationStore).forEach(any());
+
+    when(match.creationTime()).thenReturn(BASE.minus(Duration.ofHours(5)));  // no need to reidentify for another 24 - 5 hours
+
+    manager.preload();
+
+    assertThat(manager.create(identificationProvider, D1)).isEqualTo(identification);
+    assertThat(manager.create(identificationProvider, D1)).isNull();  // already created
+
+    await().during(1, TimeUnit.SECONDS).untilAsserted(() ->
+      assertThat(identifications).isEmpty()  // preloaded identification is returned directly
+    );
+
+    verify(identificationStore, never()).find(any());
+
+    // Advance 20 hours:
+    when(identificationProvider.identify(D1)).thenReturn(Optional.of(identification2));
+
+    source.advanceTime(Duration.ofHours(20));
+
+    await().untilAsserted(() ->
+      assertThat(identifications).containsExactly(
+        new IdentifiedLocation(D1.location(), identification2, identificationProvider)
+      )
+    );
+  }
+
+  @Test
+  void shouldQueryStoreAfterPreloadedIdentificationsWereDiscarded() throws SQLException {
+    doAnswer(invocation -> {
+      invocation.<BiConsumer<URI, Identification>>getArgument(0).accept(D1.location(), identification);
+
+      return null;
+    }).when(identificationStore).forEach(any());
+
+    when(identificationStore.find(D1.location())).thenReturn(Optional.of(identification));
+    when(match.creationTime()).thenReturn(BASE.minus(Duration.ofHours(5)));  // no need to reidentify for another 24 - 5 hours
+
+    manager.preload();
+    manager.discardPreloaded();
+
+    assertThat(manager.create(identificationProvider, D1)).isNull();
+
+    await().untilAsserted(() ->
+      assertThat(identifications).containsExactly(
+        new IdentifiedLocation(D1.location(), identification, identificationProvider)
+      )
+    );
+  }
+
   @Test
   void shouldSendOutEmptyIdentificationWhenIdentificationNoLongerProducedMatch() throws SQLException, IOException {
     when(identificationStore.find(D1.location())).thenReturn(Optional.of(identification));
@@ -244,4 +333,57 @@ public class IdentificationTaskManagerTest {
       assertThat(identifications).isEmpty()
     );
   }
+
+  @Test
+  void shouldSpreadOverdueRefreshesAndLimitThemPerHour() throws IOException, SQLException {
+    IdentificationTaskManager manager = new IdentificationTaskManager(
+      identificationStore,
+      source,
+      Duration.ofHours(24),
+      Duration.ofHours(2),
+      Duration.ofHours(6),
+      2,
+      identifications
+    );
+
+    when(identificationStore.find(any())).thenReturn(Optional.of(identification));
+    when(match.creationTime()).thenReturn(BASE.minus(Duration.ofHours(25)));  // all refreshes are overdue
+
+    manager.create(identificationProvider, D1);
+    manager.create(identificationProvider, D2);
+    manager.create(identificationProvider, D3);
+
+    await().untilAsserted(() -> assertThat(manager.getSchedule(10)).hasSize(3));
+
+    assertThat(manager.getSchedule(10))
+      .extracting(ScheduledIdentification::lane)
+      .containsOnly(Lane.REFRESH);
+
+    assertThat(manager.getSchedule(10))
+      .extracting(ScheduledIdentification::time)
+      .allSatisfy(time -> assertThat(time).isBetween(BASE, BASE.plus(Duration.ofHours(6))))
+      .isSorted();
+
+    assertThat(manager.getSchedule(2)).hasSize(2);
+
+    // Advance 7 hours, all refreshes are due but only two are allowed per hour:
+    when(identificationProvider.identify(any())).thenReturn(Optional.of(identification2));
+
+    identifications.clear();
+    source.advanceTime(Duration.ofHours(7));
+
+    await().untilAsserted(() -> assertThat(identifications).hasSize(2));
+    await().during(1, TimeUnit.SECONDS).untilAsserted(() -> assertThat(identifications).hasSize(2));
+
+    // Advance 1 hour, allowing the last refresh:
+    source.advanceTime(Duration.ofHours(1));
+
+    await().untilAsserted(() ->
+      assertThat(identifications)
+        .extracting(IdentifiedLocation::location)
+        .containsExactlyInAnyOrder(D1.location(), D2.location(), D3.location())
+    );
+
+    manager.close();
+  }
 }
@@ -0,0 +1,155 @@
+package hs.mediasystem.db.core;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class LaneSemaphoreTest {
+  enum Lane { HIGH, MEDIUM, LOW }
+
+  private final LaneSemaphore<Lane> semaphore = new LaneSemaphore<>(Lane.class, 2, Map.of(Lane.LOW, 1));
+  private final List<String> order = new CopyOnWriteArrayList<>();
+
+  @Test
+  void shouldGivePermitsToHighestPriorityLaneFirst() throws InterruptedException {
+    semaphore.acquire(Lane.MEDIUM);
+    semaphore.acquire(Lane.MEDIUM);
+
+    Thread low = start(Lane.LOW, "low");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> semaphore.getQueueDepth(Lane.LOW) == 1);
+
+    Thread medium = start(Lane.MEDIUM, "medium");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> semaphore.getQueueDepth(Lane.MEDIUM) == 1);
+
+    Thread high = start(Lane.HIGH, "high");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> semaphore.getQueueDepth(Lane.HIGH) == 1);
+
+    semaphore.release(Lane.MEDIUM);
+
+    high.join();
+
+    semaphore.release(Lane.MEDIUM);
+
+    medium.join();
+    low.join();
+
+    assertThat(order).containsExactly("high", "medium", "low");
+    assertThat(semaphore.getQueueDepth(Lane.LOW)).isZero();
+    assertThat(semaphore.getAverageWaitMillis(Lane.LOW)).isGreaterThanOrEqualTo(semaphore.getLastWaitMillis(Lane.HIGH));
+  }
+
+  @Test
+  void shouldKeepPermitsInReserveForOtherLanes() throws InterruptedException {
+    semaphore.acquire(Lane.LOW);
+
+    Thread low = start(Lane.LOW, "low");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> semaphore.getQueueDepth(Lane.LOW) == 1);
+
+    semaphore.acquire(Lane.HIGH);  // does not block, as low lane is limited to a single permit
+
+    assertThat(order).isEmpty();
+
+    semaphore.release(Lane.LOW);
+    low.join();
+
+    assertThat(order).containsExactly("low");
+  }
+
+  @Test
+  void shouldNotLosePermitsWhenInterrupted() throws InterruptedException {
+    semaphore.acquire(Lane.HIGH);
+    semaphore.acquire(Lane.HIGH);
+
+    Thread medium = start(Lane.MEDIUM, "medium");
+
+    await().atMost(Duration.ofSeconds(5)).until(() -> semaphore.getQueueDepth(Lane.MEDIUM) == 1);
+
+    medium.interrupt();
+    medium.join();
+
+    assertThat(semaphore.getQueueDepth(Lane.MEDIUM)).isZero();
+
+    semaphore.release(Lane.HIGH);
+    semaphore.acquire(Lane.LOW);
+
+    assertThat(order).isEmpty();
+  }
+
+  @Test
+  void shouldLimitLaneTogetherWithLowerPriorityLanes() throws InterruptedException {
+    LaneSemaphore<Lane> semaphore = new LaneSemaphore<>(Lane.class, 3, Map.of(Lane.MEDIUM, 2, Lane.LOW, 1));
+
+    semaphore.acquire(Lane.LOW);
+    semaphore.acquire(Lane.MEDIUM);
+
+    assertThat(tryAcquire(semaphore, Lane.MEDIUM)).isFalse();  // low lane uses one of the medium lane's permits
+    assertThat(tryAcquire(semaphore, Lane.HIGH)).isTrue();
+  }
+
+  @Test
+  void identificationSemaphoreShouldReservePermitsForInteractiveLane() throws InterruptedException {
+    LaneSemaphore<IdentificationTaskManager.Lane> identificationSemaphore = IdentificationTaskManager.createIdentificationSemaphore();
+
+    for(int i = 0; i < 2; i++) {
+      assertThat(tryAcquire(identificationSemaphore, IdentificationTaskManager.Lane.REFRESH)).isTrue();
+    }
+
+    assertThat(tryAcquire(identificationSemaphore, IdentificationTaskManager.Lane.REFRESH)).isFalse();
+
+    for(int i = 0; i < 3; i++) {
+      assertThat(tryAcquire(identificationSemaphore, IdentificationTaskManager.Lane.NEW)).isTrue();
+    }
+
+    assertThat(tryAcquire(identificationSemaphore, IdentificationTaskManager.Lane.NEW)).isFalse();  // refreshes use two of the five permits of new identifications
+    assertThat(identificationSemaphore.getQueueDepth(IdentificationTaskManager.Lane.NEW)).isZero();  // the waiting thread gave up
+
+    assertThat(tryAcquire(identificationSemaphore, IdentificationTaskManager.Lane.INTERACTIVE)).isTrue();
+  }
+
+  /*
+   * Attempts to acquire a permit in a separate thread, and gives up when it was not
+   * granted within a short time.
+   */
+  private static <L extends Enum<L>> boolean tryAcquire(LaneSemaphore<L> semaphore, L lane) throws InterruptedException {
+    Thread thread = Thread.ofVirtual().start(() -> {
+      try {
+        semaphore.acquire(lane);
+      }
+      catch(InterruptedException e) {
+        // Expected when not granted in time
+      }
+    });
+
+    if(thread.join(Duration.ofMillis(500))) {
+      return true;
+    }
+
+    thread.interrupt();
+    thread.join();
+
+    return false;
+  }
+
+  private Thread start(Lane lane, String name) {
+    return Thread.ofVirtual().start(() -> {
+      try {
+        semaphore.acquire(lane);
+        order.add(name);
+        semaphore.release(lane);
+      }
+      catch(InterruptedException e) {
+        // Expected when interrupted
+      }
+    });
+  }
+}
@@ -0,0 +1,102 @@
+package hs.mediasystem.db.core;
+
+import hs.mediasystem.db.core.domain.ContentPrint;
+import hs.mediasystem.db.core.domain.Resource;
+import hs.mediasystem.db.core.domain.StreamTags;
+import hs.mediasystem.db.core.domain.Streamable;
+import hs.mediasystem.db.util.InjectorExtension;
+import hs.mediasystem.db.util.Movies;
+import hs.mediasystem.domain.stream.ContentID;
+import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.domain.work.DataSource;
+import hs.mediasystem.domain.work.Match;
+import hs.mediasystem.domain.work.Match.Type;
+import hs.mediasystem.domain.work.WorkId;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(InjectorExtension.class)
+public class LinkedWorksServiceTest {
+  private static final Instant INSTANT = Instant.ofEpochMilli(0);
+  private static final WorkId TERMINATOR = new WorkId(DataSource.instance("TMDB"), MediaType.MOVIE, "1");
+  private static final WorkId ALIENS = new WorkId(DataSource.instance("TMDB"), MediaType.MOVIE, "2");
+
+  @Inject private LinkedWorksService linkedWorksService;
+
+  private final List<LinkedWorksService.Change> changes = new CopyOnWriteArrayList<>();
+
+  private long initialVersion;
+
+  @BeforeEach
+  void beforeEach() {
+    linkedWorksService.subscribe(changes::add);
+
+    initialVersion = linkedWorksService.getVersion();
+  }
+
+  @Test
+  void shouldCoalesceEventsForSameLocationInOneBatch() {
+    linkedWorksService.processEvents(List.of(
+      new ResourceEvent.Updated(resource(1, "/Terminator.avi", TERMINATOR)),
+      new ResourceEvent.Updated(resource(2, "/Aliens.avi", ALIENS)),
+      new ResourceEvent.Removed(URI.create("/Terminator.avi"))  // cancels the earlier update
+    ));
+
+    assertThat(changes).hasSize(1);
+    assertThat(changes.getFirst().updated()).containsExactly(ALIENS);
+    assertThat(changes.getFirst().removed()).isEmpty();
+    assertThat(changes.getFirst().version()).isEqualTo(initialVersion + 1);
+    assertThat(linkedWorksService.find(TERMINATOR)).isEmpty();
+    assertThat(linkedWorksService.find(ALIENS)).isPresent();
+
+    linkedWorksService.processEvents(List.of(
+      new ResourceEvent.Removed(URI.create("/Aliens.avi")),
+      new ResourceEvent.Updated(resource(2, "/Aliens.avi", ALIENS))  // last event wins
+    ));
+
+    assertThat(changes).hasSize(2);
+    assertThat(changes.getLast().updated()).containsExactly(ALIENS);
+    assertThat(changes.getLast().removed()).isEmpty();
+    assertThat(changes.getLast().version()).isEqualTo(initialVersion + 2);
+
+    linkedWorksService.processEvents(List.of(
+      new ResourceEvent.Updated(resource(2, "/Aliens.avi", ALIENS)),
+      new ResourceEvent.Removed(URI.create("/Aliens.avi"))
+    ));
+
+    assertThat(changes).hasSize(3);
+    assertThat(changes.getLast().updated()).isEmpty();
+    assertThat(changes.getLast().removed()).containsExactly(ALIENS);
+    assertThat(changes.getLast().version()).isEqualTo(initialVersion + 3);
+    assertThat(changes.getLast().snapshot()).isSameAs(linkedWorksService.getSnapshot());
+    assertThat(linkedWorksService.find(ALIENS)).isEmpty();
+  }
+
+  @Test
+  void shouldNotIncrementVersionWhenNothingChanged() {
+    linkedWorksService.processEvents(List.of(new ResourceEvent.Removed(URI.create("/Unknown.avi"))));
+
+    assertThat(changes).isEmpty();
+    assertThat(linkedWorksService.getVersion()).isEqualTo(initialVersion);
+  }
+
+  private static Resource resource(int contentId, String location, WorkId id) {
+    ContentPrint contentPrint = new ContentPrint(new ContentID(contentId), 800L, INSTANT, new byte[16], INSTANT);
+    Streamable streamable = new Streamable(MediaType.MOVIE, URI.create(location), contentPrint, Optional.empty(), new StreamTags(Set.of()), Optional.empty());
+
+    return new Resource(streamable, new Match(Type.ID, 1.0f, INSTANT), List.of(Movies.create(id)));
+  }
+}
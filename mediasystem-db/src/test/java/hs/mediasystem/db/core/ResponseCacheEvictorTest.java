@@ -0,0 +1,78 @@
+package hs.mediasystem.db.core;
+
+import hs.mediasystem.api.datasource.WorkDescriptor;
+import hs.mediasystem.api.datasource.domain.Details;
+import hs.mediasystem.db.base.ImageDatabase;
+import hs.mediasystem.db.base.ImageMetadata;
+import hs.mediasystem.db.core.ResponseCacheEvictor.EvictionResult;
+import hs.mediasystem.db.core.domain.LinkedWork;
+import hs.mediasystem.db.core.domain.Resource;
+import hs.mediasystem.util.image.ImageURI;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ResponseCacheEvictorTest {
+  private static final long GB = 1024L * 1024 * 1024;
+  private static final LocalDateTime NOW = LocalDateTime.now();
+
+  @Mock private ImageDatabase imageDatabase;
+  @Mock private LinkedWorksService linkedWorksService;
+  @InjectMocks private ResponseCacheEvictor evictor;
+
+  @BeforeEach
+  void beforeEach() {
+    WorkDescriptor workDescriptor = mock(WorkDescriptor.class);
+
+    when(workDescriptor.getDetails()).thenReturn(new Details("Title", null, null, null, new ImageURI("http://cover", null), null, null));
+    when(linkedWorksService.findAllByType(null, null)).thenReturn(List.of(new LinkedWork(workDescriptor, List.of(mock(Resource.class)))));
+    when(imageDatabase.delete(any())).thenAnswer(invocation -> invocation.getArgument(0));
+  }
+
+  @Test
+  void shouldEvictEntriesNotAccessedRecentlyExceptProtectedOnes() throws InterruptedException {
+    ImageMetadata old = new ImageMetadata("http://old", 1000, NOW.minusDays(400), null);
+    ImageMetadata oldCover = new ImageMetadata("http://cover", 1000, NOW.minusDays(399), null);
+    ImageMetadata recent = new ImageMetadata("http://recent", 1000, NOW.minusDays(10), null);
+
+    when(imageDatabase.totalSize()).thenReturn(3000L);
+    when(imageDatabase.findLeastRecentlyAccessed(null, 100)).thenReturn(List.of(old, oldCover, recent));
+
+    EvictionResult result = evictor.evict();
+
+    verify(imageDatabase).delete(List.of(old));
+
+    assertThat(result).isEqualTo(new EvictionResult(1, 1000, 1));
+  }
+
+  @Test
+  void shouldEvictLeastRecentlyAccessedEntriesUntilWithinMaximumSize() throws InterruptedException {
+    ImageMetadata first = new ImageMetadata("http://first", GB, NOW.minusDays(3), null);
+    ImageMetadata second = new ImageMetadata("http://cover", GB, NOW.minusDays(2), null);
+    ImageMetadata third = new ImageMetadata("http://third", GB, NOW.minusDays(1), null);
+    ImageMetadata fourth = new ImageMetadata("http://fourth", GB, NOW, null);
+
+    when(imageDatabase.totalSize()).thenReturn(4 * GB);
+    when(imageDatabase.findLeastRecentlyAccessed(null, 100)).thenReturn(List.of(first, second, third, fourth));
+
+    EvictionResult result = evictor.evict();
+
+    verify(imageDatabase).delete(List.of(first, third));
+
+    assertThat(result).isEqualTo(new EvictionResult(2, 2 * GB, 1));
+  }
+}
@@ -0,0 +1,68 @@
+package hs.mediasystem.db.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ShardedMapTest {
+
+  @Test
+  void editsShouldNotAffectOriginalMap() {
+    ShardedMap.Editor<Integer, String> editor = ShardedMap.<Integer, String>of().edit();
+
+    for(int i = 0; i < 1000; i++) {
+      editor.put(i, "v" + i);
+    }
+
+    ShardedMap<Integer, String> map = editor.build();
+    ShardedMap.Editor<Integer, String> secondEditor = map.edit();
+
+    secondEditor.put(5, "changed");
+    secondEditor.put(1000, "v1000");
+    secondEditor.remove(7);
+    secondEditor.remove(2000);  // not present
+
+    ShardedMap<Integer, String> modifiedMap = secondEditor.build();
+
+    assertThat(map.size()).isEqualTo(1000);
+    assertThat(map.get(5)).isEqualTo("v5");
+    assertThat(map.get(7)).isEqualTo("v7");
+    assertThat(map.containsKey(1000)).isFalse();
+    assertThat(map.values()).hasSize(1000);
+
+    assertThat(modifiedMap.size()).isEqualTo(1000);
+    assertThat(modifiedMap.get(5)).isEqualTo("changed");
+    assertThat(modifiedMap.containsKey(7)).isFalse();
+    assertThat(modifiedMap.get(1000)).isEqualTo("v1000");
+    assertThat(modifiedMap.getOrDefault(7, "default")).isEqualTo("default");
+    assertThat(modifiedMap.keys()).hasSize(1000).doesNotContain(7).contains(1000);
+  }
+
+  @Test
+  void removingAllKeysShouldResultInEmptyMap() {
+    ShardedMap.Editor<String, String> editor = ShardedMap.<String, String>of().edit();
+
+    editor.put("a", "1");
+    editor.put("b", "2");
+
+    ShardedMap.Editor<String, String> secondEditor = editor.build().edit();
+
+    secondEditor.remove("a");
+    secondEditor.remove("b");
+
+    ShardedMap<String, String> map = secondEditor.build();
+
+    assertThat(map.isEmpty()).isTrue();
+    assertThat(map.values()).isEmpty();
+  }
+
+  @Test
+  void editorShouldNotBeUsableAfterBuild() {
+    ShardedMap.Editor<String, String> editor = ShardedMap.<String, String>of().edit();
+
+    editor.build();
+
+    assertThatThrownBy(() -> editor.put("a", "1")).isInstanceOf(IllegalStateException.class);
+  }
+}
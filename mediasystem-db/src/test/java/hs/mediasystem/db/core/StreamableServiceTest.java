@@ -3,6 +3,7 @@ package hs.mediasystem.db.core;
 import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Discovery;
 import hs.mediasystem.db.base.DatabaseContentPrintProvider;
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.Source;
 import hs.mediasystem.db.core.domain.ContentPrint;
 import hs.mediasystem.db.core.domain.StreamTags;
 import hs.mediasystem.db.core.domain.Streamable;
@@ -16,10 +17,12 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -50,11 +53,13 @@ public class StreamableServiceTest {
 
   @BeforeEach
   void beforeEach() throws IOException {
-    when(contentPrintProvider.get(any(), any(), any())).thenAnswer(x -> contentPrint(((Instant)x.getArgument(2)).toEpochMilli()));
+    when(contentPrintProvider.getAll(any(), any())).thenAnswer(x -> ((Collection<Source>)x.getArgument(0)).stream()
+      .collect(Collectors.toMap(Source::location, s -> contentPrint(s.lastModificationTime().toEpochMilli())))
+    );
 
     service = new StreamableService(contentPrintProvider, streamDescriptorService, resourceService);
 
-    doAnswer(x -> queue.add(x.getArgument(0))).when(resourceService).handleEvent(any());
+    doAnswer(x -> queue.addAll(x.getArgument(0))).when(resourceService).handleEvents(any());
   }
 
   @Test
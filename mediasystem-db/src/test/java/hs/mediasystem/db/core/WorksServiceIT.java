@@ -6,6 +6,7 @@ import hs.mediasystem.api.datasource.domain.Serie;
 import hs.mediasystem.api.datasource.services.IdentificationProvider;
 import hs.mediasystem.api.discovery.Attribute;
 import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.db.base.ContentPrintProviders;
 import hs.mediasystem.db.base.DatabaseContentPrintProvider;
 import hs.mediasystem.db.base.StreamStateService;
 import hs.mediasystem.db.core.domain.ContentPrint;
@@ -88,6 +89,11 @@ public class WorksServiceIT {
   @Inject private DiscoveryController discoveryController;
   @Inject private LinkedWorksService linkedWorksService;
 
+  @BeforeEach
+  void beforeEach() throws IOException {
+    ContentPrintProviders.delegateGetAll(CONTENT_PRINT_PROVIDER);
+  }
+
   @Nested
   class WhenEmpty {
     void findShouldNotFindAnything() {
@@ -300,6 +306,44 @@ public class WorksServiceIT {
       });
     }
 
+    @Test
+    void indexedQueriesShouldFindWorks() {
+      await().untilAsserted(() -> {
+        assertThat(linkedWorksService.findRootsByTag(null))
+          .extracting(LinkedWork::id)
+          .containsExactly(id);
+
+        assertThat(linkedWorksService.findAllByType(MediaType.EPISODE, null))
+          .extracting(LinkedWork::id)
+          .containsExactlyInAnyOrder(episodeId1, episodeId2, episodeId3);
+
+        assertThat(linkedWorksService.find(new ContentID(2011)))
+          .extracting(LinkedWork::id)
+          .containsExactly(episodeId1, episodeId2);
+
+        assertThat(linkedWorksService.findNewest(10, MediaType.EPISODE::equals))
+          .extracting(LinkedWork::id)
+          .containsExactlyInAnyOrder(episodeId1, episodeId2, episodeId3);
+
+        assertThat(linkedWorksService.findNewest(2, t -> true)).hasSize(2);
+      });
+    }
+
+    @Test
+    void snapshotShouldNotChangeWhenWorksAreRemoved() {
+      await().untilAsserted(() -> assertThat(linkedWorksService.findChildren(id)).hasSize(3));
+
+      LinkedWorksService.Snapshot snapshot = linkedWorksService.getSnapshot();
+
+      discoveryController.registerDiscovery(TMDB_IMPORT_SOURCE, URI.create("/Stargate"), List.of());
+
+      await().untilAsserted(() -> assertThat(linkedWorksService.findChildren(id)).isEmpty());
+
+      assertThat(linkedWorksService.getVersion()).isGreaterThan(snapshot.getVersion());
+      assertThat(snapshot.findChildren(id)).hasSize(3);
+      assertThat(snapshot.findAllByType(MediaType.EPISODE, null)).hasSize(3);
+    }
+
     @Nested
     class AndThenRenamedToMatchExternalDataSource {
       @BeforeEach
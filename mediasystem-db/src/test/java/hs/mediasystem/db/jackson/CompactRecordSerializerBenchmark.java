@@ -0,0 +1,128 @@
+package hs.mediasystem.db.jackson;
+
+import hs.mediasystem.api.datasource.domain.Identification;
+import hs.mediasystem.db.events.Serializer;
+import hs.mediasystem.db.events.SerializerException;
+import hs.mediasystem.db.util.Episodes;
+import hs.mediasystem.db.util.Movies;
+import hs.mediasystem.db.util.Series;
+import hs.mediasystem.domain.media.StreamDescriptor;
+import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.domain.work.DataSource;
+import hs.mediasystem.domain.work.Match;
+import hs.mediasystem.domain.work.Match.Type;
+import hs.mediasystem.domain.work.WorkId;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the size and decoding time of the JSON format of {@link RecordSerializer}
+ * with the format of {@link CompactRecordSerializer}.<p>
+ *
+ * Without arguments, a synthetic library of series and movies is used.  To use a
+ * real library, dump the stored data with one hex encoded value per line, for
+ * example with:<p>
+ *
+ * <pre>psql -At -c "SELECT encode(identification, 'hex') FROM identifications" > identifications.txt
+ * psql -At -c "SELECT encode(descriptor, 'hex') FROM stream_descriptors" > descriptors.txt</pre>
+ *
+ * And run with the dump and its type as arguments: {@code identifications.txt identification}
+ * or {@code descriptors.txt descriptor}.
+ */
+public class CompactRecordSerializerBenchmark {
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws Exception {
+    if(args.length == 2) {
+      List<byte[]> rows = Files.readAllLines(Path.of(args[0])).stream()
+        .filter(line -> !line.isBlank())
+        .map(line -> HexFormat.of().parseHex(line.strip().replaceFirst("^\\\\x", "")))
+        .toList();
+
+      switch(args[1]) {
+        case "identification" -> run(Identification.class, rows);
+        case "descriptor" -> run(StreamDescriptor.class, rows);
+        default -> throw new IllegalArgumentException("Unknown type: " + args[1]);
+      }
+    }
+    else {
+      run(Identification.class, createSyntheticLibrary());
+    }
+  }
+
+  private static <T> void run(Class<T> cls, List<byte[]> jsonRows) throws SerializerException {
+    RecordSerializer<T> jsonSerializer = new RecordSerializer<>(cls);
+    CompactRecordSerializer<T> compactSerializer = new CompactRecordSerializer<>(cls);
+    List<byte[]> compactRows = new ArrayList<>();
+
+    for(byte[] row : jsonRows) {
+      compactRows.add(compactSerializer.serialize(compactSerializer.unserialize(row)));
+    }
+
+    long jsonSize = jsonRows.stream().mapToLong(r -> r.length).sum();
+    long compactSize = compactRows.stream().mapToLong(r -> r.length).sum();
+
+    System.out.printf("%d rows of %s%n", jsonRows.size(), cls.getSimpleName());
+    System.out.printf("  JSON   : %8d kB%n", jsonSize / 1024);
+    System.out.printf("  Compact: %8d kB (%.1f%%)%n", compactSize / 1024, compactSize * 100.0 / jsonSize);
+
+    for(int round = 0; round < ROUNDS; round++) {
+      long jsonNanos = decode(jsonSerializer, jsonRows);
+      long compactNanos = decode(compactSerializer, compactRows);
+
+      System.out.printf("  Round %2d, decode all rows - JSON: %5d ms, Compact: %5d ms%n", round + 1, jsonNanos / 1_000_000, compactNanos / 1_000_000);
+    }
+  }
+
+  private static <T> long decode(Serializer<T> serializer, List<byte[]> rows) throws SerializerException {
+    long startNanos = System.nanoTime();
+    int count = 0;
+
+    for(byte[] row : rows) {
+      if(serializer.unserialize(row) != null) {
+        count++;
+      }
+    }
+
+    if(count != rows.size()) {
+      throw new IllegalStateException();
+    }
+
+    return System.nanoTime() - startNanos;
+  }
+
+  private static List<byte[]> createSyntheticLibrary() throws SerializerException {
+    RecordSerializer<Identification> serializer = new RecordSerializer<>(Identification.class);
+    Match match = new Match(Type.ID, 0.95f, Instant.now());
+    List<byte[]> rows = new ArrayList<>();
+
+    for(int i = 0; i < 1000; i++) {
+      int serie = i;
+      int seasonEpisodes = 10 + i % 40;
+
+      rows.add(serializer.serialize(new Identification(
+        List.of(Series.create(
+          new WorkId(DataSource.instance("TMDB"), MediaType.SERIE, "" + i),
+          "Serie " + i,
+          IntStream.rangeClosed(1, seasonEpisodes).mapToObj(e -> Episodes.create(serie + "-" + e, 1, e)).toList()
+        )),
+        match
+      )));
+    }
+
+    for(int i = 0; i < 4000; i++) {
+      rows.add(serializer.serialize(new Identification(
+        List.of(Movies.create(new WorkId(DataSource.instance("TMDB"), MediaType.MOVIE, "" + i), "Movie " + i)),
+        match
+      )));
+    }
+
+    return rows;
+  }
+}
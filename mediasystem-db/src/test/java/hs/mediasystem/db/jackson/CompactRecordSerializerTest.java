@@ -0,0 +1,118 @@
+package hs.mediasystem.db.jackson;
+
+import hs.mediasystem.api.datasource.domain.Identification;
+import hs.mediasystem.db.events.SerializerException;
+import hs.mediasystem.db.util.Episodes;
+import hs.mediasystem.db.util.Movies;
+import hs.mediasystem.db.util.Series;
+import hs.mediasystem.domain.media.AudioTrack;
+import hs.mediasystem.domain.media.Resolution;
+import hs.mediasystem.domain.media.Snapshot;
+import hs.mediasystem.domain.media.StreamDescriptor;
+import hs.mediasystem.domain.media.SubtitleTrack;
+import hs.mediasystem.domain.media.VideoTrack;
+import hs.mediasystem.domain.work.Match;
+import hs.mediasystem.domain.work.Match.Type;
+import hs.mediasystem.util.image.ImageURI;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CompactRecordSerializerTest {
+  private static final Match MATCH = new Match(Type.ID, 0.95f, Instant.parse("2023-01-02T03:04:05.678Z"));
+
+  private final RecordSerializer<Identification> jsonSerializer = new RecordSerializer<>(Identification.class);
+  private final CompactRecordSerializer<Identification> serializer = new CompactRecordSerializer<>(Identification.class);
+
+  @Nested
+  class WhenSerializingIdentifications {
+    private final Identification serie = new Identification(
+      List.of(Series.create(IntStream.rangeClosed(1, 20).mapToObj(i -> Episodes.create("" + i, 1, i)).toList())),
+      MATCH
+    );
+
+    @Test
+    void shouldProduceSameValueAsJson() throws SerializerException {
+      for(Identification identification : List.of(serie, new Identification(List.of(Movies.create()), MATCH))) {
+        Identification result = serializer.unserialize(serializer.serialize(identification));
+
+        assertThat(jsonSerializer.serialize(result)).isEqualTo(jsonSerializer.serialize(identification));
+      }
+    }
+
+    @Test
+    void shouldBeSmallerThanJson() throws SerializerException {
+      assertThat(serializer.serialize(serie).length).isLessThan(jsonSerializer.serialize(serie).length / 2);
+    }
+
+    @Test
+    void shouldReadJson() throws SerializerException {
+      Identification result = serializer.unserialize(jsonSerializer.serialize(serie));
+
+      assertThat(jsonSerializer.serialize(result)).isEqualTo(jsonSerializer.serialize(serie));
+    }
+
+    @Test
+    void shouldRejectUnknownVersion() throws SerializerException {
+      byte[] data = serializer.serialize(serie);
+
+      data[1] = 99;
+
+      assertThatThrownBy(() -> serializer.unserialize(data))
+        .isExactlyInstanceOf(SerializerException.class)
+        .hasRootCauseMessage("Unsupported version: 99");
+    }
+
+    @Test
+    void shouldRejectTruncatedData() throws SerializerException {
+      byte[] data = serializer.serialize(serie);
+
+      for(int length : new int[] {1, 2, 10, data.length / 2, data.length - 1}) {
+        assertThatThrownBy(() -> serializer.unserialize(Arrays.copyOf(data, length)))
+          .isExactlyInstanceOf(SerializerException.class);
+      }
+    }
+
+    @Test
+    void shouldRejectInvalidLengths() {
+      byte[] negativeLength = {(byte)0xB1, 1, 0x0A, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0x01};  // string with length -1
+      byte[] oversizedLength = {(byte)0xB1, 1, 0x0A, -128, -128, -128, -128, 0x10, 'a'};  // string with length 2^32
+
+      assertThatThrownBy(() -> serializer.unserialize(negativeLength))
+        .isExactlyInstanceOf(SerializerException.class)
+        .hasRootCauseMessage("Invalid length -1 at position 3");
+
+      assertThatThrownBy(() -> serializer.unserialize(oversizedLength))
+        .isExactlyInstanceOf(SerializerException.class)
+        .hasRootCauseMessage("Length 4294967296 at position 3 exceeds the 1 remaining bytes");
+    }
+  }
+
+  @Test
+  void shouldSerializeStreamDescriptors() throws SerializerException {
+    RecordSerializer<StreamDescriptor> jsonSerializer = new RecordSerializer<>(StreamDescriptor.class);
+    CompactRecordSerializer<StreamDescriptor> serializer = new CompactRecordSerializer<>(StreamDescriptor.class);
+    StreamDescriptor descriptor = new StreamDescriptor(
+      Optional.of(Duration.ofSeconds(5400)),
+      List.of(new VideoTrack("Main", "en", "h264", new Resolution(1920, 1080, 1.0f), 129600L, 23.976f)),
+      List.of(new AudioTrack("Stereo", "en", "aac", 3), new AudioTrack(null, "nl", "ac3", -1L)),
+      List.of(new SubtitleTrack(null, "en", "srt")),
+      List.of(new Snapshot(new ImageURI("localdb://1/1", null), 1000), new Snapshot(new ImageURI("localdb://1/2", null), 2000))
+    );
+
+    StreamDescriptor result = serializer.unserialize(serializer.serialize(descriptor));
+
+    assertThat(result).isEqualTo(descriptor);
+    assertThat(jsonSerializer.serialize(result)).isEqualTo(jsonSerializer.serialize(descriptor));
+  }
+}
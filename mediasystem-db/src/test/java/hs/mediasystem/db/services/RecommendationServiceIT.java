@@ -2,6 +2,7 @@ package hs.mediasystem.db.services;
 
 import hs.mediasystem.api.discovery.Attribute;
 import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.db.base.ContentPrintProviders;
 import hs.mediasystem.db.base.DatabaseContentPrintProvider;
 import hs.mediasystem.db.base.StreamStateService;
 import hs.mediasystem.db.base.StreamStateStore;
@@ -66,6 +67,7 @@ public class RecommendationServiceIT {
 
     when(CONTENT_PRINT_PROVIDER.get(URI.create("/Terminator.avi"), 800L, INSTANT)).thenReturn(CP1);
     when(CONTENT_PRINT_PROVIDER.get(URI.create("/BTTF.avi"), 1954L, INSTANT)).thenReturn(CP2);
+    ContentPrintProviders.delegateGetAll(CONTENT_PRINT_PROVIDER);
 
     discoveryController.registerDiscovery(
       importSource,
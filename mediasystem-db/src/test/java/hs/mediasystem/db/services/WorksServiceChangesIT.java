@@ -0,0 +1,133 @@
+package hs.mediasystem.db.services;
+
+import hs.mediasystem.api.datasource.domain.stream.Work;
+import hs.mediasystem.api.discovery.Attribute;
+import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.db.base.ContentPrintProviders;
+import hs.mediasystem.db.base.DatabaseContentPrintProvider;
+import hs.mediasystem.db.base.StreamStateService;
+import hs.mediasystem.db.base.StreamStateStore;
+import hs.mediasystem.db.core.DiscoveryController;
+import hs.mediasystem.db.core.IdentificationStore;
+import hs.mediasystem.db.core.ImportSource;
+import hs.mediasystem.db.core.domain.ContentPrint;
+import hs.mediasystem.db.core.domain.StreamTags;
+import hs.mediasystem.db.extract.StreamDescriptorService;
+import hs.mediasystem.db.util.InjectorExtension;
+import hs.mediasystem.domain.stream.ContentID;
+import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.util.Attributes;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+
+import org.int4.dirk.annotations.Produces;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(InjectorExtension.class)
+public class WorksServiceChangesIT {
+  @Produces private static final StreamStateStore STREAM_STATE_STORE = mock(StreamStateStore.class);
+  @Produces private static final IdentificationStore IDENTIFICATION_STORE = mock(IdentificationStore.class);
+  @Produces private static final StreamDescriptorService STREAM_DESCRIPTOR_SERVICE = mock(StreamDescriptorService.class);
+  @Produces private static final DatabaseContentPrintProvider CONTENT_PRINT_PROVIDER = mock(DatabaseContentPrintProvider.class);
+  @Produces private static final Collection<ImportSource> IMPORT_SOURCES = List.of();
+  @Produces private static final WorkService WORK_SERVICE = mock(WorkService.class);
+
+  private static final Instant INSTANT = Instant.ofEpochMilli(0);
+
+  @Inject private DiscoveryController discoveryController;
+  @Inject private WorksService worksService;
+  @Inject private StreamStateService streamStateService;
+
+  private final ImportSource importSource = new ImportSource(
+    (root, registry) -> {},
+    URI.create("/"),
+    Optional.of("TMDB"),
+    new StreamTags(Set.of())
+  );
+
+  private final List<WorksService.Change> movieChanges = new CopyOnWriteArrayList<>();
+  private final List<WorksService.Change> serieChanges = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    ContentPrint cp1 = new ContentPrint(new ContentID(1), 800L, INSTANT, new byte[16], INSTANT);
+
+    when(CONTENT_PRINT_PROVIDER.get(URI.create("/Terminator.avi"), 800L, INSTANT)).thenReturn(cp1);
+    ContentPrintProviders.delegateGetAll(CONTENT_PRINT_PROVIDER);
+
+    worksService.subscribeAllByType(MediaType.MOVIE, null, movieChanges::add);
+    worksService.subscribeAllByType(MediaType.SERIE, null, serieChanges::add);
+
+    discoveryController.registerDiscovery(
+      importSource,
+      URI.create("/"),
+      List.of(
+        new Discovery(
+          MediaType.MOVIE,
+          URI.create("/Terminator.avi"),
+          Attributes.of(Attribute.TITLE, "Terminator"),
+          INSTANT,
+          800L
+        )
+      )
+    );
+  }
+
+  @Test
+  void shouldReuseConvertedWorksUntilTheyChange() {
+    await().untilAsserted(() -> assertThat(worksService.findAllByType(MediaType.MOVIE, null)).hasSize(1));
+
+    Work work = worksService.findAllByType(MediaType.MOVIE, null).getFirst();
+
+    assertThat(worksService.findAllByType(MediaType.MOVIE, null).getFirst()).isSameAs(work);
+
+    streamStateService.setResumePosition(new ContentID(1), 42);
+
+    Work changedWork = worksService.findAllByType(MediaType.MOVIE, null).getFirst();
+
+    assertThat(changedWork).isNotSameAs(work);
+    assertThat(changedWork.getStreams().getFirst().state().resumePosition()).hasSeconds(42);
+    assertThat(worksService.findAllByType(MediaType.MOVIE, null).getFirst()).isSameAs(changedWork);
+  }
+
+  @Test
+  void shouldSendChangesToMatchingSubscribers() {
+    await().untilAsserted(() -> assertThat(movieChanges).flatExtracting(WorksService.Change::updated).hasSize(1));
+
+    assertThat(serieChanges).flatExtracting(WorksService.Change::updated).isEmpty();
+
+    movieChanges.clear();
+    serieChanges.clear();
+
+    streamStateService.setWatched(new ContentID(1), true);
+
+    await().untilAsserted(() -> assertThat(movieChanges).hasSize(1));
+
+    assertThat(serieChanges).isEmpty();
+    assertThat(movieChanges.getFirst().updated())
+      .extracting(Work::getStreams)
+      .allSatisfy(streams -> assertThat(streams.getFirst().state().consumed()).isTrue());
+
+    discoveryController.registerDiscovery(importSource, URI.create("/"), List.of());
+
+    await().untilAsserted(() -> assertThat(movieChanges).flatExtracting(WorksService.Change::removed).hasSize(1));
+
+    assertThat(movieChanges).extracting(WorksService.Change::version).isSorted();
+  }
+}
@@ -0,0 +1,319 @@
+package hs.mediasystem.ext.scanners;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.int4.dirk.annotations.Opt;
+
+/**
+ * Persistent cache of directory listings, including the attributes of each entry,
+ * which allows skipping directories which have not been modified since they were
+ * last listed.<p>
+ *
+ * A directory is considered unmodified when its last modification time and its
+ * number of entries are unchanged.  Counting the entries only reads their names,
+ * which is much cheaper than reading the attributes of each entry, and detects
+ * entries being added or removed within the time stamp resolution of file systems
+ * with coarse modification times.  This only detects entries being added, removed
+ * or renamed, and not changes to the contents of existing files. To limit the impact of such changes being missed,
+ * listings are only trusted for a limited time, after which they're refreshed.
+ * Listings of directories which were modified very recently, or which contain
+ * entries which were modified very recently, are never cached.  Further modifications
+ * within the same time stamp resolution could go unnoticed, and a file which is still
+ * being written does not modify its directory.
+ */
+@Singleton
+public class DirectoryCache {
+  private static final Logger LOGGER = Logger.getLogger(DirectoryCache.class.getName());
+  private static final int VERSION = 1;
+  private static final long MAX_AGE_MILLIS = Duration.ofDays(7).toMillis();
+  private static final long MAX_UNUSED_MILLIS = Duration.ofDays(30).toMillis();
+  private static final long RACY_MILLIS = Duration.ofSeconds(2).toMillis();
+  private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+
+  /**
+   * An entry in a directory.
+   *
+   * @param name the name of the entry, cannot be {@code null}
+   * @param directory whether the entry is a directory
+   * @param size the size of the entry in bytes
+   * @param lastModified the last modification time in nanoseconds since the epoch
+   */
+  record Entry(String name, boolean directory, long size, long lastModified) {}
+
+  private record Listing(long lastModified, long listedAt, long usedAt, List<Entry> entries) {}
+
+  private final String baseDir;
+  private final LongSupplier clock;
+
+  private Map<String, Listing> listings;
+  private boolean dirty;
+  private long hits;
+  private long misses;
+
+  @Inject
+  DirectoryCache(@Opt @Named("general.basedir") String baseDir) {
+    this(baseDir, System::currentTimeMillis);
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param baseDir a directory under which the cache is stored, can be {@code null} to use the current directory
+   * @param clock a supplier of the current time in milliseconds since the epoch, cannot be {@code null}
+   */
+  DirectoryCache(String baseDir, LongSupplier clock) {
+    this.baseDir = baseDir == null ? "." : baseDir;
+    this.clock = clock;
+  }
+
+  /**
+   * Lists the given directory, returning the cached listing when the directory
+   * was not modified since it was last listed.
+   *
+   * @param directory a {@link Path} to a directory, cannot be {@code null}
+   * @return a list of {@link Entry}, never {@code null}
+   * @throws IOException when an I/O problem occurred
+   */
+  List<Entry> list(Path directory) throws IOException {
+    long now = clock.getAsLong();
+    long lastModified = toNanos(Files.getLastModifiedTime(directory));
+    String key = directory.toAbsolutePath().toString();
+
+    Listing listing;
+
+    synchronized(this) {
+      listing = getListings().get(key);
+    }
+
+    if(listing != null && listing.lastModified == lastModified && now - listing.listedAt < MAX_AGE_MILLIS && countEntries(directory) == listing.entries.size()) {
+      synchronized(this) {
+        listings.replace(key, listing, new Listing(listing.lastModified, listing.listedAt, now, listing.entries));
+        hits++;
+
+        if(listing.usedAt / DAY_MILLIS != now / DAY_MILLIS) {
+          dirty = true;  // usage is only tracked to expire unused listings, so saving it once a day suffices
+        }
+      }
+
+      return listing.entries;
+    }
+
+    synchronized(this) {
+      misses++;
+    }
+
+    List<Entry> entries = readEntries(directory);
+
+    synchronized(this) {
+      if(!isRacy(lastModified, now) && entries.stream().noneMatch(entry -> isRacy(entry.lastModified, now))) {
+        getListings().put(key, new Listing(lastModified, now, now, entries));
+      }
+      else {
+        getListings().remove(key);
+      }
+
+      dirty = true;
+    }
+
+    return entries;
+  }
+
+  /**
+   * Removes the cached listing of the given directory, forcing it to be read
+   * again the next time it is listed.
+   *
+   * @param directory a {@link Path} to a directory, cannot be {@code null}
+   */
+  synchronized void invalidate(Path directory) {
+    if(getListings().remove(directory.toAbsolutePath().toString()) != null) {
+      dirty = true;
+    }
+  }
+
+  /**
+   * Saves the cache if it was modified since it was loaded or last saved. Listings
+   * which have not been used for a long time are not saved.
+   */
+  synchronized void save() {
+    if(!dirty) {
+      return;
+    }
+
+    long now = clock.getAsLong();
+    Path file = getCacheFile();
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+    listings.values().removeIf(listing -> now - listing.usedAt > MAX_UNUSED_MILLIS);
+
+    try {
+      Files.createDirectories(file.getParent());
+
+      try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(VERSION);
+        out.writeInt(listings.size());
+
+        for(Map.Entry<String, Listing> mapEntry : listings.entrySet()) {
+          Listing listing = mapEntry.getValue();
+
+          out.writeUTF(mapEntry.getKey());
+          out.writeLong(listing.lastModified);
+          out.writeLong(listing.listedAt);
+          out.writeLong(listing.usedAt);
+          out.writeInt(listing.entries.size());
+
+          for(Entry entry : listing.entries) {
+            out.writeUTF(entry.name);
+            out.writeBoolean(entry.directory);
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+          }
+        }
+      }
+
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+      LOGGER.fine("Saved " + listings.size() + " directory listings to " + file + " (hits: " + hits + ", misses: " + misses + ")");
+
+      dirty = false;
+    }
+    catch(IOException e) {
+      LOGGER.warning("Unable to save directory cache " + file + ": " + e);
+    }
+  }
+
+  private Map<String, Listing> getListings() {
+    if(listings == null) {
+      listings = load();
+    }
+
+    return listings;
+  }
+
+  private Map<String, Listing> load() {
+    Path file = getCacheFile();
+    Map<String, Listing> map = new HashMap<>();
+
+    if(!Files.exists(file)) {
+      return map;
+    }
+
+    try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if(in.readInt() != VERSION) {
+        LOGGER.info("Ignoring directory cache with unsupported version: " + file);
+
+        return map;
+      }
+
+      int count = in.readInt();
+
+      for(int i = 0; i < count; i++) {
+        String key = in.readUTF();
+        long lastModified = in.readLong();
+        long listedAt = in.readLong();
+        long usedAt = in.readLong();
+        int entryCount = in.readInt();
+        List<Entry> entries = new ArrayList<>(entryCount);
+
+        for(int j = 0; j < entryCount; j++) {
+          entries.add(new Entry(in.readUTF(), in.readBoolean(), in.readLong(), in.readLong()));
+        }
+
+        map.put(key, new Listing(lastModified, listedAt, usedAt, List.copyOf(entries)));
+      }
+
+      LOGGER.fine("Loaded " + map.size() + " directory listings from " + file);
+
+      return map;
+    }
+    catch(IOException e) {
+      LOGGER.warning("Ignoring unreadable directory cache " + file + ": " + e);
+
+      return new HashMap<>();
+    }
+  }
+
+  private Path getCacheFile() {
+    return Path.of(baseDir, "cache", "directory-listings.dat");
+  }
+
+  private static int countEntries(Path directory) throws IOException {
+    int count = 0;
+
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for(@SuppressWarnings("unused") Path path : stream) {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  private static List<Entry> readEntries(Path directory) throws IOException {
+    List<Entry> entries = new ArrayList<>();
+
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for(Path path : stream) {
+        BasicFileAttributes attrs = readAttributes(path);
+
+        if(attrs != null) {
+          entries.add(new Entry(path.getFileName().toString(), attrs.isDirectory(), attrs.size(), toNanos(attrs.lastModifiedTime())));
+        }
+      }
+    }
+
+    return List.copyOf(entries);
+  }
+
+  private static BasicFileAttributes readAttributes(Path path) throws IOException {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+    catch(NoSuchFileException e) {
+
+      /*
+       * Either the entry was removed in the mean time, or it is a broken link,
+       * in which case the attributes of the link itself are used (similar to
+       * Files#walkFileTree):
+       */
+
+      try {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      }
+      catch(NoSuchFileException e2) {
+        return null;
+      }
+    }
+  }
+
+  private static boolean isRacy(long lastModified, long now) {
+    return TimeUnit.NANOSECONDS.toMillis(lastModified) >= now - RACY_MILLIS;
+  }
+
+  private static long toNanos(FileTime fileTime) {
+    return fileTime.to(TimeUnit.NANOSECONDS);
+  }
+}
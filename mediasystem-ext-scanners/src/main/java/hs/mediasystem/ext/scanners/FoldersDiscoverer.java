@@ -8,6 +8,7 @@ import hs.mediasystem.ext.scanners.NameDecoder.DecodeResult;
 import hs.mediasystem.ext.scanners.NameDecoder.Mode;
 import hs.mediasystem.util.Attributes;
 import hs.mediasystem.util.checked.CheckedStreams;
+import hs.mediasystem.util.domain.URIs;
 
 import java.io.IOException;
 import java.net.URI;
@@ -28,23 +29,42 @@ public class FoldersDiscoverer implements Discoverer {
     scan(root, registry, true);
   }
 
+  /**
+   * Rescans only the direct contents of the given location. Newly added sub folders
+   * are expected to be reported as changed locations as well.
+   */
+  @Override
+  public void rediscover(URI root, URI location, Registry registry) throws IOException {
+    Path path = Path.of(location);
+
+    if(!Files.isDirectory(path)) {
+      return;  // if it no longer exists, the change to its parent will remove it
+    }
+
+    boolean isRoot = Path.of(root).equals(path);
+
+    registry.register(isRoot ? null : URIs.normalizeAsFile(location), list(path));
+  }
+
   private void scan(URI root, Registry registry, boolean isRoot) throws IOException {
-    Path rootPath = Path.of(root);
+    List<Discovery> discoveries = list(Path.of(root));
+
+    registry.register(isRoot ? null : root, discoveries);
 
+    for(Discovery child : discoveries) {
+      if(Files.isDirectory(Path.of(child.location()))) {
+        scan(child.location(), registry, false);
+      }
+    }
+  }
+
+  private static List<Discovery> list(Path rootPath) throws IOException {
     try(Stream<Path> walk = Files.walk(rootPath, 1, FileVisitOption.FOLLOW_LINKS)) {
-      List<Discovery> discoveries = CheckedStreams.forIOException(walk)
+      return CheckedStreams.forIOException(walk)
         .filter(path -> !path.equals(rootPath))
         .filter(path -> Files.isDirectory(path) || Constants.VIDEOS.matcher(path.getFileName().toString()).matches())
         .map(path -> toDiscovery(path))
         .toList();
-
-      registry.register(isRoot ? null : root, discoveries);
-
-      for(Discovery child : discoveries) {
-        if(Files.isDirectory(Path.of(child.location()))) {
-          scan(child.location(), registry, false);
-        }
-      }
     }
   }
 
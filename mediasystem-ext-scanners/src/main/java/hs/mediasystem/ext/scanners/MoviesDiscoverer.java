@@ -17,6 +17,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
@@ -24,10 +25,12 @@ public class MoviesDiscoverer implements Discoverer {
   private static final NameDecoder NAME_DECODER = new NameDecoder(Mode.MOVIE);
   private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Discovering movies");
 
+  @Inject private DirectoryCache directoryCache;
+
   @Override
   public void discover(URI root, Registry registry) throws IOException {
     Path rootPath = Path.of(root);
-    List<PathAndAttributes> scanResults = new PathFinder(1).findWithAttributes(rootPath, Constants.VIDEOS);
+    List<PathAndAttributes> scanResults = new PathFinder(1, directoryCache).findWithAttributes(rootPath, Constants.VIDEOS);
     List<Discovery> discoveries = new ArrayList<>();
 
     WORKLOAD.start(scanResults.size());
@@ -55,7 +58,7 @@ public class MoviesDiscoverer implements Discoverer {
           Attribute.ID_PREFIX + "IMDB", imdbNumber
         );
 
-        discoveries.add(new Discovery(MediaType.MOVIE, uri, attributes, pathAndAttributes.attrs().lastModifiedTime().toInstant(), pathAndAttributes.attrs().size()));
+        discoveries.add(new Discovery(MediaType.MOVIE, uri, attributes, pathAndAttributes.lastModifiedTime(), pathAndAttributes.size()));
 
         WORKLOAD.complete();
       }
@@ -64,6 +67,14 @@ public class MoviesDiscoverer implements Discoverer {
     }
     finally {
       WORKLOAD.finish();
+      directoryCache.save();
     }
   }
+
+  @Override
+  public void rediscover(URI root, URI location, Registry registry) throws IOException {
+    directoryCache.invalidate(Path.of(location));
+
+    discover(root, registry);
+  }
 }
@@ -7,20 +7,34 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 public class PathFinder {
-  record PathAndAttributes(Path path, BasicFileAttributes attrs) {}
+  record PathAndAttributes(Path path, Instant lastModifiedTime, long size) {}
 
   private static final Set<FileVisitOption> FOLLOW_LINKS = Set.of(FileVisitOption.FOLLOW_LINKS);
 
   private final int maxDepth;
+  private final DirectoryCache cache;
 
-  public PathFinder(int maxDepth) {
+  /**
+   * Constructs a new instance which uses the given {@link DirectoryCache} to
+   * avoid listing directories which were not modified.
+   *
+   * @param maxDepth the maximum depth to search
+   * @param cache a {@link DirectoryCache}, can be {@code null} in which case all directories are always listed
+   */
+  PathFinder(int maxDepth, DirectoryCache cache) {
     this.maxDepth = maxDepth;
+    this.cache = cache;
+  }
+
+  public PathFinder(int maxDepth) {
+    this(maxDepth, null);
   }
 
   public List<Path> find(Path scanPath, Pattern pattern) throws IOException {
@@ -43,11 +57,17 @@ public class PathFinder {
   public List<PathAndAttributes> findWithAttributes(Path scanPath, Pattern pattern) throws IOException {
     List<PathAndAttributes> results = new ArrayList<>();
 
+    if(cache != null) {
+      findWithCache(scanPath, pattern, 0, results);
+
+      return results;
+    }
+
     Files.walkFileTree(scanPath, FOLLOW_LINKS, maxDepth, new SimpleFileVisitor<Path>() {
       @Override
       public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
         if(!attrs.isDirectory() && pattern.matcher(file.getFileName().toString()).matches()) {
-          results.add(new PathAndAttributes(file, attrs));
+          results.add(new PathAndAttributes(file, attrs.lastModifiedTime().toInstant(), attrs.size()));
         }
 
         return FileVisitResult.CONTINUE;
@@ -56,4 +76,19 @@ public class PathFinder {
 
     return results;
   }
+
+  private void findWithCache(Path directory, Pattern pattern, int depth, List<PathAndAttributes> results) throws IOException {
+    for(DirectoryCache.Entry entry : cache.list(directory)) {
+      Path path = directory.resolve(entry.name());
+
+      if(entry.directory()) {
+        if(depth + 1 < maxDepth) {
+          findWithCache(path, pattern, depth + 1, results);
+        }
+      }
+      else if(pattern.matcher(entry.name()).matches()) {
+        results.add(new PathAndAttributes(path, Instant.EPOCH.plusNanos(entry.lastModified()), entry.size()));
+      }
+    }
+  }
 }
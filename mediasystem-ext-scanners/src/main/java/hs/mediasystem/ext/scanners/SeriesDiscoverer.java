@@ -11,6 +11,7 @@ import hs.mediasystem.ext.scanners.PathFinder.PathAndAttributes;
 import hs.mediasystem.util.Attributes;
 import hs.mediasystem.util.bg.BackgroundTaskRegistry;
 import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
+import hs.mediasystem.util.domain.URIs;
 
 import java.io.IOException;
 import java.net.URI;
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
@@ -40,34 +42,15 @@ public class SeriesDiscoverer implements Discoverer {
   private static final Set<FileVisitOption> FILE_VISIT_OPTIONS = new HashSet<>(Arrays.asList(FileVisitOption.FOLLOW_LINKS));
   private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Discovering series");
 
+  @Inject private DirectoryCache directoryCache;
+
   @Override
   public void discover(URI root, Registry registry) throws IOException {
-    List<Path> scanResults = scan(Path.of(root));
-    List<Discovery> series = new ArrayList<>();
+    List<Discovery> series = scanSeries(Path.of(root));
 
-    WORKLOAD.start(scanResults.size());
+    WORKLOAD.start(series.size());
 
     try {
-      for(Path path : scanResults) {
-        DecodeResult result = NAME_DECODER.decode(path.getFileName().toString());
-
-        String title = result.getTitle();
-        String subtitle = result.getSubtitle();
-        Integer year = result.getReleaseYear();
-
-        String imdb = result.getCode();
-        String imdbNumber = imdb != null && !imdb.isEmpty() ? String.format("tt%07d", Integer.parseInt(imdb)) : null;
-
-        Attributes attributes = Attributes.of(
-          Attribute.TITLE, title,
-          Attribute.SUBTITLE, subtitle,
-          Attribute.YEAR, year == null ? null : year.toString(),
-          Attribute.ID_PREFIX + "IMDB", imdbNumber
-        );
-
-        series.add(new Discovery(MediaType.SERIE, path.toUri(), attributes, Files.getLastModifiedTime(path).toInstant(), null));
-      }
-
       registry.register(null, series);
 
       for(Discovery discovery : series) {
@@ -78,12 +61,74 @@ public class SeriesDiscoverer implements Discoverer {
     }
     finally {
       WORKLOAD.finish();
+      directoryCache.save();
+    }
+  }
+
+  /**
+   * Rescans only what is needed to reflect a change in the given location. When the root
+   * itself changed, only the list of series is rescanned; newly added series folders are
+   * expected to be reported as changed locations as well. For any other location, the
+   * series containing the location is rescanned.
+   */
+  @Override
+  public void rediscover(URI root, URI location, Registry registry) throws IOException {
+    Path rootPath = Path.of(root);
+    Path relative = rootPath.relativize(Path.of(location));
+
+    if(relative.toString().isEmpty()) {
+      registry.register(null, scanSeries(rootPath));
+
+      return;
+    }
+
+    if(relative.startsWith("..")) {
+      throw new IllegalArgumentException("location must be below root: " + location + ", root: " + root);
+    }
+
+    Path seriePath = rootPath.resolve(relative.getName(0));
+
+    if(Files.isDirectory(seriePath)) {  // if it no longer exists, the change to the root will remove it
+      directoryCache.invalidate(Path.of(location));  // files may have been modified without affecting the directory
+
+      try {
+        registry.register(URIs.normalizeAsFile(seriePath.toUri()), scanSerie(seriePath));
+      }
+      finally {
+        directoryCache.save();
+      }
     }
   }
 
-  private static List<Discovery> scanSerie(Path rootPath) throws IOException {
+  private static List<Discovery> scanSeries(Path rootPath) throws IOException {
+    List<Discovery> series = new ArrayList<>();
+
+    for(Path path : scan(rootPath)) {
+      DecodeResult result = NAME_DECODER.decode(path.getFileName().toString());
+
+      String title = result.getTitle();
+      String subtitle = result.getSubtitle();
+      Integer year = result.getReleaseYear();
+
+      String imdb = result.getCode();
+      String imdbNumber = imdb != null && !imdb.isEmpty() ? String.format("tt%07d", Integer.parseInt(imdb)) : null;
+
+      Attributes attributes = Attributes.of(
+        Attribute.TITLE, title,
+        Attribute.SUBTITLE, subtitle,
+        Attribute.YEAR, year == null ? null : year.toString(),
+        Attribute.ID_PREFIX + "IMDB", imdbNumber
+      );
+
+      series.add(new Discovery(MediaType.SERIE, path.toUri(), attributes, Files.getLastModifiedTime(path).toInstant(), null));
+    }
+
+    return series;
+  }
+
+  private List<Discovery> scanSerie(Path rootPath) throws IOException {
     List<Discovery> results = new ArrayList<>();
-    List<PathAndAttributes> scanResults = new PathFinder(5).findWithAttributes(rootPath, Constants.VIDEOS);
+    List<PathAndAttributes> scanResults = new PathFinder(5, directoryCache).findWithAttributes(rootPath, Constants.VIDEOS);
     URI rootUri = rootPath.toUri();  // conversion to URI here ensures a final slash is appended to path as it is a directory
 
     for(PathAndAttributes pathAndAttributes : scanResults) {
@@ -119,7 +164,7 @@ public class SeriesDiscoverer implements Discoverer {
         Attribute.CHILD_TYPE, type == null ? null : type.toString()
       );
 
-      results.add(new Discovery(MediaType.EPISODE, uri, attributes, pathAndAttributes.attrs().lastModifiedTime().toInstant(), pathAndAttributes.attrs().size()));
+      results.add(new Discovery(MediaType.EPISODE, uri, attributes, pathAndAttributes.lastModifiedTime(), pathAndAttributes.size()));
     }
 
     return results;
@@ -0,0 +1,162 @@
+package hs.mediasystem.ext.scanners;
+
+import hs.mediasystem.ext.scanners.PathFinder.PathAndAttributes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DirectoryCacheTest {
+  private static final Instant OLD = Instant.now().minus(Duration.ofHours(1));
+
+  @TempDir Path tempDir;
+
+  private final AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+
+  private Path baseDir;
+  private Path directory;
+  private DirectoryCache cache;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    baseDir = Files.createDirectory(tempDir.resolve("base"));
+    directory = Files.createDirectory(tempDir.resolve("movies"));
+    cache = new DirectoryCache(baseDir.toString(), clock::get);
+
+    write("a.mkv", 10, OLD);
+  }
+
+  @Test
+  void shouldReturnCachedListingWhenDirectoryWasNotModified() throws IOException {
+    assertEquals(List.of(10L), sizes(cache.list(directory)));
+
+    write("a.mkv", 20, OLD);  // content change does not modify the directory
+
+    assertEquals(List.of(10L), sizes(cache.list(directory)));
+  }
+
+  @Test
+  void shouldListDirectoryAgainWhenInvalidated() throws IOException {
+    assertEquals(List.of(10L), sizes(cache.list(directory)));
+
+    write("a.mkv", 20, OLD);
+    cache.invalidate(directory);
+
+    assertEquals(List.of(20L), sizes(cache.list(directory)));
+  }
+
+  @Test
+  void shouldListDirectoryAgainWhenItsModificationTimeChanged() throws IOException {
+    assertEquals(1, cache.list(directory).size());
+
+    write("b.mkv", 5, OLD);
+    Files.setLastModifiedTime(directory, FileTime.from(OLD.plusSeconds(1)));
+
+    assertEquals(2, cache.list(directory).size());
+  }
+
+  @Test
+  void shouldListDirectoryAgainWhenItsNumberOfEntriesChanged() throws IOException {
+    assertEquals(1, cache.list(directory).size());
+
+    write("b.mkv", 5, OLD);  // modification time of directory is unchanged, as with a coarse time stamp resolution
+
+    assertEquals(2, cache.list(directory).size());
+
+    Files.delete(directory.resolve("a.mkv"));
+    Files.setLastModifiedTime(directory, FileTime.from(OLD));
+
+    assertEquals(List.of(5L), sizes(cache.list(directory)));
+  }
+
+  @Test
+  void shouldNotCacheListingsWithRecentlyModifiedEntries() throws IOException {
+    write("a.mkv", 10, Instant.ofEpochMilli(clock.get()));  // possibly still being written
+
+    assertEquals(List.of(10L), sizes(cache.list(directory)));
+
+    write("a.mkv", 20, Instant.ofEpochMilli(clock.get()));
+
+    assertEquals(List.of(20L), sizes(cache.list(directory)));
+  }
+
+  @Test
+  void shouldListDirectoryAgainWhenListingExpired() throws IOException {
+    assertEquals(List.of(10L), sizes(cache.list(directory)));
+
+    write("a.mkv", 20, OLD);
+    clock.addAndGet(Duration.ofDays(8).toMillis());
+
+    assertEquals(List.of(20L), sizes(cache.list(directory)));
+  }
+
+  @Test
+  void shouldPersistListingsAndOnlySaveWhenModified() throws IOException {
+    cache.list(directory);
+    cache.save();
+
+    Path file = baseDir.resolve("cache").resolve("directory-listings.dat");
+    FileTime savedTime = FileTime.from(OLD);
+
+    Files.setLastModifiedTime(file, savedTime);
+
+    cache.list(directory);  // hit on the same day does not require saving
+    cache.save();
+
+    assertEquals(savedTime, Files.getLastModifiedTime(file));
+
+    write("a.mkv", 20, OLD);
+
+    DirectoryCache loadedCache = new DirectoryCache(baseDir.toString(), clock::get);
+
+    assertEquals(List.of(10L), sizes(loadedCache.list(directory)));
+  }
+
+  @Test
+  void pathFinderShouldUseCachedListings() throws IOException {
+    Path season = Files.createDirectory(directory.resolve("Season 1"));
+
+    Files.write(season.resolve("episode.mkv"), new byte[7]);
+    Files.setLastModifiedTime(season.resolve("episode.mkv"), FileTime.from(OLD));
+    Files.setLastModifiedTime(season, FileTime.from(OLD));
+    Files.setLastModifiedTime(directory, FileTime.from(OLD));
+
+    PathFinder pathFinder = new PathFinder(2, cache);
+    Pattern pattern = Pattern.compile(".*\\.mkv");
+
+    assertEquals(List.of(7L), pathFinder.findWithAttributes(directory, pattern).stream().filter(p -> p.path().startsWith(season)).map(PathAndAttributes::size).toList());
+
+    Files.write(season.resolve("episode.mkv"), new byte[8]);
+    Files.setLastModifiedTime(season.resolve("episode.mkv"), FileTime.from(OLD));
+
+    List<PathAndAttributes> results = pathFinder.findWithAttributes(directory, pattern);
+
+    assertEquals(2, results.size());
+    assertEquals(List.of(7L), results.stream().filter(p -> p.path().startsWith(season)).map(PathAndAttributes::size).toList());
+    assertEquals(FileTime.from(OLD).toInstant(), results.get(0).lastModifiedTime());
+  }
+
+  private void write(String name, int size, Instant lastModified) throws IOException {
+    Path file = directory.resolve(name);
+
+    Files.write(file, new byte[size]);
+    Files.setLastModifiedTime(file, FileTime.from(lastModified));
+    Files.setLastModifiedTime(directory, FileTime.from(OLD));
+  }
+
+  private static List<Long> sizes(List<DirectoryCache.Entry> entries) {
+    return entries.stream().map(DirectoryCache.Entry::size).sorted().toList();
+  }
+}
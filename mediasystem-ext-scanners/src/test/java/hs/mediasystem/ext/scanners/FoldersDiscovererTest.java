@@ -0,0 +1,72 @@
+package hs.mediasystem.ext.scanners;
+
+import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.util.domain.URIs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class FoldersDiscovererTest {
+  @TempDir Path root;
+
+  private final FoldersDiscoverer discoverer = new FoldersDiscoverer();
+  private final List<URI> parentLocations = new ArrayList<>();
+  private final List<List<Discovery>> registeredDiscoveries = new ArrayList<>();
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    Files.createDirectories(root.resolve("Movies/Action"));
+    Files.writeString(root.resolve("Movies/Terminator.avi"), "a");
+    Files.writeString(root.resolve("Movies/Action/Aliens.avi"), "b");
+    Files.writeString(root.resolve("Clip.avi"), "c");
+    Files.writeString(root.resolve("notes.txt"), "d");
+  }
+
+  @Test
+  void shouldOnlyListDirectContentsOfRoot() throws IOException {
+    discoverer.rediscover(root.toUri(), root.toUri(), this::register);
+
+    assertEquals(1, registeredDiscoveries.size());
+    assertEquals(null, parentLocations.getFirst());
+    assertEquals(List.of("Clip.avi:FILE", "Movies:FOLDER"), describe(registeredDiscoveries.getFirst()));
+  }
+
+  @Test
+  void shouldOnlyListDirectContentsOfChangedLocation() throws IOException {
+    Path movies = root.resolve("Movies");
+
+    discoverer.rediscover(root.toUri(), movies.toUri(), this::register);
+
+    assertEquals(List.of(URIs.normalizeAsFile(movies.toUri())), parentLocations);
+    assertEquals(List.of("Action:FOLDER", "Terminator.avi:FILE"), describe(registeredDiscoveries.getFirst()));
+  }
+
+  @Test
+  void shouldNotRegisterAnythingWhenLocationNoLongerExists() throws IOException {
+    discoverer.rediscover(root.toUri(), root.resolve("Series").toUri(), this::register);
+
+    assertEquals(List.of(), registeredDiscoveries);
+  }
+
+  private void register(URI parentLocation, List<Discovery> discoveries) {
+    parentLocations.add(parentLocation);
+    registeredDiscoveries.add(discoveries);
+  }
+
+  private static List<String> describe(List<Discovery> discoveries) {
+    return discoveries.stream()
+      .map(d -> Path.of(d.location()).getFileName() + ":" + d.mediaType())
+      .sorted()
+      .toList();
+  }
+}
@@ -0,0 +1,97 @@
+package hs.mediasystem.ext.scanners;
+
+import hs.mediasystem.api.discovery.Discovery;
+import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.util.domain.URIs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class SeriesDiscovererTest {
+  @TempDir Path tempDir;
+
+  @Spy private DirectoryCache directoryCache;
+  @InjectMocks private SeriesDiscoverer discoverer;
+
+  private final List<URI> parentLocations = new ArrayList<>();
+  private final List<List<Discovery>> registeredDiscoveries = new ArrayList<>();
+
+  private Path root;
+  private AutoCloseable mocks;
+
+  @BeforeEach
+  void beforeEach() throws IOException {
+    root = Files.createDirectory(tempDir.resolve("Series"));
+    directoryCache = new DirectoryCache(Files.createDirectory(tempDir.resolve("base")).toString(), System::currentTimeMillis);
+    mocks = MockitoAnnotations.openMocks(this);
+
+    Files.createDirectories(root.resolve("Charmed/Season 1"));
+    Files.createDirectories(root.resolve("Friends"));
+    Files.writeString(root.resolve("Charmed/Season 1/Charmed 1x01.avi"), "a");
+    Files.writeString(root.resolve("Friends/Friends 1x01.avi"), "b");
+  }
+
+  @AfterEach
+  void afterEach() throws Exception {
+    mocks.close();
+  }
+
+  @Test
+  void shouldOnlyRescanListOfSeriesWhenRootChanged() throws IOException {
+    discoverer.rediscover(root.toUri(), root.toUri(), this::register);
+
+    assertEquals(1, registeredDiscoveries.size());
+    assertEquals(null, parentLocations.getFirst());
+    assertEquals(List.of("Charmed", "Friends"), registeredDiscoveries.getFirst().stream().map(d -> Path.of(d.location()).getFileName().toString()).sorted().toList());
+    assertEquals(List.of(MediaType.SERIE, MediaType.SERIE), registeredDiscoveries.getFirst().stream().map(Discovery::mediaType).toList());
+  }
+
+  @Test
+  void shouldOnlyRescanSerieContainingChangedLocation() throws IOException {
+    Path season = root.resolve("Charmed/Season 1");
+
+    discoverer.rediscover(root.toUri(), season.toUri(), this::register);
+
+    assertEquals(List.of(URIs.normalizeAsFile(root.resolve("Charmed").toUri())), parentLocations);
+    assertEquals(List.of(MediaType.EPISODE), registeredDiscoveries.getFirst().stream().map(Discovery::mediaType).toList());
+    assertEquals("Charmed 1x01.avi", Path.of(registeredDiscoveries.getFirst().getFirst().location()).getFileName().toString());
+
+    verify(directoryCache).invalidate(season);
+  }
+
+  @Test
+  void shouldNotRegisterAnythingWhenSerieNoLongerExists() throws IOException {
+    discoverer.rediscover(root.toUri(), root.resolve("Lost").toUri(), this::register);
+
+    assertEquals(List.of(), registeredDiscoveries);
+    verify(directoryCache, never()).invalidate(any());
+  }
+
+  @Test
+  void shouldRejectLocationOutsideRoot() {
+    assertThrows(IllegalArgumentException.class, () -> discoverer.rediscover(root.toUri(), tempDir.toUri(), this::register));
+  }
+
+  private void register(URI parentLocation, List<Discovery> discoveries) {
+    parentLocations.add(parentLocation);
+    registeredDiscoveries.add(discoveries);
+  }
+}
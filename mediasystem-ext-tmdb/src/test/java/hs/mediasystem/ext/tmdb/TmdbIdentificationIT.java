@@ -10,6 +10,7 @@ import hs.mediasystem.api.datasource.domain.Release;
 import hs.mediasystem.api.discovery.Attribute;
 import hs.mediasystem.api.discovery.Discovery;
 import hs.mediasystem.db.base.DatabaseContentPrintProvider;
+import hs.mediasystem.db.base.DatabaseContentPrintProvider.Source;
 import hs.mediasystem.db.base.DatabaseResponseCache;
 import hs.mediasystem.db.core.DiscoveryController;
 import hs.mediasystem.db.core.IdentificationStore;
@@ -20,6 +21,7 @@ import hs.mediasystem.db.core.domain.Resource;
 import hs.mediasystem.db.core.domain.StreamTags;
 import hs.mediasystem.db.extract.StreamDescriptorService;
 import hs.mediasystem.db.util.InjectorExtension;
+import hs.mediasystem.domain.stream.ContentID;
 import hs.mediasystem.domain.stream.MediaType;
 import hs.mediasystem.domain.work.DataSource;
 import hs.mediasystem.domain.work.Match.Type;
@@ -34,6 +36,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -407,7 +411,11 @@ public class TmdbIdentificationIT {
 
   @Test
   void test() throws IOException {
-    when(CONTENT_PRINT_PROVIDER.get(any(), any(), any())).thenReturn(mock(ContentPrint.class));
+    AtomicInteger contentIds = new AtomicInteger();
+
+    when(CONTENT_PRINT_PROVIDER.getAll(any(), any())).thenAnswer(invocation -> invocation.<Collection<Source>>getArgument(0).stream()
+      .collect(Collectors.toMap(Source::location, source -> new ContentPrint(new ContentID(contentIds.incrementAndGet()), source.size(), source.lastModificationTime(), new byte[16], source.lastModificationTime())))
+    );
 
     Discovery serieDiscovery = new Discovery(MediaType.SERIE, URI.create("/Series/Charmed"), Attributes.of("title", "Charmed"), Instant.now(), null);
 
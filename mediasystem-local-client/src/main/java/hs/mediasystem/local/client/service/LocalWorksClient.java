@@ -9,6 +9,8 @@ import hs.mediasystem.api.datasource.domain.Release;
 import hs.mediasystem.api.datasource.domain.Serie;
 import hs.mediasystem.db.services.WorksService;
 import hs.mediasystem.domain.stream.MediaType;
+import hs.mediasystem.domain.work.WorkId;
+import hs.mediasystem.ui.api.WorksChange;
 import hs.mediasystem.ui.api.WorksClient;
 import hs.mediasystem.ui.api.domain.Classification;
 import hs.mediasystem.ui.api.domain.Details;
@@ -19,13 +21,20 @@ import hs.mediasystem.ui.api.domain.Sequence.Type;
 import hs.mediasystem.ui.api.domain.Stage;
 import hs.mediasystem.ui.api.domain.State;
 import hs.mediasystem.ui.api.domain.Work;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry;
+import hs.mediasystem.util.bg.BackgroundTaskRegistry.Workload;
 import hs.mediasystem.util.exception.Throwables;
 import hs.mediasystem.util.image.ImageHandleFactory;
 import hs.mediasystem.util.image.ImageURI;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -34,9 +43,20 @@ import javax.inject.Singleton;
 
 @Singleton
 public class LocalWorksClient implements WorksClient {
+  private static final Workload WORKLOAD = BackgroundTaskRegistry.createWorkload("Converting works for display");
+
   @Inject private WorksService worksService;
   @Inject private ImageHandleFactory imageHandleFactory;
 
+  /*
+   * Works converted earlier, by the instance they were converted from. The service
+   * layer keeps returning the same instance for a work until it changes, after which
+   * the old instance and its entry here become unreachable. Weak keys compare by
+   * identity, as works do not override equals.
+   */
+
+  private final Map<hs.mediasystem.api.datasource.domain.stream.Work, Work> convertedWorks = Collections.synchronizedMap(new WeakHashMap<>());
+
   @Override
   public List<Work> findNewest(int maximum, Predicate<MediaType> filter) {
     return worksService.findNewest(maximum, filter).stream().map(this::toWork).collect(Collectors.toList());
@@ -57,7 +77,39 @@ public class LocalWorksClient implements WorksClient {
     return Throwables.uncheck(() -> worksService.findTop100()).stream().map(this::toWork).collect(Collectors.toList());
   }
 
+  @Override
+  public Subscription subscribeAllByType(MediaType type, String tag, Consumer<WorksChange> consumer) {
+    return worksService.subscribeAllByType(type, tag, change -> consumer.accept(toChange(change)))::run;
+  }
+
+  private WorksChange toChange(WorksService.Change change) {
+    Map<WorkId, Work> updated = new LinkedHashMap<>();
+
+    for(hs.mediasystem.api.datasource.domain.stream.Work work : change.updated()) {
+      updated.put(work.getId(), toWork(work));
+    }
+
+    return new WorksChange(change.version(), updated, change.removed());
+  }
+
   Work toWork(hs.mediasystem.api.datasource.domain.stream.Work work) {
+    Work convertedWork = convertedWorks.get(work);
+
+    if(convertedWork != null) {
+      WORKLOAD.addStatistic("hits", 1);
+
+      return convertedWork;
+    }
+
+    convertedWork = convert(work);
+    convertedWorks.put(work, convertedWork);
+
+    WORKLOAD.addStatistic("misses", 1);
+
+    return convertedWork;
+  }
+
+  private Work convert(hs.mediasystem.api.datasource.domain.stream.Work work) {
     List<MediaStream> streams = work.getStreams().stream().map(LocalWorksClient::toStream).collect(Collectors.toList());
     MediaStream primary = streams.isEmpty() ? null : streams.get(0);
 
@@ -84,7 +84,11 @@ public abstract class AbstractSetup<T, U, P extends GridViewPresentation<T, U>>
       }
     });
 
-    listView.addEventHandler(ConsumedStateChanged.ANY, e -> new Thread(() -> Platform.runLater(presentation.createUpdateTask())).start());
+    listView.addEventHandler(ConsumedStateChanged.ANY, e -> {
+      if(!presentation.isSelfUpdating()) {
+        new Thread(() -> Platform.runLater(presentation.createUpdateTask())).start();
+      }
+    });
 
     workCellPresentationFactory.apply(presentation.selectedItem).associate(Nodes.toEventHandlerTarget(listView));
 
@@ -17,10 +17,12 @@ import hs.mediasystem.util.javafx.ui.gridlistviewskin.Group;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -94,6 +96,8 @@ public abstract class GridViewPresentationFactory {
     public final ReadOnlyIntegerProperty totalItemCount = totalItemCountInternal;   // TODO this could be cast back, not as safe as wrapper
     public final ReadOnlyIntegerProperty visibleUniqueItemCount = visibleUniqueItemCountInternal;   // TODO this could be cast back, not as safe as wrapper
 
+    private long patchVersion = Long.MIN_VALUE;  // Version of the last change applied by patchInputItems
+
     private List<U> rootItems;     // Root items (with optional children) with the active grouping applied (unsorted, unfiltered)
     private List<U> rawBaseItems;  // Currently active items, either the root items or a set of children (unsorted, unfiltered)
     private List<U> baseItems;     // Currently active items, either the root items or a set of children (sorted, filtered)
@@ -126,6 +130,53 @@ public abstract class GridViewPresentationFactory {
       setupSortingAndFiltering();  // Sets up grouping
     }
 
+    /**
+     * Returns whether this presentation keeps its input items up to date by itself,
+     * in which case it does not need to be refreshed when one of its items changes.
+     *
+     * @return {@code true} if this presentation keeps its input items up to date, otherwise {@code false}
+     */
+    public boolean isSelfUpdating() {
+      return false;
+    }
+
+    /**
+     * Applies incremental changes to the input items, instead of replacing all of them.
+     * Items with the id of an updated item are replaced in place, other updated items are
+     * added at the end, and items with a removed id are removed.  Changes with a lower
+     * version than the last applied change are outdated and ignored.
+     *
+     * @param version the version of the change
+     * @param updatedItems a map of updated items by id, cannot be {@code null}
+     * @param removedIds a set of ids of removed items, cannot be {@code null}
+     * @param inputIdProvider a function converting an input item to its id, cannot be {@code null}
+     */
+    protected void patchInputItems(long version, Map<?, ? extends T> updatedItems, Set<?> removedIds, Function<T, Object> inputIdProvider) {
+      if(version < patchVersion || (updatedItems.isEmpty() && removedIds.isEmpty())) {
+        return;
+      }
+
+      patchVersion = version;
+
+      Map<Object, T> remainingItems = new LinkedHashMap<>(updatedItems);
+      List<T> newItems = new ArrayList<>(inputItems.get().size() + updatedItems.size());
+
+      for(T item : inputItems.get()) {
+        Object id = inputIdProvider.apply(item);
+        T updatedItem = remainingItems.remove(id);
+
+        if(updatedItem != null) {
+          newItems.add(updatedItem);
+        }
+        else if(!removedIds.contains(id)) {
+          newItems.add(item);
+        }
+      }
+
+      newItems.addAll(remainingItems.values());
+      inputItems.set(newItems);
+    }
+
     @Override
     public void navigateBack(Event e) {
       if(!this.contextItem.isBound()) {
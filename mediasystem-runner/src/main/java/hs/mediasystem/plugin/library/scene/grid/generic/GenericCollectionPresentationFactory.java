@@ -1,11 +1,21 @@
 package hs.mediasystem.plugin.library.scene.grid.generic;
 
 import hs.mediasystem.plugin.library.scene.grid.common.GridViewPresentationFactory;
+import hs.mediasystem.ui.api.WorksChange;
+import hs.mediasystem.ui.api.WorksClient.Subscription;
+import hs.mediasystem.ui.api.domain.Work;
 
+import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import javafx.application.Platform;
+
 import javax.inject.Singleton;
 
 @Singleton
@@ -15,15 +25,69 @@ public class GenericCollectionPresentationFactory extends GridViewPresentationFa
     return new GenericCollectionPresentation<>(settingPostfix, itemsSupplier, viewOptions, contextItemSupplier, idProvider);
   }
 
+  /**
+   * Creates a presentation of works which is kept up to date with the changes supplied
+   * by the given change feed, instead of being refreshed by querying all works again.
+   *
+   * @param <U> the type resulting from grouping
+   * @param itemsSupplier a {@link Supplier} of all works, cannot be {@code null}
+   * @param changeFeed a function which subscribes the given consumer to changes of the supplied works, cannot be {@code null}
+   * @param settingPostfix a name under which view settings are stored, cannot be {@code null}
+   * @param viewOptions a {@link ViewOptions}, cannot be {@code null}
+   * @param contextItemSupplier a {@link Supplier} of the context item, can be {@code null}
+   * @param idProvider a function converting a type {@code U} to an id object, cannot be {@code null}
+   * @return a {@link GenericCollectionPresentation}, never {@code null}
+   */
+  public <U> GenericCollectionPresentation<Work, U> create(Supplier<List<Work>> itemsSupplier, Function<Consumer<WorksChange>, Subscription> changeFeed, String settingPostfix, ViewOptions<Work, U> viewOptions, Supplier<Object> contextItemSupplier, Function<U, Object> idProvider) {
+    GenericCollectionPresentation<Work, U> presentation = new GenericCollectionPresentation<>(settingPostfix, itemsSupplier, viewOptions, contextItemSupplier, idProvider, true);
+
+    subscribe(changeFeed, presentation);
+
+    presentation.createUpdateTask().run();  // runs after subscribing, so no changes can be missed
+
+    return presentation;
+  }
+
+  /*
+   * The subscriber only refers weakly to the presentation, as presentations are
+   * not disposed explicitly; the subscription ends with the first change received
+   * after the presentation was garbage collected.
+   */
+  private static void subscribe(Function<Consumer<WorksChange>, Subscription> changeFeed, GenericCollectionPresentation<Work, ?> presentation) {
+    WeakReference<GenericCollectionPresentation<Work, ?>> reference = new WeakReference<>(presentation);
+    AtomicReference<Subscription> subscription = new AtomicReference<>();
+
+    subscription.set(changeFeed.apply(change -> {
+      GenericCollectionPresentation<Work, ?> p = reference.get();
+
+      if(p == null) {
+        Subscription s = subscription.get();
+
+        if(s != null) {
+          s.unsubscribe();
+        }
+      }
+      else {
+        Platform.runLater(() -> p.applyChange(change.version(), change.updated(), change.removed(), Work::getId));
+      }
+    }));
+  }
+
   public class GenericCollectionPresentation<T, U> extends GridViewPresentation<T, U> {
     private final Supplier<List<T>> itemsSupplier;
     private final Supplier<Object> contextItemSupplier;
+    private final boolean selfUpdating;
 
-    public GenericCollectionPresentation(String settingPostfix, Supplier<List<T>> itemsSupplier, ViewOptions<T, U> viewOptions, Supplier<Object> contextItemSupplier, Function<U, Object> idProvider) {
+    GenericCollectionPresentation(String settingPostfix, Supplier<List<T>> itemsSupplier, ViewOptions<T, U> viewOptions, Supplier<Object> contextItemSupplier, Function<U, Object> idProvider, boolean selfUpdating) {
       super("Generic:" + settingPostfix, viewOptions, idProvider);
 
       this.itemsSupplier = itemsSupplier;
       this.contextItemSupplier = contextItemSupplier;
+      this.selfUpdating = selfUpdating;
+    }
+
+    public GenericCollectionPresentation(String settingPostfix, Supplier<List<T>> itemsSupplier, ViewOptions<T, U> viewOptions, Supplier<Object> contextItemSupplier, Function<U, Object> idProvider) {
+      this(settingPostfix, itemsSupplier, viewOptions, contextItemSupplier, idProvider, false);
 
       createUpdateTask().run();
     }
@@ -38,5 +102,14 @@ public class GenericCollectionPresentationFactory extends GridViewPresentationFa
         inputItems.set(items);
       };
     }
+
+    @Override
+    public boolean isSelfUpdating() {
+      return selfUpdating;
+    }
+
+    void applyChange(long version, Map<?, ? extends T> updatedItems, Set<?> removedIds, Function<T, Object> inputIdProvider) {
+      patchInputItems(version, updatedItems, removedIds, inputIdProvider);
+    }
   }
 }
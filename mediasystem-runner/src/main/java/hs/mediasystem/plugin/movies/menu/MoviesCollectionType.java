@@ -59,6 +59,7 @@ public class MoviesCollectionType implements CollectionType {
   public Presentation createPresentation(String tag) {
     return factory.create(
       () -> worksClient.findAllByType(MediaType.MOVIE, tag),
+      consumer -> worksClient.subscribeAllByType(MediaType.MOVIE, tag, consumer),
       "Movies" + (tag == null ? "" : ":" + tag),
       new ViewOptions<>(
         SORT_ORDERS,
@@ -63,6 +63,7 @@ public class SeriesCollectionType implements CollectionType {
   public Presentation createPresentation(String tag) {
     return factory.create(
       () -> worksClient.findAllByType(MediaType.SERIE, tag),
+      consumer -> worksClient.subscribeAllByType(MediaType.SERIE, tag, consumer),
       "Series" + (tag == null ? "" : ":" + tag),
       new ViewOptions<>(
         SORT_ORDERS,
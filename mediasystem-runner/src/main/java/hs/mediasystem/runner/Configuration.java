@@ -3,8 +3,13 @@ package hs.mediasystem.runner;
 import hs.mediasystem.runner.util.FXSceneManager;
 import hs.mediasystem.runner.util.SceneManager;
 import hs.mediasystem.runner.util.debug.DebugSceneFX;
+import hs.mediasystem.util.image.ScaledImageStore;
+import hs.mediasystem.util.javafx.ImageCache;
+
+import java.nio.file.Path;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -16,6 +21,12 @@ public class Configuration {
   @Inject @Nullable @Named("general.screen") public Long screenNumber = 0L;
   @Inject @Nullable @Named("general.alwaysOnTop") public Boolean alwaysOnTop = false;
   @Inject @Nullable @Named("general.debug.dumpUnreferencedNodes") public Integer dumpUnreferencedNodes = 0;
+  @Inject @Nullable @Named("general.basedir") private String baseDir = ".";
+
+  @PostConstruct
+  private void postConstruct() {
+    ImageCache.setScaledImageStore(new ScaledImageStore(Path.of(baseDir, "cache", "scaled-images")));
+  }
 
   @Produces
   @Singleton
@@ -9,6 +9,9 @@ import hs.mediasystem.ui.api.SettingsSource;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -82,6 +85,37 @@ public class GridViewPresentationFactoryTest {
     assertEquals("hok", presentation.selectedItem.getValue());
   }
 
+  @Test
+  void shouldPatchInputItemsAndIgnoreOutdatedChanges() {
+    when(settingsClient.of("MediaSystem:Library:Presentation:settingName")).thenReturn(settingsSource);
+
+    GridViewPresentation<String, String> presentation = factory.new GridViewPresentation<>(
+      "settingName",
+      new ViewOptions<String, String>(
+        List.of(new SortOrder<>("alpha", (a, b) -> a.compareTo(b))),
+        List.of(new Filter<>("none", a -> true)),
+        List.of(new Filter<>("none", a -> true))
+      ),
+      s -> s
+    );
+
+    Function<String, Object> idProvider = s -> s.substring(0, 1);  // id is the first letter, the rest is the version of the item
+
+    presentation.inputItems.set(List.of("a1", "b1", "c1"));
+    presentation.patchInputItems(2, Map.of("b", "b2", "d", "d2"), Set.of("a"), idProvider);
+
+    assertEquals(List.of("b2", "c1", "d2"), presentation.inputItems.get());
+
+    presentation.patchInputItems(3, Map.of("c", "c3"), Set.of(), idProvider);
+    presentation.patchInputItems(2, Map.of("c", "c2", "a", "a2"), Set.of("d"), idProvider);  // outdated
+
+    assertEquals(List.of("b2", "c3", "d2"), presentation.inputItems.get());
+
+    presentation.patchInputItems(3, Map.of(), Set.of("b"), idProvider);  // same version is not outdated
+
+    assertEquals(List.of("c3", "d2"), presentation.inputItems.get());
+  }
+
   @Test
   void shouldAllowEmptyList() {
     // Make exception caught by JavaFX visible:
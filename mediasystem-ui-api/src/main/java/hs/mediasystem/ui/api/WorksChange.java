@@ -0,0 +1,19 @@
+package hs.mediasystem.ui.api;
+
+import hs.mediasystem.domain.work.WorkId;
+import hs.mediasystem.ui.api.domain.Work;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental changes to a list of works.  Removing a work which was not
+ * part of the list has no effect.  A change with a lower version than a
+ * change applied earlier is outdated.
+ *
+ * @param version the version of the works the changes were based on
+ * @param updated the works which were added or updated by id, cannot be {@code null}
+ * @param removed the ids of works which were removed, cannot be {@code null}
+ */
+public record WorksChange(long version, Map<WorkId, Work> updated, Set<WorkId> removed) {
+}
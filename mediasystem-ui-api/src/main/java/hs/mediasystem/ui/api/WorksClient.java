@@ -4,6 +4,7 @@ import hs.mediasystem.domain.stream.MediaType;
 import hs.mediasystem.ui.api.domain.Work;
 
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public interface WorksClient {
@@ -11,4 +12,21 @@ public interface WorksClient {
   List<Work> findAllByType(MediaType type, String tag);
   List<Work> findRootsByTag(String tag);
   List<Work> findTop100();
+
+  /**
+   * Subscribes to changes of the works {@link #findAllByType(MediaType, String)} returns
+   * for the same arguments, so a list obtained earlier can be kept up to date without
+   * querying it again.  The consumer is called on an arbitrary thread, but never
+   * concurrently, and receives the changes in order.
+   *
+   * @param type a required {@link MediaType}, or {@code null} for all types
+   * @param tag a required tag, or {@code null} for all tags
+   * @param consumer a {@link Consumer} of {@link WorksChange}s, cannot be {@code null}
+   * @return a {@link Subscription}, never {@code null}
+   */
+  Subscription subscribeAllByType(MediaType type, String tag, Consumer<WorksChange> consumer);
+
+  interface Subscription {
+    void unsubscribe();
+  }
 }
@@ -4,18 +4,77 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 @Singleton
 public class MediaHash {
+  private static final int BLOCK_SIZE = 65536;
+  private static final long MAX_WINDOW_SIZE = 256 * 1024 * 1024;
+
+  /**
+   * Strategies for reading the sampled blocks of a file.
+   */
+  public enum Strategy {
+
+    /**
+     * Positions the channel before reading each block into a new heap buffer.
+     * This is the original implementation, and is kept as a reference.
+     */
+    SEEK,
+
+    /**
+     * Uses positional reads into reusable direct buffers, avoiding the need
+     * to position the channel and any copying between heap and native memory.
+     */
+    POSITIONAL,
+
+    /**
+     * Maps (large windows of) the file into memory, and hashes the sampled blocks
+     * directly from the mapped memory.  This is best suited for local disks, as
+     * reads from mapped memory cannot be interrupted.
+     */
+    MAPPED
+  }
+
+  private final LongAdder bytesRead = new LongAdder();
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();  // direct buffers are expensive to allocate, so they're reused
+  private final Strategy strategy;
+
+  /**
+   * Constructs a new instance which uses the given {@link Strategy} to compute
+   * file hashes.
+   *
+   * @param strategy a {@link Strategy}, cannot be {@code null}
+   */
+  public MediaHash(Strategy strategy) {
+    this.strategy = Objects.requireNonNull(strategy, "strategy");
+  }
+
+  /**
+   * Constructs a new instance which uses positional reads to compute file hashes.
+   */
+  @Inject
+  public MediaHash() {
+    this(Strategy.POSITIONAL);
+  }
 
   public static void main(String[] args) {
     for(int i = 0; i < 1000000; i++) {
@@ -55,52 +114,179 @@ public class MediaHash {
    *
    * This gives the first few blocks as:<p>
    *
-   * 0, 64, 192, 448, 896, 1600, 2624, 4032, 5888, 8256, 11200, etc.
+   * 0, 64, 192, 448, 896, 1600, 2624, 4032, 5888, 8256, 11200, etc.<p>
+   *
+   * The hash is computed using the {@link Strategy} this instance was created with.
    *
    * @param path a file to hash
    * @return a byte array containing the hash
    * @throws IOException if a read error occurs
    */
   public byte[] computeFileHash(Path path) throws IOException {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    return computeFileHash(path, strategy);
+  }
+
+  /**
+   * Computes the same hash as {@link #computeFileHash(Path)} using the given
+   * {@link Strategy}.  All strategies produce identical hashes.
+   *
+   * @param path a file to hash
+   * @param strategy a {@link Strategy}, cannot be {@code null}
+   * @return a byte array containing the hash
+   * @throws IOException if a read error occurs
+   */
+  public byte[] computeFileHash(Path path, Strategy strategy) throws IOException {
+    return switch(strategy) {
+      case SEEK -> computeFileHashBySeeking(path);
+      case POSITIONAL -> computeFileHashByPositionalReads(path);
+      case MAPPED -> computeFileHashByMapping(path);
+    };
+  }
+
+  private byte[] computeFileHashBySeeking(Path path) throws IOException {
+    MessageDigest digest = createDigest();
 
-      try(SeekableByteChannel channel = Files.newByteChannel(path)) {
-        ByteBuffer buf = ByteBuffer.allocate(65536);
+    try(SeekableByteChannel channel = Files.newByteChannel(path)) {
+      ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+
+      buf.putLong(channel.size());
+      buf.flip();
+      digest.update(buf);
+      buf.clear();
 
-        buf.putLong(channel.size());
+      long totalBytesRead = 0;
+      long position = 0;       // in kB
+      long stepSize = 64;      // initial step size
+      long stepIncrement = 64; // increment of step size (which in turn is incremented by 64 each round)
+
+      for(;;) {
+        channel.position(position * 1024);
+
+        int bytesRead = readFully(channel, buf);
         buf.flip();
         digest.update(buf);
+
+        totalBytesRead += bytesRead;
+
+        if(bytesRead < buf.capacity()) {
+          break;
+        }
+
         buf.clear();
 
-        long position = 0;       // in kB
-        long stepSize = 64;      // initial step size
-        long stepIncrement = 64; // increment of step size (which in turn is incremented by 64 each round)
+        position += stepSize;
+        stepSize += stepIncrement;
+        stepIncrement += 64;
+      }
 
-        for(;;) {
-          channel.position(position * 1024);
+      this.bytesRead.add(totalBytesRead);
+    }
+
+    return digest.digest();
+  }
 
-          int bytesRead = readFully(channel, buf);
-          buf.flip();
-          digest.update(buf);
+  private byte[] computeFileHashByPositionalReads(Path path) throws IOException {
+    MessageDigest digest = createDigest();
+    ByteBuffer buf = acquireBuffer();
 
-          if(bytesRead < buf.capacity()) {
-            break;
-          }
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long totalBytesRead = 0;
 
-          buf.clear();
+      digest.update(toBytes(size));
 
-          position += stepSize;
-          stepSize += stepIncrement;
-          stepIncrement += 64;
+      for(long offset : computeBlockOffsets(size)) {
+        buf.clear();
+
+        int bytesRead = readFully(channel, buf, offset);
+
+        buf.flip();
+        digest.update(buf);
+
+        totalBytesRead += bytesRead;
+
+        if(bytesRead < BLOCK_SIZE) {
+          break;  // file was truncated while reading
         }
       }
 
-      return digest.digest();
+      this.bytesRead.add(totalBytesRead);
     }
-    catch(NoSuchAlgorithmException e) {
-      throw new IllegalStateException(e);
+    finally {
+      releaseBuffer(buf);
     }
+
+    return digest.digest();
+  }
+
+  private byte[] computeFileHashByMapping(Path path) throws IOException {
+    MessageDigest digest = createDigest();
+
+    try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long totalBytesRead = 0;
+      long windowStart = 0;
+      MappedByteBuffer window = null;
+
+      digest.update(toBytes(size));
+
+      for(long offset : computeBlockOffsets(size)) {
+        int length = (int)Math.min(BLOCK_SIZE, size - offset);
+
+        if(window == null || offset + length > windowStart + window.capacity()) {
+          windowStart = offset;
+          window = channel.map(MapMode.READ_ONLY, windowStart, Math.min(MAX_WINDOW_SIZE, size - windowStart));
+        }
+
+        digest.update(window.slice((int)(offset - windowStart), length));
+
+        totalBytesRead += length;
+      }
+
+      this.bytesRead.add(totalBytesRead);
+    }
+
+    return digest.digest();
+  }
+
+  /**
+   * Computes the offsets, in ascending order, of all blocks which are sampled
+   * for a file of the given size.  Only blocks which start before the end of the
+   * file are included, as blocks which start at or beyond the end of the file
+   * do not contribute to the hash.
+   *
+   * @param size a file size
+   * @return an array of offsets in bytes, never {@code null}
+   */
+  static long[] computeBlockOffsets(long size) {
+    long[] offsets = new long[16];
+    int count = 0;
+    long position = 0;       // in kB
+    long stepSize = 64;      // initial step size
+    long stepIncrement = 64; // increment of step size (which in turn is incremented by 64 each round)
+
+    while(position * 1024 < size) {
+      if(count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+      }
+
+      offsets[count++] = position * 1024;
+      position += stepSize;
+      stepSize += stepIncrement;
+      stepIncrement += 64;
+    }
+
+    return Arrays.copyOf(offsets, count);
+  }
+
+  /**
+   * Returns the total number of bytes read so far by {@link #computeFileHash(Path)}.
+   * This can be used to monitor hashing throughput.
+   *
+   * @return the total number of bytes read
+   */
+  public long getBytesRead() {
+    return bytesRead.sum();
   }
 
   /**
@@ -150,6 +336,29 @@ public class MediaHash {
     return checksum;
   }
 
+  private ByteBuffer acquireBuffer() {
+    ByteBuffer buf = buffers.poll();
+
+    return buf == null ? ByteBuffer.allocateDirect(BLOCK_SIZE) : buf;
+  }
+
+  private void releaseBuffer(ByteBuffer buf) {
+    buffers.offer(buf);
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] toBytes(long value) {
+    return ByteBuffer.allocate(Long.BYTES).putLong(value).array();  // big endian, same as the original hash
+  }
+
   private static long getLongChecksum(ByteBuffer buf) {
     LongBuffer longBuffer = buf.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
     long checksum = 0;
@@ -175,4 +384,20 @@ public class MediaHash {
 
     return totalBytesRead;
   }
+
+  private static int readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+    int totalBytesRead = 0;
+
+    while(buf.hasRemaining()) {
+      int bytesRead = channel.read(buf, position + totalBytesRead);
+
+      if(bytesRead == -1) {
+        break;
+      }
+
+      totalBytesRead += bytesRead;
+    }
+
+    return totalBytesRead;
+  }
 }
@@ -6,8 +6,28 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * A rate limiter which gives permits to the highest priority thread waiting first.<p>
+ *
+ * By default, the priority of a thread is its {@link Thread#getPriority()}, lowered by
+ * 10 for virtual threads.  As all virtual threads have the same priority, a thread
+ * can override its priority using {@link #prioritize(int)}.
+ */
 public class PriorityRateLimiter {
   private static final long NANOSECONDS_PER_SECOND = 1000L * 1000L * 1000L;
+  private static final ThreadLocal<Integer> PRIORITY = new ThreadLocal<>();
+
+  /**
+   * A scope in which the current thread acquires permits with a specific priority.
+   */
+  public interface Priority extends AutoCloseable {
+
+    /**
+     * Restores the priority the current thread had before this scope was created.
+     */
+    @Override
+    void close();
+  }
 
   private final double permitsPerNanoSecond;
   private final double maxPermits;
@@ -47,6 +67,30 @@ public class PriorityRateLimiter {
     this(permitsPerSecond, 1.0);
   }
 
+  /**
+   * Overrides the priority with which the current thread acquires permits from any
+   * {@link PriorityRateLimiter}, until the returned {@link Priority} is closed.  The
+   * priority uses the same scale as the default priorities, where for example
+   * {@link Thread#MAX_PRIORITY} is higher than that of any platform thread.
+   *
+   * @param priority a priority
+   * @return a {@link Priority} which must be closed to restore the previous priority, never {@code null}
+   */
+  public static Priority prioritize(int priority) {
+    Integer previousPriority = PRIORITY.get();
+
+    PRIORITY.set(priority);
+
+    return () -> {
+      if(previousPriority == null) {
+        PRIORITY.remove();
+      }
+      else {
+        PRIORITY.set(previousPriority);
+      }
+    };
+  }
+
   public void acquire() throws InterruptedException {
     ThreadWrapper currentThread = new ThreadWrapper(Thread.currentThread(), queueLock.newCondition());
 
@@ -149,14 +193,18 @@ public class PriorityRateLimiter {
   private static class ThreadWrapper {
     final Thread thread;
     final Condition condition;
+    final int priority;
 
     ThreadWrapper(Thread thread, Condition condition) {
+      Integer priority = PRIORITY.get();  // only valid when called on the given thread
+
       this.thread = thread;
       this.condition = condition;
+      this.priority = priority == null ? thread.getPriority() - (thread.isVirtual() ? 10 : 0) : priority;
     }
 
     int getPriority() {
-      return this.thread.getPriority() - (this.thread.isVirtual() ? 10 : 0);
+      return priority;
     }
   }
 }
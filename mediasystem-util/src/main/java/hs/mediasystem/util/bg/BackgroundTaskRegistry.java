@@ -1,11 +1,13 @@
 package hs.mediasystem.util.bg;
 
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 public class BackgroundTaskRegistry {
-  private static final List<Workload> WORKLOADS = new ArrayList<>();
+  private static final List<Workload> WORKLOADS = new CopyOnWriteArrayList<>();
 
   public static Workload createWorkload(String description) {
     Workload workload = new Workload(description);
@@ -21,8 +23,19 @@ public class BackgroundTaskRegistry {
       .collect(Collectors.toList());
   }
 
+  /**
+   * Returns all workloads, including inactive ones, which can be useful to inspect
+   * statistics of workloads which are not currently running.
+   *
+   * @return a list of all workloads, never {@code null}
+   */
+  public static List<Workload> getWorkloads() {
+    return List.copyOf(WORKLOADS);
+  }
+
   public static class Workload {
     private final String description;
+    private final Map<String, Long> statistics = new LinkedHashMap<>();
 
     private long completed;
     private long total;
@@ -87,5 +100,37 @@ public class BackgroundTaskRegistry {
       completed = 0;
       total = 0;
     }
+
+    /**
+     * Sets a named statistic of this workload to the given value. Statistics
+     * are not affected by {@link #reset()}.
+     *
+     * @param name a name, cannot be {@code null}
+     * @param value a value
+     */
+    public synchronized void setStatistic(String name, long value) {
+      statistics.put(name, value);
+    }
+
+    /**
+     * Adds the given amount to a named statistic of this workload. If the
+     * statistic did not exist yet, it is created with the given amount.
+     *
+     * @param name a name, cannot be {@code null}
+     * @param amount an amount to add
+     */
+    public synchronized void addStatistic(String name, long amount) {
+      statistics.merge(name, amount, Long::sum);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this workload, in the order
+     * they were first recorded.
+     *
+     * @return a map of statistics, never {@code null}
+     */
+    public synchronized Map<String, Long> getStatistics() {
+      return new LinkedHashMap<>(statistics);
+    }
   }
 }
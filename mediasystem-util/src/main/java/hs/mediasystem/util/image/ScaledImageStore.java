@@ -0,0 +1,582 @@
+package hs.mediasystem.util.image;
+
+import hs.mediasystem.util.concurrent.NamedThreadFactory;
+import hs.mediasystem.util.exception.Throwables;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Stores scaled down variants of images on disk, keyed by the key of their
+ * {@link ImageHandle}, so displaying an image at a small size only requires
+ * decoding a small image.<p>
+ *
+ * Variants are generated in the background from the original image data, all
+ * variants of an image from a single decode.  Each variant is stored in its own
+ * file, preceded by its dimensions, so it can be decoded without determining its
+ * size first, and by a fingerprint of the original data, so the variants are
+ * generated again when the original changes.  Images which already fit a variant
+ * are stored as is, without encoding them again, and only once for the smallest
+ * variant they fit, which then serves the larger variants as well.<p>
+ *
+ * The store is kept within a maximum size, by periodically deleting the variants
+ * which were not used for a while, least recently used first.
+ */
+public class ScaledImageStore {
+  private static final Logger LOGGER = System.getLogger(ScaledImageStore.class.getName());
+  private static final HexFormat HEX_FORMAT = HexFormat.of();
+  private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ScaledImageStore-sweep", Thread.MIN_PRIORITY, true));
+  private static final int MAGIC = 0x53434C31;  // "SCL1"
+  private static final int HEADER_SIZE = 32;
+  private static final int FLAG_ORIGINAL = 1;  // data is the original image, which also serves larger variants
+  private static final float JPEG_QUALITY = 0.9f;
+  private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+  private static final Duration DEFAULT_MAX_AGE = Duration.ofDays(180);
+
+  /**
+   * The variants which are stored, from small to large.  Each variant fits an
+   * image within a square of the given size, so it serves portrait and landscape
+   * images alike.
+   */
+  public enum Variant {
+
+    /**
+     * For small images, like grid cells and cast members.
+     */
+    THUMBNAIL(360),
+
+    /**
+     * For medium sized images, like posters in a detail view.
+     */
+    GRID(720),
+
+    /**
+     * For images covering the screen, like backdrops.
+     */
+    FULLSCREEN(1920);
+
+    private final int size;
+
+    Variant(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Returns the smallest variant which is large enough to display an image
+     * within the given bounds without upscaling it.
+     *
+     * @param maxWidth a maximum width
+     * @param maxHeight a maximum height
+     * @return a {@link Variant}, or {@code null} if the bounds exceed all variants
+     */
+    public static Variant forSize(int maxWidth, int maxHeight) {
+      for(Variant variant : values()) {
+        if(maxWidth <= variant.size && maxHeight <= variant.size) {
+          return variant;
+        }
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * A scaled variant of an image.
+   *
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param data the encoded image, cannot be {@code null}
+   */
+  public record ScaledImage(int width, int height, byte[] data) {
+    public ScaledImage {
+      Objects.requireNonNull(data, "data");
+    }
+  }
+
+  private final Path root;
+  private final long maxBytes;
+  private final Duration maxAge;
+  private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+  private final Set<String> failedKeys = ConcurrentHashMap.newKeySet();  // keys of images which could not be decoded, skipped until restarted
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+    1, 1, 30, TimeUnit.SECONDS,
+    new ArrayBlockingQueue<>(16),  // bounded, as each task holds the original image data
+    new NamedThreadFactory("ScaledImageStore", Thread.MIN_PRIORITY, true)
+  );
+
+  /**
+   * Constructs a new instance with a default maximum size and age.
+   *
+   * @param root a directory under which the scaled images are stored, cannot be {@code null}
+   */
+  public ScaledImageStore(Path root) {
+    this(root, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param root a directory under which the scaled images are stored, cannot be {@code null}
+   * @param maxBytes the maximum total size in bytes of all stored variants
+   * @param maxAge the maximum time a variant is kept since it was last used, cannot be {@code null}
+   */
+  public ScaledImageStore(Path root, long maxBytes, Duration maxAge) {
+    this.root = Objects.requireNonNull(root, "root");
+    this.maxBytes = maxBytes;
+    this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+
+    executor.allowCoreThreadTimeOut(true);
+
+    SWEEPER.scheduleWithFixedDelay(this::sweepSafely, 10, 60, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Finds the given variant of the image with the given key.
+   *
+   * @param key the key of an {@link ImageHandle}, cannot be {@code null}
+   * @param variant a {@link Variant}, cannot be {@code null}
+   * @return a {@link ScaledImage}, or {@code null} if the variant was not stored (yet)
+   */
+  public ScaledImage find(String key, Variant variant) {
+    Variant[] variants = Variant.values();
+
+    for(int i = variant.ordinal(); i >= 0; i--) {  // a smaller variant may hold the original, if it already fit that variant
+      Path path = toPath(key, variants[i]);
+
+      try {
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Header header = readHeader(buffer);
+
+        if(i != variant.ordinal() && !header.original()) {
+          return null;
+        }
+
+        markUsed(path);
+
+        return new ScaledImage(header.width(), header.height(), Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length));
+      }
+      catch(NoSuchFileException e) {
+        // try next smaller variant
+      }
+      catch(IOException e) {
+        LOGGER.log(Level.WARNING, "Unable to read scaled image " + path + ", will generate it again: " + Throwables.formatAsOneLine(e));
+
+        return null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Generates and stores all variants of the given image in the background, unless
+   * they are being generated already, or are stored already for the same original
+   * data.  When many images are waiting to be processed, the image is skipped.
+   *
+   * @param key the key of an {@link ImageHandle}, cannot be {@code null}
+   * @param data the original image data, cannot be {@code null}
+   */
+  public void storeAsync(String key, byte[] data) {
+    Objects.requireNonNull(data, "data");
+
+    if(!failedKeys.contains(Objects.requireNonNull(key, "key")) && pendingKeys.add(key)) {
+      try {
+        executor.execute(() -> {
+          try {
+            if(!isStored(key, Fingerprint.of(data))) {
+              store(key, data);
+            }
+          }
+          catch(IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to store scaled images of " + key + ", skipping it from now on: " + Throwables.formatAsOneLine(e));
+
+            failedKeys.add(key);
+          }
+          finally {
+            pendingKeys.remove(key);
+          }
+        });
+      }
+      catch(RejectedExecutionException e) {
+        pendingKeys.remove(key);  // skipped, generated when it is loaded again
+      }
+    }
+  }
+
+  /**
+   * Generates and stores all variants of the given image.
+   *
+   * @param key the key of an {@link ImageHandle}, cannot be {@code null}
+   * @param data the original image data, cannot be {@code null}
+   * @throws IOException when the image could not be decoded or an I/O problem occurred
+   */
+  public void store(String key, byte[] data) throws IOException {
+    Variant[] variants = Variant.values();
+    Fingerprint fingerprint = Fingerprint.of(data);
+
+    try(ImageInputStream is = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+      Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(is);
+
+      if(!imageReaders.hasNext()) {
+        throw new IOException("No reader for image data (" + data.length + " bytes)");
+      }
+
+      ImageReader imageReader = imageReaders.next();
+
+      try {
+        imageReader.setInput(is);
+
+        int sourceWidth = imageReader.getWidth(imageReader.getMinIndex());
+        int sourceHeight = imageReader.getHeight(imageReader.getMinIndex());
+        Variant smallestFit = Variant.forSize(sourceWidth, sourceHeight);
+        BufferedImage image = null;
+
+        for(int i = variants.length - 1; i >= 0; i--) {  // from large to small, so each variant is scaled from the previous one
+          Variant variant = variants[i];
+
+          if(variant == smallestFit) {
+            write(key, variant, sourceWidth, sourceHeight, FLAG_ORIGINAL, fingerprint, data);  // fits already, store original data as is
+          }
+          else if(smallestFit != null && variant.compareTo(smallestFit) > 0) {
+            Files.deleteIfExists(toPath(key, variant));  // served by the smallest variant the original fits
+          }
+          else {
+            if(image == null) {
+              image = read(imageReader, sourceWidth, sourceHeight, variant.size);
+            }
+
+            image = scale(image, variant.size);
+
+            write(key, variant, image.getWidth(), image.getHeight(), 0, fingerprint, encode(image));
+          }
+        }
+      }
+      finally {
+        imageReader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Deletes the variants which were not used for longer than the maximum age, and
+   * then the least recently used variants until the store is no larger than its
+   * maximum size.
+   *
+   * @return the number of variants deleted
+   * @throws IOException when an I/O problem occurred
+   */
+  public int sweep() throws IOException {
+    if(!Files.isDirectory(root)) {
+      return 0;
+    }
+
+    record StoredFile(Path path, long size, FileTime lastUsedTime) {}
+
+    List<StoredFile> files;
+
+    try(Stream<Path> stream = Files.find(root, 2, (path, attrs) -> attrs.isRegularFile())) {
+      files = stream
+        .map(path -> {
+          try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+
+            return new StoredFile(path, attrs.size(), attrs.lastModifiedTime());
+          }
+          catch(IOException e) {
+            return null;  // deleted concurrently
+          }
+        })
+        .filter(Objects::nonNull)
+        .sorted(Comparator.comparing(StoredFile::lastUsedTime))
+        .toList();
+    }
+
+    FileTime cutOff = FileTime.from(Instant.now().minus(maxAge));
+    long size = files.stream().mapToLong(StoredFile::size).sum();
+    int count = 0;
+
+    for(StoredFile file : files) {
+      if(size <= maxBytes && file.lastUsedTime().compareTo(cutOff) >= 0) {
+        break;  // all remaining files were used more recently
+      }
+
+      if(Files.deleteIfExists(file.path())) {
+        count++;
+      }
+
+      size -= file.size();
+    }
+
+    if(count > 0) {
+      LOGGER.log(Level.INFO, "Deleted " + count + " scaled images not used recently, " + size / 1024 / 1024 + " MB remaining");
+    }
+
+    return count;
+  }
+
+  private void sweepSafely() {
+    try {
+      sweep();
+    }
+    catch(IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Deleting scaled images failed: " + Throwables.formatAsOneLine(e));
+    }
+  }
+
+  /*
+   * Checks whether all variants are stored for the given original data, without
+   * reading more than the headers.
+   */
+  private boolean isStored(String key, Fingerprint fingerprint) throws IOException {
+    boolean originalStored = false;
+
+    for(Variant variant : Variant.values()) {  // from small to large
+      Header header = readHeader(toPath(key, variant));
+
+      if(header == null) {
+        if(!originalStored) {
+          return false;
+        }
+
+        continue;  // served by a smaller variant holding the original
+      }
+
+      if(!header.fingerprint().equals(fingerprint)) {
+        return false;
+      }
+
+      originalStored |= header.original();
+    }
+
+    return true;
+  }
+
+  /*
+   * Updates the last modification time, which is used as the time the variant was
+   * last used, at most once a day, so most reads do not require a write.
+   */
+  private static void markUsed(Path path) {
+    try {
+      long now = System.currentTimeMillis();
+
+      if(now - Files.getLastModifiedTime(path).toMillis() > DAY_MILLIS) {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+      }
+    }
+    catch(IOException e) {
+      // Ignore, only affects which variants are deleted first
+    }
+  }
+
+  /*
+   * Decodes the image, skipping pixels when the image is much larger than needed,
+   * which saves decoding time and memory for very large originals.
+   */
+  private static BufferedImage read(ImageReader imageReader, int sourceWidth, int sourceHeight, int size) throws IOException {
+    ImageReadParam param = imageReader.getDefaultReadParam();
+    int subsampling = Math.max(1, Math.max(sourceWidth, sourceHeight) / (size * 2));
+
+    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+    return imageReader.read(imageReader.getMinIndex(), param);
+  }
+
+  /*
+   * Scales the image in steps of at most half its size, as scaling down in a single
+   * step with bilinear interpolation skips pixels and results in aliasing.
+   */
+  private static BufferedImage scale(BufferedImage image, int size) {
+    int[] targetSize = computeSize(image.getWidth(), image.getHeight(), size);
+    BufferedImage result = image;
+
+    while(result.getWidth() > targetSize[0] || result.getHeight() > targetSize[1]) {
+      int w = Math.max(targetSize[0], result.getWidth() / 2);
+      int h = Math.max(targetSize[1], result.getHeight() / 2);
+      BufferedImage scaled = new BufferedImage(w, h, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = scaled.createGraphics();
+
+      try {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(result, 0, 0, w, h, null);
+      }
+      finally {
+        g.dispose();
+      }
+
+      result = scaled;
+    }
+
+    return result;
+  }
+
+  private static int[] computeSize(int sourceWidth, int sourceHeight, int size) {
+    float scale = Math.min(1.0f, Math.min((float)size / sourceWidth, (float)size / sourceHeight));
+
+    return new int[] {
+      Math.max(1, Math.round(sourceWidth * scale)),
+      Math.max(1, Math.round(sourceHeight * scale))
+    };
+  }
+
+  /*
+   * Encodes images with transparency, like logos, as PNG, and all others as JPEG.
+   */
+  private static byte[] encode(BufferedImage image) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    if(image.getColorModel().hasAlpha()) {
+      ImageIO.write(image, "PNG", baos);
+
+      return baos.toByteArray();
+    }
+
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("JPEG").next();
+
+    try(ImageOutputStream os = ImageIO.createImageOutputStream(baos)) {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(JPEG_QUALITY);
+
+      writer.setOutput(os);
+      writer.write(null, new IIOImage(image, null, null), param);
+    }
+    finally {
+      writer.dispose();
+    }
+
+    return baos.toByteArray();
+  }
+
+  private void write(String key, Variant variant, int width, int height, int flags, Fingerprint fingerprint, byte[] data) throws IOException {
+    Path path = toPath(key, variant);
+
+    Files.createDirectories(path.getParent());
+
+    Path tempPath = Files.createTempFile(path.getParent(), "scaled", ".tmp");
+
+    try {
+      try(DataOutputStream os = new DataOutputStream(Files.newOutputStream(tempPath))) {
+        os.writeInt(MAGIC);
+        os.writeInt(width);
+        os.writeInt(height);
+        os.writeInt(flags);
+        os.writeLong(fingerprint.size());
+        os.writeLong(fingerprint.hash());
+        os.write(data);
+      }
+
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);  // never leaves a partially written variant
+    }
+    finally {
+      Files.deleteIfExists(tempPath);
+    }
+  }
+
+  private static Header readHeader(Path path) throws IOException {
+    try(InputStream is = Files.newInputStream(path)) {
+      return readHeader(ByteBuffer.wrap(is.readNBytes(HEADER_SIZE)));
+    }
+    catch(NoSuchFileException e) {
+      return null;
+    }
+    catch(IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to read scaled image " + path + ", will generate it again: " + Throwables.formatAsOneLine(e));
+
+      return null;
+    }
+  }
+
+  private static Header readHeader(ByteBuffer buffer) throws IOException {
+    if(buffer.remaining() < HEADER_SIZE) {
+      throw new EOFException("Scaled image was truncated: " + buffer.remaining() + " bytes");
+    }
+
+    if(buffer.getInt() != MAGIC) {
+      throw new IOException("Scaled image has an unknown format");
+    }
+
+    return new Header(buffer.getInt(), buffer.getInt(), (buffer.getInt() & FLAG_ORIGINAL) != 0, new Fingerprint(buffer.getLong(), buffer.getLong()));
+  }
+
+  private Path toPath(String key, Variant variant) {
+    String name = HEX_FORMAT.formatHex(hash(key));  // keys are URIs, which are not valid file names
+
+    return root.resolve(name.substring(0, 2)).resolve(name + "-" + variant.name().toLowerCase());
+  }
+
+  private static byte[] hash(String key) {
+    return hash(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static byte[] hash(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private record Header(int width, int height, boolean original, Fingerprint fingerprint) {}
+
+  /**
+   * Identifies the original data the variants were generated from.
+   *
+   * @param size the size of the original data
+   * @param hash the first 8 bytes of the SHA-256 hash of the original data
+   */
+  private record Fingerprint(long size, long hash) {
+    static Fingerprint of(byte[] data) {
+      return new Fingerprint(data.length, ByteBuffer.wrap(ScaledImageStore.hash(data)).getLong());
+    }
+  }
+}
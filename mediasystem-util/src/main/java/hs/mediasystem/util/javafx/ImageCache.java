@@ -1,6 +1,9 @@
 package hs.mediasystem.util.javafx;
 
 import hs.mediasystem.util.image.ImageHandle;
+import hs.mediasystem.util.image.ScaledImageStore;
+import hs.mediasystem.util.image.ScaledImageStore.ScaledImage;
+import hs.mediasystem.util.image.ScaledImageStore.Variant;
 import hs.mediasystem.util.ref.Cache;
 
 import java.awt.Dimension;
@@ -32,6 +35,20 @@ public class ImageCache {
   private static final NavigableMap<String, ImageFutureWeakReference> CACHE = new TreeMap<>();
   private static final Cache REF_CACHE = new Cache(500 * 1024 * 1024, 300 * 1000);
 
+  private static volatile ScaledImageStore scaledImageStore;
+
+  /**
+   * Sets the store for scaled variants of images.  When set, images requested at a
+   * size which a variant can serve are decoded from the smallest such variant, and
+   * variants are generated whenever an original image is loaded for which no
+   * variants were stored yet, or only for different original data.
+   *
+   * @param store a {@link ScaledImageStore}, can be {@code null} to always decode original images
+   */
+  public static void setScaledImageStore(ScaledImageStore store) {
+    scaledImageStore = store;
+  }
+
   public static Image getImageUptoMaxSize(ImageHandle handle, int w, int h) {
     String key = createKey(handle.getKey(), w, h, true);
 
@@ -141,12 +158,27 @@ public class ImageCache {
   }
 
   private static Image loadImage(ImageHandle imageHandle, int maxWidth, int maxHeight) throws IOException, InterruptedException {
+    ScaledImageStore store = scaledImageStore;
+    Variant variant = store == null || maxWidth == 0 || maxHeight == 0 ? null : Variant.forSize(maxWidth, maxHeight);
+
+    if(variant != null) {
+      ScaledImage scaledImage = store.find(imageHandle.getKey(), variant);
+
+      if(scaledImage != null) {
+        return createImage(scaledImage.data(), new Dimension(scaledImage.width(), scaledImage.height()), maxWidth, maxHeight);
+      }
+    }
+
     byte[] data = imageHandle.getImageData();
 
     if(Thread.interrupted()) {
       throw new InterruptedException("Image loading interrupted after loading data: " + imageHandle);
     }
 
+    if(store != null) {
+      store.storeAsync(imageHandle.getKey(), data);  // next time, a scaled variant can be decoded instead; also replaces variants of a modified original
+    }
+
     if(maxWidth == 0 || maxHeight == 0) {
       return new Image(new ByteArrayInputStream(data));
     }
@@ -157,6 +189,10 @@ public class ImageCache {
       throw new InterruptedException("Image loading interrupted after determining size: " + imageHandle);
     }
 
+    return createImage(data, size, maxWidth, maxHeight);
+  }
+
+  private static Image createImage(byte[] data, Dimension size, int maxWidth, int maxHeight) {
     if(size.width <= maxWidth && size.height <= maxHeight) {
       return new Image(new ByteArrayInputStream(data));
     }
@@ -0,0 +1,18 @@
+package hs.mediasystem.util;
+
+import java.lang.reflect.Field;
+
+public class FieldSetter {
+
+  public static void set(Object obj, String name, Object value) {
+    try {
+      Field field = obj.getClass().getDeclaredField(name);
+
+      field.setAccessible(true);
+      field.set(obj, value);
+    }
+    catch(NoSuchFieldException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
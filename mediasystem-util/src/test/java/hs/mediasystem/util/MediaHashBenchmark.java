@@ -0,0 +1,87 @@
+package hs.mediasystem.util;
+
+import hs.mediasystem.util.MediaHash.Strategy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the throughput of the {@link Strategy strategies} of {@link MediaHash}.<p>
+ *
+ * Run with an optional directory in which to create the test files (defaults to a
+ * temporary directory), preferably on the kind of disk media is normally stored on.
+ * Note that after the first round the sampled blocks will be in the OS page cache,
+ * so the later rounds mostly measure the overhead of each strategy.
+ */
+public class MediaHashBenchmark {
+  private static final int FILE_COUNT = 64;
+  private static final long FILE_SIZE = 4L * 1024 * 1024 * 1024;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    Path dir = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("media-hash-benchmark");
+    List<Path> files = new ArrayList<>();
+
+    for(int i = 0; i < FILE_COUNT; i++) {
+      Path file = dir.resolve("file-" + i + ".mkv");
+
+      try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+        raf.setLength(FILE_SIZE + i);  // sparse
+
+        for(long pos = 0; pos < FILE_SIZE; pos += 64 * 1024 * 1024) {
+          raf.seek(pos);
+          raf.writeLong(pos + i);
+        }
+      }
+
+      files.add(file);
+    }
+
+    try {
+      for(int round = 0; round < ROUNDS; round++) {
+        for(Strategy strategy : Strategy.values()) {
+          for(int threads : new int[] {1, 8}) {
+            measure(files, strategy, threads);
+          }
+        }
+      }
+    }
+    finally {
+      for(Path file : files) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  private static void measure(List<Path> files, Strategy strategy, int threads) throws Exception {
+    MediaHash mediaHash = new MediaHash(strategy);
+    long startNanos = System.nanoTime();
+
+    try(ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+      List<Future<byte[]>> futures = new ArrayList<>();
+
+      for(Path file : files) {
+        futures.add(executor.submit(() -> hash(mediaHash, file)));
+      }
+
+      for(Future<byte[]> future : futures) {
+        future.get();
+      }
+    }
+
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+    System.out.printf("%-10s threads=%d: %6.1f files/s, %8.1f MB/s%n", strategy, threads, files.size() / seconds, mediaHash.getBytesRead() / seconds / 1024 / 1024);
+  }
+
+  private static byte[] hash(MediaHash mediaHash, Path file) throws IOException {
+    return mediaHash.computeFileHash(file);
+  }
+}
@@ -0,0 +1,66 @@
+package hs.mediasystem.util;
+
+import hs.mediasystem.util.MediaHash.Strategy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MediaHashTest {
+  @TempDir Path tempDir;
+
+  @ParameterizedTest
+  @CsvSource({
+    "0, af5570f5a1810b7af78caf4bc70a660f0df51e42baf91d4de5b2328de0e83dfc",
+    "1, e64cf59bfbcf3c5743ccd9eda3a811a7966689717a8499e5b1ef0cb1f33bf4b6",
+    "65535, 6f7e960b150b787587d9bf2e242784643515657e11c7f59b8f64f9ee717a63ea",
+    "65536, 70751142d291c96b6ed0df75325a451b5f7ea69127718e62caa5b4841f02b9c3",
+    "65537, 2b19be43ed5abbe7ac74a56c4253e3287534a8a050db3334dfefc519ded1250f",
+    "300000, 079bee0804097596a4f7fb00a9941c9e51a15f51c46ede4e3f6b93adb1d76356",
+    "5000000, da7feb902b98f8a7bdcf254f64ed09740fe56958fbaf53b561b5d63991507516"
+  })
+  void allStrategiesShouldProduceSameHash(int size, String expectedHash) throws IOException {
+    byte[] data = new byte[size];
+
+    for(int i = 0; i < size; i++) {
+      data[i] = (byte)(i % 251);
+    }
+
+    Path file = Files.write(tempDir.resolve("file-" + size), data);
+
+    for(Strategy strategy : Strategy.values()) {
+      assertThat(HexFormat.of().formatHex(new MediaHash(strategy).computeFileHash(file))).as(strategy.toString()).isEqualTo(expectedHash);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(Strategy.class)
+  void shouldHashLargeFiles(Strategy strategy) throws IOException {
+    Path file = tempDir.resolve("large");
+
+    try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(3L * 1024 * 1024 * 1024 + 12345);  // sparse, spans multiple mapping windows
+
+      for(long pos = 0; pos < raf.length(); pos += 7_777_777) {
+        raf.seek(pos);
+        raf.writeLong(pos);
+      }
+    }
+
+    MediaHash mediaHash = new MediaHash(strategy);
+    long size = Files.size(file);
+
+    assertThat(HexFormat.of().formatHex(mediaHash.computeFileHash(file))).isEqualTo("4ee582e499637ad123d6fc16872c51b903b23d68860648ee8ccc6519b8975c09");
+    assertThat(mediaHash.getBytesRead()).isEqualTo(LongStream.of(MediaHash.computeBlockOffsets(size)).map(offset -> Math.min(65536, size - offset)).sum());
+  }
+}
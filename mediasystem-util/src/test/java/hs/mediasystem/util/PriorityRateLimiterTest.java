@@ -105,6 +105,50 @@ public class PriorityRateLimiterTest {
     assertTrue(time1.get() > time2.get() * 1.9);  // The total time taken by thread1 should be almost half the time of thread2
   }
 
+  @Test
+  public void prioritizedVirtualThreadShouldGetPermitsFirst() throws InterruptedException {
+    PriorityRateLimiter rateLimiter = new PriorityRateLimiter(1, 0.02);  // 1 per 20 ms
+    AtomicLong time1 = new AtomicLong(0);
+    AtomicLong time2 = new AtomicLong(0);
+
+    Thread thread1 = Thread.ofVirtual().start(() -> {
+      long startTime = System.nanoTime();
+
+      for(int i = 0; i < 10; i++) {
+        try {
+          rateLimiter.acquire();
+        }
+        catch(InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+
+      time1.set(System.nanoTime() - startTime);
+    });
+
+    Thread.sleep(35);
+
+    Thread thread2 = Thread.ofVirtual().start(() -> {
+      long startTime = System.nanoTime();
+
+      try(PriorityRateLimiter.Priority priority = PriorityRateLimiter.prioritize(Thread.MAX_PRIORITY)) {
+        for(int i = 0; i < 10; i++) {
+          rateLimiter.acquire();
+        }
+      }
+      catch(InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+
+      time2.set(System.nanoTime() - startTime);
+    });
+
+    thread1.join();
+    thread2.join();
+
+    assertTrue(time1.get() > time2.get() * 1.9);  // The total time taken by thread1 should be almost half the time of thread2
+  }
+
   @Test
   public void stressTest() throws InterruptedException {
     PriorityRateLimiter rateLimiter = new PriorityRateLimiter(15, 0.0015);  // 15 per 15 ms
@@ -0,0 +1,196 @@
+package hs.mediasystem.util.image;
+
+import hs.mediasystem.util.image.ScaledImageStore.ScaledImage;
+import hs.mediasystem.util.image.ScaledImageStore.Variant;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class ScaledImageStoreTest {
+  @TempDir Path tempDir;
+
+  private int sentinels;
+
+  @Test
+  void shouldSelectSmallestVariantCoveringSize() {
+    assertThat(Variant.forSize(200, 300)).isEqualTo(Variant.THUMBNAIL);
+    assertThat(Variant.forSize(400, 600)).isEqualTo(Variant.GRID);
+    assertThat(Variant.forSize(1920, 1080)).isEqualTo(Variant.FULLSCREEN);
+    assertThat(Variant.forSize(3840, 2160)).isNull();
+  }
+
+  @Test
+  void shouldStoreScaledVariantsByKey() throws IOException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+    byte[] data = createImage(2000, 3000, "JPEG");
+
+    assertThat(store.find("http://host/poster.jpg", Variant.THUMBNAIL)).isNull();
+
+    store.store("http://host/poster.jpg", data);
+
+    assertVariant(store.find("http://host/poster.jpg", Variant.THUMBNAIL), 240, 360);
+    assertVariant(store.find("http://host/poster.jpg", Variant.GRID), 480, 720);
+    assertVariant(store.find("http://host/poster.jpg", Variant.FULLSCREEN), 1280, 1920);
+    assertThat(store.find("http://host/other.jpg", Variant.THUMBNAIL)).isNull();
+  }
+
+  @Test
+  void shouldStoreSmallImagesAsIs() throws IOException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+    byte[] data = createImage(300, 200, "PNG");
+
+    store.storeAsync("logo", data);
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> store.find("logo", Variant.FULLSCREEN) != null);
+
+    ScaledImage scaledImage = store.find("logo", Variant.THUMBNAIL);
+
+    assertThat(scaledImage.width()).isEqualTo(300);
+    assertThat(scaledImage.height()).isEqualTo(200);
+    assertThat(scaledImage.data()).isEqualTo(data);
+    assertThat(store.find("logo", Variant.GRID).data()).isEqualTo(data);
+    assertThat(listFiles()).hasSize(1);  // original is stored only once
+  }
+
+  @Test
+  void shouldStoreVariantsAgainOnlyWhenOriginalChanged() throws IOException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+    byte[] original = createImage(2000, 3000, "JPEG");
+    byte[] modified = createImage(300, 200, "PNG");
+
+    store.storeAsync("poster", original);
+    awaitProcessed(store);
+
+    Path thumbnail = toPath("poster", Variant.THUMBNAIL);
+    FileTime storedTime = FileTime.from(Instant.now().minus(Duration.ofHours(1)));
+
+    Files.setLastModifiedTime(thumbnail, storedTime);
+
+    store.storeAsync("poster", original);
+    awaitProcessed(store);
+
+    assertThat(Files.getLastModifiedTime(thumbnail)).isEqualTo(storedTime);
+
+    store.storeAsync("poster", modified);
+    awaitProcessed(store);
+
+    assertThat(store.find("poster", Variant.THUMBNAIL).data()).isEqualTo(modified);
+    assertThat(store.find("poster", Variant.FULLSCREEN).data()).isEqualTo(modified);  // larger variants of the old original were removed
+  }
+
+  @Test
+  void shouldSkipImagesWhichCouldNotBeDecoded() throws IOException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+
+    store.storeAsync("broken", new byte[] {1, 2, 3});
+    awaitProcessed(store);
+
+    store.storeAsync("broken", createImage(300, 200, "PNG"));
+    awaitProcessed(store);
+
+    assertThat(store.find("broken", Variant.THUMBNAIL)).isNull();
+  }
+
+  @Test
+  void shouldDeleteVariantsNotUsedRecentlyOrWhenExceedingMaximumSize() throws IOException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+
+    store.store("expired", createImage(300, 200, "PNG"));
+    store.store("old", createImage(2000, 3000, "JPEG"));
+    store.store("recent", createImage(2000, 3000, "JPEG"));
+
+    for(Path path : listFiles()) {
+      setLastUsedTime(path, Duration.ofHours(1));
+    }
+
+    setLastUsedTime(toPath("expired", Variant.THUMBNAIL), Duration.ofDays(31));
+    setLastUsedTime(toPath("old", Variant.FULLSCREEN), Duration.ofDays(2));
+
+    long totalSize = 0;
+
+    for(Path path : listFiles()) {
+      totalSize += Files.size(path);
+    }
+
+    // Allows for all but the expired and the least recently used variant:
+    store = new ScaledImageStore(tempDir, totalSize - Files.size(toPath("expired", Variant.THUMBNAIL)) - Files.size(toPath("old", Variant.FULLSCREEN)), Duration.ofDays(30));
+
+    assertThat(store.sweep()).isEqualTo(2);
+    assertThat(store.find("expired", Variant.THUMBNAIL)).isNull();
+    assertThat(store.find("old", Variant.FULLSCREEN)).isNull();
+    assertThat(store.find("old", Variant.GRID)).isNotNull();
+    assertThat(store.find("recent", Variant.FULLSCREEN)).isNotNull();
+  }
+
+  private List<Path> listFiles() throws IOException {
+    try(Stream<Path> stream = Files.find(tempDir, 2, (path, attrs) -> attrs.isRegularFile())) {
+      return stream.toList();
+    }
+  }
+
+  private Path toPath(String key, Variant variant) throws IOException {
+    try {
+      String name = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+
+      return tempDir.resolve(name.substring(0, 2)).resolve(name + "-" + variant.name().toLowerCase());
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /*
+   * Waits until all images passed to storeAsync so far were processed, as they
+   * are processed in order.
+   */
+  private void awaitProcessed(ScaledImageStore store) throws IOException {
+    String key = "sentinel-" + sentinels++;
+
+    store.storeAsync(key, createImage(10, 10, "PNG"));
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> store.find(key, Variant.THUMBNAIL) != null);
+  }
+
+  private static void setLastUsedTime(Path path, Duration age) throws IOException {
+    Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(age)));
+  }
+
+  private static void assertVariant(ScaledImage scaledImage, int width, int height) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(scaledImage.data()));
+
+    assertThat(scaledImage.width()).isEqualTo(width);
+    assertThat(scaledImage.height()).isEqualTo(height);
+    assertThat(image.getWidth()).isEqualTo(width);
+    assertThat(image.getHeight()).isEqualTo(height);
+  }
+
+  private static byte[] createImage(int width, int height, String format) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    ImageIO.write(image, format, baos);
+
+    return baos.toByteArray();
+  }
+}
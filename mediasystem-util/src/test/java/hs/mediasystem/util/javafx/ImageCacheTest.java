@@ -1,13 +1,66 @@
 package hs.mediasystem.util.javafx;
 
+import hs.mediasystem.util.image.ImageHandle;
+import hs.mediasystem.util.image.ScaledImageStore;
+import hs.mediasystem.util.image.ScaledImageStore.Variant;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.scene.image.Image;
 
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ImageCacheTest {
+  @TempDir Path tempDir;
+
+  @AfterEach
+  void afterEach() {
+    ImageCache.setScaledImageStore(null);
+  }
+
+  @Test
+  void shouldLoadImagesFromScaledVariantsOnceStored() throws IOException, InterruptedException {
+    ScaledImageStore store = new ScaledImageStore(tempDir);
+    CountingImageHandle handle = new CountingImageHandle("http://host/variant-path.png", createImage(1200, 800));
+
+    ImageCache.setScaledImageStore(store);
+
+    Image image = ImageCache.loadImageSync(handle, 300, 300);  // miss, loads original and stores its variants
+
+    assertEquals(1, handle.loads.get());
+    assertEquals(300, image.getWidth());
+    assertEquals(200, image.getHeight());
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> store.find(handle.getKey(), Variant.THUMBNAIL) != null);
+
+    image = ImageCache.loadImageSync(handle, 240, 240);  // hit, decodes the thumbnail variant without loading the original
+
+    assertEquals(1, handle.loads.get());
+    assertEquals(240, image.getWidth());
+    assertEquals(160, image.getHeight());
+
+    image = ImageCache.loadImageSync(handle, 2000, 2000);  // no variant large enough, loads original
+
+    assertEquals(2, handle.loads.get());
+    assertEquals(1200, image.getWidth());
+    assertNotNull(store.find(handle.getKey(), Variant.GRID));
+  }
 
   @Test
   public void shouldCalculateCorrectSize() {
@@ -40,4 +93,41 @@ public class ImageCacheTest {
       assertTrue(result[0] == tw || result[1] == th, msg);
     }
   }
+
+  private static byte[] createImage(int width, int height) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "PNG", baos);
+
+    return baos.toByteArray();
+  }
+
+  private static class CountingImageHandle implements ImageHandle {
+    final AtomicInteger loads = new AtomicInteger();
+
+    private final String key;
+    private final byte[] data;
+
+    CountingImageHandle(String key, byte[] data) {
+      this.key = key;
+      this.data = data;
+    }
+
+    @Override
+    public byte[] getImageData() {
+      loads.incrementAndGet();
+
+      return data;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public boolean isFastSource() {
+      return false;
+    }
+  }
 }